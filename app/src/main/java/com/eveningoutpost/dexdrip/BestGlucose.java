@@ -1,23 +1,33 @@
 package com.eveningoutpost.dexdrip;
 
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
 import android.preference.PreferenceManager;
 import android.text.SpannableString;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.StrikethroughSpan;
 import android.util.Log;
 
+import com.activeandroid.content.ContentProvider;
 import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.BgReadingWindow;
+import com.eveningoutpost.dexdrip.models.Calibration;
 import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.models.Sensor;
 import com.eveningoutpost.dexdrip.models.SensorSanity;
 import com.eveningoutpost.dexdrip.models.UserError;
 import com.eveningoutpost.dexdrip.utilitymodels.BgGraphBuilder;
 import com.eveningoutpost.dexdrip.utilitymodels.ColorCache;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
+import com.eveningoutpost.dexdrip.utilitymodels.StatusItem;
 import com.eveningoutpost.dexdrip.calibrations.CalibrationAbstract;
 import com.eveningoutpost.dexdrip.utils.DexCollectionType;
 
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.eveningoutpost.dexdrip.utilitymodels.ColorCache.getCol;
 import static com.eveningoutpost.dexdrip.calibrations.PluggableCalibration.getCalibrationPluginFromPreferences;
@@ -31,6 +41,10 @@ import static com.eveningoutpost.dexdrip.calibrations.PluggableCalibration.getCa
  * Designed to replace duplication within code and allow
  * for unified value to be shown that may come from multiple
  * sources.
+ * <p>
+ * The result is kept as a snapshot shared by all callers until the readings, calibrations,
+ * sensor, preferences or noise estimate change, so the bursts of calls around each new reading
+ * only do the work once. The shared instance must not be modified.
  */
 
 public class BestGlucose {
@@ -39,7 +53,38 @@ public class BestGlucose {
     final static boolean d = true; // debug flag
     private static SharedPreferences prefs;
 
-    public static class DisplayGlucose {
+    // snapshot is returned as is for this long, after that a copy with the age updated
+    private static final long SNAPSHOT_REUSE_MS = 5000;
+
+    private static final Object snapshotLock = new Object();
+    private static final AtomicLong sourceVersion = new AtomicLong();
+    private static boolean watching = false;
+    private static boolean snapshotValid = false;
+    private static DisplayGlucose snapshot;
+    private static long snapshotCreated;
+    private static long snapshotDataVersion;
+    private static long snapshotSourceVersion;
+    private static double snapshotNoise;
+    private static double snapshotBestEstimate;
+    private static double snapshotLastEstimate;
+    @VisibleForTesting
+    static long hits = 0;
+    @VisibleForTesting
+    static long aged = 0;
+    @VisibleForTesting
+    static long recomputes = 0;
+
+    // held here as preferences only keep a weak reference to listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener prefListener = (p, key) -> invalidate();
+
+    private static final ContentObserver observer = new ContentObserver(null) {
+        @Override
+        public void onChange(final boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    public static class DisplayGlucose implements Cloneable {
         private Boolean stale = null;
         private Double highMark = null;
         private Double lowMark = null;
@@ -131,6 +176,41 @@ public class BestGlucose {
             return unitized + " " + (doMgDl ? "mg/dl" : "mmol/l") + (isStale() ? ", " + minutesAgo(true).toLowerCase() : "");
         }
 
+        // same values with the time since the reading brought up to date
+        private DisplayGlucose aged() {
+            try {
+                final DisplayGlucose dg = (DisplayGlucose) clone();
+                dg.mssince = JoH.msSince(timestamp);
+                dg.stale = null;
+                return dg;
+            } catch (CloneNotSupportedException e) {
+                return null;
+            }
+        }
+
+    }
+
+    // anything other than readings which the result depends on has changed
+    public static void invalidate() {
+        sourceVersion.incrementAndGet();
+    }
+
+    private static void watchForChanges() {
+        if (watching) return;
+        watching = true;
+        try {
+            prefs.registerOnSharedPreferenceChangeListener(prefListener);
+            xdrip.getAppContext().getContentResolver().registerContentObserver(ContentProvider.createUri(Calibration.class, null), true, observer);
+            xdrip.getAppContext().getContentResolver().registerContentObserver(ContentProvider.createUri(Sensor.class, null), true, observer);
+        } catch (Exception e) {
+            UserError.Log.e(TAG, "Could not watch for changes: " + e);
+        }
+    }
+
+    private static boolean sameNoise() {
+        return snapshotNoise == BgGraphBuilder.last_noise
+                && snapshotBestEstimate == BgGraphBuilder.best_bg_estimate
+                && snapshotLastEstimate == BgGraphBuilder.last_bg_estimate;
     }
 
     // note we don't support the original depreciated "predictive" mode
@@ -145,9 +225,43 @@ public class BestGlucose {
 
 
     public static DisplayGlucose getDisplayGlucose() {
+        synchronized (snapshotLock) {
+            final SharedPreferences current = PreferenceManager.getDefaultSharedPreferences(xdrip.getAppContext());
+            if (current != prefs) {
+                prefs = current;
+                watching = false;
+                snapshotValid = false;
+            }
+            watchForChanges();
+            // read before calculating so that changes made meanwhile are seen next time
+            final long dataVersion = BgReadingWindow.dataVersion();
+            final long source = sourceVersion.get();
+            if (snapshotValid && dataVersion == snapshotDataVersion && source == snapshotSourceVersion && sameNoise()) {
+                if (snapshot != null && JoH.msSince(snapshotCreated) > SNAPSHOT_REUSE_MS) {
+                    snapshot = snapshot.aged();
+                    snapshotCreated = JoH.tsl();
+                    aged++;
+                } else {
+                    hits++;
+                }
+                return snapshot;
+            }
+            final DisplayGlucose dg = calculateDisplayGlucose();
+            recomputes++;
+            snapshot = dg;
+            snapshotValid = true;
+            snapshotCreated = JoH.tsl();
+            snapshotDataVersion = dataVersion;
+            snapshotSourceVersion = source;
+            snapshotNoise = BgGraphBuilder.last_noise;
+            snapshotBestEstimate = BgGraphBuilder.best_bg_estimate;
+            snapshotLastEstimate = BgGraphBuilder.last_bg_estimate;
+            return dg;
+        }
+    }
+
+    private static DisplayGlucose calculateDisplayGlucose() {
 
-        if (prefs == null)
-            prefs = PreferenceManager.getDefaultSharedPreferences(xdrip.getAppContext());
         final DisplayGlucose dg = new DisplayGlucose(); // return value
         final boolean doMgdl = (prefs.getString("units", "mgdl").equals("mgdl"));
         final boolean is_follower = Home.get_follower();
@@ -213,7 +327,7 @@ public class BestGlucose {
         // if noise has settled down then switch off filtered mode
         if ((bg_from_filtered) && (BgGraphBuilder.last_noise < BgGraphBuilder.NOISE_FORGIVE) && (prefs.getBoolean("bg_compensate_noise", false))) {
             bg_from_filtered = false;
-            prefs.edit().putBoolean("bg_from_filtered", false).apply();
+            Pref.setBoolean("bg_from_filtered", false);
         }
 
         // TODO Noise uses plugin in bggraphbuilder
@@ -293,6 +407,18 @@ public class BestGlucose {
         return dg;
     }
 
+    public static List<StatusItem> megaStatus() {
+        final List<StatusItem> l = new ArrayList<>();
+        synchronized (snapshotLock) {
+            final long total = hits + aged + recomputes;
+            if (total > 0) {
+                l.add(new StatusItem("Display glucose", hits + " hits, " + aged + " aged, " + recomputes + " recomputes ("
+                        + ((hits + aged) * 100 / total) + "% reused)"));
+            }
+        }
+        return l;
+    }
+
     protected static boolean compensateNoise() {
         return (BgGraphBuilder.last_noise > BgGraphBuilder.NOISE_TRIGGER
                 || (BgGraphBuilder.last_noise > BgGraphBuilder.NOISE_TRIGGER_ULTRASENSITIVE
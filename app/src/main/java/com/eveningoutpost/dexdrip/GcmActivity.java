@@ -296,6 +296,24 @@ public class GcmActivity extends FauxActivity {
         }
     }
 
+    // readings saved together are queued as one batch message however many there are
+    public synchronized static void syncBGReadings(final List<BgReading> bgReadings) {
+        if (bgReadings == null || bgReadings.isEmpty()) return;
+        Log.d(TAG, "syncBGReadings called for " + bgReadings.size());
+        int queued = PersistentStore.getBytes("gcm-bgs-batch-queue").length;
+        for (final BgReading bgReading : bgReadings) {
+            final byte[] message = bgReading.toMessage();
+            if (queued > 0 && queued + message.length > (RELIABLE_MAX_BINARY_PAYLOAD - 100)) {
+                processBgsBatch(true);
+                queued = 0;
+            }
+            PersistentStore.appendBytes("gcm-bgs-batch-queue", message);
+            queued += message.length;
+        }
+        PersistentStore.setLong("gcm-bgs-batch-time", JoH.tsl());
+        processBgsBatch(false);
+    }
+
     // called only from interactive or evaluated new data
     public synchronized static void syncBloodTests() {
         Log.d(TAG, "syncBloodTests called");
@@ -10,6 +10,7 @@ import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.eveningoutpost.dexdrip.models.UserError;
+import com.eveningoutpost.dexdrip.utilitymodels.Pref;
 import com.eveningoutpost.dexdrip.utils.CipherUtils;
 import com.google.android.gms.common.api.GoogleApiClient;
 
@@ -282,6 +283,7 @@ public class GoogleDriveInterface extends FauxActivity {
         if ((prefs != null) && (true)) {
             if (prefs.getString("custom_sync_key", "").equals("")) {
                 prefs.edit().putString("custom_sync_key", CipherUtils.getRandomHexKey()).commit();
+                Pref.invalidate("custom_sync_key");
             }
             final String mykey = prefs.getString("custom_sync_key", "");
             if ((mykey.length() > 16)) {
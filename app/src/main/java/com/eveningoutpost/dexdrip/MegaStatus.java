@@ -45,7 +45,9 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import com.eveningoutpost.dexdrip.cgm.glupro.GluProService;
+import com.eveningoutpost.dexdrip.models.BgReadingWindow;
 import com.eveningoutpost.dexdrip.models.DesertSync;
+import com.eveningoutpost.dexdrip.models.IobSliceCache;
 import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.models.RollCall;
 import com.eveningoutpost.dexdrip.models.UserError;
@@ -54,7 +56,9 @@ import com.eveningoutpost.dexdrip.services.DoNothingService;
 import com.eveningoutpost.dexdrip.services.G5CollectionService;
 import com.eveningoutpost.dexdrip.services.Ob1G5CollectionService;
 import com.eveningoutpost.dexdrip.services.WifiCollectionService;
+import com.eveningoutpost.dexdrip.stats.StatsEngine;
 import com.eveningoutpost.dexdrip.ui.helpers.FloatingLocaleActivityWithScreenshot;
+import com.eveningoutpost.dexdrip.utilitymodels.Inevitable;
 import com.eveningoutpost.dexdrip.utilitymodels.JamorhamShowcaseDrawer;
 import com.eveningoutpost.dexdrip.utilitymodels.PersistentStore;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
@@ -76,6 +80,7 @@ import com.eveningoutpost.dexdrip.watch.miband.MiBandService;
 import com.eveningoutpost.dexdrip.watch.thinjam.BlueJayEntry;
 import com.eveningoutpost.dexdrip.watch.thinjam.BlueJayService;
 import com.eveningoutpost.dexdrip.wearintegration.WatchUpdaterService;
+import com.eveningoutpost.dexdrip.webservices.XdripWebService;
 import com.github.amlcurran.showcaseview.ShowcaseView;
 import com.github.amlcurran.showcaseview.targets.ViewTarget;
 import com.google.android.gms.wearable.DataMap;
@@ -139,6 +144,7 @@ public class MegaStatus extends FloatingLocaleActivityWithScreenshot {
     private static final String CARELINK_FOLLOW = "CareLink Follow";
     public static final String GLU_PRO = "Smart Guide";
     private static final String XDRIP_LIBRE2 = "Libre2";
+    private static final String INTERNALS = "Internals";
 
 
     static {
@@ -223,6 +229,10 @@ public class MegaStatus extends FloatingLocaleActivityWithScreenshot {
                 addAsection(CARELINK_FOLLOW, "CareLink Follow Status");
             }
 
+            if (Home.get_engineering_mode()) {
+                addAsection(INTERNALS, "Internal Engine Status");
+            }
+
             //addAsection("Misc", "Currently Empty");
 
         } else {
@@ -294,6 +304,15 @@ public class MegaStatus extends FloatingLocaleActivityWithScreenshot {
             case XDRIP_LIBRE2:
                 la.addRows(LibreReceiver.megaStatus());
                 break;
+            case INTERNALS:
+                la.addRows(Inevitable.megaStatus());
+                la.addRows(NewDataObserver.megaStatus());
+                la.addRows(IobSliceCache.megaStatus());
+                la.addRows(BgReadingWindow.megaStatus());
+                la.addRows(BestGlucose.megaStatus());
+                la.addRows(StatsEngine.megaStatus());
+                la.addRows(XdripWebService.megaStatus());
+                break;
         }
         la.changed();
     }
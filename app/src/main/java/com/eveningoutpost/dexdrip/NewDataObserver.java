@@ -6,10 +6,13 @@ import com.eveningoutpost.dexdrip.models.LibreBlock;
 import com.eveningoutpost.dexdrip.models.UserError;
 import com.eveningoutpost.dexdrip.receiver.InfoContentProvider;
 import com.eveningoutpost.dexdrip.sharemodels.BgUploader;
+import com.eveningoutpost.dexdrip.sharemodels.ShareUploadableBg;
 import com.eveningoutpost.dexdrip.sharemodels.models.ShareUploadPayload;
 import com.eveningoutpost.dexdrip.utilitymodels.Inevitable;
+import com.eveningoutpost.dexdrip.utilitymodels.NewDataDispatcher;
 import com.eveningoutpost.dexdrip.utilitymodels.Notifications;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
+import com.eveningoutpost.dexdrip.utilitymodels.StatusItem;
 import com.eveningoutpost.dexdrip.utilitymodels.VehicleMode;
 import com.eveningoutpost.dexdrip.utilitymodels.pebble.PebbleUtil;
 import com.eveningoutpost.dexdrip.utilitymodels.pebble.PebbleWatchSync;
@@ -34,6 +37,8 @@ import static com.eveningoutpost.dexdrip.Home.startWatchUpdaterService;
 
 import android.os.Build;
 
+import java.util.List;
+
 /**
  * Created by jamorham on 01/01/2018.
  *
@@ -47,26 +52,65 @@ public class NewDataObserver {
     // TODO after restructuring so that the triggering is organized by data type,
     // TODO move appropriate functions in to their responsible classes
 
+    // taken once when a reading arrives and shared by every sink, the reading itself may
+    // still be changed and saved by the collector so only copied values are kept
+    public static final class BgSnapshot implements ShareUploadableBg {
+        public final long timestamp;
+        public final double calculated_value;
+        public final String slopeName;
+        public final int slopeOrdinal;
+        public final boolean is_follower;
+
+        BgSnapshot(final BgReading reading, final boolean is_follower) {
+            this.timestamp = reading.timestamp;
+            this.calculated_value = reading.calculated_value;
+            this.slopeName = reading.slopeName();
+            this.slopeOrdinal = reading.getSlopeOrdinal();
+            this.is_follower = is_follower;
+        }
+
+        @Override
+        public int getMgdlValue() {
+            return (int) calculated_value;
+        }
+
+        @Override
+        public long getEpochTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public int getSlopeOrdinal() {
+            return slopeOrdinal;
+        }
+    }
+
+    // sinks which only trigger a refresh keep just the newest, those wanting every reading queue more
+    private static final NewDataDispatcher<BgSnapshot> bgDispatcher = new NewDataDispatcher<BgSnapshot>("New BG")
+            .register("Pebble", 1, 100, s -> sendToPebble())
+            .register("Wear", 1, 100, s -> sendToWear())
+            .register("LeFun", 1, 100, s -> sendToLeFun())
+            .register("MiBand", 1, 100, s -> sendToMiBand())
+            .register("Broadcast", 2, 500, s -> sendToBroadcastService())
+            .register("BlueJay", 1, 100, s -> sendToBlueJay())
+            .register("BlueJay Remote", 1, 100, s -> sendToRemoteBlueJay())
+            .register("Notifications", 1, 500, s -> Notifications.start())
+            .register("Content Provider", 1, 100, s -> InfoContentProvider.ping("bg"))
+            .register("Share", 12, 2000, s -> uploadToShare(s, s.is_follower))
+            .register("Speech", 1, 1000, s -> textToSpeech(s, null))
+            .register("LibreBlock", 12, 500, s -> LibreBlock.UpdateBgVal(s.timestamp, s.calculated_value))
+            .register("Wallpaper", 1, 2000, s -> LockScreenWallPaper.setIfEnabled())
+            .register("Health Connect", 12, 2000, s -> sendToHealthConnect(s))
+            .register("Tidepool", 1, 100, s -> TidepoolEntry.newData());
+
     // when we receive new glucose reading we want to propagate
+    // returns once the reading is queued so the collector can carry on
     public static void newBgReading(BgReading bgReading, boolean is_follower) {
+        bgDispatcher.publish(new BgSnapshot(bgReading, is_follower));
+    }
 
-        sendToPebble();
-        sendToWear();
-        sendToAmazfit();
-        sendToLeFun();
-        sendToMiBand();
-        sendToBroadcastService();
-        sendToBlueJay();
-        sendToRemoteBlueJay();
-        Notifications.start();
-        InfoContentProvider.ping("bg");
-        uploadToShare(bgReading, is_follower);
-        textToSpeech(bgReading, null);
-        LibreBlock.UpdateBgVal(bgReading.timestamp, bgReading.calculated_value);
-        LockScreenWallPaper.setIfEnabled();
-        sendToHealthConnect(bgReading);
-        TidepoolEntry.newData();
-
+    public static List<StatusItem> megaStatus() {
+        return bgDispatcher.megaStatus();
     }
 
     // when we receive a new external status broadcast
@@ -142,10 +186,10 @@ public class NewDataObserver {
         }
     }
 
-    private static void sendToHealthConnect(final BgReading bgReading) {
+    private static void sendToHealthConnect(final BgSnapshot snapshot) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
            if (HealthConnectEntry.sendEnabled()) {
-               HealthGamut.sendGlucoseStatic(bgReading);
+               HealthGamut.sendGlucoseStatic(snapshot.timestamp, snapshot.calculated_value);
            }
         }
     }
@@ -163,26 +207,26 @@ public class NewDataObserver {
     }
 
     // speak value
-    private static void textToSpeech(BgReading bgReading, BestGlucose.DisplayGlucose dg) {
+    private static void textToSpeech(BgSnapshot snapshot, BestGlucose.DisplayGlucose dg) {
         //Text to speech
         if (Pref.getBooleanDefaultFalse("bg_to_speech") || VehicleMode.shouldSpeak()) {
             if (dg == null) dg = BestGlucose.getDisplayGlucose();
             if (dg != null) {
                 BgToSpeech.speak(dg.mgdl, dg.timestamp, dg.delta_name);
             } else {
-                BgToSpeech.speak(bgReading.calculated_value, bgReading.timestamp, bgReading.slopeName());
+                BgToSpeech.speak(snapshot.calculated_value, snapshot.timestamp, snapshot.slopeName);
             }
         }
     }
 
     // share uploader
-    private static void uploadToShare(BgReading bgReading, boolean is_follower) {
+    private static void uploadToShare(ShareUploadableBg bg, boolean is_follower) {
         if ((!is_follower) && (Pref.getBooleanDefaultFalse("share_upload"))) {
             if (JoH.ratelimit("sending-to-share-upload", 10)) {
                 UserError.Log.d("ShareRest", "About to call ShareRest!!");
                 String receiverSn = Pref.getString("share_key", "SM00000000").toUpperCase();
                 BgUploader bgUploader = new BgUploader(xdrip.getAppContext());
-                bgUploader.upload(new ShareUploadPayload(receiverSn, bgReading));
+                bgUploader.upload(new ShareUploadPayload(receiverSn, bg));
             }
         }
     }
@@ -458,7 +458,7 @@ public class SystemStatusFragment extends Fragment {
                         bgReading.calculated_value = 0;
                         bgReading.raw_data = 0;
                         bgReading.timestamp = 0;
-                        bgReading.save();
+                        bgReading.saveit();
                     }
                 }
                 if (futureCalibrations != null && futureCalibrations.size() > 0) {
@@ -10,6 +10,7 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -133,6 +134,23 @@ public abstract class CalibrationAbstract {
         return bgReading.age_adjusted_raw_value * data.slope + data.intercept;
     }
 
+    // rewrite recent history with this algorithm blending towards the old values, all saved in one transaction
+
+    public List<BgReading> adjustRecentBgReadings(int adjustCount) {
+        final CalibrationData data = getCalibrationData();
+        if (data == null) return null;
+        final List<BgReading> bgReadings = BgReading.latestUnCalculated(adjustCount);
+        if (bgReadings == null || bgReadings.isEmpty()) return null;
+        final int denom = bgReadings.size();
+        final List<BgReading> changed = BgReading.bulkRecalculate(bgReadings, (bgReading, i) -> {
+            final double newValue = getGlucoseFromBgReading(bgReading, data);
+            if (newValue < 0) return Double.NaN;
+            return ((newValue * (denom - i)) + (bgReading.calculated_value * i)) / denom;
+        }, false);
+        BgReading.pushBgReadingSyncToWatch(changed);
+        return changed;
+    }
+
     public BgReading getBgReadingFromBgReading(BgReading bgReading, CalibrationData data) {
         if (data == null) return null;
         if (bgReading == null) return null;
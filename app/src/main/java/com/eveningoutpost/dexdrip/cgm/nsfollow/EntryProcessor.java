@@ -1,12 +1,14 @@
 package com.eveningoutpost.dexdrip.cgm.nsfollow;
 
 import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.models.Sensor;
 import com.eveningoutpost.dexdrip.models.UserError;
 import com.eveningoutpost.dexdrip.utilitymodels.Inevitable;
 import com.eveningoutpost.dexdrip.utilitymodels.Unitized;
 import com.eveningoutpost.dexdrip.cgm.nsfollow.messages.Entry;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -21,13 +23,21 @@ import static com.eveningoutpost.dexdrip.models.BgReading.SPECIAL_FOLLOWER_PLACE
 public class EntryProcessor {
 
     private static final String TAG = "NightscoutFollowEP";
+    private static final long PRECISION = 10000;
+
+    // entries in the last batch and how many of them were new
+    static volatile int lastReceived = 0;
+    static volatile int lastInserted = 0;
 
     static synchronized void processEntries(final List<Entry> entries, final boolean live) {
 
+        lastReceived = 0;
+        lastInserted = 0;
         if (entries == null) return;
 
         final Sensor sensor = Sensor.createDefaultIfMissing();
 
+        final List<BgReading> batch = new ArrayList<>(entries.size());
         for (final Entry entry : entries) {
             if (entry != null) {
                 UserError.Log.d(TAG, "ENTRY: " + entry.toS());
@@ -35,28 +45,18 @@ public class EntryProcessor {
 
                 final long recordTimestamp = entry.getTimeStamp();
                 if (recordTimestamp > 0) {
-                    final BgReading existing = BgReading.getForPreciseTimestamp(recordTimestamp, 10000);
-                    if (existing == null) {
-                        UserError.Log.d(TAG, "NEW NEW NEW New entry: " + entry.toS());
-
-                        if (live) {
-                            final BgReading bg = new BgReading();
-                            bg.uuid = UUID.randomUUID().toString();
-                            bg.timestamp = recordTimestamp;
-                            bg.calculated_value = entry.sgv;
-                            bg.raw_data = entry.unfiltered != 0 ? entry.unfiltered : SPECIAL_FOLLOWER_PLACEHOLDER;
-                            bg.filtered_data = entry.filtered;
-                            bg.noise = entry.noise + "";
-                            // TODO need to handle slope??
-                            bg.sensor = sensor;
-                            bg.sensor_uuid = sensor.uuid;
-                            bg.source_info = "Nightscout Follow";
-                            bg.save();
-                            Inevitable.task("entry-proc-post-pr",500, () -> bg.postProcess(false));
-                        }
-                    } else {
-                       // break; // stop if we have this reading TODO are entries always in order?
-                    }
+                    final BgReading bg = new BgReading();
+                    bg.uuid = UUID.randomUUID().toString();
+                    bg.timestamp = recordTimestamp;
+                    bg.calculated_value = entry.sgv;
+                    bg.raw_data = entry.unfiltered != 0 ? entry.unfiltered : SPECIAL_FOLLOWER_PLACEHOLDER;
+                    bg.filtered_data = entry.filtered;
+                    bg.noise = entry.noise + "";
+                    // TODO need to handle slope??
+                    bg.sensor = sensor;
+                    bg.sensor_uuid = sensor.uuid;
+                    bg.source_info = "Nightscout Follow";
+                    batch.add(bg);
                 } else {
                     UserError.Log.e(TAG, "Could not parse a timestamp from: " + entry.toS());
                 }
@@ -66,5 +66,17 @@ public class EntryProcessor {
             }
         }
 
+        lastReceived = batch.size();
+        if (!live || batch.isEmpty()) return;
+
+        // existing readings are found with one query and the new ones saved in one transaction
+        final List<BgReading> inserted = BgReading.bulkIngest(batch, PRECISION, sensor, false);
+        lastInserted = inserted.size();
+        if (inserted.isEmpty()) return;
+        for (final BgReading bg : inserted) {
+            UserError.Log.d(TAG, "New entry: " + JoH.dateTimeText(bg.timestamp) + " " + Unitized.unitized_string_static(bg.calculated_value));
+        }
+        final BgReading newest = inserted.get(inserted.size() - 1);
+        Inevitable.task("entry-proc-post-pr", 500, () -> newest.postProcess(false));
     }
 }
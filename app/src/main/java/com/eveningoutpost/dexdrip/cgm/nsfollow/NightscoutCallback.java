@@ -1,7 +1,10 @@
 package com.eveningoutpost.dexdrip.cgm.nsfollow;
 
+import com.eveningoutpost.dexdrip.models.UserError;
 import com.eveningoutpost.dexdrip.utils.framework.RetrofitService.BaseCallback;
 
+import java.util.List;
+
 import retrofit2.Call;
 import retrofit2.Response;
 
@@ -9,8 +12,9 @@ import retrofit2.Response;
 
 public class NightscoutCallback<T> extends BaseCallback<T> {
 
-    private final Session session;
+    private static final int NOT_MODIFIED = 304;
 
+    private final Session session;
 
     public NightscoutCallback(final String name, final Session session, final Runnable onSuccess) {
         super(name);
@@ -18,10 +22,23 @@ public class NightscoutCallback<T> extends BaseCallback<T> {
         this.setOnSuccess(onSuccess);
     }
 
+    // a conditional request we already have the result for is as good as a full one
+    @Override
+    protected boolean isSuccess(final Response<T> response) {
+        return response.code() == NOT_MODIFIED || super.isSuccess(response);
+    }
+
     @Override
     public void onResponse(Call<T> call, Response<T> response) {
-        if (response.isSuccessful() && response.body() != null) {
+        if (response.code() == NOT_MODIFIED) {
+            UserError.Log.d(TAG, name + " not modified");
+            session.notModified = true;
+        } else if (response.isSuccessful() && response.body() != null) {
             session.populate(response.body());
+            if (response.body() instanceof List) {
+                session.etag = response.headers().get("ETag");
+                session.lastModified = response.headers().get("Last-Modified");
+            }
         }
         super.onResponse(call, response);
     }
@@ -1,6 +1,7 @@
 package com.eveningoutpost.dexdrip.cgm.nsfollow;
 
 import com.eveningoutpost.dexdrip.BuildConfig;
+import com.eveningoutpost.dexdrip.models.BgReading;
 import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.models.UserError;
 import com.eveningoutpost.dexdrip.utilitymodels.CollectionServiceStarter;
@@ -39,6 +40,11 @@ public class NightscoutFollow {
 
     private static Nightscout service;
 
+    // validators from the last incremental fetch, only valid for the same since value
+    private static volatile long validatorSince = -1;
+    private static volatile String validatorEtag;
+    private static volatile String validatorModified;
+
 
     public interface Nightscout {
         @Headers({
@@ -48,6 +54,11 @@ public class NightscoutFollow {
         @GET("/api/v1/entries.json")
         Call<List<Entry>> getEntries(@Header("api-secret") String secret, @Query("count") int count, @Query("rr") String rr);
 
+        // null validators are left out of the request
+        @GET("/api/v1/entries.json")
+        Call<List<Entry>> getEntriesSince(@Header("api-secret") String secret, @Query("find[date][$gt]") long since, @Query("count") int count,
+                                          @Header("If-None-Match") String etag, @Header("If-Modified-Since") String modifiedSince);
+
         @GET("/api/v1/treatments")
         Call<ResponseBody> getTreatments(@Header("api-secret") String secret);
     }
@@ -74,7 +85,7 @@ public class NightscoutFollow {
         // set up processing callback for entries
         session.entriesCallback = new NightscoutCallback<List<Entry>>("NS entries download", session, () -> {
             // process data
-            EntryProcessor.processEntries(session.entries, live);
+            entriesDownloaded(session, live);
             NightscoutFollowService.updateBgReceiveDelay();
             NightscoutFollowService.scheduleWakeUp();
             msg("");
@@ -98,7 +109,7 @@ public class NightscoutFollow {
                 int count = Math.min(MissedReadingsEstimator.estimate() + 1, (int) (Constants.DAY_IN_MS / DEXCOM_PERIOD));
                 UserError.Log.d(TAG, "Estimating missed readings as: " + count);
                 count = Math.max(10, count); // pep up with a view to potential period mismatches - might be excessive
-                getService().getEntries(session.url.getHashedSecret(), count, JoH.tsl() + "").enqueue(session.entriesCallback);
+                entriesCall(getService(), session, count).enqueue(session.entriesCallback);
             } catch (Exception e) {
                 UserError.Log.e(TAG, "Exception in entries work() " + e);
                 msg("Nightscout follow entries error: " + e);
@@ -118,6 +129,37 @@ public class NightscoutFollow {
         }
     }
 
+    // either everything recent or only what is newer than our latest reading
+    static Call<List<Entry>> entriesCall(final Nightscout service, final Session session, final int count) {
+        if (!incrementalEnabled()) {
+            return service.getEntries(session.url.getHashedSecret(), count, JoH.tsl() + "");
+        }
+        final BgReading last = BgReading.last(true);
+        session.since = Math.max(last != null ? last.timestamp : 0, JoH.tsl() - Constants.DAY_IN_MS);
+        final boolean validatorsMatch = session.since == validatorSince;
+        UserError.Log.d(TAG, "Requesting entries since: " + JoH.dateTimeText(session.since) + (validatorsMatch ? " conditionally" : ""));
+        return service.getEntriesSince(session.url.getHashedSecret(), session.since, count,
+                validatorsMatch ? validatorEtag : null, validatorsMatch ? validatorModified : null);
+    }
+
+    static void entriesDownloaded(final Session session, final boolean live) {
+        if (session.notModified) {
+            UserError.Log.d(TAG, "Nothing new since: " + JoH.dateTimeText(session.since));
+            return;
+        }
+        EntryProcessor.processEntries(session.entries, live);
+        if (session.since >= 0) {
+            // if entries were stored the next request will be for a later time anyway
+            validatorSince = session.since;
+            validatorEtag = session.etag;
+            validatorModified = session.lastModified;
+        }
+    }
+
+    static boolean incrementalEnabled() {
+        return Pref.getBoolean("nsfollow_incremental", true);
+    }
+
     private static String getUrl() {
         return Pref.getString("nsfollow_url", "");
     }
@@ -129,6 +171,7 @@ public class NightscoutFollow {
     public static void resetInstance() {
         RetrofitService.remove(getUrl(), TAG, D);
         service = null;
+        validatorSince = -1;
         UserError.Log.d(TAG, "Instance reset");
         CollectionServiceStarter.restartCollectionServiceBackground();
     }
@@ -28,6 +28,13 @@ public class Session {
     // most recent treatments raw json
     public ResponseBody treatments;
 
+    // incremental entries fetch, newest timestamp asked after or -1 if not used
+    public long since = -1;
+    // validators from the entries response and whether the server said nothing changed
+    public String etag;
+    public String lastModified;
+    public boolean notModified;
+
 
     // populate session data from a response object which could be any supported type
     public void populate(final Object object) {
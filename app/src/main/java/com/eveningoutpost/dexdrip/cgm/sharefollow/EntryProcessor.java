@@ -59,7 +59,7 @@ public class EntryProcessor {
                             bg.sensor = sensor;
                             bg.sensor_uuid = sensor.uuid;
                             bg.source_info = "Share Follow";
-                            bg.save();
+                            bg.saveit();
                             Inevitable.task("entry-proc-post-pr", 500, () -> bg.postProcess(false));
                         }
                     } else {
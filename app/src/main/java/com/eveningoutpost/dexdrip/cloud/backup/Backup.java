@@ -39,6 +39,7 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -63,6 +64,7 @@ public class Backup {
     private static final String PREF_BACKUP_URI = "backup-document-uri";
     public static final String PREF_AUTO_BACKUP = "backup-automatic-enabled";
     public static final String PREF_AUTO_BACKUP_MOBILE = "backup-automatic-mobile";
+    public static final String PREF_INCREMENTAL_BACKUP = "backup-incremental-enabled";
     private static final String XDRIP_CONTENT_TYPE = "xDripBackup://";
     private static final String[] dbSuffix = {"-journal", "-shm", "-wal"};
 
@@ -140,6 +142,9 @@ public class Backup {
             status.status("Invalid file uri");
             return false;
         }
+        if (Pref.getBooleanDefaultFalse(PREF_INCREMENTAL_BACKUP)) {
+            return chunkedBackupXdripStream(status, parts, sourcePaths);
+        }
         val temp = File.createTempFile("backup" + JoH.tsl(), "dat", xdrip.getAppContext().getCacheDir());
         try {
             status.status(xdrip.gs(R.string.creating_local_backup));
@@ -168,6 +173,43 @@ public class Backup {
         return false;
     }
 
+    // only chunks which changed are uploaded, the backup file itself is just the manifest
+    private static boolean chunkedBackupXdripStream(final BackupStatus status, final Pair<String, String> parts, final String... sourcePaths) throws IOException {
+        val temp = File.createTempFile("manifest" + JoH.tsl(), "dat", xdrip.getAppContext().getCacheDir());
+        try {
+            status.status(xdrip.gs(R.string.uploading_to_cloud));
+            val store = DriveChunkStore.forBackupFile(parts.first, true);
+            if (store == null) {
+                UserError.Log.e(TAG, "Could not get chunk store");
+                status.status(xdrip.gs(R.string.error_uploading_to_cloud));
+                return false;
+            }
+            val metaData = new BackupMetaData();
+            Set<String> referenced;
+            try (val fos = new FileOutputStream(temp)) {
+                referenced = ChunkedBackup.backup(fos, store, metaData, sourcePaths);
+            }
+            if (referenced == null) {
+                UserError.Log.e(TAG, "Failed to write chunked backup");
+                status.status(xdrip.gs(R.string.error_uploading_to_cloud) + (metaData.exception != null ? " " + metaData.exception : ""));
+                return false;
+            }
+            try (val fis = new FileInputStream(temp)) {
+                DriveManager.getInstance().saveFromStreamSync(parts.first, parts.second, fis);
+            }
+            status.status(xdrip.gs(R.string.upload_successful) + " " + metaData.getChunkStatsString());
+            // only once the new manifest is safely stored
+            ChunkedBackup.removeUnreferenced(store, referenced);
+            return true;
+        } catch (NullPointerException e) {
+            UserError.Log.e(TAG, "Could not create drive service");
+            status.status(xdrip.gs(R.string.error_uploading_to_cloud));
+        } finally {
+            temp.delete();
+        }
+        return false;
+    }
+
     private static boolean processXdripStream(final String sourceUri, final BackupMetaData metaData) throws IOException {
         try {
             val id = getIdNameFromXdripUri(sourceUri).first;
@@ -178,6 +220,9 @@ public class Backup {
             }
             metaData.displayName = fileMeta.getName();
             metaData.size = fileMeta.getSize();
+            if (!metaData.getMetaDataOnly) {
+                metaData.chunkStore = DriveChunkStore.forBackupFile(id, false);
+            }
             try (val is = DriveManager.getInstance().getInputStream(id, metaData)) {
                 return restoreBackFromInputStream(is, metaData);
             }
@@ -244,7 +289,23 @@ public class Backup {
             UserError.Log.d(TAG, "Got metadata which is all that was requested");
             return true;
         }
-        if (metaData.looksOkay()) {
+        if (metaData.looksOkay() && metaData.chunked) {
+            if (metaData.chunkStore == null) {
+                UserError.Log.e(TAG, "Incremental backup but no chunk store available");
+                metaData.exception = new IOException("Chunk store not found");
+                return false;
+            }
+            val completedFileList = ChunkedBackup.restore(inputStream, metaData.chunkStore, metaData, xdrip.getAppContext().getFilesDir());
+            if (completedFileList == null || completedFileList.size() == 0) {
+                UserError.Log.e(TAG, "Didn't get a single valid element");
+                return false;
+            }
+            for (val file : completedFileList) {
+                moveFileToFinalDestination(file);
+            }
+            Inevitable.task("kill all", 1000, SdcardImportExport::hardReset);
+            return true;
+        } else if (metaData.looksOkay()) {
             try (val cipherInputStream = new CipherInputStream(inputStream, getCipher(false, metaData))) {
                 try (val gzipInputStream = new GZIPInputStream(cipherInputStream)) {
                     val completedFileList = new ArrayList<String>();
@@ -513,11 +574,15 @@ public class Backup {
     }
 
 
-    private static Cipher getCipher(final boolean encrypt, final BackupMetaData metaData) {
+    static Cipher getCipher(final boolean encrypt, final BackupMetaData metaData) {
+        return getCipher(encrypt, metaData.OB1, hexStringToByteArray(metaData.ob2));
+    }
+
+    static Cipher getCipher(final boolean encrypt, final String key, final byte[] iv) {
         try {
             val cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            val randomKey = new SecretKeySpec(hexStringToByteArray(metaData.OB1), "AES");
-            cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, randomKey, new IvParameterSpec(hexStringToByteArray(metaData.ob2)));
+            val randomKey = new SecretKeySpec(hexStringToByteArray(key), "AES");
+            cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, randomKey, new IvParameterSpec(iv));
             return cipher;
         } catch (InvalidKeyException | InvalidAlgorithmParameterException | NoSuchPaddingException | NoSuchAlgorithmException e) {
             UserError.Log.wtf(TAG, "Error getting cipher: " + e);
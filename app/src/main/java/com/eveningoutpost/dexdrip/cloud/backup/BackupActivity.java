@@ -134,7 +134,7 @@ public class BackupActivity extends BackupBaseActivity implements BackupStatus {
         }
 
         public void clear() {
-            final String[] texts = {"lastBackupTime", "lastAgoTime", "lastDevice", "selectedLocation", "stext"};
+            final String[] texts = {"lastBackupTime", "lastAgoTime", "lastDevice", "selectedLocation", "stext", "chunks"};
             for (val text : texts) {
                 map.put(text, "");
             }
@@ -236,6 +236,9 @@ public class BackupActivity extends BackupBaseActivity implements BackupStatus {
                                 map("lastDevice", "Backup made by", metaData.sourceDevice);
                                 map("selectedLocation", "Selected location", metaData.displayName);
                                 map("stext", "Backup size", getString(R.string.megabyte_format_string, metaData.getSizeInMb()));
+                                if (metaData.chunked) {
+                                    map("chunks", getString(R.string.last_backup_changes), metaData.getChunkStatsString());
+                                }
                                 status(getString(R.string.ready));
                             } else {
                                 status(getString(R.string.failed_to_read_file) + ((metaData.exception != null && metaData.exception.getMessage() != null) ? (": " + metaData.exception.getMessage()) : ""));
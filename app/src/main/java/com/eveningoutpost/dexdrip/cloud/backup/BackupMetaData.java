@@ -26,6 +26,7 @@ public class BackupMetaData {
     private static final int version = 1;
     final String OB1 = "5861bdb93f5ba8effa43c8ff7f26c3be";
     static final String ID = String.format(Locale.US, "%s-%s-v%d", title, type, version);
+    static final String CHUNKED_ID = String.format(Locale.US, "%s-%s-v%d", title, "chunked", version);
 
     public volatile String id;
     public volatile String timestamp;
@@ -38,6 +39,14 @@ public class BackupMetaData {
     public volatile long size;
     public volatile boolean getMetaDataOnly;
     public volatile boolean successResult;
+    public volatile ChunkStore chunkStore;
+
+    // incremental backups only
+    public volatile boolean chunked;
+    public volatile int chunkCount;
+    public volatile int chunksUploaded;
+    public volatile long bytesUploaded;
+    public volatile long timeSavedMs;
 
     public boolean populateFromInputStream(final InputStream inputStream) {
         id = readLine(inputStream);
@@ -46,13 +55,20 @@ public class BackupMetaData {
         ob2 = readLine(inputStream);
         exp3 = readLine(inputStream);
         exp4 = readLine(inputStream);
+        chunked = CHUNKED_ID.equals(id);
+        if (chunked) {
+            readChunkStats();
+        }
         return true;
     }
 
     public boolean writeToOutputStream(final OutputStream outputStream) {
         try {
             timestamp = "" + JoH.tsl();
-            id = ID;
+            id = chunked ? CHUNKED_ID : ID;
+            if (chunked) {
+                exp3 = String.format(Locale.US, "%d,%d,%d,%d", chunkCount, chunksUploaded, bytesUploaded, timeSavedMs);
+            }
             writeString(id, outputStream);
             writeString(timestamp, outputStream);
             writeString(sourceDevice, outputStream);
@@ -66,6 +82,19 @@ public class BackupMetaData {
         return true;
     }
 
+    // chunk statistics ride in the spare exp3 header line
+    private void readChunkStats() {
+        try {
+            final String[] parts = exp3.split(",");
+            chunkCount = Integer.parseInt(parts[0]);
+            chunksUploaded = Integer.parseInt(parts[1]);
+            bytesUploaded = Long.parseLong(parts[2]);
+            timeSavedMs = Long.parseLong(parts[3]);
+        } catch (NullPointerException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // not present
+        }
+    }
+
     private void writeString(final String string, final OutputStream outputStream) throws IOException {
         outputStream.write(((string != null ? string : "") + "\n").getBytes(StandardCharsets.UTF_8));
     }
@@ -91,8 +120,14 @@ public class BackupMetaData {
         return roundDouble(size / (1024*1024d),2);
     }
 
+    public String getChunkStatsString() {
+        if (!chunked) return "";
+        return gs(R.string.backup_chunk_stats_format_string, chunksUploaded, chunkCount,
+                roundDouble(bytesUploaded / (1024 * 1024d), 2), JoH.niceTimeScalar(timeSavedMs));
+    }
+
     public boolean looksOkay() {
-        return id != null && id.equals(ID);
+        return id != null && (id.equals(ID) || id.equals(CHUNKED_ID));
     }
 
 }
@@ -0,0 +1,20 @@
+package com.eveningoutpost.dexdrip.cloud.backup;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Somewhere to keep the encrypted chunks of an incremental backup, chunks are named by content hash
+ * Implementations must allow put() to be called from several threads at once
+ */
+
+public interface ChunkStore {
+
+    Set<String> list() throws IOException;
+
+    void put(String name, byte[] data) throws IOException;
+
+    byte[] get(String name) throws IOException;
+
+    void delete(String name) throws IOException;
+}
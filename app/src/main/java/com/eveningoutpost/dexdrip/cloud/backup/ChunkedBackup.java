@@ -0,0 +1,309 @@
+package com.eveningoutpost.dexdrip.cloud.backup;
+
+import static com.eveningoutpost.dexdrip.models.JoH.readLine;
+
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.models.UserError;
+import com.eveningoutpost.dexdrip.utilitymodels.PersistentStore;
+import com.eveningoutpost.dexdrip.utils.CipherUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+
+import lombok.val;
+
+/**
+ * Incremental backup where each file is split in to fixed size chunks named by the hash of their content.
+ * <p>
+ * Only chunks which the store does not already hold are compressed, encrypted and uploaded, this work is
+ * spread across the available cores. The backup file itself then just holds the usual header followed by
+ * an encrypted manifest listing the chunks which make up each file.
+ * <p>
+ * Chunks are aligned to a multiple of the sqlite page size so the pages which did not change since the
+ * last backup hash the same and are skipped.
+ */
+
+public class ChunkedBackup {
+
+    private static final String TAG = "xDrip-ChunkedBackup";
+    static final int CHUNK_SIZE = 512 * 1024;
+    private static final int IV_SIZE = 16;
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int IN_FLIGHT = THREADS * 2;
+    private static final String PREF_NANOS_PER_KB = "backup-chunk-nanos-per-kb";
+
+    // returns the names of all chunks the new manifest uses or null on failure
+    public static Set<String> backup(final OutputStream outputStream, final ChunkStore store, final BackupMetaData metaData, final String... sourcePaths) {
+        val executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            val existing = store.list();
+            val claimed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            val uploaded = new AtomicInteger();
+            val uploadedBytes = new AtomicLong();
+            val newSourceBytes = new AtomicLong();
+            val workNanos = new AtomicLong();
+
+            val manifest = new StringBuilder();
+            val referenced = new HashSet<String>();
+            int fileCount = 0;
+            int chunkCount = 0;
+            long totalBytes = 0;
+
+            for (val sourcePath : sourcePaths) {
+                val file = new File(sourcePath);
+                if (!file.exists()) {
+                    UserError.Log.wtf(TAG, "Cannot find file to backup: " + sourcePath);
+                    continue;
+                }
+                val hashes = new ArrayList<String>();
+                val pending = new ArrayDeque<Future<String>>();
+                long length = 0;
+                try (val input = new FileInputStream(file)) {
+                    byte[] chunk;
+                    while ((chunk = readChunk(input)) != null) {
+                        length += chunk.length;
+                        final byte[] data = chunk;
+                        pending.add(executor.submit(() -> {
+                            final long start = System.nanoTime();
+                            final String hash = hash(data);
+                            if (existing.contains(hash) || !claimed.add(hash)) {
+                                return hash;
+                            }
+                            final byte[] encoded = encodeChunk(data, metaData.OB1);
+                            store.put(hash, encoded);
+                            uploaded.incrementAndGet();
+                            uploadedBytes.addAndGet(encoded.length);
+                            newSourceBytes.addAndGet(data.length);
+                            workNanos.addAndGet(System.nanoTime() - start);
+                            return hash;
+                        }));
+                        while (pending.size() >= IN_FLIGHT) {
+                            hashes.add(pending.poll().get());
+                        }
+                    }
+                    while (!pending.isEmpty()) {
+                        hashes.add(pending.poll().get());
+                    }
+                }
+                UserError.Log.d(TAG, "Chunked: " + sourcePath + " (" + length + ") in to " + hashes.size());
+                manifest.append(file.getName()).append('\n')
+                        .append(length).append('\n')
+                        .append(hashes.size()).append('\n');
+                for (val hash : hashes) {
+                    manifest.append(hash).append('\n');
+                }
+                referenced.addAll(hashes);
+                fileCount++;
+                chunkCount += hashes.size();
+                totalBytes += length;
+            }
+
+            if (fileCount == 0) {
+                UserError.Log.e(TAG, "Nothing to backup");
+                return null;
+            }
+
+            metaData.chunked = true;
+            if (metaData.sourceDevice == null) {
+                metaData.sourceDevice = Backup.cleanPhoneName();
+            }
+            metaData.ob2 = CipherUtils.getRandomHexKey();
+            metaData.chunkCount = chunkCount;
+            metaData.chunksUploaded = uploaded.get();
+            metaData.bytesUploaded = uploadedBytes.get();
+            metaData.timeSavedMs = estimateTimeSaved(totalBytes - newSourceBytes.get(), newSourceBytes.get(), workNanos.get());
+            metaData.writeToOutputStream(outputStream);
+            try (val cipherOutputStream = new CipherOutputStream(outputStream, Backup.getCipher(true, metaData))) {
+                try (val gzipOutputStream = new GZIPOutputStream(cipherOutputStream)) {
+                    gzipOutputStream.write((fileCount + "\n").getBytes(StandardCharsets.UTF_8));
+                    gzipOutputStream.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            outputStream.flush();
+            UserError.Log.d(TAG, "Manifest written: " + chunkCount + " chunks, " + metaData.chunksUploaded + " new, " + metaData.bytesUploaded + " bytes uploaded, saved " + metaData.timeSavedMs + "ms");
+            return referenced;
+
+        } catch (IOException | NullPointerException | SecurityException | InterruptedException | ExecutionException e) {
+            UserError.Log.e(TAG, "Chunked backup failed: " + e);
+            metaData.exception = e;
+            return null;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // the input stream should be positioned after the header, returns restored file paths or null on failure
+    public static List<String> restore(final InputStream inputStream, final ChunkStore store, final BackupMetaData metaData, final File outputDir) {
+        val completedFileList = new ArrayList<String>();
+        val executor = Executors.newFixedThreadPool(THREADS);
+        try (val cipherInputStream = new CipherInputStream(inputStream, Backup.getCipher(false, metaData))) {
+            try (val manifest = new GZIPInputStream(cipherInputStream)) {
+                final int fileCount = Integer.parseInt(readLine(manifest));
+                for (int f = 0; f < fileCount; f++) {
+                    val filename = readLine(manifest);
+                    final long length = Long.parseLong(readLine(manifest));
+                    final int count = Integer.parseInt(readLine(manifest));
+                    if (filename == null || !new File(filename).getName().equals(filename)) {
+                        throw new IOException("Invalid file name in manifest: " + filename);
+                    }
+                    val outputFile = new File(outputDir, filename);
+                    completedFileList.add(outputFile.getPath());
+                    UserError.Log.d(TAG, "Restoring: " + filename + " (" + length + ") from " + count + " chunks");
+
+                    long written = 0;
+                    try (val outputStream = new FileOutputStream(outputFile)) {
+                        val pending = new ArrayDeque<Future<byte[]>>();
+                        for (int i = 0; i < count; i++) {
+                            val hash = readLine(manifest);
+                            if (hash == null) throw new IOException("Manifest truncated");
+                            pending.add(executor.submit(fetchChunk(store, hash, metaData.OB1)));
+                            while (pending.size() >= IN_FLIGHT || (i == count - 1 && !pending.isEmpty())) {
+                                val data = pending.poll().get();
+                                outputStream.write(data);
+                                written += data.length;
+                            }
+                        }
+                    }
+                    if (written != length) {
+                        throw new IOException("Invalid file size for: " + filename + " " + written + " instead of " + length);
+                    }
+                }
+            }
+            return completedFileList;
+        } catch (IOException | NullPointerException | NumberFormatException | SecurityException | InterruptedException | ExecutionException e) {
+            UserError.Log.e(TAG, "Chunked restore failed: " + e);
+            metaData.exception = e;
+            for (val path : completedFileList) {
+                //noinspection ResultOfMethodCallIgnored
+                new File(path).delete();
+            }
+            return null;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // chunks not used by the latest manifest are no longer needed
+    public static int removeUnreferenced(final ChunkStore store, final Set<String> referenced) {
+        int removed = 0;
+        try {
+            for (val name : store.list()) {
+                if (!referenced.contains(name)) {
+                    try {
+                        store.delete(name);
+                        removed++;
+                    } catch (IOException e) {
+                        UserError.Log.e(TAG, "Could not remove chunk " + name + " " + e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            UserError.Log.e(TAG, "Could not list chunks: " + e);
+        }
+        UserError.Log.d(TAG, "Removed " + removed + " unused chunks");
+        return removed;
+    }
+
+    private static Callable<byte[]> fetchChunk(final ChunkStore store, final String hash, final String key) {
+        return () -> {
+            final byte[] data = decodeChunk(store.get(hash), key);
+            if (!hash(data).equals(hash)) {
+                throw new IOException("Chunk does not match its hash: " + hash);
+            }
+            return data;
+        };
+    }
+
+    // work out how long the chunks we skipped would have taken from how long the new ones did
+    private static long estimateTimeSaved(final long reusedBytes, final long newBytes, final long nanos) {
+        long nanosPerKb = PersistentStore.getLong(PREF_NANOS_PER_KB);
+        if (newBytes >= CHUNK_SIZE) {
+            nanosPerKb = nanos * 1024 / newBytes;
+            PersistentStore.setLong(PREF_NANOS_PER_KB, nanosPerKb);
+        }
+        return reusedBytes / 1024 * nanosPerKb / 1000000;
+    }
+
+    static byte[] encodeChunk(final byte[] data, final String key) throws IOException {
+        val output = new ByteArrayOutputStream(data.length / 2);
+        val iv = CipherUtils.getRandomKey(IV_SIZE);
+        output.write(iv);
+        try (val cipherOutputStream = new CipherOutputStream(output, Backup.getCipher(true, key, iv))) {
+            try (val gzipOutputStream = new GZIPOutputStream(cipherOutputStream)) {
+                gzipOutputStream.write(data);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    static byte[] decodeChunk(final byte[] encoded, final String key) throws IOException {
+        if (encoded == null || encoded.length <= IV_SIZE) {
+            throw new IOException("Chunk too short");
+        }
+        val iv = Arrays.copyOfRange(encoded, 0, IV_SIZE);
+        try (val cipherInputStream = new CipherInputStream(new ByteArrayInputStream(encoded, IV_SIZE, encoded.length - IV_SIZE), Backup.getCipher(false, key, iv))) {
+            try (val gzipInputStream = new GZIPInputStream(cipherInputStream)) {
+                return readAll(gzipInputStream);
+            }
+        }
+    }
+
+    static String hash(final byte[] data) {
+        try {
+            return JoH.bytesToHex(MessageDigest.getInstance("SHA-256").digest(data)).toLowerCase();
+        } catch (NoSuchAlgorithmException e) {
+            throw new SecurityException("No SHA-256: " + e);
+        }
+    }
+
+    // a whole chunk unless we reach the end of the file, null when there is nothing left
+    private static byte[] readChunk(final InputStream inputStream) throws IOException {
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        int total = 0;
+        int bytes_read;
+        while (total < buffer.length && (bytes_read = inputStream.read(buffer, total, buffer.length - total)) != -1) {
+            total += bytes_read;
+        }
+        if (total == 0) return null;
+        return total == buffer.length ? buffer : Arrays.copyOf(buffer, total);
+    }
+
+    static byte[] readAll(final InputStream inputStream) throws IOException {
+        val output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[64 * 1024];
+        int bytes_read;
+        while ((bytes_read = inputStream.read(buffer)) != -1) {
+            output.write(buffer, 0, bytes_read);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,66 @@
+package com.eveningoutpost.dexdrip.cloud.backup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import lombok.val;
+
+/**
+ * Chunk store held in a local directory
+ */
+
+public class DirectoryChunkStore implements ChunkStore {
+
+    private final File directory;
+
+    public DirectoryChunkStore(final File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public Set<String> list() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        val names = new HashSet<String>();
+        val files = directory.listFiles();
+        if (files != null) {
+            for (val file : files) {
+                if (!file.getName().endsWith(".tmp")) {
+                    names.add(file.getName());
+                }
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public void put(final String name, final byte[] data) throws IOException {
+        val temp = new File(directory, name + ".tmp");
+        try (val outputStream = new FileOutputStream(temp)) {
+            outputStream.write(data);
+        }
+        if (!temp.renameTo(new File(directory, name))) {
+            throw new IOException("Cannot store chunk " + name);
+        }
+    }
+
+    @Override
+    public byte[] get(final String name) throws IOException {
+        try (val inputStream = new FileInputStream(new File(directory, name))) {
+            return ChunkedBackup.readAll(inputStream);
+        }
+    }
+
+    @Override
+    public void delete(final String name) throws IOException {
+        val file = new File(directory, name);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot delete chunk " + name);
+        }
+    }
+}
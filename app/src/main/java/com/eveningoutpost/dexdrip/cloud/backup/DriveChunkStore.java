@@ -0,0 +1,101 @@
+package com.eveningoutpost.dexdrip.cloud.backup;
+
+import com.eveningoutpost.dexdrip.models.UserError;
+import com.google.api.services.drive.model.File;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.val;
+
+/**
+ * Chunk store held in a Google Drive folder alongside the xDrip managed backup file
+ * The folder is only looked up when first needed. Methods must be called off the main thread.
+ */
+
+public class DriveChunkStore implements ChunkStore {
+
+    private static final String TAG = "xDrip-DriveChunkStore";
+    private static final String FOLDER_SUFFIX = ".chunks";
+
+    private final String backupFileId;
+    private final boolean create;
+    private final Map<String, String> ids = new ConcurrentHashMap<>();
+    private volatile String folderId;
+
+    private DriveChunkStore(final String backupFileId, final boolean create) {
+        this.backupFileId = backupFileId;
+        this.create = create;
+    }
+
+    public static DriveChunkStore forBackupFile(final String backupFileId, final boolean create) {
+        if (backupFileId == null) return null;
+        return new DriveChunkStore(backupFileId, create);
+    }
+
+    private static DriveManager drive() throws IOException {
+        val drive = DriveManager.getInstance();
+        if (drive == null) {
+            throw new IOException("Could not create drive service");
+        }
+        return drive;
+    }
+
+    private synchronized String getFolderId() throws IOException {
+        if (folderId == null) {
+            val backupFile = drive().getFileInfo(backupFileId);
+            if (backupFile == null || backupFile.getParents() == null || backupFile.getParents().isEmpty()) {
+                throw new IOException("Cannot find folder of backup file");
+            }
+            val parent = backupFile.getParents().get(0);
+            val name = backupFile.getName() + FOLDER_SUFFIX;
+            File folder = drive().findChildFolderSync(parent, name);
+            if (folder == null) {
+                if (!create) {
+                    throw new IOException("Cannot find chunk folder " + name);
+                }
+                UserError.Log.d(TAG, "Creating chunk folder " + name);
+                folder = drive().createFolderSync(name, parent);
+            }
+            folderId = folder.getId();
+            ids.putAll(drive().listFolderSync(folderId));
+        }
+        return folderId;
+    }
+
+    @Override
+    public Set<String> list() throws IOException {
+        getFolderId();
+        return new HashSet<>(ids.keySet());
+    }
+
+    @Override
+    public void put(final String name, final byte[] data) throws IOException {
+        val file = drive().createFileSync(getFolderId(), name, data);
+        ids.put(name, file.getId());
+    }
+
+    @Override
+    public byte[] get(final String name) throws IOException {
+        getFolderId();
+        val id = ids.get(name);
+        if (id == null) {
+            throw new IOException("Missing chunk " + name);
+        }
+        try (val inputStream = drive().getInputStream(id)) {
+            return ChunkedBackup.readAll(inputStream);
+        }
+    }
+
+    @Override
+    public void delete(final String name) throws IOException {
+        getFolderId();
+        val id = ids.remove(name);
+        if (id != null) {
+            drive().deleteFileSync(id);
+        }
+    }
+}
@@ -9,6 +9,7 @@ import com.google.android.gms.auth.api.signin.GoogleSignIn;
 import com.google.android.gms.common.Scopes;
 import com.google.api.client.extensions.android.http.AndroidHttp;
 import com.google.api.client.googleapis.extensions.android.gms.auth.GoogleAccountCredential;
+import com.google.api.client.http.ByteArrayContent;
 import com.google.api.client.http.InputStreamContent;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.drive.Drive;
@@ -17,7 +18,9 @@ import com.google.api.services.drive.model.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import lombok.val;
 
@@ -85,6 +88,10 @@ public class DriveManager {
         return file.executeMediaAsInputStream();
     }
 
+    public InputStream getInputStream(final String fileId) throws IOException {
+        return mDriveService.files().get(fileId).executeMediaAsInputStream();
+    }
+
     public File getFileInfo(final String fileId) throws IOException {
         return mDriveService.files().get(fileId)
                 .setFields("*")
@@ -122,6 +129,52 @@ public class DriveManager {
         return null;
     }
 
+    public File findChildFolderSync(final String parentFolderId, final String name) throws IOException {
+        val results = mDriveService.files().list()
+                .setQ("'" + parentFolderId + "' in parents and mimeType = '" + DRIVE_FOLDER_TYPE + "' and trashed = false")
+                .setSpaces("drive").execute();
+        for (val result : results.getFiles()) {
+            if (result.getName().equals(name)) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    // name to id of every file in a folder, following result pages as folders can be large
+    public Map<String, String> listFolderSync(final String folderId) throws IOException {
+        val files = new HashMap<String, String>();
+        String pageToken = null;
+        do {
+            val results = mDriveService.files().list()
+                    .setQ("'" + folderId + "' in parents and trashed = false")
+                    .setSpaces("drive")
+                    .setPageSize(1000)
+                    .setFields("nextPageToken, files(id, name)")
+                    .setPageToken(pageToken)
+                    .execute();
+            for (val result : results.getFiles()) {
+                files.put(result.getName(), result.getId());
+            }
+            pageToken = results.getNextPageToken();
+        } while (pageToken != null);
+        return files;
+    }
+
+    public File createFileSync(final String folderId, final String name, final byte[] data) throws IOException {
+        val metadata = new File()
+                .setParents(Collections.singletonList(folderId))
+                .setMimeType(BINARY_FILE_TYPE)
+                .setName(name);
+        return mDriveService.files().create(metadata, new ByteArrayContent(BINARY_FILE_TYPE, data))
+                .setFields("id, name")
+                .execute();
+    }
+
+    public void deleteFileSync(final String fileId) throws IOException {
+        mDriveService.files().delete(fileId).execute();
+    }
+
     public File getOrCreateFolderSync(final String name) throws IOException {
         val folder = findFolderSync(name);
         if (folder == null) {
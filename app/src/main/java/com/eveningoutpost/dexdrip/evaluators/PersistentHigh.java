@@ -123,13 +123,13 @@ public class PersistentHigh {
             return false;
         }
 
-        final List<BgReading> readings = BgReading.latestForSensorAsc(2000, since, JoH.tsl(), Home.get_follower());
+        final double[] readings = BgReading.displayValuesForSensorAsc(2000, since, JoH.tsl(), Home.get_follower());
         if (readings == null) {
             Log.e(TAG, "Cannot raise persistent high alert as there are no readings for this sensor!");
             return false;
         }
 
-        final int numberOfReadings = readings.size();
+        final int numberOfReadings = readings.length;
 
         if (numberOfReadings == 0) {
             Log.e(TAG, "Cannot raise persistent high alert as there are 0 readings for this sensor!");
@@ -143,9 +143,9 @@ public class PersistentHigh {
             return false;
         }
 
-        for (final BgReading bgr : readings) {
-            if (bgr.getDg_mgdl() < highMarkMgDl) {
-                Log.e(TAG, "High not persistent as reading at: " + JoH.dateTimeText(bgr.timestamp) + " does not exceed " + JoH.qs(highMarkMgDl) + " mgdl / high mark");
+        for (final double mgdl : readings) {
+            if (mgdl < highMarkMgDl) {
+                Log.e(TAG, "High not persistent as reading of " + JoH.qs(mgdl) + " since " + JoH.dateTimeText(since) + " does not exceed " + JoH.qs(highMarkMgDl) + " mgdl / high mark");
                 return false;
             }
         }
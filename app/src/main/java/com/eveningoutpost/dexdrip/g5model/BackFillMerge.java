@@ -0,0 +1,88 @@
+package com.eveningoutpost.dexdrip.g5model;
+
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.models.Sensor;
+import com.eveningoutpost.dexdrip.models.UserError;
+import com.eveningoutpost.dexdrip.utilitymodels.BgGraphBuilder;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+
+import static com.eveningoutpost.dexdrip.utilitymodels.Constants.HOUR_IN_MS;
+
+/**
+ * Merges decoded backfill in to the stored readings as one batch
+ * <p>
+ * Backfill times are converted and checked, then sorted so the whole stream is compared against
+ * the existing readings from a single timestamp range query. New readings are saved in one
+ * transaction and returned in timestamp order so the caller can notify and sync once.
+ */
+
+public class BackFillMerge {
+
+    private static final String TAG = "BackFillMerge";
+    static final long PRECISION = Constants.MINUTE_IN_MS * 4;
+
+    public static class Result {
+        public int received = 0;
+        public int ignored = 0;
+        public int existing = 0;
+        public List<BgReading> inserted = new ArrayList<>();
+        public long duration = 0;
+
+        @Override
+        public String toString() {
+            return "Backfill received " + received + ", added " + inserted.size() + ", existing " + existing
+                    + (ignored > 0 ? ", ignored " + ignored : "") + " in " + duration + "ms";
+        }
+    }
+
+    /**
+     * Merge a decoded backfill stream.
+     *
+     * @param backsies  decoded stream in any order
+     * @param toTime    converts transmitter time to a local timestamp
+     * @param shortTxId whether the transmitter allows a longer backfill period
+     * @param now       current time
+     * @return what was done, inserted readings are in timestamp order
+     */
+    public static Result merge(final List<BackFillStream.Backsie> backsies, final IntToLongFunction toTime, final boolean shortTxId, final long now) {
+        final long start = JoH.tsl();
+        final Result result = new Result();
+        result.received = backsies.size();
+
+        final Sensor sensor = Sensor.currentSensor();
+        if (sensor == null) {
+            UserError.Log.e(TAG, "Cannot process backfill as no active sensor");
+            result.ignored = backsies.size();
+            return result;
+        }
+
+        final List<BgReading> batch = new ArrayList<>(backsies.size());
+        for (final BackFillStream.Backsie backsie : backsies) {
+            final long time = toTime.applyAsLong(backsie.getDextime());
+            final long since = now - time;
+            if ((!shortTxId && since > HOUR_IN_MS * 6) || (since > HOUR_IN_MS * 25) || (since < 0)) {
+                UserError.Log.wtf(TAG, "Backfill timestamp unrealistic: " + JoH.dateTimeText(time) + " (ignored)");
+                result.ignored++;
+            } else {
+                batch.add(BgReading.createFromG5(backsie.getGlucose(), time, sensor, "Backfill"));
+            }
+        }
+        Collections.sort(batch, (a, b) -> Long.compare(a.timestamp, b.timestamp));
+
+        // existing readings and earlier items in the stream are both checked within precision
+        result.inserted = BgReading.bulkIngest(batch, PRECISION, sensor, false);
+        result.existing = batch.size() - result.inserted.size();
+        for (final BgReading bgr : result.inserted) {
+            UserError.Log.d(TAG, "Added backfilled reading: " + JoH.dateTimeText(bgr.timestamp) + " " + BgGraphBuilder.unitized_string_static(bgr.calculated_value));
+        }
+        result.duration = JoH.msSince(start);
+        UserError.Log.d(TAG, result.toString());
+        return result;
+    }
+}
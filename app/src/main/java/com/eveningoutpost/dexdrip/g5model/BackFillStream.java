@@ -30,8 +30,8 @@ public class BackFillStream extends BaseMessage {
     public synchronized void push(byte[] packet) {
 
         if (packet == null) return;
-        final int this_sequence = (int) packet[0];
-        if (this_sequence == last_sequence + 1) {
+        final int this_sequence = packet[0] & 0xFF; // a day of backfill runs past 127 packets
+        if (this_sequence == ((last_sequence + 1) & 0xFF)) {
             last_sequence++;
 
             for (int i = 2; i < packet.length; i++) {
@@ -1072,29 +1072,25 @@ public class Ob1G5StateMachine {
 
         final int check_readings = nextBackFillCheckSize;
         UserError.Log.d(TAG, "Checking " + check_readings + " for backfill requirement");
-        final List<BgReading> lastReadings = BgReading.latest_by_size(check_readings);
+        final long[] lastTimestamps = BgReading.latestTimestampsBySize(check_readings);
         boolean ask_for_backfill = false;
         long earliest_timestamp = tsl() - maxBackfillPeriod_MS();
         long latest_timestamp = tsl();
-        if ((lastReadings == null) || (lastReadings.size() != check_readings)) {
+        if ((lastTimestamps == null) || (lastTimestamps.length != check_readings)) {
             ask_for_backfill = true;
         } else {
-            for (int i = 0; i < lastReadings.size(); i++) {
-                final BgReading reading = lastReadings.get(i);
-                if ((reading == null) || (msSince(reading.timestamp) > ((DEXCOM_PERIOD * i) + Constants.MINUTE_IN_MS * 7))) {
+            for (int i = 0; i < lastTimestamps.length; i++) {
+                final long timestamp = lastTimestamps[i];
+                if (msSince(timestamp) > ((DEXCOM_PERIOD * i) + Constants.MINUTE_IN_MS * 7)) {
                     ask_for_backfill = true;
-                    if ((reading != null) && (msSince(reading.timestamp) <= maxBackfillPeriod_MS())) {
-                        earliest_timestamp = reading.timestamp;
-                    }
-                    if (reading != null) {
-                        UserError.Log.d(TAG, "Flagging backfill tripped by reading: " + i + " at time: " + JoH.dateTimeText(reading.timestamp) + " creating backfill window: " + JoH.dateTimeText(earliest_timestamp));
-                    } else {
-                        UserError.Log.d(TAG, "Flagging backfill tripped by null reading: " + i);
+                    if (msSince(timestamp) <= maxBackfillPeriod_MS()) {
+                        earliest_timestamp = timestamp;
                     }
+                    UserError.Log.d(TAG, "Flagging backfill tripped by reading: " + i + " at time: " + JoH.dateTimeText(timestamp) + " creating backfill window: " + JoH.dateTimeText(earliest_timestamp));
                     break;
                 } else {
                     // good record
-                    latest_timestamp = reading.timestamp;
+                    latest_timestamp = timestamp;
                 }
             }
         }
@@ -1921,24 +1917,16 @@ public class Ob1G5StateMachine {
     }
 
     private static void processBacksies(List<BackFillStream.Backsie> backsies) {
-        boolean changed = false;
-        for (BackFillStream.Backsie backsie : backsies) {
-            final long time = DexTimeKeeper.fromDexTime(getTransmitterID(), backsie.getDextime());
-
-            final long since = JoH.msSince(time);
-            if ((!shortTxId() && since > HOUR_IN_MS * 6) || (since > HOUR_IN_MS * 25) || (since < 0)) {
-                UserError.Log.wtf(TAG, "Backfill timestamp unrealistic: " + JoH.dateTimeText(time) + " (ignored)");
-            } else {
-                if (BgReading.getForPreciseTimestamp(time, Constants.MINUTE_IN_MS * 4) == null) {
-                    final BgReading bgr = BgReading.bgReadingInsertFromG5(backsie.getGlucose(), time, "Backfill");
-                    lastGlucoseBgReading = bgr;
-                    UserError.Log.d(TAG, "Adding backfilled reading: " + JoH.dateTimeText(time) + " " + BgGraphBuilder.unitized_string_static(backsie.getGlucose()));
-                    changed = true;
-                }
-                UserError.Log.d(TAG, "Backsie: " + JoH.dateTimeText(time) + " " + BgGraphBuilder.unitized_string_static(backsie.getGlucose()));
+        final String txId = getTransmitterID();
+        final BackFillMerge.Result result = BackFillMerge.merge(backsies, dexTime -> DexTimeKeeper.fromDexTime(txId, dexTime), shortTxId(), tsl());
+        final List<BgReading> inserted = result.inserted;
+        if (!inserted.isEmpty()) {
+            lastGlucoseBgReading = inserted.get(inserted.size() - 1);
+            if (JoH.ratelimit("sync wakelock", 15)) {
+                final PowerManager.WakeLock linger = JoH.getWakeLock("G5 Insert", 4000);
             }
-        }
-        if (changed) {
+            // one pass of notification and upload queueing for the whole stream
+            Inevitable.stackableTask("NotifySyncBgr", 3000, () -> BgReading.notifyAndSyncBatch(inserted));
             updateStreamedTillTimeForBackfill();
             Home.staticRefreshBGChartsOnIdle();
         }
@@ -45,7 +45,6 @@ import androidx.health.connect.client.units.BloodGlucose;
 
 import com.eveningoutpost.dexdrip.BuildConfig;
 import com.eveningoutpost.dexdrip.R;
-import com.eveningoutpost.dexdrip.models.BgReading;
 import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.models.UserError.Log;
 import com.eveningoutpost.dexdrip.xdrip;
@@ -245,8 +244,8 @@ public class HealthGamut {
         new HealthGamut(xdrip.getAppContext()).init();
     }
 
-    public static void sendGlucoseStatic(final BgReading bg) {
-        new HealthGamut(xdrip.getAppContext()).sendGlucose(bg);
+    public static void sendGlucoseStatic(final long timestamp, final double mgdl) {
+        new HealthGamut(xdrip.getAppContext()).sendGlucose(timestamp, mgdl);
     }
 
     public void getAllDataIfEnabled() {
@@ -356,12 +355,12 @@ public class HealthGamut {
         }));
     }
 
-    public void sendGlucose(final BgReading bg) {
+    public void sendGlucose(final long timestamp, final double mgdl) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
         if (init()) {
             val list = new LinkedList<BloodGlucoseRecord>();
-            val record = new BloodGlucoseRecord(Instant.ofEpochMilli(bg.timestamp),
-                    null, BloodGlucose.milligramsPerDeciliter(bg.calculated_value),
+            val record = new BloodGlucoseRecord(Instant.ofEpochMilli(timestamp),
+                    null, BloodGlucose.milligramsPerDeciliter(mgdl),
                     BloodGlucoseRecord.SPECIMEN_SOURCE_INTERSTITIAL_FLUID,
                     MealType.MEAL_TYPE_UNKNOWN, BloodGlucoseRecord.RELATION_TO_MEAL_UNKNOWN, new Metadata());
             list.add(record);
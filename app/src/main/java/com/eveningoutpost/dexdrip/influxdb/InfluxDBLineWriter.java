@@ -0,0 +1,263 @@
+package com.eveningoutpost.dexdrip.influxdb;
+
+import com.activeandroid.Model;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.models.UserError;
+import com.eveningoutpost.dexdrip.models.UserError.Log;
+import com.eveningoutpost.dexdrip.utilitymodels.NightscoutUploader.UploadProgress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Uploads records to the InfluxDB write endpoint as gzipped line protocol in bounded chunks.
+ * <p>
+ * Lines are generated while the request is written so only the current chunk is ever referenced.
+ * Each accepted chunk is reported straight away so the uploader queue can mark just those entries
+ * done, a failure part way through a backlog then resumes from the first unacknowledged chunk.
+ * Failed chunks are retried a few times with back off before the run gives up.
+ */
+
+public class InfluxDBLineWriter {
+
+    private static final String TAG = "InfluxDBLineWriter";
+    private static final MediaType LINE_PROTOCOL = MediaType.parse("text/plain; charset=utf-8");
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    public static volatile String last_run;
+    public static volatile String last_error;
+
+    public interface LineFormatter {
+        void format(Model record, LineProtocol lines);
+    }
+
+    private final OkHttpClient client;
+    private final HttpUrl writeUrl;
+    private final LineFormatter formatter;
+    private final int chunkSize;
+    private final int concurrency;
+    private long retryDelay = RETRY_DELAY_MS;
+
+    public InfluxDBLineWriter(final OkHttpClient client, final HttpUrl writeUrl, final LineFormatter formatter, final int chunkSize, final int concurrency) {
+        this.client = client;
+        this.writeUrl = writeUrl;
+        this.formatter = formatter;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    InfluxDBLineWriter setRetryDelay(final long retryDelay) {
+        this.retryDelay = retryDelay;
+        return this;
+    }
+
+    // v1 write endpoint, timestamps are sent in milliseconds
+    public static HttpUrl getWriteUrl(final String dbUri, final String dbName, final String user, final String password) {
+        final HttpUrl base = dbUri != null ? HttpUrl.parse(dbUri) : null;
+        if (base == null) return null;
+        final HttpUrl.Builder builder = base.newBuilder()
+                .addPathSegment("write")
+                .addQueryParameter("db", dbName)
+                .addQueryParameter("rp", "autogen")
+                .addQueryParameter("precision", "ms")
+                .addQueryParameter("consistency", "all");
+        if (!JoH.emptyString(user)) {
+            builder.addQueryParameter("u", user)
+                    .addQueryParameter("p", password);
+        }
+        return builder.build();
+    }
+
+    public boolean write(final List<? extends Model> records, final UploadProgress progress) {
+        if (records.isEmpty()) return true;
+        final Stats stats = new Stats(records.size());
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, (records.size() + chunkSize - 1) / chunkSize));
+        final long start = JoH.tsl();
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int from = 0; from < records.size(); from += chunkSize) {
+                final List<? extends Model> chunk = records.subList(from, Math.min(records.size(), from + chunkSize));
+                futures.add(executor.submit(() -> {
+                    // once a chunk has failed there is no point sending the rest this time
+                    if (failed.get()) return;
+                    if (!sendChunk(chunk, stats)) {
+                        failed.set(true);
+                        return;
+                    }
+                    if (progress != null) {
+                        synchronized (progress) {
+                            progress.chunkUploaded(chunk);
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(TAG, "Write interrupted: " + e);
+            last_error = e.toString();
+            failed.set(true);
+        } finally {
+            executor.shutdownNow();
+            recordRun(stats, JoH.msSince(start));
+        }
+        if (!failed.get()) {
+            last_error = null;
+        }
+        return !failed.get();
+    }
+
+    private boolean sendChunk(final List<? extends Model> chunk, final Stats stats) {
+        final LineProtocolBody body = new LineProtocolBody(chunk);
+        final Request request = new Request.Builder()
+                .url(writeUrl)
+                .header("Content-Encoding", "gzip")
+                .post(body)
+                .build();
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            final long start = JoH.tsl();
+            try (final Response response = client.newCall(request).execute()) {
+                stats.latency(JoH.msSince(start));
+                if (response.isSuccessful()) {
+                    stats.accepted(chunk.size(), body.lines, body.written);
+                    return true;
+                }
+                last_error = response.code() + " " + response.message();
+                Log.e(TAG, "Chunk of " + chunk.size() + " rejected: " + last_error);
+                if (!isRetriable(response.code())) {
+                    break;
+                }
+            } catch (IOException e) {
+                stats.latency(JoH.msSince(start));
+                last_error = e.toString();
+                Log.e(TAG, "Chunk of " + chunk.size() + " failed: " + e);
+            }
+            if (attempt < MAX_ATTEMPTS) {
+                stats.retry();
+                try {
+                    Thread.sleep(retryDelay * attempt);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+        stats.failed();
+        return false;
+    }
+
+    // bad points or authentication will not get better by asking again
+    private static boolean isRetriable(final int code) {
+        return code == 408 || code == 429 || code >= 500;
+    }
+
+    private static void recordRun(final Stats stats, final long duration) {
+        last_run = stats.toString() + " in " + JoH.niceTimeScalar(duration);
+        if (stats.records > 500) {
+            UserError.Log.uel(TAG, "InfluxDB upload run: " + last_run);
+        } else {
+            Log.d(TAG, "InfluxDB upload run: " + last_run);
+        }
+    }
+
+    // writes the lines for a chunk through gzip straight in to the request sink
+    private class LineProtocolBody extends RequestBody {
+
+        private final List<? extends Model> records;
+        volatile int lines = 0;
+        volatile long written = 0;
+
+        LineProtocolBody(final List<? extends Model> records) {
+            this.records = records;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return LINE_PROTOCOL;
+        }
+
+        @Override
+        public long contentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(final BufferedSink sink) throws IOException {
+            // may be called again if the request is retried
+            final LineProtocol protocol = new LineProtocol();
+            long total = 0;
+            final BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+            for (final Model record : records) {
+                formatter.format(record, protocol);
+                total += protocol.drain(gzipSink);
+            }
+            gzipSink.close();
+            lines = protocol.getLineCount();
+            written = total;
+        }
+    }
+
+    static class Stats {
+        final int records;
+        int acceptedRecords = 0;
+        int chunksOk = 0;
+        int chunksFailed = 0;
+        int retries = 0;
+        long lines = 0;
+        long chars = 0;
+        int requests = 0;
+        long latencyTotal = 0;
+        long latencyMax = 0;
+
+        Stats(final int records) {
+            this.records = records;
+        }
+
+        synchronized void latency(final long ms) {
+            requests++;
+            latencyTotal += ms;
+            latencyMax = Math.max(latencyMax, ms);
+        }
+
+        synchronized void accepted(final int count, final int lineCount, final long written) {
+            chunksOk++;
+            acceptedRecords += count;
+            lines += lineCount;
+            chars += written;
+        }
+
+        synchronized void retry() {
+            retries++;
+        }
+
+        synchronized void failed() {
+            chunksFailed++;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return acceptedRecords + "/" + records + " records, " + lines + " lines, " + (chars / 1024) + "KB, "
+                    + chunksOk + " chunks ok" + (chunksFailed > 0 ? ", " + chunksFailed + " failed" : "")
+                    + (retries > 0 ? ", " + retries + " retries" : "")
+                    + (requests > 0 ? ", latency avg " + (latencyTotal / requests) + "ms max " + latencyMax + "ms" : "");
+        }
+    }
+}
@@ -10,36 +10,31 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
+import com.activeandroid.Model;
 import com.eveningoutpost.dexdrip.models.BgReading;
 import com.eveningoutpost.dexdrip.models.Calibration;
 import com.eveningoutpost.dexdrip.models.UserError.Log;
+import com.eveningoutpost.dexdrip.utilitymodels.NightscoutUploader.UploadProgress;
+import com.eveningoutpost.dexdrip.utilitymodels.Pref;
 
-import org.influxdb.InfluxDB;
-import org.influxdb.InfluxDBFactory;
-import org.influxdb.dto.BatchPoints;
-import org.influxdb.dto.Point;
-
-import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.HttpUrl;
-import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
-import okhttp3.Response;
 
 public class InfluxDBUploader {
     private static final int SOCKET_TIMEOUT = 60000;
     private static final int CONNECTION_TIMEOUT = 30000;
     private static final String TAG = InfluxDBUploader.class.getSimpleName();
-    private static String last_error;
     private SharedPreferences prefs;
     private String dbName;
     private String dbUri;
     private String dbUser;
     private String dbPassword;
-    private OkHttpClient.Builder client;
+    private OkHttpClient client;
 
     public InfluxDBUploader(Context context) {
         //Context mContext = context;
@@ -53,40 +48,18 @@ public class InfluxDBUploader {
                 .connectTimeout(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)
                 .readTimeout(SOCKET_TIMEOUT, TimeUnit.MILLISECONDS)
                 .writeTimeout(SOCKET_TIMEOUT, TimeUnit.MILLISECONDS)
-                .addNetworkInterceptor(new Interceptor() {
-                    @Override
-                    public Response intercept(Chain chain) throws IOException {
-                        HttpUrl url = HttpUrl.parse(dbUri);
-                        String fullPath = (url.encodedPath() + chain.request().url().encodedPath()).replaceFirst("^//", "/");
-                        HttpUrl.Builder fixedUrl = chain.request().url().newBuilder().encodedPath(fullPath);
-                        return chain.proceed(chain.request().newBuilder().url(fixedUrl.build()).build());
-                    }
-                });
+                .build();
     }
 
-    public boolean upload(List<BgReading> glucoseDataSets, List<Calibration> meterRecords, List<Calibration> calRecords) {
+    public boolean upload(List<BgReading> glucoseDataSets, List<Calibration> calRecords, UploadProgress progress) {
         try {
-            BatchPoints batchPoints = BatchPoints
-                    .database(dbName)
-                    .retentionPolicy("autogen")
-                    .consistency(InfluxDB.ConsistencyLevel.ALL)
-                    .build();
-
-
+            final List<Model> records = new ArrayList<>(glucoseDataSets.size() + calRecords.size());
             for (BgReading record : glucoseDataSets) {
                 if (record == null) {
                     Log.e(TAG, "InfluxDB glucose record is null");
                     continue;
                 }
-                batchPoints.point(createGlucosePoint(record));
-            }
-
-            for (Calibration record : meterRecords) {
-                if (record == null) {
-                    Log.e(TAG, "InfluxDB meter record is null");
-                    continue;
-                }
-                batchPoints.point(createMeterPoint(record));
+                records.add(record);
             }
 
             for (Calibration record : calRecords) {
@@ -94,78 +67,78 @@ public class InfluxDBUploader {
                     Log.e(TAG, "InfluxDB calibration record is null");
                     continue;
                 }
-                if (record.slope == 0d) continue;
-                batchPoints.point(createCalibrationPoint(record));
+                records.add(record);
             }
 
-            try {
-                Log.d(TAG, "Influx url: " + dbUri);
-                InfluxDBFactory.connect(dbUri, dbUser, dbPassword, client).enableGzip().write(batchPoints);
-                last_error = null;
-                return true;
-            } catch (java.lang.ExceptionInInitializerError e) {
-                Log.e(TAG, "InfluxDB failed: " + e.getCause());
-                return false;
-            } catch (java.lang.NoClassDefFoundError e) {
-                Log.e(TAG, "InfluxDB failed more: " + e);
-                return false;
-            } catch (IllegalArgumentException e) {
-                Log.wtf(TAG, "InfluxDB problem: " + e);
-                return false;
-            } catch (Exception e) {
-                Log.e(TAG, "Write to InfluxDB failed: " + e);
-                last_error = e.getMessage();
+            Log.d(TAG, "Influx url: " + dbUri);
+            final HttpUrl writeUrl = InfluxDBLineWriter.getWriteUrl(dbUri, dbName, dbUser, dbPassword);
+            if (writeUrl == null) {
+                Log.wtf(TAG, "InfluxDB problem: invalid uri " + dbUri);
                 return false;
             }
+            return new InfluxDBLineWriter(client, writeUrl, this::format,
+                    Pref.getStringToInt("cloud_storage_influxdb_batch_size", 500),
+                    Pref.getStringToInt("cloud_storage_influxdb_concurrency", 1))
+                    .write(records, progress);
         } catch (Exception e) {
             Log.wtf(TAG, "Exception during initialization: ", e);
             return false;
         }
     }
 
-    private Point createGlucosePoint(BgReading record) {
+    private void format(Model record, LineProtocol lines) {
+        if (record instanceof BgReading) {
+            addGlucoseLine((BgReading) record, lines);
+        } else if (record instanceof Calibration) {
+            final Calibration calibration = (Calibration) record;
+            addMeterLine(calibration, lines);
+            if (calibration.slope != 0d) {
+                addCalibrationLine(calibration, lines);
+            }
+        }
+    }
+
+    private void addGlucoseLine(BgReading record, LineProtocol lines) {
         // TODO DisplayGlucose option
-        final BigDecimal delta = new BigDecimal(record.calculated_value_slope * 5 * 60 * 1000)
+        final double slope = record.calculated_value_slope * 5 * 60 * 1000;
+        final BigDecimal delta = Double.isNaN(slope) || Double.isInfinite(slope) ? null : new BigDecimal(slope)
                 .setScale(3, BigDecimal.ROUND_HALF_UP);
 
-        return Point.measurement("glucose")
-                .time(record.getEpochTimestamp(), TimeUnit.MILLISECONDS)
-                .addField("value_mmol", record.calculated_value_mmol())
-                .addField("value_mgdl", record.getMgdlValue())
-                .addField("direction", record.slopeName())
-                .addField("filtered", record.ageAdjustedFiltered() * 1000)
-                .addField("unfiltered", record.usedRaw() * 1000)
-                .addField("rssi", 100)
-                .addField("noise", record.noiseValue())
-                .addField("delta", delta)
-                .build();
+        lines.measurement("glucose")
+                .field("value_mmol", record.calculated_value_mmol())
+                .field("value_mgdl", record.getMgdlValue())
+                .field("direction", record.slopeName())
+                .field("filtered", record.ageAdjustedFiltered() * 1000)
+                .field("unfiltered", record.usedRaw() * 1000)
+                .field("rssi", 100)
+                .field("noise", record.noiseValue())
+                .field("delta", delta)
+                .time(record.getEpochTimestamp());
     }
 
-    private Point createMeterPoint(Calibration record) {
-        return Point.measurement("meter")
-                .time(record.timestamp, TimeUnit.MILLISECONDS)
+    private void addMeterLine(Calibration record, LineProtocol lines) {
+        lines.measurement("meter")
                 .tag("device", "xDrip-" + prefs.getString("dex_collection_method", "BluetoothWixel"))
                 .tag("type", "mbg")
-                .addField("mbg", record.bg)
-                .build();
+                .field("mbg", record.bg)
+                .time(record.timestamp);
     }
 
-    private Point createCalibrationPoint(Calibration record) {
-        Point.Builder builder = Point.measurement("calibration")
-                .time(record.timestamp, TimeUnit.MILLISECONDS)
+    private void addCalibrationLine(Calibration record, LineProtocol lines) {
+        lines.measurement("calibration")
                 .tag("device", "xDrip-" + prefs.getString("dex_collection_method", "BluetoothWixel"))
                 .tag("type", "cal");
 
         if (record.check_in) {
-            builder.addField("slope", record.first_slope)
-                    .addField("intercept", record.first_intercept)
-                    .addField("scale", record.first_scale);
+            lines.field("slope", record.first_slope)
+                    .field("intercept", record.first_intercept)
+                    .field("scale", record.first_scale);
         } else {
-            builder.addField("slope", (1000 / record.slope))
-                    .addField("intercept", ((record.intercept * -1000) / record.slope))
-                    .addField("scale", 1);
+            lines.field("slope", (1000 / record.slope))
+                    .field("intercept", ((record.intercept * -1000) / record.slope))
+                    .field("scale", 1);
         }
 
-        return builder.build();
+        lines.time(record.timestamp);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,118 @@
+package com.eveningoutpost.dexdrip.influxdb;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import okio.BufferedSink;
+
+/**
+ * Builds InfluxDB line protocol text directly without intermediate point objects
+ * <p>
+ * lines.measurement("glucose").tag("device", "x").field("value", 5.5).time(ms);
+ * <p>
+ * Completed lines collect in an internal buffer until drained in to a sink. A line with no usable
+ * fields is dropped as InfluxDB would reject it. Not thread safe, use one per writer.
+ */
+
+public class LineProtocol {
+
+    private final StringBuilder buffer = new StringBuilder(4096);
+    private final StringBuilder tags = new StringBuilder(128);
+    private final StringBuilder fields = new StringBuilder(256);
+    private int lineCount = 0;
+
+    public LineProtocol measurement(final String name) {
+        tags.setLength(0);
+        fields.setLength(0);
+        escape(tags, name, false);
+        return this;
+    }
+
+    public LineProtocol tag(final String key, final String value) {
+        if (value == null || value.isEmpty()) return this;
+        tags.append(',');
+        escape(tags, key, true);
+        tags.append('=');
+        escape(tags, value, true);
+        return this;
+    }
+
+    // NaN and infinity cannot be represented so the field is left out
+    public LineProtocol field(final String key, final double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return this;
+        fieldKey(key).append(value);
+        return this;
+    }
+
+    public LineProtocol field(final String key, final long value) {
+        fieldKey(key).append(value).append('i');
+        return this;
+    }
+
+    public LineProtocol field(final String key, final BigDecimal value) {
+        if (value == null) return this;
+        fieldKey(key).append(value.toPlainString());
+        return this;
+    }
+
+    public LineProtocol field(final String key, final String value) {
+        if (value == null) return this;
+        fieldKey(key).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                fields.append('\\');
+            }
+            fields.append(c);
+        }
+        fields.append('"');
+        return this;
+    }
+
+    // completes the line
+    public LineProtocol time(final long timestampMs) {
+        if (fields.length() > 0) {
+            buffer.append(tags).append(' ').append(fields).append(' ').append(timestampMs).append('\n');
+            lineCount++;
+        }
+        tags.setLength(0);
+        fields.setLength(0);
+        return this;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    // returns the number of characters written
+    public int drain(final BufferedSink sink) throws IOException {
+        final int length = buffer.length();
+        sink.writeUtf8(buffer.toString());
+        buffer.setLength(0);
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+
+    private StringBuilder fieldKey(final String key) {
+        if (fields.length() > 0) {
+            fields.append(',');
+        }
+        escape(fields, key, true);
+        return fields.append('=');
+    }
+
+    // measurements escape commas and spaces, keys and tag values also escape equals
+    private static void escape(final StringBuilder out, final String text, final boolean equals) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == ',' || c == ' ' || (equals && c == '=')) {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+    }
+}
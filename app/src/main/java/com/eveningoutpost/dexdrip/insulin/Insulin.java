@@ -14,6 +14,7 @@ public abstract class Insulin {
     private Boolean enabled;
     protected double concentration;
     protected long maxEffect;
+    private transient volatile LookupTable lookupTable;
 
     public Insulin(String n, String dn, ArrayList<String> ppn, String c, JsonObject curveData) {
         name = n;
@@ -71,11 +72,97 @@ public abstract class Insulin {
         return pharmacyProductNumber;
     }
 
-    public double calculateIOB(long time) {
+    // analytic curve, time in minutes since the dose
+    protected double curveIOB(double time) {
         return -1;
     }
 
-    public double calculateActivity(long time) {
+    // analytic curve, time in minutes since the dose
+    protected double curveActivity(double time) {
         return -1;
     }
+
+    public double calculateIOBAnalytic(double time) {
+        return curveIOB(time);
+    }
+
+    public double calculateActivityAnalytic(double time) {
+        return curveActivity(time);
+    }
+
+    // whole minute lookups hit table samples exactly so no interpolation is needed
+    public double calculateIOB(long time) {
+        final LookupTable table = getLookupTable();
+        if (table == null || time < 0) return curveIOB(time);
+        return time < table.size ? table.iob[(int) time] : table.iobAfter;
+    }
+
+    public double calculateActivity(long time) {
+        final LookupTable table = getLookupTable();
+        if (table == null || time < 0) return curveActivity(time);
+        return time < table.size ? table.activity[(int) time] : table.activityAfter;
+    }
+
+    public double calculateIOB(double time) {
+        final LookupTable table = getLookupTable();
+        if (table == null || time < 0) return curveIOB(time);
+        return table.interpolate(table.iob, table.iobAfter, time);
+    }
+
+    public double calculateActivity(double time) {
+        final LookupTable table = getLookupTable();
+        if (table == null || time < 0) return curveActivity(time);
+        return table.interpolate(table.activity, table.activityAfter, time);
+    }
+
+    public LookupTable getLookupTable() {
+        LookupTable table = lookupTable;
+        if (table == null && maxEffect > 0) {
+            synchronized (this) {
+                table = lookupTable;
+                if (table == null) {
+                    table = new LookupTable(this);
+                    lookupTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Immutable curve samples at one minute intervals from the dose until max effect,
+     * with linear interpolation between them.
+     */
+    public static final class LookupTable {
+        public static final double RESOLUTION_MINUTES = 1;
+        private final int size;
+        private final double[] iob;
+        private final double[] activity;
+        private final double iobAfter;
+        private final double activityAfter;
+
+        private LookupTable(final Insulin insulin) {
+            size = (int) insulin.maxEffect + 1;
+            iob = new double[size];
+            activity = new double[size];
+            for (int i = 0; i < size; i++) {
+                iob[i] = insulin.curveIOB(i * RESOLUTION_MINUTES);
+                activity[i] = insulin.curveActivity(i * RESOLUTION_MINUTES);
+            }
+            iobAfter = insulin.curveIOB(size * RESOLUTION_MINUTES);
+            activityAfter = insulin.curveActivity(size * RESOLUTION_MINUTES);
+        }
+
+        private double interpolate(final double[] table, final double after, final double time) {
+            final int index = (int) time;
+            if (index >= size - 1) {
+                return index >= size ? after : table[index] + (after - table[index]) * (time - index);
+            }
+            return table[index] + (table[index + 1] - table[index]) * (time - index);
+        }
+
+        public int size() {
+            return size;
+        }
+    }
 }
@@ -5,6 +5,7 @@ import android.util.Log;
 import androidx.annotation.Keep;
 
 import com.eveningoutpost.dexdrip.R;
+import com.eveningoutpost.dexdrip.models.IobSliceCache;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
 import com.eveningoutpost.dexdrip.xdrip;
 import com.google.gson.Gson;
@@ -116,6 +117,7 @@ public class InsulinManager {
             profiles = iDW.getInsulinProfiles();
             Log.d(TAG, "Loaded Insulin Profiles: " + Integer.toString(profiles.size()));
             LoadDisabledProfilesFromPrefs();
+            IobSliceCache.invalidateAll();
             Log.d(TAG, "InsulinManager initialized from config file and Prefs");
         } catch (Exception e) {
             e.printStackTrace();
@@ -269,5 +271,6 @@ public class InsulinManager {
             Pref.setString("saved_bolus_insulinprofiles", bolusProfile.getName());
             Log.d(TAG, "saved bolus Insulin Profiles to Prefs: " + bolusProfile.getName());
         }
+        IobSliceCache.invalidateAll(); // legacy doses follow the bolus profile
     }
 }
@@ -30,7 +30,8 @@ public class LinearTrapezoidInsulin extends Insulin {
         maxEffect = t3;
     }
 
-    public double calculateIOB(long t) {
+    @Override
+    protected double curveIOB(double t) {
 
 		if ((0 <= t) && (t < onset))
 			return 1.0;
@@ -43,7 +44,8 @@ public class LinearTrapezoidInsulin extends Insulin {
         else return 0;
     }
 
-    public double calculateActivity(long t) {
+    @Override
+    protected double curveActivity(double t) {
 
         if ((0 <= t) && (t < onset))
             return 0.0;
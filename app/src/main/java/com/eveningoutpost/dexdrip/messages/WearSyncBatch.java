@@ -0,0 +1,280 @@
+// Code generated by Wire protocol buffer compiler, do not edit.
+// Source file: WearSyncBatch.proto at 9:1
+package com.eveningoutpost.dexdrip.messages;
+
+import com.squareup.wire.FieldEncoding;
+import com.squareup.wire.Message;
+import com.squareup.wire.ProtoAdapter;
+import com.squareup.wire.ProtoReader;
+import com.squareup.wire.ProtoWriter;
+import com.squareup.wire.WireField;
+import com.squareup.wire.internal.Internal;
+import java.io.IOException;
+import java.lang.Integer;
+import java.lang.Long;
+import java.lang.Object;
+import java.lang.Override;
+import java.lang.String;
+import java.lang.StringBuilder;
+import java.util.List;
+import okio.ByteString;
+
+public final class WearSyncBatch extends Message<WearSyncBatch, WearSyncBatch.Builder> {
+  public static final ProtoAdapter<WearSyncBatch> ADAPTER = new ProtoAdapter_WearSyncBatch();
+
+  private static final long serialVersionUID = 0L;
+
+  public static final Integer DEFAULT_VERSION = 0;
+
+  public static final Integer DEFAULT_TYPE = 0;
+
+  public static final Integer DEFAULT_COLUMNS = 0;
+
+  @WireField(
+      tag = 1,
+      adapter = "com.squareup.wire.ProtoAdapter#UINT32"
+  )
+  public final Integer version;
+
+  @WireField(
+      tag = 2,
+      adapter = "com.squareup.wire.ProtoAdapter#UINT32"
+  )
+  public final Integer type;
+
+  @WireField(
+      tag = 3,
+      adapter = "com.squareup.wire.ProtoAdapter#UINT32"
+  )
+  public final Integer columns;
+
+  @WireField(
+      tag = 4,
+      adapter = "com.squareup.wire.ProtoAdapter#SINT64",
+      label = WireField.Label.PACKED
+  )
+  public final List<Long> timestamp_delta;
+
+  @WireField(
+      tag = 5,
+      adapter = "com.squareup.wire.ProtoAdapter#SINT64",
+      label = WireField.Label.PACKED
+  )
+  public final List<Long> value_delta;
+
+  @WireField(
+      tag = 6,
+      adapter = "com.squareup.wire.ProtoAdapter#BYTES",
+      label = WireField.Label.REPEATED
+  )
+  public final List<ByteString> uuid;
+
+  @WireField(
+      tag = 7,
+      adapter = "com.squareup.wire.ProtoAdapter#STRING",
+      label = WireField.Label.REPEATED
+  )
+  public final List<String> text;
+
+  public WearSyncBatch(Integer version, Integer type, Integer columns, List<Long> timestamp_delta, List<Long> value_delta, List<ByteString> uuid, List<String> text) {
+    this(version, type, columns, timestamp_delta, value_delta, uuid, text, ByteString.EMPTY);
+  }
+
+  public WearSyncBatch(Integer version, Integer type, Integer columns, List<Long> timestamp_delta, List<Long> value_delta, List<ByteString> uuid, List<String> text, ByteString unknownFields) {
+    super(ADAPTER, unknownFields);
+    this.version = version;
+    this.type = type;
+    this.columns = columns;
+    this.timestamp_delta = Internal.immutableCopyOf("timestamp_delta", timestamp_delta);
+    this.value_delta = Internal.immutableCopyOf("value_delta", value_delta);
+    this.uuid = Internal.immutableCopyOf("uuid", uuid);
+    this.text = Internal.immutableCopyOf("text", text);
+  }
+
+  @Override
+  public Builder newBuilder() {
+    Builder builder = new Builder();
+    builder.version = version;
+    builder.type = type;
+    builder.columns = columns;
+    builder.timestamp_delta = Internal.copyOf("timestamp_delta", timestamp_delta);
+    builder.value_delta = Internal.copyOf("value_delta", value_delta);
+    builder.uuid = Internal.copyOf("uuid", uuid);
+    builder.text = Internal.copyOf("text", text);
+    builder.addUnknownFields(unknownFields());
+    return builder;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (other == this) return true;
+    if (!(other instanceof WearSyncBatch)) return false;
+    WearSyncBatch o = (WearSyncBatch) other;
+    return Internal.equals(unknownFields(), o.unknownFields())
+        && Internal.equals(version, o.version)
+        && Internal.equals(type, o.type)
+        && Internal.equals(columns, o.columns)
+        && Internal.equals(timestamp_delta, o.timestamp_delta)
+        && Internal.equals(value_delta, o.value_delta)
+        && Internal.equals(uuid, o.uuid)
+        && Internal.equals(text, o.text);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = super.hashCode;
+    if (result == 0) {
+      result = unknownFields().hashCode();
+      result = result * 37 + (version != null ? version.hashCode() : 0);
+      result = result * 37 + (type != null ? type.hashCode() : 0);
+      result = result * 37 + (columns != null ? columns.hashCode() : 0);
+      result = result * 37 + (timestamp_delta != null ? timestamp_delta.hashCode() : 1);
+      result = result * 37 + (value_delta != null ? value_delta.hashCode() : 1);
+      result = result * 37 + (uuid != null ? uuid.hashCode() : 1);
+      result = result * 37 + (text != null ? text.hashCode() : 1);
+      super.hashCode = result;
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    if (version != null) builder.append(", version=").append(version);
+    if (type != null) builder.append(", type=").append(type);
+    if (columns != null) builder.append(", columns=").append(columns);
+    if (timestamp_delta != null) builder.append(", timestamp_delta=").append(timestamp_delta);
+    if (value_delta != null) builder.append(", value_delta=").append(value_delta);
+    if (uuid != null) builder.append(", uuid=").append(uuid);
+    if (text != null) builder.append(", text=").append(text);
+    return builder.replace(0, 2, "WearSyncBatch{").append('}').toString();
+  }
+
+  public static final class Builder extends Message.Builder<WearSyncBatch, Builder> {
+    public Integer version;
+
+    public Integer type;
+
+    public Integer columns;
+
+    public List<Long> timestamp_delta;
+
+    public List<Long> value_delta;
+
+    public List<ByteString> uuid;
+
+    public List<String> text;
+
+    public Builder() {
+      timestamp_delta = Internal.newMutableList();
+      value_delta = Internal.newMutableList();
+      uuid = Internal.newMutableList();
+      text = Internal.newMutableList();
+    }
+
+    public Builder version(Integer version) {
+      this.version = version;
+      return this;
+    }
+
+    public Builder type(Integer type) {
+      this.type = type;
+      return this;
+    }
+
+    public Builder columns(Integer columns) {
+      this.columns = columns;
+      return this;
+    }
+
+    public Builder timestamp_delta(List<Long> timestamp_delta) {
+      Internal.checkElementsNotNull(timestamp_delta);
+      this.timestamp_delta = timestamp_delta;
+      return this;
+    }
+
+    public Builder value_delta(List<Long> value_delta) {
+      Internal.checkElementsNotNull(value_delta);
+      this.value_delta = value_delta;
+      return this;
+    }
+
+    public Builder uuid(List<ByteString> uuid) {
+      Internal.checkElementsNotNull(uuid);
+      this.uuid = uuid;
+      return this;
+    }
+
+    public Builder text(List<String> text) {
+      Internal.checkElementsNotNull(text);
+      this.text = text;
+      return this;
+    }
+
+    @Override
+    public WearSyncBatch build() {
+      return new WearSyncBatch(version, type, columns, timestamp_delta, value_delta, uuid, text, buildUnknownFields());
+    }
+  }
+
+  private static final class ProtoAdapter_WearSyncBatch extends ProtoAdapter<WearSyncBatch> {
+    ProtoAdapter_WearSyncBatch() {
+      super(FieldEncoding.LENGTH_DELIMITED, WearSyncBatch.class);
+    }
+
+    @Override
+    public int encodedSize(WearSyncBatch value) {
+      return (value.version != null ? ProtoAdapter.UINT32.encodedSizeWithTag(1, value.version) : 0)
+          + (value.type != null ? ProtoAdapter.UINT32.encodedSizeWithTag(2, value.type) : 0)
+          + (value.columns != null ? ProtoAdapter.UINT32.encodedSizeWithTag(3, value.columns) : 0)
+          + ProtoAdapter.SINT64.asPacked().encodedSizeWithTag(4, value.timestamp_delta)
+          + ProtoAdapter.SINT64.asPacked().encodedSizeWithTag(5, value.value_delta)
+          + ProtoAdapter.BYTES.asRepeated().encodedSizeWithTag(6, value.uuid)
+          + ProtoAdapter.STRING.asRepeated().encodedSizeWithTag(7, value.text)
+          + value.unknownFields().size();
+    }
+
+    @Override
+    public void encode(ProtoWriter writer, WearSyncBatch value) throws IOException {
+      if (value.version != null) ProtoAdapter.UINT32.encodeWithTag(writer, 1, value.version);
+      if (value.type != null) ProtoAdapter.UINT32.encodeWithTag(writer, 2, value.type);
+      if (value.columns != null) ProtoAdapter.UINT32.encodeWithTag(writer, 3, value.columns);
+      if (value.timestamp_delta != null) ProtoAdapter.SINT64.asPacked().encodeWithTag(writer, 4, value.timestamp_delta);
+      if (value.value_delta != null) ProtoAdapter.SINT64.asPacked().encodeWithTag(writer, 5, value.value_delta);
+      if (value.uuid != null) ProtoAdapter.BYTES.asRepeated().encodeWithTag(writer, 6, value.uuid);
+      if (value.text != null) ProtoAdapter.STRING.asRepeated().encodeWithTag(writer, 7, value.text);
+      writer.writeBytes(value.unknownFields());
+    }
+
+    @Override
+    public WearSyncBatch decode(ProtoReader reader) throws IOException {
+      Builder builder = new Builder();
+      long token = reader.beginMessage();
+      for (int tag; (tag = reader.nextTag()) != -1;) {
+        switch (tag) {
+          case 1: builder.version(ProtoAdapter.UINT32.decode(reader)); break;
+          case 2: builder.type(ProtoAdapter.UINT32.decode(reader)); break;
+          case 3: builder.columns(ProtoAdapter.UINT32.decode(reader)); break;
+          case 4: builder.timestamp_delta.add(ProtoAdapter.SINT64.decode(reader)); break;
+          case 5: builder.value_delta.add(ProtoAdapter.SINT64.decode(reader)); break;
+          case 6: builder.uuid.add(ProtoAdapter.BYTES.decode(reader)); break;
+          case 7: builder.text.add(ProtoAdapter.STRING.decode(reader)); break;
+          default: {
+            FieldEncoding fieldEncoding = reader.peekFieldEncoding();
+            Object value = fieldEncoding.rawProtoAdapter().decode(reader);
+            builder.addUnknownField(tag, fieldEncoding, value);
+          }
+        }
+      }
+      reader.endMessage(token);
+      return builder.build();
+    }
+
+    @Override
+    public WearSyncBatch redact(WearSyncBatch value) {
+      Builder builder = value.newBuilder();
+      builder.clearUnknownFields();
+      return builder.build();
+    }
+  }
+}
@@ -0,0 +1,334 @@
+package com.eveningoutpost.dexdrip.messages;
+
+import com.eveningoutpost.dexdrip.models.BgReading;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import okio.ByteString;
+
+/**
+ * Packs rows of (timestamp, integer columns, uuid, text) into a WearSyncBatch.
+ *
+ * Timestamps are stored as the difference from the previous row and each column as the
+ * difference from the same column in the previous row, so sorted sensor data collapses
+ * into one or two byte varints. Callers choose how to scale their values into longs.
+ *
+ * This file is the same in the phone and watch apps, which both have the BgReading model, so
+ * the reading layout is defined in one place.
+ */
+public class WearSyncCodec {
+
+    // 2 adds the display glucose columns and the extra text sections for bg readings
+    public static final int VERSION = 2;
+
+    public static final int TYPE_BGREADING = 1;
+    public static final int TYPE_TREATMENT = 2;
+    public static final int TYPE_HEART = 3;
+    public static final int TYPE_STEPS = 4;
+
+    // bg reading column layout, glucose values are fixed point and curve coefficients are raw double bits
+    public static final int BG_CALCULATED = 0;
+    public static final int BG_FILTERED_CALCULATED = 1;
+    public static final int BG_RAW = 2;
+    public static final int BG_FILTERED = 3;
+    public static final int BG_AGE_ADJUSTED = 4;
+    public static final int BG_RAW_CALCULATED = 5;
+    public static final int BG_SLOPE = 6;
+    public static final int BG_SENSOR_AGE = 7;
+    public static final int BG_FLAGS = 8;
+    public static final int BG_A = 9;
+    public static final int BG_B = 10;
+    public static final int BG_C = 11;
+    public static final int BG_RA = 12;
+    public static final int BG_RB = 13;
+    public static final int BG_RC = 14;
+    public static final int BG_DG_MGDL = 15;
+    public static final int BG_DG_SLOPE = 16;
+    public static final int BG_COLUMNS = 17;
+
+    // bg reading text sections, absent trailing sections from version 1 batches read as null
+    private static final char SECTION = '\u001f';
+    private static final int TEXT_SOURCE = 0;
+    private static final int TEXT_NOISE = 1;
+    private static final int TEXT_DG_DELTA_NAME = 2;
+    private static final int TEXT_CALIBRATION_UUID = 3;
+    private static final int TEXT_SENSOR_UUID = 4;
+
+    public static final int FLAG_CALIBRATION = 1;
+    public static final int FLAG_HIDE_SLOPE = 2;
+    public static final int FLAG_IGNORE_FOR_STATS = 4;
+    public static final int FLAG_SLOPE_NAN = 8;
+    public static final int FLAG_DG_SLOPE_NAN = 16;
+
+    public static final int HEART_BPM = 0;
+    public static final int HEART_ACCURACY = 1;
+    public static final int HEART_COLUMNS = 2;
+
+    public static final int STEPS_METRIC = 0;
+    public static final int STEPS_COLUMNS = 1;
+
+    public static final int TREATMENT_COLUMNS = 0;
+
+    private static final double VALUE_SCALE = 1000d;
+    private static final double SLOPE_SCALE = 1e10d;
+
+    private static final ByteString NO_UUID = ByteString.EMPTY;
+    private static final byte UUID_TEXT = 0;
+    private static final byte UUID_BINARY = 1;
+
+    public static long fixed(final double value) {
+        return Math.round(value * VALUE_SCALE);
+    }
+
+    public static double unfixed(final long value) {
+        return value / VALUE_SCALE;
+    }
+
+    public static long fixedSlope(final double slope) {
+        return Double.isNaN(slope) ? 0 : Math.round(slope * SLOPE_SCALE);
+    }
+
+    public static double unfixedSlope(final long value) {
+        return value / SLOPE_SCALE;
+    }
+
+    public static byte[] fromBgReadings(final List<BgReading> readings) {
+        final Writer writer = new Writer(TYPE_BGREADING, BG_COLUMNS);
+        for (final BgReading bg : readings) {
+            final long[] values = new long[BG_COLUMNS];
+            values[BG_CALCULATED] = fixed(bg.calculated_value);
+            values[BG_FILTERED_CALCULATED] = fixed(bg.filtered_calculated_value);
+            values[BG_RAW] = fixed(bg.raw_data);
+            values[BG_FILTERED] = fixed(bg.filtered_data);
+            values[BG_AGE_ADJUSTED] = fixed(bg.age_adjusted_raw_value);
+            values[BG_RAW_CALCULATED] = fixed(bg.raw_calculated);
+            values[BG_SLOPE] = fixedSlope(bg.calculated_value_slope);
+            values[BG_SENSOR_AGE] = Math.round(bg.time_since_sensor_started);
+            values[BG_FLAGS] = (bg.calibration_flag ? FLAG_CALIBRATION : 0)
+                    | (bg.hide_slope ? FLAG_HIDE_SLOPE : 0)
+                    | (bg.ignoreForStats ? FLAG_IGNORE_FOR_STATS : 0)
+                    | (Double.isNaN(bg.calculated_value_slope) ? FLAG_SLOPE_NAN : 0)
+                    | (Double.isNaN(bg.dg_slope) ? FLAG_DG_SLOPE_NAN : 0);
+            values[BG_A] = Double.doubleToLongBits(bg.a);
+            values[BG_B] = Double.doubleToLongBits(bg.b);
+            values[BG_C] = Double.doubleToLongBits(bg.c);
+            values[BG_RA] = Double.doubleToLongBits(bg.ra);
+            values[BG_RB] = Double.doubleToLongBits(bg.rb);
+            values[BG_RC] = Double.doubleToLongBits(bg.rc);
+            values[BG_DG_MGDL] = fixed(bg.dg_mgdl);
+            values[BG_DG_SLOPE] = fixedSlope(bg.dg_slope);
+            writer.add(bg.timestamp, values, bg.uuid, sections(bg.source_info, bg.noise, bg.dg_delta_name, bg.calibration_uuid, bg.sensor_uuid));
+        }
+        return writer.toBytes();
+    }
+
+    public static List<BgReading> toBgReadings(final Reader reader) {
+        final List<BgReading> readings = new ArrayList<>(reader.size());
+        for (int i = 0; i < reader.size(); i++) {
+            final BgReading bg = new BgReading();
+            final long flags = reader.value(i, BG_FLAGS);
+            bg.timestamp = reader.timestamp(i);
+            bg.calculated_value = unfixed(reader.value(i, BG_CALCULATED));
+            bg.filtered_calculated_value = unfixed(reader.value(i, BG_FILTERED_CALCULATED));
+            bg.raw_data = unfixed(reader.value(i, BG_RAW));
+            bg.filtered_data = unfixed(reader.value(i, BG_FILTERED));
+            bg.age_adjusted_raw_value = unfixed(reader.value(i, BG_AGE_ADJUSTED));
+            bg.raw_calculated = unfixed(reader.value(i, BG_RAW_CALCULATED));
+            bg.calculated_value_slope = (flags & FLAG_SLOPE_NAN) != 0 ? Double.NaN : unfixedSlope(reader.value(i, BG_SLOPE));
+            bg.time_since_sensor_started = reader.value(i, BG_SENSOR_AGE);
+            bg.calibration_flag = (flags & FLAG_CALIBRATION) != 0;
+            bg.hide_slope = (flags & FLAG_HIDE_SLOPE) != 0;
+            bg.ignoreForStats = (flags & FLAG_IGNORE_FOR_STATS) != 0;
+            bg.a = Double.longBitsToDouble(reader.value(i, BG_A));
+            bg.b = Double.longBitsToDouble(reader.value(i, BG_B));
+            bg.c = Double.longBitsToDouble(reader.value(i, BG_C));
+            bg.ra = Double.longBitsToDouble(reader.value(i, BG_RA));
+            bg.rb = Double.longBitsToDouble(reader.value(i, BG_RB));
+            bg.rc = Double.longBitsToDouble(reader.value(i, BG_RC));
+            bg.dg_mgdl = unfixed(reader.value(i, BG_DG_MGDL));
+            bg.dg_slope = (flags & FLAG_DG_SLOPE_NAN) != 0 ? Double.NaN : unfixedSlope(reader.value(i, BG_DG_SLOPE));
+            bg.uuid = reader.uuid(i);
+            final String[] text = reader.text(i).split(String.valueOf(SECTION), -1);
+            bg.source_info = section(text, TEXT_SOURCE);
+            bg.noise = section(text, TEXT_NOISE);
+            bg.dg_delta_name = section(text, TEXT_DG_DELTA_NAME);
+            bg.calibration_uuid = section(text, TEXT_CALIBRATION_UUID);
+            bg.sensor_uuid = section(text, TEXT_SENSOR_UUID);
+            readings.add(bg);
+        }
+        return readings;
+    }
+
+    // null and empty strings are both sent as an empty section and arrive as null
+    private static String sections(final String... values) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) builder.append(SECTION);
+            if (values[i] != null) builder.append(values[i]);
+        }
+        return builder.toString();
+    }
+
+    private static String section(final String[] text, final int index) {
+        return index < text.length && text[index].length() > 0 ? text[index] : null;
+    }
+
+    public static class Writer {
+        private final int type;
+        private final int columns;
+        private final List<Long> timestampDelta = new ArrayList<>();
+        private final List<Long> valueDelta = new ArrayList<>();
+        private final List<ByteString> uuids = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private final long[] previous;
+        private long previousTimestamp = 0;
+        private boolean hasUuid = false;
+        private boolean hasText = false;
+
+        public Writer(final int type, final int columns) {
+            this.type = type;
+            this.columns = columns;
+            this.previous = new long[columns];
+        }
+
+        public Writer add(final long timestamp, final long[] values, final String uuid, final String text) {
+            if (values.length != columns) {
+                throw new IllegalArgumentException("Expected " + columns + " columns but got " + values.length);
+            }
+            timestampDelta.add(timestamp - previousTimestamp);
+            previousTimestamp = timestamp;
+            for (int i = 0; i < columns; i++) {
+                valueDelta.add(values[i] - previous[i]);
+                previous[i] = values[i];
+            }
+            uuids.add(encodeUuid(uuid));
+            hasUuid |= uuid != null;
+            texts.add(text != null ? text : "");
+            hasText |= text != null && text.length() > 0;
+            return this;
+        }
+
+        public int size() {
+            return timestampDelta.size();
+        }
+
+        public byte[] toBytes() {
+            return new WearSyncBatch.Builder()
+                    .version(VERSION)
+                    .type(type)
+                    .columns(columns)
+                    .timestamp_delta(timestampDelta)
+                    .value_delta(valueDelta)
+                    .uuid(hasUuid ? uuids : new ArrayList<>())
+                    .text(hasText ? texts : new ArrayList<>())
+                    .build().encode();
+        }
+    }
+
+    public static class Reader {
+        private final int type;
+        private final int columns;
+        private final long[] timestamps;
+        private final long[] values;
+        private final List<ByteString> uuids;
+        private final List<String> texts;
+
+        private Reader(final WearSyncBatch batch) {
+            type = batch.type != null ? batch.type : 0;
+            columns = batch.columns != null ? batch.columns : 0;
+            final int size = batch.timestamp_delta.size();
+            if (batch.value_delta.size() != size * columns) {
+                throw new IllegalArgumentException("Value count " + batch.value_delta.size() + " does not match " + size + " rows of " + columns);
+            }
+            timestamps = new long[size];
+            values = new long[size * columns];
+            long timestamp = 0;
+            int position = 0;
+            for (int row = 0; row < size; row++) {
+                timestamp += batch.timestamp_delta.get(row);
+                timestamps[row] = timestamp;
+                for (int column = 0; column < columns; column++) {
+                    values[position] = batch.value_delta.get(position) + (row > 0 ? values[position - columns] : 0);
+                    position++;
+                }
+            }
+            uuids = batch.uuid;
+            texts = batch.text;
+        }
+
+        // returns null if the data is not something we understand
+        public static Reader parse(final byte[] bytes) {
+            if (bytes == null) return null;
+            try {
+                final WearSyncBatch batch = WearSyncBatch.ADAPTER.decode(bytes);
+                if (batch.version == null || batch.version > VERSION) return null;
+                return new Reader(batch);
+            } catch (IOException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        public int type() {
+            return type;
+        }
+
+        public int size() {
+            return timestamps.length;
+        }
+
+        public long timestamp(final int row) {
+            return timestamps[row];
+        }
+
+        // columns added after the batch was written read as zero
+        public long value(final int row, final int column) {
+            return column < columns ? values[row * columns + column] : 0;
+        }
+
+        public String uuid(final int row) {
+            return row < uuids.size() ? decodeUuid(uuids.get(row)) : null;
+        }
+
+        public String text(final int row) {
+            return row < texts.size() ? texts.get(row) : "";
+        }
+    }
+
+    // standard uuids take 17 bytes instead of 36 characters, anything else is kept as text
+    static ByteString encodeUuid(final String uuid) {
+        if (uuid == null) return NO_UUID;
+        if (uuid.length() == 36) {
+            try {
+                final UUID parsed = UUID.fromString(uuid);
+                if (parsed.toString().equals(uuid)) {
+                    final ByteBuffer buffer = ByteBuffer.allocate(17);
+                    buffer.put(UUID_BINARY);
+                    buffer.putLong(parsed.getMostSignificantBits());
+                    buffer.putLong(parsed.getLeastSignificantBits());
+                    return ByteString.of(buffer.array());
+                }
+            } catch (IllegalArgumentException e) {
+                //
+            }
+        }
+        final byte[] text = uuid.getBytes(StandardCharsets.UTF_8);
+        final byte[] bytes = new byte[text.length + 1];
+        bytes[0] = UUID_TEXT;
+        System.arraycopy(text, 0, bytes, 1, text.length);
+        return ByteString.of(bytes);
+    }
+
+    static String decodeUuid(final ByteString bytes) {
+        if (bytes == null || bytes.size() == 0) return null;
+        if (bytes.getByte(0) == UUID_BINARY && bytes.size() == 17) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray(), 1, 16);
+            return new UUID(buffer.getLong(), buffer.getLong()).toString();
+        }
+        return bytes.substring(1).utf8();
+    }
+}
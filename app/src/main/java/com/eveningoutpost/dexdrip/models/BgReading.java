@@ -9,11 +9,13 @@ import static com.eveningoutpost.dexdrip.calibrations.PluggableCalibration.newCl
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.os.AsyncTask;
+import android.database.Cursor;
 import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.Cache;
 import com.activeandroid.Model;
 import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
@@ -42,6 +44,7 @@ import com.eveningoutpost.dexdrip.calibrations.CalibrationAbstract;
 import com.eveningoutpost.dexdrip.messages.BgReadingMessage;
 import com.eveningoutpost.dexdrip.messages.BgReadingMultiMessage;
 import com.eveningoutpost.dexdrip.utils.DexCollectionType;
+import com.eveningoutpost.dexdrip.utils.RetentionEngine;
 import com.eveningoutpost.dexdrip.utils.SqliteRejigger;
 import com.eveningoutpost.dexdrip.wearintegration.WatchUpdaterService;
 import com.eveningoutpost.dexdrip.xdrip;
@@ -55,12 +58,18 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import lombok.val;
@@ -84,6 +93,9 @@ public class BgReading extends Model implements ShareUploadableBg {
 
     private static volatile long earliest_backfill = 0;
 
+    // ActiveAndroid has no id setter, copies need the row id so a save updates the same row
+    private static final Field ID_FIELD = idField();
+
     @Column(name = "sensor", index = true)
     public Sensor sensor;
 
@@ -217,6 +229,62 @@ public class BgReading extends Model implements ShareUploadableBg {
 
     }
 
+    private static Field idField() {
+        try {
+            final Field field = Model.class.getDeclaredField("mId");
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException("Cannot find model id field: " + e);
+        }
+    }
+
+    // copy for handing out readings held in memory, keeps the row id
+    public BgReading copy() {
+        final BgReading copy = new BgReading();
+        copy.sensor = sensor;
+        copy.calibration = calibration;
+        copy.timestamp = timestamp;
+        copy.time_since_sensor_started = time_since_sensor_started;
+        copy.raw_data = raw_data;
+        copy.filtered_data = filtered_data;
+        copy.age_adjusted_raw_value = age_adjusted_raw_value;
+        copy.calibration_flag = calibration_flag;
+        copy.calculated_value = calculated_value;
+        copy.filtered_calculated_value = filtered_calculated_value;
+        copy.calculated_value_slope = calculated_value_slope;
+        copy.a = a;
+        copy.b = b;
+        copy.c = c;
+        copy.ra = ra;
+        copy.rb = rb;
+        copy.rc = rc;
+        copy.uuid = uuid;
+        copy.calibration_uuid = calibration_uuid;
+        copy.sensor_uuid = sensor_uuid;
+        copy.ignoreForStats = ignoreForStats;
+        copy.raw_calculated = raw_calculated;
+        copy.hide_slope = hide_slope;
+        copy.noise = noise;
+        copy.dg_mgdl = dg_mgdl;
+        copy.dg_slope = dg_slope;
+        copy.dg_delta_name = dg_delta_name;
+        copy.source_info = source_info;
+        try {
+            ID_FIELD.set(copy, getId());
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Cannot copy reading id: " + e);
+        }
+        return copy;
+    }
+
+    // save and update the reading window straight away rather than when the content observer runs
+    public Long saveit() {
+        final Long result = save();
+        BgReadingWindow.add(this);
+        return result;
+    }
+
     public double getDg_mgdl(){
         if(dg_mgdl != 0) return dg_mgdl;
         return calculated_value;
@@ -245,7 +313,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                 dg_slope = displayGlucose.slope;
                 dg_delta_name = displayGlucose.delta_name;
                 // TODO we probably should reflect the display glucose delta here as well for completeness
-                this.save();
+                this.saveit();
             } else {
                 if (JoH.ratelimit("cannotinjectdg", 30)) {
                     UserError.Log.e(TAG, "Cannot inject display glucose value as time difference too great: " + JoH.dateTimeText(displayGlucose.timestamp) + " vs " + JoH.dateTimeText(timestamp));
@@ -360,6 +428,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                 bgReading.time_since_sensor_started = bgReading.timestamp - sensor.started_at;
                 bgReading.calculateAgeAdjustedRawValue();
                 bgReading.save();
+                BgReadingWindow.add(bgReading);
             }
         }
     }
@@ -389,6 +458,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                 bgReading.hide_slope = true;
             }
             bgReading.save();
+            BgReadingWindow.add(bgReading);
             bgReading.find_new_curve();
             bgReading.find_new_raw_curve();
             //context.startService(new Intent(context, Notifications.class));
@@ -516,6 +586,7 @@ public class BgReading extends Model implements ShareUploadableBg {
             bgReading.source_info = source_info;
 
             bgReading.save();
+            BgReadingWindow.add(bgReading);
             bgReading.perform_calculations();
             BgSendQueue.sendToPhone(context);
         } else {
@@ -524,6 +595,7 @@ public class BgReading extends Model implements ShareUploadableBg {
             bgReading.source_info = source_info;
 
             bgReading.save();
+            BgReadingWindow.add(bgReading);
 
             // used when we are not fast inserting data
             if (!quick) {
@@ -667,6 +739,27 @@ public class BgReading extends Model implements ShareUploadableBg {
         }
     }
 
+    // queue a whole range of updated readings in one transaction with a single sync
+    public static void pushBgReadingSyncToWatch(final List<BgReading> bgReadings) {
+        if (bgReadings.isEmpty() || !Pref.getBooleanDefaultFalse("wear_sync")) return;
+        int queued = 0;
+        ActiveAndroid.beginTransaction();
+        try {
+            for (final BgReading bgReading : bgReadings) {
+                if (UploaderQueue.newEntryForWatch("update", bgReading) != null) {
+                    queued++;
+                }
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+        Log.d(TAG, "Queued " + queued + " updated readings for watch");
+        if (queued > 0) {
+            SyncService.startSyncService(3000); // sync in 3 seconds
+        }
+    }
+
     public String displaySlopeArrow() {
         return slopeToArrowSymbol(this.dg_mgdl > 0 ? this.dg_slope * 60000 : this.calculated_value_slope * 60000);
     }
@@ -769,6 +862,8 @@ public class BgReading extends Model implements ShareUploadableBg {
 
     public static BgReading last(boolean is_follower) {
         if (is_follower) {
+            final List<BgReading> cached = BgReadingWindow.latest(1, null);
+            if (cached != null) return cached.get(0);
             return new Select()
                     .from(BgReading.class)
                     .where("calculated_value != 0")
@@ -779,6 +874,8 @@ public class BgReading extends Model implements ShareUploadableBg {
         } else {
             Sensor sensor = Sensor.currentSensor();
             if (sensor != null) {
+                final List<BgReading> cached = BgReadingWindow.latest(1, sensor.getId());
+                if (cached != null) return cached.get(0);
                 return new Select()
                         .from(BgReading.class)
                         .where("Sensor = ? ", sensor.getId())
@@ -804,6 +901,21 @@ public class BgReading extends Model implements ShareUploadableBg {
                 .execute();
     }
 
+    // timestamps of the newest readings for the current sensor, newest first, from the index only
+    public static long[] latestTimestampsBySize(final int number) {
+        final Sensor sensor = Sensor.currentSensor();
+        if (sensor == null) return null;
+        final Cursor cursor = Cache.openDatabase().rawQuery("select timestamp from BgReadings where Sensor = ? and raw_data != 0 order by timestamp desc limit " + number,
+                new String[]{Long.toString(sensor.getId())});
+        final long[] result = new long[cursor.getCount()];
+        int i = 0;
+        while (cursor.moveToNext() && i < result.length) {
+            result[i++] = cursor.getLong(0);
+        }
+        cursor.close();
+        return result;
+    }
+
     public static BgReading lastNoSenssor() {
         return new Select()
                 .from(BgReading.class)
@@ -821,6 +933,8 @@ public class BgReading extends Model implements ShareUploadableBg {
     public static List<BgReading> latest(int number, boolean is_follower) {
         if (is_follower) {
             // exclude sensor information when working as a follower
+            final List<BgReading> cached = BgReadingWindow.latest(number, null);
+            if (cached != null) return cached;
             return new Select()
                     .from(BgReading.class)
                     .where("calculated_value != 0")
@@ -834,6 +948,8 @@ public class BgReading extends Model implements ShareUploadableBg {
             if (sensor == null) {
                 return null;
             }
+            final List<BgReading> cached = BgReadingWindow.latest(number, sensor.getId());
+            if (cached != null) return cached;
             return new Select()
                     .from(BgReading.class)
                     .where("Sensor = ? ", sensor.getId())
@@ -895,6 +1011,8 @@ public class BgReading extends Model implements ShareUploadableBg {
     }
 
     public static List<BgReading> latestForGraph(int number, long startTime, long endTime) {
+        final List<BgReading> cached = BgReadingWindow.range(number, Math.max(startTime, 0), endTime, false, null, false);
+        if (cached != null) return cached;
         return new Select()
                 .from(BgReading.class)
                 .where("timestamp >= " + Math.max(startTime, 0))
@@ -909,6 +1027,8 @@ public class BgReading extends Model implements ShareUploadableBg {
     public static List<BgReading> latestForGraphSensor(int number, long startTime, long endTime) {
         Sensor sensor = Sensor.currentSensor();
         if (sensor == null) { return null; }
+        final List<BgReading> cached = BgReadingWindow.range(number, Math.max(startTime, 0), endTime, false, sensor.getId(), true);
+        if (cached != null) return cached;
         return new Select()
                 .from(BgReading.class)
                 .where("Sensor = ? ", sensor.getId())
@@ -924,6 +1044,8 @@ public class BgReading extends Model implements ShareUploadableBg {
 
     public static List<BgReading> latestForSensorAsc(int number, long startTime, long endTime, boolean follower) {
         if (follower) {
+            final List<BgReading> cached = BgReadingWindow.range(number, Math.max(startTime, 0), endTime, true, null, false);
+            if (cached != null) return cached;
             return new Select()
                     .from(BgReading.class)
                     .where("timestamp >= ?", Math.max(startTime, 0))
@@ -938,6 +1060,8 @@ public class BgReading extends Model implements ShareUploadableBg {
             if (sensor == null) {
                 return null;
             }
+            final List<BgReading> cached = BgReadingWindow.range(number, Math.max(startTime, 0), endTime, true, sensor.getId(), false);
+            if (cached != null) return cached;
             return new Select()
                     .from(BgReading.class)
                     .where("Sensor = ? ", sensor.getId())
@@ -951,6 +1075,31 @@ public class BgReading extends Model implements ShareUploadableBg {
         }
     }
 
+    // display glucose values oldest first, for callers which don't need the readings themselves
+    public static double[] displayValuesForSensorAsc(int number, long startTime, long endTime, boolean follower) {
+        Long sensorId = null;
+        if (!follower) {
+            final Sensor sensor = Sensor.currentSensor();
+            if (sensor == null) {
+                return null;
+            }
+            sensorId = sensor.getId();
+        }
+        final double[] cached = BgReadingWindow.displayValues(number, Math.max(startTime, 0), endTime, sensorId);
+        if (cached != null) return cached;
+        final Cursor cursor = Cache.openDatabase().rawQuery("select dg_mgdl, calculated_value from BgReadings where timestamp >= ? and timestamp <= ? and calculated_value != 0 and raw_data != 0"
+                        + (sensorId != null ? " and Sensor = " + sensorId : "") + " order by timestamp asc limit " + number,
+                new String[]{Long.toString(Math.max(startTime, 0)), Long.toString(endTime)});
+        final double[] result = new double[cursor.getCount()];
+        int i = 0;
+        while (cursor.moveToNext() && i < result.length) {
+            final double dg = cursor.getDouble(0);
+            result[i++] = dg != 0 ? dg : cursor.getDouble(1);
+        }
+        cursor.close();
+        return result;
+    }
+
     public static List<BgReading> latestForSensorAsc(int number, long startTime, long endTime) {
         return latestForSensorAsc(number, startTime, endTime, false);
     }
@@ -961,6 +1110,8 @@ public class BgReading extends Model implements ShareUploadableBg {
     }
 
     public static List<BgReading> latestForGraphAsc(int number, long startTime, long endTime) {//KS
+        final List<BgReading> cached = BgReadingWindow.range(number, Math.max(startTime, 0), endTime, true, null, false);
+        if (cached != null) return cached;
         return new Select()
                 .from(BgReading.class)
                 .where("timestamp >= " + Math.max(startTime, 0))
@@ -978,6 +1129,8 @@ public class BgReading extends Model implements ShareUploadableBg {
     }
 
     public static BgReading readingNearTimeStamp(long startTime, final long margin) {
+        final List<BgReading> cached = BgReadingWindow.range(1, startTime - margin, startTime + margin, true, null, false);
+        if (cached != null) return cached.isEmpty() ? null : cached.get(0);
         final DecimalFormat df = new DecimalFormat("#");
         df.setMaximumFractionDigits(1);
         return new Select()
@@ -1075,7 +1228,7 @@ public class BgReading extends Model implements ShareUploadableBg {
 
     public BgReading noRawWillBeAvailable() {
         raw_data = SPECIAL_RAW_NOT_AVAILABLE;
-        save();
+        saveit();
         return this;
     }
 
@@ -1094,7 +1247,7 @@ public class BgReading extends Model implements ShareUploadableBg {
             }
         }
         if (autoSave) {
-            save();
+            saveit();
         }
         return this;
     }
@@ -1128,27 +1281,9 @@ public class BgReading extends Model implements ShareUploadableBg {
         // TODO slope!!
         final BgReading existing = getForPreciseTimestamp(timestamp, Constants.MINUTE_IN_MS);
         if (existing == null) {
-            final BgReading bgr = new BgReading();
-            bgr.sensor = sensor;
-            bgr.sensor_uuid = sensor.uuid;
-            bgr.time_since_sensor_started = JoH.msSince(sensor.started_at); // is there a helper for this?
-            bgr.timestamp = timestamp;
-            bgr.uuid = UUID.randomUUID().toString();
-            bgr.calculated_value = calculated_value;
-            bgr.raw_data = SPECIAL_G5_PLACEHOLDER; // placeholder
-            if (Ob1G5CollectionService.usingG6()) {
-                if (shortTxId()) { // If using G7
-                    bgr.appendSourceInfo("G7");
-                } else {
-                    bgr.appendSourceInfo("G6 Native");
-                }
-            } else {
-                bgr.appendSourceInfo("G5 Native");
-            }
-            if (sourceInfoAppend != null && sourceInfoAppend.length() > 0) {
-                bgr.appendSourceInfo(sourceInfoAppend);
-            }
+            final BgReading bgr = createFromG5(calculated_value, timestamp, sensor, sourceInfoAppend);
             bgr.save();
+            BgReadingWindow.add(bgr);
             if (JoH.ratelimit("sync wakelock", 15)) {
                 final PowerManager.WakeLock linger = JoH.getWakeLock("G5 Insert", 4000);
             }
@@ -1159,6 +1294,31 @@ public class BgReading extends Model implements ShareUploadableBg {
         }
     }
 
+    // unsaved reading as the G5 insert path would create it
+    public static BgReading createFromG5(final double calculated_value, final long timestamp, final Sensor sensor, final String sourceInfoAppend) {
+        final BgReading bgr = new BgReading();
+        bgr.sensor = sensor;
+        bgr.sensor_uuid = sensor.uuid;
+        bgr.time_since_sensor_started = JoH.msSince(sensor.started_at); // is there a helper for this?
+        bgr.timestamp = timestamp;
+        bgr.uuid = UUID.randomUUID().toString();
+        bgr.calculated_value = calculated_value;
+        bgr.raw_data = SPECIAL_G5_PLACEHOLDER; // placeholder
+        if (Ob1G5CollectionService.usingG6()) {
+            if (shortTxId()) { // If using G7
+                bgr.appendSourceInfo("G7");
+            } else {
+                bgr.appendSourceInfo("G6 Native");
+            }
+        } else {
+            bgr.appendSourceInfo("G5 Native");
+        }
+        if (sourceInfoAppend != null && sourceInfoAppend.length() > 0) {
+            bgr.appendSourceInfo(sourceInfoAppend);
+        }
+        return bgr;
+    }
+
     public static synchronized BgReading bgReadingInsertFromGluPro(double calculated_value, final long timestamp, String sourceInfoAppend) {
 
         final Sensor sensor = Sensor.currentSensor();
@@ -1182,6 +1342,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                 bgr.appendSourceInfo(sourceInfoAppend);
             }
             bgr.save();
+            BgReadingWindow.add(bgr);
             if (JoH.ratelimit("sync wakelock", 15)) {
                 final PowerManager.WakeLock linger = JoH.getWakeLock("G5 Insert", 4000);
             }
@@ -1222,6 +1383,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                 bgr.appendSourceInfo(sourceInfoAppend);
             }
             bgr.save();
+            BgReadingWindow.add(bgr);
             if (JoH.ratelimit("sync wakelock", 15)) {
                 final PowerManager.WakeLock linger = JoH.getWakeLock("Medtrum Insert", 4000);
             }
@@ -1262,6 +1424,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                 bgReading.find_slope();
 
                 bgReading.save();
+                BgReadingWindow.add(bgReading);
                 bgReading.perform_calculations();
                 bgReading.postProcess(false);
 
@@ -1288,6 +1451,7 @@ public class BgReading extends Model implements ShareUploadableBg {
 
                 bgReading.find_slope();
                 bgReading.save();
+                BgReadingWindow.add(bgReading);
 
                 bgReading.postProcess(false);
 
@@ -1325,6 +1489,15 @@ public class BgReading extends Model implements ShareUploadableBg {
         BgSendQueue.handleNewBgReading(bgr, "create", xdrip.getAppContext(), Home.get_follower(), !recent); // pebble and widget and follower
     }
 
+    // downstream handling for readings saved together in timestamp order, only the newest can be current
+    public static void notifyAndSyncBatch(final List<BgReading> readings) {
+        if (readings == null || readings.isEmpty()) return;
+        if (readings.get(readings.size() - 1).isCurrent()) {
+            Notifications.start();
+        }
+        BgSendQueue.handleNewBgReadings(readings, "create", xdrip.getAppContext(), Home.get_follower());
+    }
+
     public static BgReading bgReadingInsertFromJson(String json, boolean do_notification) {
         return bgReadingInsertFromJson(json, do_notification, WholeHouse.isEnabled());
     }
@@ -1354,6 +1527,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                         UserError.Log.wtf(TAG, "Received a bg reading that appears to be in the future: " + JoH.dateTimeText(bgr.timestamp) + " vs " + JoH.dateTimeText(now));
                     }
                     bgr.save();
+                    BgReadingWindow.add(bgr);
                     if (do_notification) {
                         Notifications.start(); // this may not be needed as it fires in handleNewBgReading
                         //xdrip.getAppContext().startService(new Intent(xdrip.getAppContext(), Notifications.class)); // alerts et al
@@ -1410,6 +1584,7 @@ public class BgReading extends Model implements ShareUploadableBg {
             try {
                 if (readingNearTimeStamp(bgr.timestamp, margin) == null) {
                     bgr.save();
+                    BgReadingWindow.add(bgr);
                     bgr.find_slope();
                     if (do_notification) {
                         // xdrip.getAppContext().startService(new Intent(xdrip.getAppContext(), Notifications.class)); // alerts et al
@@ -1492,22 +1667,11 @@ public class BgReading extends Model implements ShareUploadableBg {
     }
 
     private static final long CLOSEST_READING_MS = 290000;
-    private static void processFromMessage(BgReadingMessage btm) {
-        if ((btm != null) && (btm.uuid != null) && (btm.uuid.length() == 36)) {
-            BgReading bg = byUUID(btm.uuid);
-            if (bg != null) {
-                // we already have this uuid and we don't have a circumstance to update the record, so quick return here
-                return;
-            }
-            if (bg == null) {
-                bg = getForPreciseTimestamp(Wire.get(btm.timestamp, BgReadingMessage.DEFAULT_TIMESTAMP), CLOSEST_READING_MS, false);
-                if (bg != null) {
-                    UserError.Log.wtf(TAG, "Error matches a different uuid with the same timestamp: " + bg.uuid + " vs " + btm.uuid + " skipping!");
-                    return;
-                }
-                bg = new BgReading();
-            }
+    private static final int MAX_SQL_VARIABLES = 500;
 
+    private static BgReading fromMessage(BgReadingMessage btm) {
+        if ((btm != null) && (btm.uuid != null) && (btm.uuid.length() == 36)) {
+            final BgReading bg = new BgReading();
             bg.timestamp = Wire.get(btm.timestamp, BgReadingMessage.DEFAULT_TIMESTAMP);
             bg.calculated_value = Wire.get(btm.calculated_value, BgReadingMessage.DEFAULT_CALCULATED_VALUE);
             bg.filtered_calculated_value = Wire.get(btm.filtered_calculated_value, BgReadingMessage.DEFAULT_FILTERED_CALCULATED_VALUE);
@@ -1517,9 +1681,10 @@ public class BgReading extends Model implements ShareUploadableBg {
             bg.calculated_value_slope = Wire.get(btm.calculated_value_slope, BgReadingMessage.DEFAULT_CALCULATED_VALUE_SLOPE);
             bg.calibration_uuid = btm.calibration_uuid;
             bg.uuid = btm.uuid;
-            bg.save();
+            return bg;
         } else {
             UserError.Log.wtf(TAG, "processFromMessage uuid is null or invalid");
+            return null;
         }
     }
 
@@ -1527,9 +1692,14 @@ public class BgReading extends Model implements ShareUploadableBg {
         try {
             final BgReadingMultiMessage bgmm = BgReadingMultiMessage.ADAPTER.decode(payload);
             if ((bgmm != null) && (bgmm.bgreading_message != null)) {
+                final List<BgReading> batch = new ArrayList<>(bgmm.bgreading_message.size());
                 for (BgReadingMessage btm : bgmm.bgreading_message) {
-                    processFromMessage(btm);
+                    final BgReading bg = fromMessage(btm);
+                    if (bg != null) {
+                        batch.add(bg);
+                    }
                 }
+                bulkIngest(batch, CLOSEST_READING_MS, null, false, false);
                 Home.staticRefreshBGCharts();
             }
         } catch (IOException | NullPointerException | IllegalStateException e) {
@@ -1537,6 +1707,154 @@ public class BgReading extends Model implements ShareUploadableBg {
         }
     }
 
+    public static List<BgReading> bulkIngest(final List<BgReading> batch, final long precision, final Sensor sensor, final boolean uncalculatedOnly) {
+        return bulkIngest(batch, precision, sensor, uncalculatedOnly, true);
+    }
+
+    // Saves a batch of synced readings in one transaction, returning those inserted in timestamp order.
+    // Readings whose uuid already exists, or which are within precision of an existing reading
+    // (limited to sensor if locked and to uncalculated readings if requested) or of an earlier
+    // one in the batch, are skipped. When locked to sensor and there is none nothing is saved.
+    // Callers handle downstream notification once per batch.
+    // Locked like the other insert paths so the existence checks still hold when saving.
+    public static synchronized List<BgReading> bulkIngest(final List<BgReading> batch, final long precision, final Sensor sensor, final boolean uncalculatedOnly, final boolean lock_to_sensor) {
+        final List<BgReading> inserted = new ArrayList<>();
+        if (batch == null || batch.isEmpty()) return inserted;
+        if (lock_to_sensor && sensor == null) {
+            Log.w(TAG, "No sensor, ignoring " + batch.size() + " bg readings");
+            return inserted;
+        }
+
+        final List<BgReading> sorted = new ArrayList<>(batch);
+        Collections.sort(sorted, (a, b) -> Long.compare(a.timestamp, b.timestamp));
+
+        final Set<String> uuids = existingUuids(sorted);
+        final long[] existing = existingTimestamps(sorted.get(0).timestamp - precision, sorted.get(sorted.size() - 1).timestamp + precision, lock_to_sensor ? sensor : null, uncalculatedOnly);
+        final TreeSet<Long> accepted = new TreeSet<>();
+
+        ActiveAndroid.beginTransaction();
+        try {
+            for (final BgReading bg : sorted) {
+                if (bg.uuid == null || !uuids.add(bg.uuid)) {
+                    Log.d(TAG, "BgReading with uuid: " + bg.uuid + " already exists: " + JoH.dateTimeText(bg.timestamp));
+                    continue;
+                }
+                if (precision > 0 && (isNear(existing, bg.timestamp, precision) || isNear(accepted, bg.timestamp, precision))) {
+                    Log.d(TAG, "BgReading for timestamp already exists: " + JoH.dateTimeText(bg.timestamp) + " skipping " + bg.uuid);
+                    continue;
+                }
+                if (sensor != null) {
+                    bg.sensor = sensor;
+                }
+                bg.save();
+                inserted.add(bg);
+                if (!uncalculatedOnly || (bg.calculated_value == 0 && bg.raw_calculated == 0)) {
+                    accepted.add(bg.timestamp);
+                }
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+        for (final BgReading bg : inserted) {
+            BgReadingWindow.add(bg);
+        }
+        Log.d(TAG, "Bulk ingest saved " + inserted.size() + " of " + batch.size());
+        return inserted;
+    }
+
+    private static Set<String> existingUuids(final List<BgReading> batch) {
+        final Set<String> result = new HashSet<>();
+        final List<String> args = new ArrayList<>(MAX_SQL_VARIABLES);
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i).uuid != null) {
+                args.add(batch.get(i).uuid);
+            }
+            if (args.size() == MAX_SQL_VARIABLES || (i == batch.size() - 1 && !args.isEmpty())) {
+                final StringBuilder sql = new StringBuilder("select uuid from BgReadings where uuid in (");
+                for (int j = 0; j < args.size(); j++) {
+                    sql.append(j == 0 ? "?" : ",?");
+                }
+                sql.append(")");
+                final Cursor cursor = Cache.openDatabase().rawQuery(sql.toString(), args.toArray(new String[0]));
+                while (cursor.moveToNext()) {
+                    result.add(cursor.getString(0));
+                }
+                cursor.close();
+                args.clear();
+            }
+        }
+        return result;
+    }
+
+    private static long[] existingTimestamps(final long from, final long to, final Sensor sensor, final boolean uncalculatedOnly) {
+        final Cursor cursor = Cache.openDatabase().rawQuery("select timestamp from BgReadings where timestamp >= ? and timestamp <= ?"
+                        + (sensor != null ? " and Sensor = " + sensor.getId() : "")
+                        + (uncalculatedOnly ? " and calculated_value = 0 and raw_calculated = 0" : "")
+                        + " order by timestamp asc",
+                new String[]{Long.toString(from), Long.toString(to)});
+        final long[] result = new long[cursor.getCount()];
+        int i = 0;
+        while (cursor.moveToNext() && i < result.length) {
+            result[i++] = cursor.getLong(0);
+        }
+        cursor.close();
+        return result;
+    }
+
+    private static boolean isNear(final long[] sorted, final long timestamp, final long precision) {
+        int index = Arrays.binarySearch(sorted, timestamp);
+        if (index >= 0) return true;
+        index = -index - 1;
+        return (index < sorted.length && sorted[index] - timestamp < precision)
+                || (index > 0 && timestamp - sorted[index - 1] < precision);
+    }
+
+    private static boolean isNear(final TreeSet<Long> sorted, final long timestamp, final long precision) {
+        final Long below = sorted.floor(timestamp);
+        final Long above = sorted.ceiling(timestamp);
+        return (below != null && timestamp - below < precision) || (above != null && above - timestamp < precision);
+    }
+
+    public interface Recalculator {
+        // return the new calculated value or NaN to leave the reading alone,
+        // position is the number of readings recalculated before this one
+        double recalculate(BgReading bgReading, int position);
+    }
+
+    // Computes new values for the readings in memory then saves those which changed in one transaction.
+    // Filtered values are rewritten too when they were equal to calculated, as they cannot have come from
+    // a real filtered source. Returns the changed readings, callers decide how to sync them.
+    public static List<BgReading> bulkRecalculate(final List<BgReading> bgReadings, final Recalculator recalculator, final boolean withinMinMax) {
+        final List<BgReading> changed = new ArrayList<>(bgReadings.size());
+        for (final BgReading bgReading : bgReadings) {
+            final double newValue = recalculator.recalculate(bgReading, changed.size());
+            if (Double.isNaN(newValue)) continue;
+            if (bgReading.filtered_calculated_value == bgReading.calculated_value) {
+                bgReading.filtered_calculated_value = newValue;
+            }
+            bgReading.calculated_value = newValue;
+            if (withinMinMax) {
+                updateCalculatedValueToWithinMinMax(bgReading);
+            }
+            changed.add(bgReading);
+        }
+        if (changed.isEmpty()) return changed;
+
+        ActiveAndroid.beginTransaction();
+        try {
+            for (final BgReading bgReading : changed) {
+                bgReading.save();
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+        BgReadingWindow.invalidate();
+        Log.d(TAG, "Bulk recalculate saved " + changed.size() + " of " + bgReadings.size());
+        return changed;
+    }
+
     public String toJSON(boolean sendCalibration) {
         final JSONObject jsonObject = new JSONObject();
         try {
@@ -1582,6 +1900,7 @@ public class BgReading extends Model implements ShareUploadableBg {
         try {
             SQLiteUtils.execSql("delete from BgSendQueue");
             SQLiteUtils.execSql("delete from BgReadings");
+            BgReadingWindow.invalidate();
             Log.d(TAG, "Deleting all BGReadings");
         } catch (Exception e) {
             Log.e(TAG, "Got exception running deleteALL " + e.toString());
@@ -1604,14 +1923,13 @@ public class BgReading extends Model implements ShareUploadableBg {
                 .where("timestamp < ?", end_time)
                 .where("timestamp > ?",start_time)
                 .execute();
+        BgReadingWindow.invalidate();
        // UserError.Log.d("OB1TEST","Deleted: "+bgrs.size()+" records");
     }
 
-    public static List<BgReading> cleanup(int retention_days) {
-        return new Delete()
-                .from(BgReading.class)
-                .where("timestamp < ?", JoH.tsl() - (retention_days * Constants.DAY_IN_MS))
-                .execute();
+    public static RetentionEngine.Rule retentionRule(final int retention_days) {
+        return new RetentionEngine.Rule("BgReadings", "timestamp", JoH.tsl() - (retention_days * Constants.DAY_IN_MS))
+                .after(BgReadingWindow::invalidate);
     }
 
     public static void cleanupOutOfRangeValues() {
@@ -1620,6 +1938,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                 .where("timestamp > ?", JoH.tsl() - (3 * Constants.DAY_IN_MS))
                 .where("calculated_value > ?", 324)
                 .execute();
+        BgReadingWindow.invalidate();
     }
 
 
@@ -1627,33 +1946,15 @@ public class BgReading extends Model implements ShareUploadableBg {
     public static void cleanup(long timestamp) {
         try {
             SQLiteUtils.execSql("delete from BgSendQueue");
-            List<BgReading> data = new Select()
-                    .from(BgReading.class)
-                    .where("timestamp < ?", timestamp)
-                    .orderBy("timestamp desc")
-                    .execute();
-            if (data != null) Log.d(TAG, "cleanup BgReading size=" + data.size());
-            new Cleanup().execute(data);
+            final RetentionEngine.Result result = RetentionEngine.prune(new RetentionEngine.Rule("BgReadings", "timestamp", timestamp)
+                    .after(BgReadingWindow::invalidate));
+            Log.d(TAG, "cleanup BgReading size=" + result.rows);
+            Cache.clear();
         } catch (Exception e) {
             Log.e(TAG, "Got exception running cleanup " + e.toString());
         }
     }
 
-    // used in wear
-    private static class Cleanup extends AsyncTask<List<BgReading>, Integer, Boolean> {
-        @Override
-        protected Boolean doInBackground(List<BgReading>... errors) {
-            try {
-                for(BgReading data : errors[0]) {
-                    data.delete();
-                }
-                return true;
-            } catch(Exception e) {
-                return false;
-            }
-        }
-    }
-
 
     //*******INSTANCE METHODS***********//
     public void perform_calculations() {
@@ -1672,10 +1973,10 @@ public class BgReading extends Model implements ShareUploadableBg {
 
         if ((last_2 != null) && (last_2.size() == 2)) {
             calculated_value_slope = calculateSlope(this, last_2.get(1));
-            save();
+            saveit();
         } else if ((last_2 != null) && (last_2.size() == 1)) {
             calculated_value_slope = 0;
-            save();
+            saveit();
         } else {
             if (JoH.ratelimit("no-bg-couldnt-find-slope", 15)) {
                 Log.w(TAG, "NO BG? COULDNT FIND SLOPE!");
@@ -1705,7 +2006,7 @@ public class BgReading extends Model implements ShareUploadableBg {
 
             Log.i(TAG, "find_new_curve: BG PARABOLIC RATES: "+a+"x^2 + "+b+"x + "+c);
 
-            save();
+            saveit();
         } else if ((last_3 != null) && (last_3.size() == 2)) {
 
             Log.i(TAG, "find_new_curve: Not enough data to calculate parabolic rates - assume Linear");
@@ -1726,7 +2027,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                 c = -1 * ((latest.b * x1) - y1);
 
             Log.i(TAG, ""+latest.a+"x^2 + "+latest.b+"x + "+latest.c);
-                save();
+                saveit();
             } else {
             Log.i(TAG, "find_new_curve: Not enough data to calculate parabolic rates - assume static data");
             a = 0;
@@ -1734,7 +2035,7 @@ public class BgReading extends Model implements ShareUploadableBg {
             c = calculated_value;
 
             Log.i(TAG, ""+a+"x^2 + "+b+"x + "+c);
-            save();
+            saveit();
         }
     }
 
@@ -1770,7 +2071,7 @@ public class BgReading extends Model implements ShareUploadableBg {
             rc = (y1*x2*x3/((x1-x2)*(x1-x3))+y2*x1*x3/((x2-x1)*(x2-x3))+y3*x1*x2/((x3-x1)*(x3-x2)));
 
             Log.i(TAG, "find_new_raw_curve: RAW PARABOLIC RATES: "+ra+"x^2 + "+rb+"x + "+rc);
-            save();
+            saveit();
         } else if ((last_3 != null) && (last_3.size()) == 2) {
             BgReading latest = last_3.get(0);
             BgReading second_latest = last_3.get(1);
@@ -1790,7 +2091,7 @@ public class BgReading extends Model implements ShareUploadableBg {
             Log.i(TAG, "find_new_raw_curve: Not enough data to calculate parabolic rates - assume Linear data");
 
             Log.i(TAG, "RAW PARABOLIC RATES: "+ra+"x^2 + "+rb+"x + "+rc);
-            save();
+            saveit();
         } else {
             Log.i(TAG, "find_new_raw_curve: Not enough data to calculate parabolic rates - assume static data");
             BgReading latest_entry = BgReading.lastNoSenssor();
@@ -1802,7 +2103,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                 rc = 105;
             }
 
-            save();
+            saveit();
         }
     }
     private static double weightedAverageRaw(double timeA, double timeB, double calibrationTime, double rawA, double rawB) {
@@ -1846,7 +2147,7 @@ public class BgReading extends Model implements ShareUploadableBg {
                 bgReading.noise = "2";
             }
         }
-        if (save) bgReading.save();
+        if (save) bgReading.saveit();
         return bgReading;
     }
 
@@ -0,0 +1,374 @@
+package com.eveningoutpost.dexdrip.models;
+
+import android.database.ContentObserver;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.activeandroid.Cache;
+import com.activeandroid.content.ContentProvider;
+import com.activeandroid.query.Select;
+import com.eveningoutpost.dexdrip.utilitymodels.StatusItem;
+import com.eveningoutpost.dexdrip.xdrip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.eveningoutpost.dexdrip.utilitymodels.Constants.DAY_IN_MS;
+import static com.eveningoutpost.dexdrip.utilitymodels.Constants.HOUR_IN_MS;
+
+/**
+ * In-memory column store of recent BgReadings, sorted by timestamp.
+ * <p>
+ * Graph, widget, webservice and alert queries over the recent window are answered from primitive
+ * columns using binary search on timestamp. Callers which only need values read the columns, the
+ * others get their own copies of the stored models, with the same id, as several of them adjust
+ * values in memory for display without saving and those changes must not reach anyone else.
+ * Insert paths and BgReading.saveit() update it directly, bulk deletes and history rewrites
+ * invalidate it, and the ActiveAndroid content observer catches any other model save or delete.
+ * Queries outside the window return null so callers fall back to the database.
+ */
+
+public class BgReadingWindow {
+
+    private static final String TAG = "BgReadingWindow";
+    private static final long WINDOW_MS = 2 * DAY_IN_MS;
+    private static final long PRUNE_SLACK_MS = 6 * HOUR_IN_MS;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final byte FLAG_HAS_CALIBRATION = 1;
+
+    private static boolean loaded = false;
+    private static SQLiteDatabase loadedDatabase;
+    private static long coveredFrom = Long.MAX_VALUE;
+    private static int count = 0;
+    private static long[] timestamp = new long[INITIAL_CAPACITY];
+    private static long[] id = new long[INITIAL_CAPACITY];
+    private static long[] sensorId = new long[INITIAL_CAPACITY];
+    private static double[] calculated = new double[INITIAL_CAPACITY];
+    private static double[] raw = new double[INITIAL_CAPACITY];
+    private static double[] filtered = new double[INITIAL_CAPACITY];
+    private static double[] slope = new double[INITIAL_CAPACITY];
+    private static double[] display = new double[INITIAL_CAPACITY];
+    private static byte[] flags = new byte[INITIAL_CAPACITY];
+    private static BgReading[] readings = new BgReading[INITIAL_CAPACITY];
+
+    private static volatile long dataVersion = 0;
+    private static volatile long historyVersion = 0;
+    private static boolean observerRegistered = false;
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long loads = 0;
+
+    private static final ContentObserver observer = new ContentObserver(null) {
+        @Override
+        public void onChange(final boolean selfChange) {
+            invalidate();
+        }
+
+        @Override
+        public void onChange(final boolean selfChange, final Uri uri) {
+            modelChanged(uri);
+        }
+    };
+
+    // called after a reading has been saved by one of the insert paths
+    public static synchronized void add(final BgReading reading) {
+        dataVersion++;
+        if (!loaded || reading == null || reading.getId() == null) {
+            historyVersion++; // can't tell what changed
+            return;
+        }
+        final int existing = indexOfId(reading.getId());
+        if (existing >= 0) {
+            // a reading we already had has changed, the newest is re-saved routinely and recent
+            // results already follow dataVersion
+            if (existing < count - 1 || timestamp[existing] != reading.timestamp) {
+                historyVersion++;
+            }
+            if (timestamp[existing] == reading.timestamp) {
+                setRow(existing, reading);
+                return;
+            }
+            removeRow(existing);
+        } else if (count > 0 && reading.timestamp < timestamp[count - 1]) {
+            historyVersion++; // backfilled behind the newest
+        }
+        if (reading.timestamp < coveredFrom) {
+            historyVersion++; // moved or arrived outside the window
+            return;
+        }
+        insertRow(reading);
+        prune();
+    }
+
+    public static synchronized void remove(final long rowId) {
+        dataVersion++;
+        historyVersion++;
+        if (!loaded) return;
+        final int index = indexOfId(rowId);
+        if (index >= 0) {
+            removeRow(index);
+        }
+    }
+
+    public static synchronized void invalidate() {
+        dataVersion++;
+        historyVersion++;
+        if (loaded) {
+            UserError.Log.d(TAG, "Invalidated");
+        }
+        loaded = false;
+        loadedDatabase = null;
+        coveredFrom = Long.MAX_VALUE;
+        Arrays.fill(readings, 0, count, null);
+        count = 0;
+    }
+
+    // changes whenever readings are added, changed or removed so derived results can be cached
+    public static long dataVersion() {
+        return dataVersion;
+    }
+
+    // changes when anything other than a new newest reading arrives, for results derived from older readings
+    public static long historyVersion() {
+        return historyVersion;
+    }
+
+    // readings with timestamp in [start, end] with non zero calculated and raw values, null if not covered
+    static synchronized List<BgReading> range(final int limit, final long start, final long end, final boolean ascending, final Long sensor, final boolean needCalibration) {
+        if (!ensureLoaded() || start < coveredFrom) {
+            misses++;
+            return null;
+        }
+        hits++;
+        final List<BgReading> result = new ArrayList<>();
+        final int first = lowerBound(start);
+        final int last = upperBound(end) - 1;
+        if (ascending) {
+            for (int i = first; i <= last && result.size() < limit; i++) {
+                if (matches(i, sensor, needCalibration)) result.add(readings[i].copy());
+            }
+        } else {
+            for (int i = last; i >= first && result.size() < limit; i--) {
+                if (matches(i, sensor, needCalibration)) result.add(readings[i].copy());
+            }
+        }
+        return result;
+    }
+
+    // most recent matching readings regardless of time, null if the window can't supply enough
+    static synchronized List<BgReading> latest(final int limit, final Long sensor) {
+        if (!ensureLoaded()) {
+            misses++;
+            return null;
+        }
+        final List<BgReading> result = new ArrayList<>(Math.min(limit, count));
+        for (int i = count - 1; i >= 0 && result.size() < limit; i--) {
+            if (matches(i, sensor, false)) result.add(readings[i].copy());
+        }
+        if (result.size() < limit) {
+            misses++; // older data may exist beyond the window
+            return null;
+        }
+        hits++;
+        return result;
+    }
+
+    // display glucose values with timestamp in [start, end] oldest first, null if not covered
+    static synchronized double[] displayValues(final int limit, final long start, final long end, final Long sensor) {
+        if (!ensureLoaded() || start < coveredFrom) {
+            misses++;
+            return null;
+        }
+        hits++;
+        final int first = lowerBound(start);
+        final int last = upperBound(end);
+        final double[] result = new double[Math.min(limit, Math.max(0, last - first))];
+        int size = 0;
+        for (int i = first; i < last && size < result.length; i++) {
+            if (matches(i, sensor, false)) result[size++] = display[i];
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    private static boolean matches(final int i, final Long sensor, final boolean needCalibration) {
+        return calculated[i] != 0
+                && raw[i] != 0
+                && (sensor == null || sensorId[i] == sensor)
+                && (!needCalibration || (flags[i] & FLAG_HAS_CALIBRATION) != 0);
+    }
+
+    private static boolean ensureLoaded() {
+        final SQLiteDatabase database;
+        try {
+            database = Cache.openDatabase();
+        } catch (Exception e) {
+            return false;
+        }
+        if (loaded && database == loadedDatabase) return true;
+        if (loaded) invalidate(); // database was reset underneath us
+
+        registerObserver();
+        final long from = JoH.tsl() - WINDOW_MS;
+        final List<BgReading> list = new Select()
+                .from(BgReading.class)
+                .where("timestamp >= ?", from)
+                .orderBy("timestamp asc")
+                .execute();
+        ensureCapacity(list.size() + 16);
+        count = 0;
+        for (final BgReading reading : list) {
+            setRow(count++, reading);
+        }
+        coveredFrom = from;
+        loadedDatabase = database;
+        loaded = true;
+        loads++;
+        return true;
+    }
+
+    private static void registerObserver() {
+        if (observerRegistered) return;
+        try {
+            xdrip.getAppContext().getContentResolver().registerContentObserver(ContentProvider.createUri(BgReading.class, null), true, observer);
+            observerRegistered = true;
+        } catch (Exception e) {
+            UserError.Log.e(TAG, "Could not register observer: " + e);
+        }
+    }
+
+    // runs on a binder thread after any BgReading model save or delete
+    private static void modelChanged(final Uri uri) {
+        final long rowId;
+        try {
+            rowId = Long.parseLong(uri.getLastPathSegment());
+        } catch (Exception e) {
+            invalidate();
+            return;
+        }
+        synchronized (BgReadingWindow.class) {
+            if (!loaded) {
+                dataVersion++;
+                return;
+            }
+        }
+        BgReading reading = (BgReading) Cache.getEntity(BgReading.class, rowId);
+        if (reading == null) {
+            reading = BgReading.byid(rowId);
+        }
+        if (reading == null) {
+            remove(rowId);
+        } else {
+            add(reading);
+        }
+    }
+
+    private static void setRow(final int i, final BgReading reading) {
+        timestamp[i] = reading.timestamp;
+        id[i] = reading.getId();
+        sensorId[i] = reading.sensor != null && reading.sensor.getId() != null ? reading.sensor.getId() : -1;
+        calculated[i] = reading.calculated_value;
+        raw[i] = reading.raw_data;
+        filtered[i] = reading.filtered_data;
+        slope[i] = reading.calculated_value_slope;
+        display[i] = reading.getDg_mgdl();
+        flags[i] = (reading.calibration_uuid != null && !reading.calibration_uuid.isEmpty()) ? FLAG_HAS_CALIBRATION : 0;
+        readings[i] = reading.copy(); // the saver may keep changing its instance
+    }
+
+    private static void insertRow(final BgReading reading) {
+        ensureCapacity(count + 1);
+        final int position = upperBound(reading.timestamp);
+        if (position < count) {
+            shift(position, position + 1, count - position);
+        }
+        count++;
+        setRow(position, reading);
+    }
+
+    private static void removeRow(final int index) {
+        shift(index + 1, index, count - index - 1);
+        count--;
+        readings[count] = null;
+    }
+
+    private static void shift(final int from, final int to, final int length) {
+        System.arraycopy(timestamp, from, timestamp, to, length);
+        System.arraycopy(id, from, id, to, length);
+        System.arraycopy(sensorId, from, sensorId, to, length);
+        System.arraycopy(calculated, from, calculated, to, length);
+        System.arraycopy(raw, from, raw, to, length);
+        System.arraycopy(filtered, from, filtered, to, length);
+        System.arraycopy(slope, from, slope, to, length);
+        System.arraycopy(display, from, display, to, length);
+        System.arraycopy(flags, from, flags, to, length);
+        System.arraycopy(readings, from, readings, to, length);
+    }
+
+    // drop rows which have aged out of the window
+    private static void prune() {
+        final long now = JoH.tsl();
+        if (coveredFrom >= now - WINDOW_MS - PRUNE_SLACK_MS) return;
+        final long newFrom = now - WINDOW_MS;
+        final int drop = lowerBound(newFrom);
+        if (drop > 0) {
+            shift(drop, 0, count - drop);
+            Arrays.fill(readings, count - drop, count, null);
+            count -= drop;
+        }
+        coveredFrom = newFrom;
+    }
+
+    private static void ensureCapacity(final int needed) {
+        if (needed <= timestamp.length) return;
+        final int capacity = Math.max(needed, timestamp.length * 2);
+        timestamp = Arrays.copyOf(timestamp, capacity);
+        id = Arrays.copyOf(id, capacity);
+        sensorId = Arrays.copyOf(sensorId, capacity);
+        calculated = Arrays.copyOf(calculated, capacity);
+        raw = Arrays.copyOf(raw, capacity);
+        filtered = Arrays.copyOf(filtered, capacity);
+        slope = Arrays.copyOf(slope, capacity);
+        display = Arrays.copyOf(display, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        readings = Arrays.copyOf(readings, capacity);
+    }
+
+    private static int indexOfId(final long rowId) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (id[i] == rowId) return i;
+        }
+        return -1;
+    }
+
+    // first index with timestamp >= value
+    private static int lowerBound(final long value) {
+        int low = 0, high = count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (timestamp[mid] < value) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // first index with timestamp > value
+    private static int upperBound(final long value) {
+        int low = 0, high = count;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (timestamp[mid] <= value) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    public static synchronized List<StatusItem> megaStatus() {
+        final List<StatusItem> l = new ArrayList<>();
+        l.add(new StatusItem("Reading window", loaded ? count + " readings since " + JoH.dateTimeText(coveredFrom) : "not loaded"));
+        l.add(new StatusItem("Reading window queries", hits + " hits, " + misses + " misses, " + loads + " loads"));
+        return l;
+    }
+
+}
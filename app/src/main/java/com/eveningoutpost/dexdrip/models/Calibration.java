@@ -624,7 +624,7 @@ public class Calibration extends Model {
                     if (!note_only) {
                         bgReading.calibration = calibration;
                         bgReading.calibration_flag = true;
-                        bgReading.save();
+                        bgReading.saveit();
                     }
 
                     if ((!DexCollectionType.isAlwaysNativeCal()) && (!note_only)) {
@@ -903,31 +903,23 @@ public class Calibration extends Model {
             return;
         }
 
+        // values are all worked out first and then written in a single transaction
+        List<BgReading> changed = new ArrayList<>();
         // ongoing calibration
         if (calibrations.size() >= 3) {
             final int denom = bgReadings.size();
             //Calibration latestCalibration = calibrations.get(0);
             try {
                 final Calibration latestCalibration = Calibration.lastValid();
-                int i = 0;
-                for (BgReading bgReading : bgReadings) {
-                    if (bgReading.calibration != null) {
-                        final double oldYValue = bgReading.calculated_value;
-                        final double newYvalue = (bgReading.age_adjusted_raw_value * latestCalibration.slope) + latestCalibration.intercept;
-                        final double new_calculated_value = ((newYvalue * (denom - i)) + (oldYValue * (i))) / denom;
-                        // if filtered == raw then rewrite them both because this would not happen if filtered data was from real source
-                        if (bgReading.filtered_calculated_value == bgReading.calculated_value) {
-                            bgReading.filtered_calculated_value = new_calculated_value;
-                        }
-                        bgReading.calculated_value = new_calculated_value;
-
-                        bgReading.save();
-                        BgReading.pushBgReadingSyncToWatch(bgReading, false);
-                        i += 1;
-                    } else {
+                changed = BgReading.bulkRecalculate(bgReadings, (bgReading, i) -> {
+                    if (bgReading.calibration == null) {
                         Log.d(TAG, "History Rewrite: Ignoring BgReading without calibration from: " + JoH.dateTimeText(bgReading.timestamp));
+                        return Double.NaN;
                     }
-                }
+                    final double oldYValue = bgReading.calculated_value;
+                    final double newYvalue = (bgReading.age_adjusted_raw_value * latestCalibration.slope) + latestCalibration.intercept;
+                    return ((newYvalue * (denom - i)) + (oldYValue * (i))) / denom;
+                }, false);
             } catch (NullPointerException e) {
                 Log.wtf(TAG, "Null pointer in AdjustRecentReadings >=3: " + e);
             }
@@ -936,16 +928,8 @@ public class Calibration extends Model {
             //Calibration latestCalibration = calibrations.get(0);
             try {
                 final Calibration latestCalibration = Calibration.lastValid();
-                for (BgReading bgReading : bgReadings) {
-                    final double newYvalue = (bgReading.age_adjusted_raw_value * latestCalibration.slope) + latestCalibration.intercept;
-                    if (bgReading.filtered_calculated_value == bgReading.calculated_value) {
-                        bgReading.filtered_calculated_value = newYvalue;
-                    }
-                    bgReading.calculated_value = newYvalue;
-                    BgReading.updateCalculatedValueToWithinMinMax(bgReading);
-                    bgReading.save();
-                    BgReading.pushBgReadingSyncToWatch(bgReading, false);
-                }
+                changed = BgReading.bulkRecalculate(bgReadings, (bgReading, i) ->
+                        (bgReading.age_adjusted_raw_value * latestCalibration.slope) + latestCalibration.intercept, true);
             } catch (NullPointerException e) {
                 Log.wtf(TAG, "Null pointer in AdjustRecentReadings ==2: " + e);
             }
@@ -955,10 +939,14 @@ public class Calibration extends Model {
             // TODO this method call is probably only needed when we are called for initial calibration, it should probably be moved
             bgReadings.get(0).find_new_raw_curve();
             bgReadings.get(0).find_new_curve();
-            BgReading.pushBgReadingSyncToWatch(bgReadings.get(0), false);
-        } catch (NullPointerException e) {
-            Log.wtf(TAG, "Got null pointer exception in adjustRecentBgReadings");
+            if (!changed.contains(bgReadings.get(0))) {
+                changed.add(0, bgReadings.get(0));
+            }
+        } catch (NullPointerException | IndexOutOfBoundsException e) {
+            Log.wtf(TAG, "Got exception in adjustRecentBgReadings: " + e);
         }
+        BgReading.pushBgReadingSyncToWatch(changed);
+        BgReadingWindow.invalidate();
     }
 
     public void rawValueOverride(double rawValue, Context context) {
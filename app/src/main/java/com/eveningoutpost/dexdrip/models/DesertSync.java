@@ -20,6 +20,7 @@ import com.eveningoutpost.dexdrip.utilitymodels.StatusItem;
 import com.eveningoutpost.dexdrip.utilitymodels.desertsync.DesertComms;
 import com.eveningoutpost.dexdrip.utilitymodels.desertsync.RouteTools;
 import com.eveningoutpost.dexdrip.utils.CipherUtils;
+import com.eveningoutpost.dexdrip.utils.RetentionEngine;
 import com.eveningoutpost.dexdrip.webservices.XdripWebService;
 import com.eveningoutpost.dexdrip.xdrip;
 import com.google.firebase.messaging.RemoteMessage;
@@ -541,15 +542,9 @@ public class DesertSync extends PlusModel {
         patched = fixUpTable(schema, patched);
     }
 
-    public static void cleanup() {
-        try {
-            new Delete()
-                    .from(DesertSync.class)
-                    .where("timestamp < ?", JoH.tsl() - 86400000L)
-                    .execute();
-        } catch (Exception e) {
-            UserError.Log.d(TAG, "Exception cleaning uploader queue: " + e);
-        }
+    public static RetentionEngine.Rule retentionRule() {
+        updateDB();
+        return new RetentionEngine.Rule("DesertSync", "timestamp", JoH.tsl() - Constants.DAY_IN_MS);
     }
 
     public static void deleteAll() {
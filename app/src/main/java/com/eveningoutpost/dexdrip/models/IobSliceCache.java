@@ -0,0 +1,251 @@
+package com.eveningoutpost.dexdrip.models;
+
+import com.eveningoutpost.dexdrip.utilitymodels.StatusItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.eveningoutpost.dexdrip.utilitymodels.Constants.HOUR_IN_MS;
+import static com.eveningoutpost.dexdrip.utilitymodels.Constants.MINUTE_IN_MS;
+
+/**
+ * Incrementally maintained insulin on board time slices for the graph.
+ * <p>
+ * Each treatment's insulin contribution is calculated once at 5 minute resolution and kept, so
+ * it can be added to or subtracted from a shared ring of slices when the treatment appears,
+ * changes or goes away. Profile changes drop all contributions so they are recalculated on the
+ * next read. Reading a window of slices is then O(window).
+ */
+
+public class IobSliceCache {
+
+    private static final String TAG = "IobSliceCache";
+
+    static final long STEP_MS = 5 * MINUTE_IN_MS;
+    private static final double STEP_MINUTES = 5;
+    private static final long CONTRIBUTION_MAX_MS = 36 * HOUR_IN_MS; // 24h history plus 12h forecast
+    private static final int RING_SLOTS = (int) ((96 * HOUR_IN_MS) / STEP_MS);
+
+    private static final double[] ringIob = new double[RING_SLOTS];
+    private static final double[] ringActivity = new double[RING_SLOTS];
+    private static final int[] ringPresent = new int[RING_SLOTS];
+    private static long baseSlot = -1; // first absolute slot number held by the ring
+
+    private static final HashMap<String, Contribution> contributions = new HashMap<>();
+    private static String modeKey = null;
+
+    private static long applied = 0;
+    private static long retracted = 0;
+    private static long rebuilds = 0;
+    private static long reads = 0;
+
+    private static class Contribution {
+        final String signature;
+        final long firstSlot;
+        final double[] iob;
+        final double[] activity;
+
+        Contribution(String signature, long firstSlot, double[] iob, double[] activity) {
+            this.signature = signature;
+            this.firstSlot = firstSlot;
+            this.iob = iob;
+            this.activity = activity;
+        }
+
+        long lastSlot() {
+            return firstSlot + iob.length - 1;
+        }
+    }
+
+    static long slotFor(final long timestamp) {
+        return timestamp / STEP_MS;
+    }
+
+    // bring cached contributions in line with the treatments currently in the database
+    static synchronized void update(final List<Treatments> treatments, final boolean multipleInsulins, final boolean useBasal) {
+        final String mode = multipleInsulins + ":" + useBasal;
+        if (!mode.equals(modeKey)) {
+            clear();
+            modeKey = mode;
+        }
+
+        final HashSet<String> seen = new HashSet<>();
+        for (final Treatments treatment : treatments) {
+            if (treatment.insulin <= 0) continue;
+            final String key = keyFor(treatment);
+            final String signature = signatureFor(treatment);
+            seen.add(key);
+            final Contribution existing = contributions.get(key);
+            if (existing != null) {
+                if (existing.signature.equals(signature)) continue;
+                remove(key, existing);
+            }
+            final Contribution contribution = calculate(treatment, signature, useBasal);
+            contributions.put(key, contribution);
+            apply(contribution, 1);
+            applied++;
+        }
+
+        final Iterator<Map.Entry<String, Contribution>> iterator = contributions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Contribution> entry = iterator.next();
+            if (!seen.contains(entry.getKey())) {
+                apply(entry.getValue(), -1);
+                retracted++;
+                iterator.remove();
+            }
+        }
+    }
+
+    // copy the slices for absolute slots [fromSlot, toSlot) in to the supplied arrays
+    static synchronized void read(final long fromSlot, final long toSlot, final double[] iob, final double[] activity, final int[] present) {
+        reads++;
+        ensureWindow(fromSlot, toSlot);
+        for (long slot = fromSlot; slot < toSlot; slot++) {
+            final int i = (int) (slot - fromSlot);
+            final int r = ringIndex(slot);
+            iob[i] = ringIob[r];
+            activity[i] = ringActivity[r];
+            present[i] = ringPresent[r];
+        }
+    }
+
+    // profile parameters changed so everything needs recalculating
+    public static synchronized void invalidateAll() {
+        if (!contributions.isEmpty()) {
+            UserError.Log.d(TAG, "Invalidating all " + contributions.size() + " contributions");
+        }
+        clear();
+    }
+
+    private static void clear() {
+        contributions.clear();
+        Arrays.fill(ringIob, 0);
+        Arrays.fill(ringActivity, 0);
+        Arrays.fill(ringPresent, 0);
+        baseSlot = -1;
+    }
+
+    private static void remove(final String key, final Contribution contribution) {
+        apply(contribution, -1);
+        retracted++;
+        contributions.remove(key);
+    }
+
+    private static String keyFor(final Treatments treatment) {
+        return treatment.uuid != null ? treatment.uuid : "ts:" + treatment.timestamp + ":" + treatment.getId();
+    }
+
+    private static String signatureFor(final Treatments treatment) {
+        return treatment.timestamp + ":" + treatment.insulin + ":" + treatment.insulinJSON;
+    }
+
+    private static Contribution calculate(final Treatments treatment, final String signature, final boolean useBasal) {
+        final long firstTime = slotFor(treatment.timestamp) * STEP_MS; // effects of treatment occur only after it is given / fit to slot time
+        final long endTime = firstTime + CONTRIBUTION_MAX_MS;
+        final int maxSlots = (int) (CONTRIBUTION_MAX_MS / STEP_MS);
+        final double[] iob = new double[maxSlots];
+        final double[] activity = new double[maxSlots];
+
+        int count = 0;
+        long mytime = firstTime;
+        Iob calcreply;
+        do {
+            calcreply = Treatments.calcTreatment(treatment, mytime, useBasal);
+            calcreply.jActivity *= STEP_MINUTES;    // has to be multiplied because derivation function of IOB calculates a step_minutes lower activity as the "old" logic
+            calcreply.jActivity *= Profile.getSensitivity(mytime);
+            iob[count] = calcreply.iob;
+            activity[count] = calcreply.jActivity;
+            count++;
+            mytime += STEP_MS;
+        } while ((mytime < endTime) &&
+                ((calcreply.iob == 0) || (calcreply.iob > 0.01)));
+
+        return new Contribution(signature, slotFor(firstTime), Arrays.copyOf(iob, count), Arrays.copyOf(activity, count));
+    }
+
+    private static int ringIndex(final long slot) {
+        return (int) (slot % RING_SLOTS);
+    }
+
+    private static boolean inRing(final long slot) {
+        return baseSlot >= 0 && slot >= baseSlot && slot < baseSlot + RING_SLOTS;
+    }
+
+    private static void apply(final Contribution contribution, final int sign) {
+        apply(contribution, sign, baseSlot, baseSlot + RING_SLOTS);
+    }
+
+    // add or subtract a contribution for absolute slots within [fromSlot, toSlot)
+    private static void apply(final Contribution contribution, final int sign, final long fromSlot, final long toSlot) {
+        if (baseSlot < 0) return;
+        final long start = Math.max(contribution.firstSlot, fromSlot);
+        final long end = Math.min(contribution.lastSlot() + 1, toSlot);
+        for (long slot = start; slot < end; slot++) {
+            final int i = (int) (slot - contribution.firstSlot);
+            if (contribution.iob[i] > 0 && inRing(slot)) { // only positive iob is written as a slice
+                final int r = ringIndex(slot);
+                ringPresent[r] += sign;
+                if (ringPresent[r] == 0) {
+                    // avoid accumulated rounding residue
+                    ringIob[r] = 0;
+                    ringActivity[r] = 0;
+                } else {
+                    ringIob[r] += sign * contribution.iob[i];
+                    ringActivity[r] += sign * contribution.activity[i];
+                }
+            }
+        }
+    }
+
+    // make sure the ring covers the requested slots, sliding or rebuilding it if necessary
+    private static void ensureWindow(final long fromSlot, final long toSlot) {
+        if (toSlot - fromSlot > RING_SLOTS) {
+            throw new IllegalArgumentException("Requested window too large: " + (toSlot - fromSlot));
+        }
+        if (inRing(fromSlot) && toSlot <= baseSlot + RING_SLOTS) return;
+
+        if (baseSlot < 0 || fromSlot < baseSlot || fromSlot - baseSlot >= RING_SLOTS) {
+            rebuild(fromSlot);
+            return;
+        }
+        // slide forwards, the slots falling out of the bottom become the new top
+        final long oldTop = baseSlot + RING_SLOTS;
+        final long newTop = fromSlot + RING_SLOTS;
+        for (long slot = oldTop; slot < newTop; slot++) {
+            final int r = ringIndex(slot);
+            ringIob[r] = 0;
+            ringActivity[r] = 0;
+            ringPresent[r] = 0;
+        }
+        baseSlot = fromSlot;
+        for (final Contribution contribution : contributions.values()) {
+            apply(contribution, 1, oldTop, newTop);
+        }
+    }
+
+    private static void rebuild(final long newBaseSlot) {
+        rebuilds++;
+        Arrays.fill(ringIob, 0);
+        Arrays.fill(ringActivity, 0);
+        Arrays.fill(ringPresent, 0);
+        baseSlot = newBaseSlot;
+        for (final Contribution contribution : contributions.values()) {
+            apply(contribution, 1);
+        }
+    }
+
+    public static synchronized List<StatusItem> megaStatus() {
+        final List<StatusItem> l = new ArrayList<>();
+        l.add(new StatusItem("IoB slice contributions", contributions.size()));
+        l.add(new StatusItem("IoB slice updates", applied + " applied, " + retracted + " retracted"));
+        l.add(new StatusItem("IoB slice reads", reads + " (" + rebuilds + " rebuilds)"));
+        return l;
+    }
+
+}
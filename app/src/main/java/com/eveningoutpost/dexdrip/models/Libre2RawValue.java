@@ -5,9 +5,9 @@ import android.provider.BaseColumns;
 
 import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
-import com.activeandroid.query.Delete;
 import com.activeandroid.query.Select;
 import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+import com.eveningoutpost.dexdrip.utils.RetentionEngine;
 
 import java.util.Date;
 import java.util.List;
@@ -58,12 +58,9 @@ public class Libre2RawValue extends PlusModel {
                 .execute();
     }
 
-    public static List<Libre2RawValue> cleanup(final int retention_days) {
+    public static RetentionEngine.Rule retentionRule(final int retention_days) {
         updateDB();
-        return new Delete()
-                .from(Libre2RawValue.class)
-                .where("ts < ?", JoH.tsl() - (retention_days * Constants.DAY_IN_MS))
-                .execute();
+        return new RetentionEngine.Rule("Libre2RawValue2", "ts", JoH.tsl() - (retention_days * Constants.DAY_IN_MS));
     }
 
     public static void updateDB() {
@@ -96,6 +96,7 @@ public class Profile {
 
     public static void invalidateProfile() {
         profileItemList = null;
+        IobSliceCache.invalidateAll();
     }
 
     private static ProfileItem findItemListElementForTime(long when) {
@@ -234,6 +235,7 @@ public class Profile {
         }
         profileItemList = null;
         populateProfile();
+        IobSliceCache.invalidateAll();
         preferences_loaded = true;
     }
 
@@ -248,7 +248,10 @@ public class ReadingData {
                 Log.e(TAG, "invalid sensorTime " + glucoseData);
                 continue;
             }
-            libreTrendPoints.get(glucoseData.sensorTime).glucoseLevel = glucoseData.glucoseLevel;
+            // points may be copies so write the changed one back
+            final LibreTrendPoint libreTrendPoint = libreTrendPoints.get(glucoseData.sensorTime);
+            libreTrendPoint.glucoseLevel = glucoseData.glucoseLevel;
+            libreTrendPoints.set(glucoseData.sensorTime, libreTrendPoint);
         }
     }
 }
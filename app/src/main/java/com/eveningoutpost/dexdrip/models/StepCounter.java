@@ -5,10 +5,10 @@ import android.provider.BaseColumns;
 import com.activeandroid.Model;
 import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
-import com.activeandroid.query.Delete;
 import com.activeandroid.query.Select;
 import com.activeandroid.util.SQLiteUtils;
 import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+import com.eveningoutpost.dexdrip.utils.RetentionEngine;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
@@ -188,11 +188,9 @@ public class StepCounter extends Model {
         return mList;
     }
 
-    public static List<StepCounter> cleanup(int retention_days) {
-        return new Delete()
-                .from(StepCounter.class)
-                .where("timestamp < ?", JoH.tsl() - (retention_days * 86400000L))
-                .execute();
+    public static RetentionEngine.Rule retentionRule(final int retention_days) {
+        fixUpTable();
+        return new RetentionEngine.Rule("PebbleMovement", "timestamp", JoH.tsl() - (retention_days * Constants.DAY_IN_MS));
     }
 
 
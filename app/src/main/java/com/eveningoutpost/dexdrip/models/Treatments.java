@@ -10,6 +10,7 @@ import android.util.Pair;
 
 import androidx.annotation.Nullable;
 
+import com.activeandroid.Cache;
 import com.activeandroid.Model;
 import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
@@ -30,6 +31,7 @@ import com.eveningoutpost.dexdrip.utilitymodels.UploaderQueue;
 import com.eveningoutpost.dexdrip.insulin.Insulin;
 import com.eveningoutpost.dexdrip.insulin.InsulinManager;
 import com.eveningoutpost.dexdrip.insulin.MultipleInsulins;
+import com.eveningoutpost.dexdrip.utils.RetentionEngine;
 import com.eveningoutpost.dexdrip.utils.jobs.BackgroundQueue;
 import com.eveningoutpost.dexdrip.watch.thinjam.BlueJayEntry;
 import com.eveningoutpost.dexdrip.xdrip;
@@ -48,8 +50,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -671,12 +671,9 @@ public class Treatments extends Model {
         return null;
     }
 
-    public static void cleanup(final int retention_days) {
+    public static RetentionEngine.Rule retentionRule(final int retention_days) {
         fixUpTable();
-        new Delete()
-                .from(Treatments.class)
-                .where("timestamp < ?", JoH.tsl() - (retention_days * Constants.DAY_IN_MS))
-                .execute();
+        return new RetentionEngine.Rule("Treatments", "timestamp", JoH.tsl() - (retention_days * Constants.DAY_IN_MS));
     }
 
     public static Treatments fromJSON(String json) {
@@ -935,7 +932,7 @@ public class Treatments extends Model {
 
 
 
-    private static Iob calcTreatment(final Treatments treatment, final long time, final boolean useBasal) {
+    static Iob calcTreatment(final Treatments treatment, final long time, final boolean useBasal) {
         final Iob response = new Iob();
 
         if (MultipleInsulins.isEnabled()) {
@@ -952,41 +949,27 @@ public class Treatments extends Model {
     }
 
     // requires stepms granularity which we should already have
-    private static double timesliceIactivityAtTime(Map<Long, Iob> timeslices, long thistime) {
-        if (timeslices.containsKey(thistime)) {
-            return timeslices.get(thistime).jActivity;
+    private static double timesliceIactivityAtTime(final Iob[] timeslices, final long firstSlot, final long thistime) {
+        final long index = IobSliceCache.slotFor(thistime) - firstSlot;
+        if (index >= 0 && index < timeslices.length && timeslices[(int) index] != null) {
+            return timeslices[(int) index].jActivity;
         } else {
             return 0;
         }
     }
 
-    private static void timesliceCarbWriter(Map<Long, Iob> timeslices, long thistime, double carbs) {
+    private static void timesliceCarbWriter(final Iob[] timeslices, final long firstSlot, final long thistime, final double carbs) {
         // offset for carb action time??
-        Iob tempiob;
-        if (timeslices.containsKey(thistime)) {
-            tempiob = timeslices.get(thistime);
+        final long index = IobSliceCache.slotFor(thistime) - firstSlot;
+        if (index < 0 || index >= timeslices.length) return;
+        Iob tempiob = timeslices[(int) index];
+        if (tempiob != null) {
             tempiob.cob = tempiob.cob + carbs;
         } else {
             tempiob = new Iob();
-            tempiob.timestamp = (long) thistime;
-         //   tempiob.date = new Date((long)thistime);
+            tempiob.timestamp = thistime;
             tempiob.cob = carbs;
-        }
-        timeslices.put(thistime, tempiob);
-    }
-
-    private static void timesliceInsulinWriter(Map<Long, Iob> timeslices, Iob thisiob, long thistime) {
-        if (thisiob.iob > 0) {
-            if (timeslices.containsKey(thistime)) {
-                Iob tempiob = timeslices.get(thistime);
-                tempiob.iob += thisiob.iob;
-                tempiob.jActivity+= thisiob.jActivity;
-                timeslices.put(thistime, tempiob);
-            } else {
-                thisiob.timestamp = (long) thistime;
-             //   thisiob.date = new Date((long)thistime);
-                timeslices.put(thistime, thisiob); // first entry at timeslice so put the record in as is
-            }
+            timeslices[(int) index] = tempiob;
         }
     }
 
@@ -1034,46 +1017,42 @@ public class Treatments extends Model {
         int counter = 0; // iteration counter
 
         final double step_minutes = 5;
-        final long stepms = (long) (step_minutes * MINUTE_IN_MS); // 300s = 5 mins
+        final long stepms = IobSliceCache.STEP_MS; // 300s = 5 mins
         long mytime = startTime;
         long tendtime = startTime;
 
-
         final double carb_delay_minutes = Profile.carbDelayMinutes(mytime); // not likely a time dependent parameter
         final double carb_delay_ms_stepped = ((long) (carb_delay_minutes / step_minutes)) * step_minutes * MINUTE_IN_MS;
 
         Log.d(TAG, "Carb delay ms: " + carb_delay_ms_stepped);
 
-        Map<String, Boolean> carbsEaten = new HashMap<String, Boolean>();
-
-        // linear array populated as needed and layered by each treatment etc
-        SortedMap<Long, Iob> timeslices = new TreeMap<>();
-        Iob calcreply;
-
-        // First process all IoB calculations
+        // slices are held in a linear array from the first slot at or after startTime
+        final long firstSlot = IobSliceCache.slotFor(startTime + stepms - 1);
+        final long insulinEndSlot = IobSliceCache.slotFor(startTime + 30 * HOUR_IN_MS - 1) + 1; // dont look more than 6h in future // TODO review time limit
+        long endSlot = insulinEndSlot;
         for (Treatments thisTreatment : theTreatments) {
-            // early optimisation exclusion
-
-            mytime = (long) ((thisTreatment.timestamp / stepms) * stepms); // effects of treatment occur only after it is given / fit to slot time
-            tendtime = mytime + 36 * HOUR_IN_MS;     // 36 hours max look (24h history plus 12h forecast)
-            if (tendtime > startTime + 30 * HOUR_IN_MS)
-                tendtime = startTime + 30 * HOUR_IN_MS;   // dont look more than 6h in future // TODO review time limit
-            if (thisTreatment.insulin > 0) {
-                // lay down insulin on board
-                do {
-
-                    calcreply = calcTreatment(thisTreatment, mytime, useBasal);
-                    calcreply.jActivity *= step_minutes;    // has to be multiplied because derivation function of IOB calculates a step_minutes lower activity as the "old" logic
-                    calcreply.jActivity *= Profile.getSensitivity(mytime);
-
-                    if (mytime >= startTime) {
-                        timesliceInsulinWriter(timeslices, calcreply, mytime);
-                    }
-                    mytime = mytime + stepms; // advance time counter
-                } while ((mytime < tendtime) &&
-                        ((calcreply.iob == 0) || (calcreply.iob > 0.01)));
+            if (thisTreatment.carbs > 0) {
+                endSlot = Math.max(endSlot, IobSliceCache.slotFor((long) (thisTreatment.timestamp + carb_delay_ms_stepped + 6 * HOUR_IN_MS)) + 2);
             }
-        } // per insulin treatment
+        }
+        final int insulinSlots = (int) Math.max(0, insulinEndSlot - firstSlot);
+        final Iob[] timeslices = new Iob[(int) (endSlot - firstSlot)];
+
+        // insulin contributions are maintained incrementally per treatment
+        IobSliceCache.update(theTreatments, multipleInsulins, useBasal);
+        final double[] sliceIob = new double[insulinSlots];
+        final double[] sliceActivity = new double[insulinSlots];
+        final int[] slicePresent = new int[insulinSlots];
+        IobSliceCache.read(firstSlot, insulinEndSlot, sliceIob, sliceActivity, slicePresent);
+        for (int i = 0; i < insulinSlots; i++) {
+            if (slicePresent[i] > 0) {
+                final Iob thisiob = new Iob();
+                thisiob.timestamp = (firstSlot + i) * stepms;
+                thisiob.iob = sliceIob[i];
+                thisiob.jActivity = sliceActivity[i];
+                timeslices[i] = thisiob;
+            }
+        }
 
         // legacy jActivity calculation
         if (!multipleInsulins) {
@@ -1081,8 +1060,8 @@ public class Treatments extends Model {
 
             // evaluate insulin impact
             Iob lastiob = null;
-            for (Map.Entry<Long, Iob> entry : timeslices.entrySet()) {
-                Iob thisiob = entry.getValue();
+            for (Iob thisiob : timeslices) {
+                if (thisiob == null) continue;
                 if (lastiob != null) {
                     if ((thisiob.iob != 0) || (lastiob.iob != 0)) {
                         if (thisiob.iob < lastiob.iob) {
@@ -1094,8 +1073,6 @@ public class Treatments extends Model {
                         }
                     }
                 }
-
-                //Log.d(TAG,"iobinfo2 iob debug: "+JoH.qs(thisiob.timestamp)+" C:"+JoH.qs(thisiob.cob,4)+" I:"+JoH.qs(thisiob.iob,4)+" CA:"+JoH.qs(thisiob.jCarbImpact)+" IA:"+JoH.qs(thisiob.jActivity));
                 counter++;
                 lastiob = thisiob;
             }
@@ -1117,14 +1094,14 @@ public class Treatments extends Model {
                 while ((cob_remain > 0) && (stomachDiff > 0) && (cob_time < tendtime)) {
 
                     if (cob_time >= startTime) {
-                        timesliceCarbWriter(timeslices, cob_time, cob_remain);
+                        timesliceCarbWriter(timeslices, firstSlot, cob_time, cob_remain);
                     }
                     cob_time += stepms;
 
                     stomachDiff = ((Profile.getCarbAbsorptionRate(cob_time) * stepms) / HOUR_IN_MS);
                     cob_remain -= stomachDiff;
 
-                    newdelayedCarbs = (timesliceIactivityAtTime(timeslices, cob_time) * Profile.getLiverSensRatio(cob_time) / Profile.getSensitivity(cob_time)) * Profile.getCarbRatio(cob_time);
+                    newdelayedCarbs = (timesliceIactivityAtTime(timeslices, firstSlot, cob_time) * Profile.getLiverSensRatio(cob_time) / Profile.getSensitivity(cob_time)) * Profile.getCarbRatio(cob_time);
 
                     if (newdelayedCarbs > 0) {
                         final double maximpact = stomachDiff * Profile.maxLiverImpactRatio(cob_time);
@@ -1137,15 +1114,16 @@ public class Treatments extends Model {
                 }
                 // end record if not present
                 if (cob_time >= startTime) {
-                    timesliceCarbWriter(timeslices, cob_time, 0);
+                    timesliceCarbWriter(timeslices, firstSlot, cob_time, 0);
                 }
             }
         }
 
         // evaluate carb impact
+        final List<Iob> results = new ArrayList<>();
         Iob lastiob = null;
-        for (Map.Entry<Long, Iob> entry : timeslices.entrySet()) {
-            Iob thisiob = entry.getValue();
+        for (Iob thisiob : timeslices) {
+            if (thisiob == null) continue;
             if (lastiob != null) {
                 if ((thisiob.cob != 0 || (lastiob.cob != 0))) {
                     if (thisiob.cob < lastiob.cob) {
@@ -1161,12 +1139,13 @@ public class Treatments extends Model {
             //   Log.d(TAG,"iobinfo2carb  debug: "+JoH.qs(thisiob.timestamp)+" C:"+JoH.qs(thisiob.cob,4)+" I:"+JoH.qs(thisiob.iob,4)+" CA:"+JoH.qs(thisiob.jCarbImpact)+" IA:"+JoH.qs(thisiob.jActivity));
             counter++;
             lastiob = thisiob;
+            results.add(thisiob);
         }
 
         Log.d(TAG, "second iteration counter: " + counter);
-        Log.d(TAG, "Timeslices size: " + timeslices.size());
+        Log.d(TAG, "Timeslices size: " + results.size());
         JoH.benchmark_method_end();
-        return new ArrayList<Iob>(timeslices.values());
+        return results;
     }
 
 
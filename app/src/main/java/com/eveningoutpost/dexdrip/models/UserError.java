@@ -1,6 +1,5 @@
 package com.eveningoutpost.dexdrip.models;
 
-import android.os.AsyncTask;
 import android.provider.BaseColumns;
 
 import com.activeandroid.Cache;
@@ -12,8 +11,10 @@ import com.activeandroid.query.Select;
 import com.eveningoutpost.dexdrip.receiver.InfoContentProvider;
 import com.eveningoutpost.dexdrip.utilitymodels.Constants;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
+import com.eveningoutpost.dexdrip.utils.RetentionEngine;
 import com.google.gson.annotations.Expose;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Hashtable;
 import java.util.List;
@@ -111,19 +112,21 @@ public class UserError extends Model {
     }
 
 
-    public static void cleanup() {
-        new Cleanup().execute(deletable());
+    // the same periods as deletable()
+    public static List<RetentionEngine.Rule> retentionRules() {
+        final long now = JoH.tsl();
+        final List<RetentionEngine.Rule> rules = new ArrayList<>();
+        rules.add(new RetentionEngine.Rule("UserErrors", "timestamp", now - Constants.DAY_IN_MS).where("severity < 3"));
+        rules.add(new RetentionEngine.Rule("UserErrors", "timestamp", now - Constants.DAY_IN_MS * 3).where("severity = 3"));
+        rules.add(new RetentionEngine.Rule("UserErrors", "timestamp", now - Constants.DAY_IN_MS * 7).where("severity > 3"));
+        return rules;
     }
 
     // used in unit testing
     public static void cleanup(long timestamp) {
-        List<UserError> userErrors = new Select()
-                .from(UserError.class)
-                .where("timestamp < ?", timestamp)
-                .orderBy("timestamp desc")
-                .execute();
-        if (userErrors != null) Log.d(TAG, "cleanup UserError size=" + userErrors.size());
-        new Cleanup().execute(userErrors);
+        final RetentionEngine.Result result = RetentionEngine.prune(new RetentionEngine.Rule("UserErrors", "timestamp", timestamp));
+        Log.d(TAG, "cleanup UserError size=" + result.rows);
+        Cache.clear();
     }
 
     public static void cleanupByTimeAndClause(final long timestamp, final String clause) {
@@ -259,21 +262,6 @@ public class UserError extends Model {
         }
     }
 
-    private static class Cleanup extends AsyncTask<List<UserError>, Integer, Boolean> {
-        @Override
-        protected Boolean doInBackground(List<UserError>... errors) {
-            try {
-                for (UserError userError : errors[0]) {
-                    userError.delete();
-                    //userError.save();
-                }
-                return true;
-            } catch (Exception e) {
-                return false;
-            }
-        }
-    }
-
     public static List<UserError> bySeverity(int level) {
         return bySeverity(new Integer[]{level});
     }
@@ -6,6 +6,7 @@ import com.eveningoutpost.dexdrip.utilitymodels.BgGraphBuilder;
 import com.eveningoutpost.dexdrip.utilitymodels.Constants;
 import com.eveningoutpost.dexdrip.processing.sgfilter.ContinuousPadder;
 import com.eveningoutpost.dexdrip.processing.sgfilter.EnvelopeProcessor;
+import com.eveningoutpost.dexdrip.processing.sgfilter.IncrementalSGFilter;
 import com.eveningoutpost.dexdrip.processing.sgfilter.LowPreserver;
 import com.eveningoutpost.dexdrip.processing.sgfilter.SGFilter;
 
@@ -28,6 +29,8 @@ public class GotoSmoother extends BaseSmoother {
 
     private SGFilter filter;
     private double[] coefficients;
+    private IncrementalSGFilter recent;
+    private double[] recentOutput;
     private int multiplier = 1;
     private final long period;
 
@@ -69,11 +72,12 @@ public class GotoSmoother extends BaseSmoother {
      * @param distance the distance
      */
     void setFilter(final int distance) {
-        coefficients = SGFilter.computeSGCoefficients(distance, distance, 2);
+        coefficients = SGFilter.getSGCoefficients(distance, distance, 2);
         filter = new SGFilter(distance, distance);
         filter.appendPreprocessor(new ContinuousPadder());
         filter.appendPostprocessor(new LowPreserver(this.multiplier, getLowMarkInMgDl()));
         filter.appendPostprocessor(new EnvelopeProcessor(this.multiplier));
+        recent = new IncrementalSGFilter(filter, coefficients, true);
     }
 
     /**
@@ -122,9 +126,77 @@ public class GotoSmoother extends BaseSmoother {
         if (readings == null) return;
         if (D) UserError.Log.d(TAG, "Got smooth partial input length " + length + " @ " + start);
         if (length <= (3 * multiplier)) return;
+        if (start == 0) {
+            smoothRecentReadingList(readings, length);
+            return;
+        }
         repatriateDoubles(readings, start, length, sgFilter(extractDoubleArray(readings, start, length)));
     }
 
+    /**
+     * Smooth the newest contiguous readings, only convolving where they differ from last time.
+     *
+     * @param readings the readings, newest first
+     * @param length   the length
+     */
+    void smoothRecentReadingList(final List<BgReading> readings, final int length) {
+        if (!alignRecent(readings, length)) {
+            recent.clear();
+            for (int i = length - 1; i >= 0; i--) {
+                val r = readings.get(i);
+                recent.append(r.timestamp, (float) r.calculated_value);
+            }
+        }
+        recentOutput = recent.smooth(recentOutput);
+        if (D) UserError.Log.d(TAG, "Recent smoothing convolved " + recent.getLastConvolved() + " of " + length);
+        repatriateDoubles(readings, 0, length, recentOutput);
+    }
+
+    /**
+     * Bring the recent filter in line with the readings when they are what it holds with newer
+     * readings added and older ones dropped. Readings it holds are matched on timestamp and on
+     * either the value given last time or the value smoothed in to them, as callers may pass
+     * the same instances again.
+     *
+     * @param readings the readings, newest first
+     * @param length   the length
+     * @return true if aligned, false if it needs to be rebuilt
+     */
+    private boolean alignRecent(final List<BgReading> readings, final int length) {
+        val size = recent.size();
+        if (size == 0) return false;
+        val newest = recent.getTimestamp(0);
+        int added = 0;
+        while (added < length && readings.get(added).timestamp > newest) {
+            added++;
+        }
+        val overlap = length - added;
+        if (overlap <= 0 || overlap > size) return false;
+        val previous = recentOutput != null && recentOutput.length == size ? recentOutput : null;
+        for (int i = 0; i < overlap; i++) {
+            val r = readings.get(added + i);
+            if (r.timestamp != recent.getTimestamp(i)) {
+                return false;
+            }
+            if ((float) r.calculated_value != recent.getValue(i) && (previous == null || r.calculated_value != previous[i])) {
+                return false;
+            }
+        }
+        recent.removeOldest(size - overlap);
+        for (int i = added - 1; i >= 0; i--) {
+            val r = readings.get(i);
+            recent.append(r.timestamp, (float) r.calculated_value);
+        }
+        return true;
+    }
+
+    /**
+     * Number of windows convolved by the last recent smoothing.
+     */
+    int getRecentConvolved() {
+        return recent.getLastConvolved();
+    }
+
     /**
      * Find contiguous count of sequential data elements.
      *
@@ -150,7 +222,7 @@ public class GotoSmoother extends BaseSmoother {
     }
 
     @Override
-    public List<BgReading> smoothBgReadings(final List<BgReading> readings) {
+    public synchronized List<BgReading> smoothBgReadings(final List<BgReading> readings) {
         if (readings == null) return null;
         if (readings.size() == 0) return readings;
         // descending timestamps, eg newest first.
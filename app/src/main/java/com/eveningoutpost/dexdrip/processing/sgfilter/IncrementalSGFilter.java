@@ -0,0 +1,210 @@
+package com.eveningoutpost.dexdrip.processing.sgfilter;
+
+import java.util.Arrays;
+
+/**
+ * Savitzky-Golay smoothing of a growing series held in a ring buffer
+ * <p>
+ * Values are appended as they arrive and the oldest can be dropped from the other end. Each
+ * smoothed value is kept against its slot, so when smoothing again only the windows which now
+ * see a new value, or a changed padding value, are convolved. The results are identical to
+ * {@link SGFilter#smooth(double[], double[], double[], int, double[][])} with zero padding
+ * and no bias, with the filter's preprocessors and postprocessors applied in the same way.
+ * <p>
+ * The series can be presented newest first which is the order the graph smoother works in.
+ * Not thread safe.
+ */
+
+public class IncrementalSGFilter {
+
+    private final SGFilter filter;
+    private final double[] coefficients;
+    private final boolean newestFirst;
+    private final int nl;
+    private final int nr;
+
+    private long[] timestamps = new long[64];
+    private double[] values = new double[64];
+    private double[] processed = new double[64];
+    private double[] smoothed = new double[64];
+    private boolean[] fresh = new boolean[64];
+    private int head = 0;
+    private int count = 0;
+    private boolean resized = true;
+
+    private final double[] leftPad;
+    private final double[] rightPad;
+    private double[] padded = new double[0];
+    private double[] source = new double[0];
+    private int[] changes = new int[0];
+
+    private int lastConvolved = 0;
+
+    /**
+     * Instantiates a new incremental filter.
+     *
+     * @param filter       the filter providing window size and processors, must have no data filters
+     * @param coefficients the coefficients for that window, see {@link SGFilter#getSGCoefficients(int, int, int)}
+     * @param newestFirst  whether the series is smoothed with the newest value first
+     */
+    public IncrementalSGFilter(final SGFilter filter, final double[] coefficients, final boolean newestFirst) {
+        if (filter.hasDataFilters()) {
+            throw new IllegalArgumentException("Data filters are not supported");
+        }
+        if (coefficients.length != filter.getNl() + filter.getNr() + 1) {
+            throw new IllegalArgumentException("Coefficients do not match filter size");
+        }
+        this.filter = filter;
+        this.coefficients = coefficients;
+        this.newestFirst = newestFirst;
+        this.nl = filter.getNl();
+        this.nr = filter.getNr();
+        this.leftPad = new double[nl];
+        this.rightPad = new double[nr];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Number of windows convolved by the last call to smooth.
+     */
+    public int getLastConvolved() {
+        return lastConvolved;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+        resized = true;
+    }
+
+    /**
+     * Append the newest value.
+     *
+     * @param timestamp identifies the value for the caller
+     * @param value     the value
+     */
+    public void append(final long timestamp, final double value) {
+        if (count == values.length) {
+            grow();
+        }
+        final int slot = (head + count) % values.length;
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+        fresh[slot] = true;
+        count++;
+        resized = true;
+    }
+
+    /**
+     * Drop the oldest values.
+     *
+     * @param number how many to drop
+     */
+    public void removeOldest(final int number) {
+        final int drop = Math.max(0, Math.min(number, count));
+        if (drop == 0) return;
+        head = (head + drop) % values.length;
+        count -= drop;
+        resized = true;
+    }
+
+    public long getTimestamp(final int index) {
+        return timestamps[slot(index)];
+    }
+
+    public double getValue(final int index) {
+        return values[slot(index)];
+    }
+
+    /**
+     * Smooth the series in its presentation order.
+     *
+     * @param out receives the result when it is the same length as the series, may be null
+     * @return the smoothed series, a new array if out could not be used
+     */
+    public double[] smooth(final double[] out) {
+        final int n = count;
+        final double[] result = out != null && out.length == n ? out : new double[n];
+        lastConvolved = 0;
+        if (n == 0) return result;
+
+        final int total = n + nl + nr;
+        final int width = nl + nr + 1;
+        if (padded.length != total) {
+            padded = new double[total];
+            changes = new int[total + 1];
+        }
+        if (source.length != n) {
+            source = new double[n];
+        }
+        Arrays.fill(padded, 0, nl, 0);
+        Arrays.fill(padded, nl + n, total, 0);
+        for (int i = 0; i < n; i++) {
+            final double value = values[slot(i)];
+            padded[nl + i] = value;
+            source[i] = value;
+        }
+        filter.preprocess(padded);
+
+        // running count of positions which differ from what the stored results were built from
+        for (int p = 0; p < total; p++) {
+            final boolean changed;
+            if (p < nl) {
+                changed = resized || padded[p] != leftPad[p];
+            } else if (p >= nl + n) {
+                changed = resized || padded[p] != rightPad[p - nl - n];
+            } else {
+                final int slot = slot(p - nl);
+                changed = fresh[slot] || padded[p] != processed[slot];
+            }
+            changes[p + 1] = changes[p] + (changed ? 1 : 0);
+        }
+
+        for (int i = 0; i < n; i++) {
+            final int slot = slot(i);
+            if (changes[i + width] != changes[i]) {
+                smoothed[slot] = SGFilter.convolve(padded, i, width, coefficients);
+                lastConvolved++;
+            }
+            processed[slot] = padded[nl + i];
+            fresh[slot] = false;
+            result[i] = smoothed[slot];
+        }
+        System.arraycopy(padded, 0, leftPad, 0, nl);
+        System.arraycopy(padded, nl + n, rightPad, 0, nr);
+        resized = false;
+
+        filter.postprocess(result, source);
+        return result;
+    }
+
+    private int slot(final int index) {
+        return (head + (newestFirst ? count - 1 - index : index)) % values.length;
+    }
+
+    private void grow() {
+        final int capacity = values.length * 2;
+        final long[] newTimestamps = new long[capacity];
+        final double[] newValues = new double[capacity];
+        final double[] newProcessed = new double[capacity];
+        final double[] newSmoothed = new double[capacity];
+        final boolean[] newFresh = new boolean[capacity];
+        for (int i = 0; i < count; i++) {
+            final int slot = (head + i) % values.length;
+            newTimestamps[i] = timestamps[slot];
+            newValues[i] = values[slot];
+            newProcessed[i] = processed[slot];
+            newSmoothed[i] = smoothed[slot];
+            newFresh[i] = fresh[slot];
+        }
+        timestamps = newTimestamps;
+        values = newValues;
+        processed = newProcessed;
+        smoothed = newSmoothed;
+        fresh = newFresh;
+        head = 0;
+    }
+}
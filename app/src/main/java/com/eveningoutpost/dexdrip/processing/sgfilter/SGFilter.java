@@ -21,6 +21,8 @@ import static java.lang.Math.pow;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.ArrayRealVector;
@@ -36,6 +38,36 @@ import org.apache.commons.math3.linear.LUDecomposition;
  */
 public class SGFilter {
 
+	private static final Map<Long, double[]> coefficientCache = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns Savitzky-Golay coefficients for given parameters, computing them
+	 * only the first time each combination is asked for. The returned array is
+	 * shared and must not be modified
+	 *
+	 * @param nl
+	 *            number of past data points filter will use
+	 * @param nr
+	 *            number of future data points filter will use
+	 * @param degree
+	 *            order of smoothing polynomial
+	 * @return Savitzky-Golay coefficients
+	 * @throws IllegalArgumentException
+	 *             if {@code nl < 0} or {@code nr < 0} or {@code nl + nr <
+	 *             degree}
+	 */
+	public static double[] getSGCoefficients(int nl, int nr, int degree) {
+		if (nl < 0 || nr < 0 || nl + nr < degree)
+			throw new IllegalArgumentException("Bad arguments");
+		final long key = ((long) nl << 42) | ((long) nr << 21) | degree;
+		double[] coeffs = coefficientCache.get(key);
+		if (coeffs == null) {
+			coeffs = computeSGCoefficients(nl, nr, degree);
+			coefficientCache.put(key, coeffs);
+		}
+		return coeffs;
+	}
+
 	/**
 	 * Computes Savitzky-Golay coefficients for given parameters
 	 *
@@ -93,6 +125,8 @@ public class SGFilter {
 
 	private final List<DataFilter> dataFilters = new ArrayList<DataFilter>();
 
+	private double[] workspace = new double[0];
+
 	private int nl;
 
 	private int nr;
@@ -355,6 +389,39 @@ public class SGFilter {
 	 *             when any array passed as parameter is null
 	 */
 	public double[] smooth(final double[] source_data, double[] leftPad, double[] rightPad, int bias, double[][] coeffs) {
+		return smooth(source_data, leftPad, rightPad, bias, coeffs, null);
+	}
+
+	/**
+	 * See {@link #smooth(double[], double[], double[], int, double[][])}. The
+	 * result is written in to {@code out} when it is the same length as the
+	 * (filtered) data, otherwise a new array is returned. Padding is built in a
+	 * workspace kept by this filter, so repeated calls with the same size of
+	 * data do not allocate. Not thread safe when used this way
+	 *
+	 * @param source_data
+	 *            data for filter
+	 * @param leftPad
+	 *            left padding
+	 * @param rightPad
+	 *            right padding
+	 * @param bias
+	 *            how many points of pad should be left out when smoothing
+	 * @param coeffs
+	 *            array of filter coefficients
+	 * @param out
+	 *            array to receive filtered data, may be null
+	 * @return filtered data
+	 * @throws IllegalArgumentException
+	 *             when <tt>bias < 0</tt> or <tt>bias > min(nr, nl)</tt>
+	 * @throws IndexOutOfBoundsException
+	 *             when {@code coeffs} has less than <tt>2*bias + 1</tt>
+	 *             elements
+	 * @throws NullPointerException
+	 *             when any array passed as parameter, other than {@code out},
+	 *             is null
+	 */
+	public double[] smooth(final double[] source_data, double[] leftPad, double[] rightPad, int bias, double[][] coeffs, double[] out) {
 		if (bias < 0 || bias > nr || bias > nl)
 			throw new IllegalArgumentException("bias < 0 or bias > nr or bias > nl");
 		double[] data = source_data;
@@ -365,7 +432,16 @@ public class SGFilter {
 		if (dataLength == 0)
 			return data;
 		int n = dataLength + nl + nr;
-		double[] dataCopy = new double[n];
+		double[] dataCopy;
+		if (out == null) {
+			dataCopy = new double[n];
+		} else {
+			// preprocessors work on the whole array so it must be exactly this size
+			if (workspace.length != n)
+				workspace = new double[n];
+			dataCopy = workspace;
+			Arrays.fill(dataCopy, 0);
+		}
 		// copy left pad reversed
 		int leftPadOffset = nl - leftPad.length;
 		if (leftPadOffset >= 0)
@@ -390,11 +466,9 @@ public class SGFilter {
 			for (int i = 0; i < nr; i++) {
 				dataCopy[i + dataLength + nl] = rightPad[i];
 			}
-		for (Preprocessor p : preprocessors) {
-			p.apply(dataCopy);
-		}
+		preprocess(dataCopy);
 		// convolution (with savitzky-golay coefficients)
-		double[] sdata = new double[dataLength];
+		double[] sdata = out != null && out.length == dataLength ? out : new double[dataLength];
 		double[] sg;
 		for (int b = bias; b > 0; b--) {
 			sg = coeffs[coeffs.length - b];
@@ -407,11 +481,7 @@ public class SGFilter {
 		}
 		sg = coeffs[0];
 		for (int x = nl + bias; x < n - nr - bias; x++) {
-			float sum = 0;
-			for (int i = -nl; i <= nr; i++) {
-				sum += dataCopy[x + i] * sg[nl + i];
-			}
-			sdata[x - nl] = sum;
+			sdata[x - nl] = convolve(dataCopy, x - nl, nl + nr + 1, sg);
 		}
 		for (int b = 1; b <= bias; b++) {
 			sg = coeffs[b];
@@ -422,10 +492,46 @@ public class SGFilter {
 			}
 			sdata[x - nl] = sum;
 		}
+		postprocess(sdata, source_data);
+		return sdata;
+	}
+
+	/**
+	 * Unbiased convolution of one window of padded data
+	 *
+	 * @param padded
+	 *            padded data
+	 * @param start
+	 *            index of the first element of the window
+	 * @param width
+	 *            window size, <tt>nl + nr + 1</tt>
+	 * @param sg
+	 *            filter coefficients
+	 * @return filtered value for the centre of the window
+	 */
+	static double convolve(double[] padded, int start, int width, double[] sg) {
+		// accumulated as float as it always has been so results stay identical
+		float sum = 0;
+		for (int i = 0; i < width; i++) {
+			sum += padded[start + i] * sg[i];
+		}
+		return sum;
+	}
+
+	void preprocess(double[] padded) {
+		for (final Preprocessor p : preprocessors) {
+			p.apply(padded);
+		}
+	}
+
+	void postprocess(double[] sdata, double[] source_data) {
 		for (final Postprocessor p : postprocessors) {
 			p.apply(sdata, source_data);
 		}
-		return sdata;
+	}
+
+	boolean hasDataFilters() {
+		return !dataFilters.isEmpty();
 	}
 
 	/**
@@ -21,6 +21,8 @@ import androidx.annotation.Nullable;
 import com.eveningoutpost.dexdrip.BestGlucose;
 import com.eveningoutpost.dexdrip.BuildConfig;
 import com.eveningoutpost.dexdrip.eassist.EmergencyAssist;
+import com.eveningoutpost.dexdrip.models.BgReadingWindow;
+import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.models.UserError;
 import com.eveningoutpost.dexdrip.utilitymodels.AlertPlayer;
 import com.eveningoutpost.dexdrip.utilitymodels.BgGraphBuilder;
@@ -42,8 +44,9 @@ import java.io.ByteArrayOutputStream;
 public class InfoContentProvider extends ContentProvider {
 
     private static final String TAG = "jamorham-content";
-    private static final BlobCache dgCache = new BlobCache(60_000);
-    private static final BlobCache graphCache = new BlobCache(60_000);
+    // entries are keyed on the reading data version and the minute as the output is relative to now
+    private static final BlobCache dgCache = new BlobCache(2);
+    private static final BlobCache graphCache = new BlobCache(8);
 
     {
         xdrip.setContext(getContext());
@@ -85,10 +88,12 @@ public class InfoContentProvider extends ContentProvider {
                     break;
 
                 case "bg": {
-                    BestGlucose.DisplayGlucose dg = (BestGlucose.DisplayGlucose) dgCache.get();
+                    final long version = BgReadingWindow.dataVersion();
+                    final long minute = currentMinute();
+                    BestGlucose.DisplayGlucose dg = (BestGlucose.DisplayGlucose) dgCache.get(version, minute);
                     if (dg == null) {
                         dg = BestGlucose.getDisplayGlucose();
-                        dgCache.set(dg);
+                        dgCache.set(dg, version, minute);
                     }
                     if (dg == null) return null;
 
@@ -130,7 +135,13 @@ public class InfoContentProvider extends ContentProvider {
                 }
 
                 case "info":
-                    return matrixRow("last_ueh", UserError.newestBySeverity(6));
+                    return matrixRow("last_ueh", UserError.newestBySeverity(6),
+                            "graph_cache_hits", graphCache.getHits(),
+                            "graph_cache_misses", graphCache.getMisses(),
+                            "graph_cache_evictions", graphCache.getEvictions(),
+                            "graph_cache_entries", graphCache.size(),
+                            "graph_cache_hit_rate", graphCache.getHitRate(),
+                            "bg_cache_hit_rate", dgCache.getHitRate());
 
                 case "iob-info": {
                 }
@@ -145,13 +156,15 @@ public class InfoContentProvider extends ContentProvider {
                     final int width = Math.min(1000, Integer.parseInt(selectionArgs[0]));
                     final int height = Math.min(1000, Integer.parseInt(selectionArgs[1]));
 
-                    byte[] blob = (byte[]) graphCache.get(width, height);
-                    if (blob == null) {
-                        String backgroundColor = "#80000000";
-                        if (selectionArgs.length >= 3) {
-                            backgroundColor = selectionArgs[2];
-                        }
+                    String backgroundColor = "#80000000";
+                    if (selectionArgs.length >= 3) {
+                        backgroundColor = selectionArgs[2];
+                    }
+                    final long version = BgReadingWindow.dataVersion();
+                    final long minute = currentMinute();
 
+                    byte[] blob = (byte[]) graphCache.get(width, height, backgroundColor, version, minute);
+                    if (blob == null) {
                         final BgGraphBuilder bgGraphBuilder = new BgGraphBuilder(xdrip.getAppContext());
 
                         final Bitmap bitmap = new BgSparklineBuilder(xdrip.getAppContext())
@@ -164,7 +177,7 @@ public class InfoContentProvider extends ContentProvider {
                                 .build();
                         blob = convertBitmapToPNGByteArray(bitmap);
                         bitmap.recycle();
-                        graphCache.set(blob, width, height);
+                        graphCache.set(blob, width, height, backgroundColor, version, minute);
                     }
 
                     final String[] columnNames = {"blob"};
@@ -280,6 +293,10 @@ public class InfoContentProvider extends ContentProvider {
         return 0;
     }
 
+    private static long currentMinute() {
+        return JoH.tsl() / Constants.MINUTE_IN_MS;
+    }
+
     private int boolInt(final boolean bool) {
         return bool ? 1 : 0;
     }
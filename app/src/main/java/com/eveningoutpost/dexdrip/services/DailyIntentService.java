@@ -25,11 +25,15 @@ import com.eveningoutpost.dexdrip.utilitymodels.Pref;
 import com.eveningoutpost.dexdrip.utilitymodels.UploaderQueue;
 import com.eveningoutpost.dexdrip.cloud.backup.Backup;
 import com.eveningoutpost.dexdrip.utils.DatabaseUtil;
+import com.eveningoutpost.dexdrip.utils.RetentionEngine;
 import com.eveningoutpost.dexdrip.utils.Telemetry;
 import com.eveningoutpost.dexdrip.wearintegration.WatchUpdaterService;
 import com.eveningoutpost.dexdrip.xdrip;
 import com.eveningoutpost.dexdrip.utilitymodels.SettingsValidation;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.eveningoutpost.dexdrip.Home.startWatchUpdaterService;
 import static com.eveningoutpost.dexdrip.utilitymodels.UpdateActivity.checkForAnUpdate;
 
@@ -59,6 +63,21 @@ public class DailyIntentService extends IntentService {
         }
     }
 
+    // all the time limited tables, pruned together in bounded batches
+    private static List<RetentionEngine.Rule> retentionRules() {
+        final List<RetentionEngine.Rule> rules = new ArrayList<>(UserError.retentionRules());
+        rules.addAll(UploaderQueue.retentionRules());
+        rules.add(StepCounter.retentionRule(Pref.getInt("retention_pebble_movement", 180)));
+        rules.add(DesertSync.retentionRule());
+        final int bg_retention_days = Pref.getStringToInt("retention_days_bg_reading", 0);
+        if (bg_retention_days > 0) {
+            rules.add(BgReading.retentionRule(bg_retention_days));
+            rules.add(Libre2RawValue.retentionRule(bg_retention_days));
+            rules.add(Treatments.retentionRule(bg_retention_days));
+        }
+        return rules;
+    }
+
     public static synchronized void work() {
         final PowerManager.WakeLock wl = JoH.getWakeLock("DailyIntentService", 120000);
         try {
@@ -89,11 +108,6 @@ public class DailyIntentService extends IntentService {
                 } catch (Exception e) {
                     Log.e(TAG, "DailyIntentService exception on watch clear DB ", e);
                 }
-                try {
-                    UserError.cleanup();
-                } catch (Exception e) {
-                    Log.e(TAG, "DailyIntentService exception on UserError ", e);
-                }
                 try {
                     BgSendQueue.cleanQueue(); // no longer used
 
@@ -106,33 +120,9 @@ public class DailyIntentService extends IntentService {
                     Log.d(TAG, "DailyIntentService exception on CalibrationSendQueue " + e);
                 }
                 try {
-                    UploaderQueue.cleanQueue();
-                } catch (Exception e) {
-                    Log.e(TAG, "DailyIntentService exception on UploaderQueue ", e);
-                }
-                try {
-                    StepCounter.cleanup(Pref.getInt("retention_pebble_movement", 180));
+                    RetentionEngine.run(retentionRules(), Pref.getBooleanDefaultFalse("retention_incremental_vacuum"));
                 } catch (Exception e) {
-                    Log.e(TAG, "DailyIntentService exception on PebbleMovement ", e);
-                }
-
-                try {
-                    final int bg_retention_days = Pref.getStringToInt("retention_days_bg_reading", 0);
-                    if (bg_retention_days > 0) {
-                        BgReading.cleanup(bg_retention_days);
-                        try {
-                            Libre2RawValue.cleanup(bg_retention_days);
-                        } catch (Exception e) {
-                            Log.e(TAG, "Exception cleaning up libre raw values " + e);
-                        }
-                        try {
-                            Treatments.cleanup(bg_retention_days);
-                        } catch (Exception e) {
-                            Log.e(TAG, "Exception cleaning up treatment data " + e);
-                        }
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "DailyIntentService exception on BgReadings cleanup ", e);
+                    Log.e(TAG, "DailyIntentService exception on retention cleanup ", e);
                 }
 
                 try {
@@ -150,11 +140,6 @@ public class DailyIntentService extends IntentService {
                 } catch (Exception e) {
                     Log.e(TAG, "exception on RollCall prune " + e);
                 }
-                try {
-                    DesertSync.cleanup();
-                } catch (Exception e) {
-                    Log.e(TAG, "Exception cleaning up DesertSync");
-                }
                 try {
                     Telemetry.sendFirmwareReport();
                     Telemetry.sendCaptureReport();
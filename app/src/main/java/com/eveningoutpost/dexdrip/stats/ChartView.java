@@ -99,9 +99,10 @@ public class ChartView extends View {
                 public void run() {
                     super.run();
                     RangeData rd = new RangeData();
-                    rd.aboveRange = DBSearchUtil.noReadingsAboveRange(getContext());
-                    rd.belowRange = DBSearchUtil.noReadingsBelowRange(getContext());
-                    rd.inRange = DBSearchUtil.noReadingsInRange(getContext());
+                    StatsEngine.Summary stats = DBSearchUtil.getStats(getContext());
+                    rd.aboveRange = stats.getAbove();
+                    rd.belowRange = stats.getBelow();
+                    rd.inRange = stats.getIn();
                     setRangeData(rd);
                 }
             };
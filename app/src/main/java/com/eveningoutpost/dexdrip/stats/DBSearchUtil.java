@@ -2,22 +2,17 @@ package com.eveningoutpost.dexdrip.stats;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.preference.PreferenceManager;
 
 import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.models.UserError.Log;
 
-import com.activeandroid.Cache;
-import com.activeandroid.query.Select;
-import com.eveningoutpost.dexdrip.models.BgReading;
 import com.eveningoutpost.dexdrip.utilitymodels.Constants;
 
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.Vector;
 
 /**
  * Created by adrian on 30/06/15.
@@ -28,45 +23,49 @@ public class DBSearchUtil {
 
 
     public static int noReadingsAboveRange(Context context) {
+        final int count = getStats(context).getAbove();
+        Log.d("DrawStats", "High count: " + count);
+        return count;
+    }
+
+    public static int noReadingsInRange(Context context) {
+        final int count = getStats(context).getIn();
+        Log.d("DrawStats", "In count: " + count);
+        return count;
+    }
+
+    public static int noReadingsBelowRange(Context context) {
+        final int count = getStats(context).getBelow();
+        Log.d("DrawStats", "Low count: " + count);
+        return count;
+    }
+
+    // all range counts and summary values for the selected period in one pass
+    public static StatsEngine.Summary getStats(Context context) {
+        return getStats(context, 0);
+    }
+
+    public static StatsEngine.Summary getStats(Context context, int timeSlots) {
         Bounds bounds = new Bounds().invoke();
 
         SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
         boolean mgdl = "mgdl".equals(settings.getString("units", "mgdl"));
 
         double high = Double.parseDouble(settings.getString("highValue", "170"));
+        double low = Double.parseDouble(settings.getString("lowValue", "70"));
         if (!mgdl) {
             high *= Constants.MMOLL_TO_MGDL;
+            low *= Constants.MMOLL_TO_MGDL;
         }
-
-        int count = new Select()
-                .from(BgReading.class)
-                .where("timestamp >= " + bounds.start)
-                .where("timestamp <= " + bounds.stop)
-                .where("calculated_value > " + CUTOFF)
-                .where("calculated_value > " + high)
-                .where("snyced == 0").count();
-        Log.d("DrawStats", "High count: " + count);
-        return count;
+        return StatsEngine.calculate(bounds.start, bounds.stop, low, high, timeSlots);
     }
 
-
     public static List<BgReadingStats> getReadings(boolean ordered) {
         try {
             Bounds bounds = new Bounds().invoke();
-
-            String orderBy = ordered ? "calculated_value desc" : null;
-
-            SQLiteDatabase db = Cache.openDatabase();
-            Cursor cur = db.query("bgreadings", new String[]{"timestamp", "calculated_value"}, "timestamp >= ? AND timestamp <=  ? AND calculated_value > ? AND snyced == 0", new String[]{"" + bounds.start, "" + bounds.stop, CUTOFF}, null, null, orderBy);
-            List<BgReadingStats> readings = new Vector<BgReadingStats>();
-            BgReadingStats reading;
-            if (cur.moveToFirst()) {
-                do {
-                    reading = new BgReadingStats();
-                    reading.timestamp = (Long.parseLong(cur.getString(0)));
-                    reading.calculated_value = (Double.parseDouble(cur.getString(1)));
-                    readings.add(reading);
-                } while (cur.moveToNext());
+            List<BgReadingStats> readings = StatsEngine.readings(bounds.start, bounds.stop, false);
+            if (ordered) {
+                Collections.sort(readings, (a, b) -> Double.compare(b.calculated_value, a.calculated_value));
             }
             return readings;
 
@@ -79,24 +78,9 @@ public class DBSearchUtil {
     public static List<BgReadingStats> getFilteredReadingsWithFallback(boolean ordered) {
         try {
             Bounds bounds = new Bounds().invoke();
-
-            String orderBy = ordered ? "calculated_value desc" : null;
-
-            SQLiteDatabase db = Cache.openDatabase();
-            Cursor cur = db.query("bgreadings", new String[]{"timestamp", "calculated_value", "filtered_calculated_value"}, "timestamp >= ? AND timestamp <=  ? AND calculated_value > ? AND snyced == 0", new String[]{"" + bounds.start, "" + bounds.stop, CUTOFF}, null, null, orderBy);
-            List<BgReadingStats> readings = new Vector<BgReadingStats>();
-            BgReadingStats reading;
-            if (cur.moveToFirst()) {
-                do {
-                    reading = new BgReadingStats();
-                    reading.timestamp = (Long.parseLong(cur.getString(0)));
-
-                    reading.calculated_value = (Double.parseDouble(cur.getString(2)));
-                    if(reading.calculated_value == 0)
-                        reading.calculated_value = (Double.parseDouble(cur.getString(1)));
-
-                    readings.add(reading);
-                } while (cur.moveToNext());
+            List<BgReadingStats> readings = StatsEngine.readings(bounds.start, bounds.stop, true);
+            if (ordered) {
+                Collections.sort(readings, (a, b) -> Double.compare(b.calculated_value, a.calculated_value));
             }
             return readings;
 
@@ -107,58 +91,6 @@ public class DBSearchUtil {
     }
 
 
-    public static int noReadingsInRange(Context context) {
-        Bounds bounds = new Bounds().invoke();
-
-        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
-        boolean mgdl = "mgdl".equals(settings.getString("units", "mgdl"));
-
-        double high = Double.parseDouble(settings.getString("highValue", "170"));
-        double low = Double.parseDouble(settings.getString("lowValue", "70"));
-        if (!mgdl) {
-            high *= Constants.MMOLL_TO_MGDL;
-            low *= Constants.MMOLL_TO_MGDL;
-
-        }
-        int count = new Select()
-                .from(BgReading.class)
-                .where("timestamp >= " + bounds.start)
-                .where("timestamp <= " + bounds.stop)
-                .where("calculated_value > " + CUTOFF)
-                .where("calculated_value <= " + high)
-                .where("calculated_value >= " + low)
-                .where("snyced == 0")
-                .count();
-        Log.d("DrawStats", "In count: " + count);
-
-        return count;
-    }
-
-    public static int noReadingsBelowRange(Context context) {
-        Bounds bounds = new Bounds().invoke();
-
-        SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
-        boolean mgdl = "mgdl".equals(settings.getString("units", "mgdl"));
-
-        double low = Double.parseDouble(settings.getString("lowValue", "70"));
-        if (!mgdl) {
-            low *= Constants.MMOLL_TO_MGDL;
-
-        }
-        int count = new Select()
-                .from(BgReading.class)
-                .where("timestamp >= " + bounds.start)
-                .where("timestamp <= " + bounds.stop)
-                .where("calculated_value > " + CUTOFF)
-                .where("calculated_value < " + low)
-                .where("snyced == 0")
-                .count();
-        Log.d("DrawStats", "Low count: " + count);
-
-        return count;
-    }
-
-
     public static long getTodayTimestamp() {
         Calendar date = new GregorianCalendar();
         date.set(Calendar.HOUR_OF_DAY, 0);
@@ -129,9 +129,10 @@ public class FirstPageFragment extends Fragment {
             }
 
             // Ranges
-            long aboveRange = DBSearchUtil.noReadingsAboveRange(context);
-            long belowRange = DBSearchUtil.noReadingsBelowRange(context);
-            long inRange = DBSearchUtil.noReadingsInRange(context);
+            StatsEngine.Summary stats = DBSearchUtil.getStats(context);
+            long aboveRange = stats.getAbove();
+            long belowRange = stats.getBelow();
+            long inRange = stats.getIn();
             long total = aboveRange + belowRange + inRange;
 
             if (total == 0) {
@@ -159,9 +160,8 @@ public class FirstPageFragment extends Fragment {
             TextView rangesabsolute = (TextView) localView.findViewById(R.id.textView_ranges_absolute);
             updateText(localView, rangesabsolute, inRange + "/" + aboveRange + "/" + belowRange);
 
-            List<BgReadingStats> bgList = DBSearchUtil.getReadings(true);
-            if (bgList.size() > 0) {
-                double median = bgList.get(bgList.size() / 2).calculated_value;
+            if (stats.getTotal() > 0) {
+                double median = stats.getPercentile(0.5);
                 TextView medianView = (TextView) localView.findViewById(R.id.textView_median);
 
                 if (mgdl) {
@@ -172,12 +172,7 @@ public class FirstPageFragment extends Fragment {
 
                 }
 
-                double mean = 0;
-                double len = bgList.size();
-                double stdev = 0;
-                for (BgReadingStats bgr : bgList) {
-                    mean += bgr.calculated_value / len;
-                }
+                double mean = stats.getMean();
 
                 TextView meanView = (TextView) localView.findViewById(R.id.textView_mean);
                 // update mean
@@ -189,15 +184,12 @@ public class FirstPageFragment extends Fragment {
                 }
                 // update A1c
                 TextView a1cView = (TextView) localView.findViewById(R.id.textView_a1c);
-                int a1c_ifcc = (int) Math.round(((mean + 46.7) / 28.7 - 2.15) * 10.929);
-                double a1c_dcct = Math.round(10 * (mean + 46.7) / 28.7) / 10d;
+                int a1c_ifcc = stats.getA1cIFCC();
+                double a1c_dcct = stats.getA1cDCCT();
                 updateText(localView, a1cView, a1c_ifcc + " mmol/mol\n" + a1c_dcct + "%");
 
 
-                for (BgReadingStats bgr : bgList) {
-                    stdev += (bgr.calculated_value - mean) * (bgr.calculated_value - mean) / len;
-                }
-                stdev = Math.sqrt(stdev);
+                double stdev = stats.getPopulationStdDev();
                 TextView stdevView = (TextView) localView.findViewById(R.id.textView_stdev);
                 if (mgdl) {
                     updateText(localView, stdevView, (Math.round(stdev * 10) / 10d) + " mg/dl");
@@ -19,11 +19,6 @@ import com.eveningoutpost.dexdrip.R;
 import com.eveningoutpost.dexdrip.utilitymodels.Constants;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
 
-import java.util.Calendar;
-import java.util.Collections;
-import java.util.GregorianCalendar;
-import java.util.List;
-import java.util.Vector;
 
 /**
  * Created by adrian on 30/06/15.
@@ -259,19 +254,8 @@ public class PercentileView extends View {
                 @Override
                 public void run() {
                     super.run();
-                    final List<BgReadingStats> readings = DBSearchUtil.getReadings(false);
-                    if (readings == null) return;
-                    int day = 1000 * 60 * 60 * 24;
-
-                    int timeslot = day / NO_TIMESLOTS;
-
-                    Calendar date = new GregorianCalendar();
-                    date.set(Calendar.HOUR_OF_DAY, 0);
-                    date.set(Calendar.MINUTE, 0);
-                    date.set(Calendar.SECOND, 0);
-                    date.set(Calendar.MILLISECOND, 0);
-
-                    final long offset = date.getTimeInMillis() % day;
+                    // one pass fills a value histogram per time slot, percentiles are read from those
+                    final StatsEngine.Summary stats = DBSearchUtil.getStats(getContext(), NO_TIMESLOTS);
 
                     double[] q10 = new double[NO_TIMESLOTS];
                     double[] q25 = new double[NO_TIMESLOTS];
@@ -279,27 +263,12 @@ public class PercentileView extends View {
                     double[] q75 = new double[NO_TIMESLOTS];
                     double[] q90 = new double[NO_TIMESLOTS];
 
-
                     for (int i = 0; i < NO_TIMESLOTS; i++) {
-                        int begin = i * timeslot;
-                        int end = begin + timeslot;
-                        List<Double> filtered = new Vector<Double>();
-
-                        for (BgReadingStats reading : readings) {
-                            long timeOfDay = (reading.timestamp - offset) % day;
-                            if (timeOfDay >= begin && timeOfDay < end) {
-                                filtered.add(reading.calculated_value);
-                            }
-                        }
-                        Collections.sort(filtered);
-                        if (filtered.size() > 0) {
-                            q10[i] = filtered.get((int) (filtered.size() * 0.1));
-                            q25[i] = filtered.get((int) (filtered.size() * 0.25));
-                            q50[i] = filtered.get((int) (filtered.size() * 0.50));
-                            q75[i] = filtered.get((int) (filtered.size() * 0.75));
-                            q90[i] = filtered.get((int) (filtered.size() * 0.9));
-                        }
-
+                        q10[i] = stats.getSlotPercentile(i, 0.1);
+                        q25[i] = stats.getSlotPercentile(i, 0.25);
+                        q50[i] = stats.getSlotPercentile(i, 0.50);
+                        q75[i] = stats.getSlotPercentile(i, 0.75);
+                        q90[i] = stats.getSlotPercentile(i, 0.9);
                     }
                     CalculatedData cd = new CalculatedData();
                     cd.q10 = q10;
@@ -0,0 +1,409 @@
+package com.eveningoutpost.dexdrip.stats;
+
+import android.database.Cursor;
+
+import com.activeandroid.Cache;
+import com.eveningoutpost.dexdrip.models.BgReadingWindow;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.models.UserError;
+import com.eveningoutpost.dexdrip.utilitymodels.StatusItem;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.eveningoutpost.dexdrip.utilitymodels.Constants.DAY_IN_MS;
+import static com.eveningoutpost.dexdrip.utilitymodels.Constants.HOUR_IN_MS;
+
+/**
+ * Single pass glucose statistics.
+ * <p>
+ * Readings are streamed from the database once per local day into primitive columns which are
+ * cached, so widening the selected range only reads days which have not been seen before.
+ * Counts, time in range, mean, deviation, GVI and A1c estimates are then accumulated together
+ * in one pass over the cached columns, with fixed 1 mg/dl bin histograms for percentiles.
+ */
+
+public class StatsEngine {
+
+    private static final String TAG = "StatsEngine";
+    private static final long SETTLE_MS = 12 * HOUR_IN_MS; // recent days can still receive backfill
+    private static final long EXPIRY_MS = 6 * HOUR_IN_MS; // pick up late edits to older days eventually
+    private static final int MAX_DAYS = 120;
+    static final int HISTOGRAM_BINS = 512;
+
+    private static final Map<Long, Day> days = new LinkedHashMap<Long, Day>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, Day> eldest) {
+            return size() > MAX_DAYS;
+        }
+    };
+
+    private static long historyVersion = -1;
+    private static long dayHits = 0;
+    private static long dayLoads = 0;
+    private static long rowsLoaded = 0;
+    private static long calculations = 0;
+    private static long lastCalculationMs = 0;
+
+    // one local day of readings above the cutoff in timestamp order
+    private static class Day {
+        final long start;
+        final long loadedAt;
+        final long dataVersion; // -1 when settled
+        final int[] offset; // ms since start
+        final float[] calculated;
+        final float[] filtered; // filtered value falling back to calculated
+        final boolean[] backfill;
+
+        Day(final long start, final long loadedAt, final long dataVersion, final int size) {
+            this.start = start;
+            this.loadedAt = loadedAt;
+            this.dataVersion = dataVersion;
+            this.offset = new int[size];
+            this.calculated = new float[size];
+            this.filtered = new float[size];
+            this.backfill = new boolean[size];
+        }
+
+        int size() {
+            return offset.length;
+        }
+
+        boolean isValid(final long now) {
+            if (dataVersion == -1) return now - loadedAt < EXPIRY_MS;
+            return dataVersion == BgReadingWindow.dataVersion();
+        }
+    }
+
+    // accumulated results for a time range, thresholds in mg/dl
+    public static class Summary {
+        public final long from;
+        public final long to;
+        private final double low;
+        private final double high;
+        private final long slotOffset;
+        private final long slotLength;
+        private final int[] histogram = new int[HISTOGRAM_BINS];
+        private final int[][] slotHistograms;
+        private final int[] slotCounts;
+
+        private int in;
+        private int below;
+        private int above;
+        private int backfilled;
+        private double sum;
+        private double sumSquares;
+        private double first;
+        private double last;
+        private double gviTotal;
+
+        Summary(final long from, final long to, final double low, final double high, final int slots) {
+            this.from = from;
+            this.to = to;
+            this.low = low;
+            this.high = high;
+            // slots are aligned to local midnight as of today in the same way the percentile chart always has been
+            this.slotOffset = DBSearchUtil.getTodayTimestamp() % DAY_IN_MS;
+            this.slotLength = slots > 0 ? DAY_IN_MS / slots : 0;
+            this.slotHistograms = slots > 0 ? new int[slots][HISTOGRAM_BINS] : null;
+            this.slotCounts = slots > 0 ? new int[slots] : null;
+        }
+
+        void add(final long timestamp, final double value, final boolean isBackfill) {
+            final int total = getTotal();
+            if (value < low) {
+                below++;
+            } else if (value > high) {
+                above++;
+            } else {
+                in++;
+            }
+            if (isBackfill) backfilled++;
+            sum += value;
+            sumSquares += value * value;
+            if (total == 0) {
+                first = value;
+            } else {
+                final double delta = value - last;
+                gviTotal += Math.sqrt(25 + delta * delta);
+            }
+            last = value;
+
+            final int bin = bin(value);
+            histogram[bin]++;
+            if (slotHistograms != null) {
+                final int slot = (int) Math.min(((timestamp - slotOffset) % DAY_IN_MS) / slotLength, slotHistograms.length - 1);
+                slotHistograms[slot][bin]++;
+                slotCounts[slot]++;
+            }
+        }
+
+        private static int bin(final double value) {
+            return (int) Math.max(0, Math.min(Math.round(value), HISTOGRAM_BINS - 1));
+        }
+
+        // value at index floor(count * quantile) of the sorted readings
+        private static double percentile(final int[] bins, final int count, final double quantile) {
+            if (count == 0) return 0;
+            final int index = Math.min((int) (count * quantile), count - 1);
+            int seen = 0;
+            for (int i = 0; i < bins.length; i++) {
+                seen += bins[i];
+                if (seen > index) return i;
+            }
+            return bins.length - 1;
+        }
+
+        public int getTotal() {
+            return in + below + above;
+        }
+
+        public int getIn() {
+            return in;
+        }
+
+        public int getBelow() {
+            return below;
+        }
+
+        public int getAbove() {
+            return above;
+        }
+
+        public int getBackfilled() {
+            return backfilled;
+        }
+
+        public double getMean() {
+            return getTotal() > 0 ? sum / getTotal() : 0;
+        }
+
+        // sample standard deviation
+        public double getStdDev() {
+            final int n = getTotal();
+            if (n < 2) return 0;
+            return Math.sqrt(Math.max(0, (n * sumSquares - sum * sum) / ((double) n * (n - 1))));
+        }
+
+        public double getPopulationStdDev() {
+            final int n = getTotal();
+            if (n == 0) return 0;
+            final double mean = sum / n;
+            return Math.sqrt(Math.max(0, sumSquares / n - mean * mean));
+        }
+
+        //Refer to https://www.healthline.com/diabetesmine/a-new-view-of-glycemic-variability-how-long-is-your-line
+        //From Nightscout glucosedistribution.js
+        public double getGVI() {
+            final int n = getTotal();
+            if (n == 0) return 0;
+            final double delta = Math.abs(last - first);
+            final double ideal = Math.sqrt(Math.pow(n * 5, 2) + Math.pow(delta, 2));
+            return gviTotal / ideal;
+        }
+
+        public double getPGS() {
+            final int n = getTotal();
+            if (n == 0) return 0;
+            final double normalReadingsPct = in * 100 / n;
+            final double glucoseMean = Math.floor(sum / n);
+            return getGVI() * glucoseMean * (1 - normalReadingsPct / 100.0);
+        }
+
+        public double getA1cDCCT() {
+            return Math.round(10 * (getMean() + 46.7) / 28.7) / 10d;
+        }
+
+        public int getA1cIFCC() {
+            return (int) Math.round(((getMean() + 46.7) / 28.7 - 2.15) * 10.929);
+        }
+
+        public double getPercentile(final double quantile) {
+            return percentile(histogram, getTotal(), quantile);
+        }
+
+        public int getSlots() {
+            return slotHistograms != null ? slotHistograms.length : 0;
+        }
+
+        public double getSlotPercentile(final int slot, final double quantile) {
+            return percentile(slotHistograms[slot], slotCounts[slot], quantile);
+        }
+    }
+
+    public static synchronized Summary calculate(final long from, final long to, final double low, final double high) {
+        return calculate(from, to, low, high, 0);
+    }
+
+    // slots > 0 also collects time of day histograms for percentile charts
+    public static synchronized Summary calculate(final long from, final long to, final double low, final double high, final int slots) {
+        final long started = JoH.tsl();
+        final Summary summary = new Summary(from, to, low, high, slots);
+        for (final Day day : daysFor(from, to)) {
+            for (int i = 0; i < day.size(); i++) {
+                final long timestamp = day.start + day.offset[i];
+                if (timestamp < from || timestamp > to) continue;
+                summary.add(timestamp, day.calculated[i], day.backfill[i]);
+            }
+        }
+        calculations++;
+        lastCalculationMs = JoH.msSince(started);
+        return summary;
+    }
+
+    // readings in timestamp order, optionally using the filtered value where there is one
+    public static synchronized List<BgReadingStats> readings(final long from, final long to, final boolean filtered) {
+        final List<BgReadingStats> result = new ArrayList<>();
+        for (final Day day : daysFor(from, to)) {
+            for (int i = 0; i < day.size(); i++) {
+                final long timestamp = day.start + day.offset[i];
+                if (timestamp < from || timestamp > to) continue;
+                final BgReadingStats reading = new BgReadingStats();
+                reading.timestamp = timestamp;
+                reading.calculated_value = filtered ? day.filtered[i] : day.calculated[i];
+                result.add(reading);
+            }
+        }
+        return result;
+    }
+
+    public static synchronized void invalidate() {
+        days.clear();
+    }
+
+    private static List<Day> daysFor(final long from, final long to) {
+        final long now = JoH.tsl();
+        if (historyVersion != BgReadingWindow.historyVersion()) {
+            days.clear();
+            historyVersion = BgReadingWindow.historyVersion();
+        }
+        final List<Day> result = new ArrayList<>();
+        final List<long[]> missing = new ArrayList<>();
+        if (to < from) return result;
+
+        long start = startOfDay(from);
+        while (start <= to) {
+            final long end = nextDay(start);
+            final Day day = days.get(start);
+            if (day != null && day.isValid(now)) {
+                dayHits++;
+            } else {
+                final long[] previous = missing.isEmpty() ? null : missing.get(missing.size() - 1);
+                if (previous != null && previous[1] == start) {
+                    previous[1] = end;
+                } else {
+                    missing.add(new long[]{start, end});
+                }
+            }
+            start = end;
+        }
+
+        final Map<Long, Day> loaded = new HashMap<>();
+        for (final long[] run : missing) {
+            load(run[0], run[1], now, loaded);
+        }
+
+        start = startOfDay(from);
+        while (start <= to) {
+            final Day day = loaded.containsKey(start) ? loaded.get(start) : days.get(start);
+            if (day != null) result.add(day);
+            start = nextDay(start);
+        }
+        return result;
+    }
+
+    // stream one contiguous run of days from the database and split it into cached days
+    private static void load(final long start, final long end, final long now, final Map<Long, Day> loaded) {
+        final long version = BgReadingWindow.dataVersion();
+        final int size;
+        final long[] timestamps;
+        final float[] calculated;
+        final float[] filtered;
+        final boolean[] backfill;
+
+        final Cursor cursor = Cache.openDatabase().rawQuery("select timestamp, calculated_value, filtered_calculated_value, source_info like '%Backfill' from bgreadings where timestamp >= ? and timestamp < ? and calculated_value > " + DBSearchUtil.CUTOFF + " and snyced == 0 order by timestamp asc",
+                new String[]{Long.toString(start), Long.toString(end)});
+        try {
+            size = cursor.getCount();
+            timestamps = new long[size];
+            calculated = new float[size];
+            filtered = new float[size];
+            backfill = new boolean[size];
+            int i = 0;
+            while (cursor.moveToNext() && i < size) {
+                timestamps[i] = cursor.getLong(0);
+                calculated[i] = (float) cursor.getDouble(1);
+                final double filteredValue = cursor.getDouble(2);
+                filtered[i] = filteredValue != 0 ? (float) filteredValue : calculated[i];
+                backfill[i] = cursor.getInt(3) != 0;
+                i++;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int index = 0;
+        long dayStart = start;
+        while (dayStart < end) {
+            final long dayEnd = nextDay(dayStart);
+            int last = index;
+            while (last < size && timestamps[last] < dayEnd) last++;
+            final boolean settled = dayEnd < now - SETTLE_MS;
+            final Day day = new Day(dayStart, now, settled ? -1 : version, last - index);
+            for (int i = index; i < last; i++) {
+                day.offset[i - index] = (int) (timestamps[i] - dayStart);
+            }
+            System.arraycopy(calculated, index, day.calculated, 0, last - index);
+            System.arraycopy(filtered, index, day.filtered, 0, last - index);
+            System.arraycopy(backfill, index, day.backfill, 0, last - index);
+            days.put(dayStart, day);
+            loaded.put(dayStart, day);
+            dayLoads++;
+            index = last;
+            dayStart = dayEnd;
+        }
+        rowsLoaded += size;
+        UserError.Log.d(TAG, "Loaded " + size + " readings from " + JoH.dateTimeText(start) + " to " + JoH.dateTimeText(end));
+    }
+
+    private static long startOfDay(final long timestamp) {
+        final Calendar date = new GregorianCalendar();
+        date.setTimeInMillis(timestamp);
+        date.set(Calendar.HOUR_OF_DAY, 0);
+        date.set(Calendar.MINUTE, 0);
+        date.set(Calendar.SECOND, 0);
+        date.set(Calendar.MILLISECOND, 0);
+        return date.getTimeInMillis();
+    }
+
+    private static long nextDay(final long start) {
+        final Calendar date = new GregorianCalendar();
+        date.setTimeInMillis(start);
+        date.add(Calendar.DATE, 1);
+        return date.getTimeInMillis();
+    }
+
+    static synchronized long rowsLoaded() {
+        return rowsLoaded;
+    }
+
+    public static synchronized List<StatusItem> megaStatus() {
+        final List<StatusItem> l = new ArrayList<>();
+        if (calculations > 0) {
+            int rows = 0;
+            for (final Day day : days.values()) {
+                rows += day.size();
+            }
+            l.add(new StatusItem("Stats day cache", days.size() + " days, " + rows + " readings"));
+            l.add(new StatusItem("Stats days", dayHits + " cached, " + dayLoads + " loaded, " + rowsLoaded + " rows read"));
+            l.add(new StatusItem("Stats last pass", lastCalculationMs + "ms of " + calculations));
+        }
+        return l;
+    }
+
+}
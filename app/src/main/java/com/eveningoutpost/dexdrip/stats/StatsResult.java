@@ -2,7 +2,6 @@ package com.eveningoutpost.dexdrip.stats;
 
 import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 
 import com.activeandroid.Cache;
 import com.eveningoutpost.dexdrip.models.JoH;
@@ -32,6 +31,7 @@ public class StatsResult {
     private final long from;
     private final long to;
     private long possibleCaptures;
+    private final StatsEngine.Summary summary;
     private static final String TAG = "jamorham StatsResult";
 
 
@@ -56,37 +56,15 @@ public class StatsResult {
             high *= Constants.MMOLL_TO_MGDL;
             low *= Constants.MMOLL_TO_MGDL;
         }
-        SQLiteDatabase db = Cache.openDatabase();
-
-        Cursor cursor= db.rawQuery("select count(*) from bgreadings  where timestamp >= " + from + " AND timestamp <= " + to + " AND calculated_value >= " + low + " AND calculated_value <= " + high + " AND snyced == 0", null);
-        cursor.moveToFirst();
-        in = cursor.getInt(0);
-        cursor.close();
-
-        cursor= db.rawQuery("select count(*) from bgreadings  where timestamp >= " + from + " AND timestamp <= " + to + " AND calculated_value > " + DBSearchUtil.CUTOFF + " AND calculated_value < " + low + " AND snyced == 0", null);
-        cursor.moveToFirst();
-        below = cursor.getInt(0);
-        cursor.close();
-
-        cursor= db.rawQuery("select count(*) from bgreadings  where timestamp >= " + from + " AND timestamp <= " + to + " AND calculated_value > " + high + " AND snyced == 0", null);
-        cursor.moveToFirst();
-        above = cursor.getInt(0);
-        cursor.close();
+        // counts, mean, deviation and variability all come from one pass
+        summary = StatsEngine.calculate(from, to, low, high);
+        in = summary.getIn();
+        below = summary.getBelow();
+        above = summary.getAbove();
+        avg = summary.getMean();
 
         if (canShowRealtimeCapture()) {
-            cursor = db.rawQuery("select count(*) from bgreadings  where timestamp >= " + from + " AND timestamp <= " + to + " AND source_info LIKE \"%Backfill\" AND snyced == 0", null);
-            cursor.moveToFirst();
-            backfilledNativeG5 = cursor.getInt(0);
-            cursor.close();
-        }
-
-        if(getTotalReadings() > 0){
-            cursor= db.rawQuery("select avg(calculated_value) from bgreadings  where timestamp >= " + from + " AND timestamp <= " + to + " AND calculated_value > " + DBSearchUtil.CUTOFF + " AND snyced == 0", null);
-            cursor.moveToFirst();
-            avg = cursor.getDouble(0);
-            cursor.close();
-        } else {
-            avg = 0;
+            backfilledNativeG5 = summary.getBackfilled();
         }
 
         possibleCaptures = (to - from) / (5*60*1000);
@@ -112,26 +90,24 @@ public class StatsResult {
     }
 
     public double getTotal_carbs() {
-        if (total_carbs < 0) {
-            Cursor cursor = Cache.openDatabase().rawQuery("select sum(carbs) from treatments  where timestamp >= " + from + " AND timestamp <= " + to, null);
+        calc_Treatments();
+        return total_carbs;
+    }
+
+    // carbs and insulin are usually both wanted so fetch them together
+    private void calc_Treatments() {
+        if (total_carbs < 0 || total_insulin < 0) {
+            Cursor cursor = Cache.openDatabase().rawQuery("select sum(carbs), sum(insulin) from treatments  where timestamp >= " + from + " AND timestamp <= " + to, null);
             cursor.moveToFirst();
             total_carbs = cursor.getDouble(0);
+            total_insulin = cursor.getDouble(1);
             cursor.close();
         }
-        return total_carbs;
     }
 
     public void calc_StdDev() {
         if (stdev < 0) {
-            if(getTotalReadings() > 0){
-                Cursor cursor= Cache.openDatabase().rawQuery("select ((count(*)*(sum(calculated_value * calculated_value)) - (sum(calculated_value)*sum(calculated_value)) )/((count(*)-1)*(count(*))) ) from bgreadings  where timestamp >= " + from + " AND timestamp <= " + to + " AND calculated_value > " + DBSearchUtil.CUTOFF + " AND snyced == 0", null);
-                cursor.moveToFirst();
-                stdev = cursor.getDouble(0);
-                stdev = Math.sqrt(stdev);
-                cursor.close();
-            } else {
-                stdev = 0;
-            }
+            stdev = summary.getStdDev();
         }
     }
 
@@ -139,37 +115,10 @@ public class StatsResult {
     //From Nightscout glucosedistribution.js
     public void calc_GVI() {
         if (GVI < 0 || PGS < 0) {
-            if(getTotalReadings() > 0){
-                int totalReadings = getTotalReadings();
-                double NormalReadingspct = getIn()*100/getTotalReadings();
-                Cursor cursor= Cache.openDatabase().rawQuery("select calculated_value from bgreadings where timestamp >= " + from + " AND timestamp <= " + to + " AND calculated_value > " + DBSearchUtil.CUTOFF + " AND snyced == 0", null);
-                cursor.moveToFirst();
-                double glucoseFirst = cursor.getDouble(0);
-                double glucoseLast = glucoseFirst;
-                double GVITotal = 0;
-                double glucoseTotal =  glucoseLast;
-                int usedRecords = 1;
-                while(cursor.moveToNext()) {
-                    double delta = cursor.getDouble(0) - glucoseLast;
-                    GVITotal += Math.sqrt(25 + Math.pow(delta, 2));
-                    usedRecords += 1;
-                    glucoseLast = cursor.getDouble(0);
-                    glucoseTotal +=  glucoseLast;
-                }
-                double GVIDelta = Math.abs(glucoseLast - glucoseFirst);//Math.floor(glucose_data[0].bgValue,glucose_data[glucose_data.length-1].bgValue);
-                double GVIIdeal = Math.sqrt(Math.pow(usedRecords*5,2) + Math.pow(GVIDelta,2));
-                GVI = (GVITotal / GVIIdeal * 100) / 100;
-                UserError.Log.d(TAG, "from=" + from + " " + JoH.dateTimeText(from) + " to=" + to + " " + JoH.dateTimeText(to) + " Below=" + getBelow() + " " + getLowPercentage() + " in=" + getIn() + " " + getInPercentage() + " Above=" + getAbove() + " " + getHighPercentage() + " TotalReadings=" + getTotalReadings());
-                UserError.Log.d(TAG, "GVI=" + GVI + " GVIIdeal=" + GVIIdeal + " GVITotal=" + GVITotal + " GVIDelta=" + GVIDelta + " usedRecords=" + usedRecords);
-                double glucoseMean = Math.floor(glucoseTotal / usedRecords);
-                double tirMultiplier = NormalReadingspct / 100.0;
-                PGS = (GVI * glucoseMean * (1-tirMultiplier) * 100) / 100;
-                UserError.Log.d(TAG, "NormalReadingspct=" + NormalReadingspct + " glucoseMean=" + glucoseMean + " tirMultiplier=" + tirMultiplier + " PGS=" + PGS);
-                cursor.close();
-            } else {
-                GVI = 0;
-                PGS = 0;
-            }
+            GVI = summary.getGVI();
+            PGS = summary.getPGS();
+            UserError.Log.d(TAG, "from=" + from + " " + JoH.dateTimeText(from) + " to=" + to + " " + JoH.dateTimeText(to) + " Below=" + getBelow() + " " + getLowPercentage() + " in=" + getIn() + " " + getInPercentage() + " Above=" + getAbove() + " " + getHighPercentage() + " TotalReadings=" + getTotalReadings());
+            UserError.Log.d(TAG, "GVI=" + GVI + " PGS=" + PGS);
         }
     }
 
@@ -178,12 +127,7 @@ public class StatsResult {
     }
 
     public double getTotal_insulin() {
-        if (total_insulin < 0) {
-            Cursor cursor = Cache.openDatabase().rawQuery("select sum(insulin) from treatments  where timestamp >= " + from + " AND timestamp <= " + to, null);
-            cursor.moveToFirst();
-            total_insulin = cursor.getDouble(0);
-            cursor.close();
-        }
+        calc_Treatments();
         return total_insulin;
     }
 
@@ -227,7 +171,7 @@ public class StatsResult {
 
     public String getA1cDCCT(){
         if(getTotalReadings()==0) return "A1c:?%";
-        return "A1c:" + (Math.round(10 * (avg + 46.7) / 28.7) / 10d) + "%";
+        return "A1c:" + summary.getA1cDCCT() + "%";
     }
 
     public String getA1cIFCC() {
@@ -236,7 +180,7 @@ public class StatsResult {
 
         public String getA1cIFCC(boolean shortVersion){
         if(getTotalReadings()==0) return "A1c:?";
-        return (shortVersion?"":"A1c:") + ((int) Math.round(((avg + 46.7) / 28.7 - 2.15) * 10.929));
+        return (shortVersion?"":"A1c:") + summary.getA1cIFCC();
     }
 
     public String getAverageUnitised(){
@@ -159,7 +159,7 @@ public class BgReadingTable extends BaseListActivity implements NavigationDrawer
                             switch (which) {
                                 case DialogInterface.BUTTON_POSITIVE:
                                     bgReading.ignoreForStats = true;
-                                    bgReading.save();
+                                    bgReading.saveit();
                                     notifyDataSetChanged();
                                     if (Pref.getBooleanDefaultFalse("wear_sync"))
                                         BgReading.pushBgReadingSyncToWatch(bgReading, false);
@@ -167,7 +167,7 @@ public class BgReadingTable extends BaseListActivity implements NavigationDrawer
 
                                 case DialogInterface.BUTTON_NEGATIVE:
                                     bgReading.ignoreForStats = false;
-                                    bgReading.save();
+                                    bgReading.saveit();
                                     notifyDataSetChanged();
                                     if (Pref.getBooleanDefaultFalse("wear_sync"))
                                         BgReading.pushBgReadingSyncToWatch(bgReading, false);
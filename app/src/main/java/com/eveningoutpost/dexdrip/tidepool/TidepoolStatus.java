@@ -22,6 +22,10 @@ public class TidepoolStatus {
         final List<StatusItem> l = new ArrayList<>();
 
         l.add(new StatusItem("Tidepool Synced to", niceTimeScalar(msSince(UploadChunk.getLastEnd())) + " ago")); // TODO needs generic message format string
+        final String lastSlice = UploadChunk.getLastSliceStatus();
+        if (!JoH.emptyString(lastSlice)) {
+            l.add(new StatusItem("Tidepool Last Slice", lastSlice));
+        }
         final String status = keyStore.getS(TidepoolUploader.STATUS_KEY);
         if (!JoH.emptyString(status)) {
             l.add(new StatusItem("Tidepool Status", status));
@@ -7,11 +7,14 @@ import android.os.PowerManager;
 import com.eveningoutpost.dexdrip.BuildConfig;
 import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.models.UserError;
-import com.eveningoutpost.dexdrip.utilitymodels.Inevitable;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
 import com.eveningoutpost.dexdrip.store.FastStore;
 
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import lombok.Getter;
 import okhttp3.MediaType;
@@ -43,7 +46,6 @@ public class TidepoolUploader {
     protected static final String TAG = "TidepoolUploader";
     protected static final String STATUS_KEY = "Tidepool-Status";
     private static final boolean D = true;
-    private static final boolean REPEAT = false;
 
     private static Retrofit retrofit;
     private static final String INTEGRATION_BASE_URL = "https://int-api.tidepool.org";
@@ -52,6 +54,8 @@ public class TidepoolUploader {
     private static final String SESSION_TOKEN_HEADER = "x-tidepool-session-token";
 
     private static PowerManager.WakeLock wl;
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private static volatile Future<UploadChunk.Slice> prefetched;
 
     public interface Tidepool {
         @Headers({
@@ -232,38 +236,78 @@ public class TidepoolUploader {
             return;
         }
         extendWakeLock(60000);
+        worker.execute(() -> doUploadSlice(session));
+    }
+
+    // runs on the worker so that preparing slices never holds up the callback thread
+    private static void doUploadSlice(final Session session) {
         session.iterations++;
-        final String chunk = UploadChunk.getNext(session);
-        if (chunk != null) {
-            if (chunk.length() == 2) {
-                UserError.Log.d(TAG, "Empty data set - marking as succeeded");
-                doCompleted(session);
+        final UploadChunk.Slice slice = takeSlice(UploadChunk.getLastEnd());
+        session.start = slice.start;
+        session.end = slice.end;
+        if (slice.json == null) {
+            UserError.Log.e(TAG, "Upload chunk is null, cannot proceed");
+            releaseWakeLock();
+            return;
+        }
+        if (slice.isEmpty()) {
+            UserError.Log.d(TAG, "Empty data set - marking as succeeded");
+            UploadChunk.skipEmpty(slice);
+            if (UploadChunk.hasMoreAfter(UploadChunk.getLastEnd()) && !session.exceededIterations()) {
+                doUpload(session);
             } else {
-                final RequestBody body = RequestBody.create(MediaType.parse("application/json"), chunk);
-
-                final Call<MUploadReply> call = session.service.doUpload(session.token, session.datasetReply.getUploadId(), body);
-                status("Uploading");
-                call.enqueue(new TidepoolCallback<MUploadReply>(session, "Data Upload", () -> {
-                    UploadChunk.setLastEnd(session.end);
+                doCompleted(session);
+            }
+            return;
+        }
 
-                    if (REPEAT && !session.exceededIterations()) {
-                        status("Queued Next");
-                        UserError.Log.d(TAG, "Scheduling next upload");
-                        Inevitable.task("Tidepool-next", 10000, () -> doUpload(session));
-                    } else {
+        // get the next slice ready while this one is in flight, queued first so the worker never waits on itself
+        if (UploadChunk.hasMoreAfter(slice.end)) {
+            prefetched = worker.submit(() -> UploadChunk.prepare(slice.end));
+        }
 
-                        if (MOpenDatasetRequest.isNormal()) {
-                            doClose(session);
-                        } else {
-                            doCompleted(session);
-                        }
-                    }
-                }).setOnFailure(TidepoolUploader::releaseWakeLock));
+        final RequestBody body = RequestBody.create(MediaType.parse("application/json"), slice.json);
+        UploadChunk.markInFlight(slice);
+        final long sent = JoH.tsl();
+        final Call<MUploadReply> call = session.service.doUpload(session.token, session.datasetReply.getUploadId(), body);
+        status("Uploading");
+        call.enqueue(new TidepoolCallback<MUploadReply>(session, "Data Upload", () -> worker.execute(() -> {
+            UploadChunk.markDone(slice, JoH.msSince(sent));
+
+            if (UploadChunk.hasMoreAfter(slice.end) && !session.exceededIterations()) {
+                status("Uploading backlog");
+                UserError.Log.d(TAG, "Continuing with next slice");
+                doUpload(session);
+            } else {
+                if (MOpenDatasetRequest.isNormal()) {
+                    doClose(session);
+                } else {
+                    doCompleted(session);
+                }
             }
-        } else {
-            UserError.Log.e(TAG, "Upload chunk is null, cannot proceed");
+        })).setOnFailure(() -> {
+            prefetched = null;
+            worker.execute(() -> UploadChunk.markFailed(slice));
             releaseWakeLock();
+        }));
+    }
+
+    // use the prepared slice if it still starts where we are up to and the window hasn't changed since
+    private static UploadChunk.Slice takeSlice(final long start) {
+        final Future<UploadChunk.Slice> future = prefetched;
+        prefetched = null;
+        if (future != null) {
+            try {
+                final UploadChunk.Slice slice = future.get();
+                if (UploadChunk.fits(slice, start)) {
+                    return slice;
+                }
+                UserError.Log.d(TAG, "Discarding prepared slice which no longer fits");
+            } catch (InterruptedException | ExecutionException e) {
+                UserError.Log.e(TAG, "Prepared slice failed: " + e);
+            }
         }
+        return UploadChunk.prepare(start);
     }
 
 
@@ -32,23 +32,58 @@ public class UploadChunk implements NamedSliderProcessor {
 
     private static final String TAG = "TidepoolUploadChunk";
     private static final String LAST_UPLOAD_END_PREF = "tidepool-last-end";
+    static final String WINDOW_SIZE_PREF = "tidepool-window-size";
+    private static final String IN_FLIGHT_PREF = "tidepool-in-flight";
+    private static final String LAST_SLICE_PREF = "tidepool-last-slice";
 
     private static final long MAX_UPLOAD_SIZE = Constants.DAY_IN_MS * 7; // don't change this
     private static final long DEFAULT_WINDOW_OFFSET = Constants.MINUTE_IN_MS * 15;
     private static final long MAX_LATENCY_THRESHOLD_MINUTES = 1440; // minutes per day
+    private static final long MIN_WINDOW_SIZE = Constants.HOUR_IN_MS * 6;
+    private static final long TARGET_LATENCY = Constants.SECOND_IN_MS * 10;
+    private static final long TARGET_PAYLOAD = 512 * 1024;
 
     private static final boolean D = false;
 
-    public static String getNext(final Session session) {
-        session.start = getLastEnd();
-        session.end = maxWindow(session.start);
+    // one time slice of records ready to upload
+    static class Slice {
+        final long start;
+        final long end;
+        final String json;
+        final long prepareTime;
+
+        Slice(final long start, final long end, final String json, final long prepareTime) {
+            this.start = start;
+            this.end = end;
+            this.json = json;
+            this.prepareTime = prepareTime;
+        }
 
-        final String result = get(session.start, session.end);
-        if (result != null && result.length() < 3) {
-            UserError.Log.d(TAG, "No records in this time period, setting start to best end time");
-            setLastEnd(Math.max(session.end, getOldestRecordTimeStamp()));
+        boolean isEmpty() {
+            return json != null && json.length() < 3;
         }
-        return result;
+    }
+
+    static Slice prepare(final long start) {
+        final long began = JoH.tsl();
+        final long end = maxWindow(start);
+        return new Slice(start, end, get(start, end), JoH.msSince(began));
+    }
+
+    // a slice prepared ahead is only usable if it has the bounds we would choose for it now
+    static boolean fits(final Slice slice, final long start) {
+        return slice.json != null && slice.start == start && slice.end == maxWindow(start);
+    }
+
+    static void skipEmpty(final Slice slice) {
+        UserError.Log.d(TAG, "No records in this time period, setting start to best end time");
+        setLastEnd(Math.max(slice.end, getOldestRecordTimeStamp()));
+        clearInFlight();
+    }
+
+    // is there anything after this slice which could be uploaded now
+    static boolean hasMoreAfter(final long end) {
+        return maxWindow(end) > end;
     }
 
     public static String get(final long start, final long end) {
@@ -87,7 +122,72 @@ public class UploadChunk implements NamedSliderProcessor {
 
     private static long maxWindow(final long last_end) {
         //UserError.Log.d(TAG, "Max window is: " + getWindowSizePreference());
-        return Math.min(last_end + MAX_UPLOAD_SIZE, JoH.tsl() - getWindowSizePreference());
+        final long limit = JoH.tsl() - getWindowSizePreference();
+        // a slice which was in flight when we stopped is sent again with exactly the same bounds
+        final long inFlightEnd = getInFlightEnd(last_end);
+        if (inFlightEnd > last_end) {
+            return Math.min(inFlightEnd, limit);
+        }
+        return Math.min(last_end + getAdaptiveWindow(), limit);
+    }
+
+    static long getAdaptiveWindow() {
+        final long window = PersistentStore.getLong(WINDOW_SIZE_PREF);
+        return window > 0 ? Math.max(MIN_WINDOW_SIZE, Math.min(MAX_UPLOAD_SIZE, window)) : MAX_UPLOAD_SIZE;
+    }
+
+    // scale the window towards our latency and payload targets, at most halving or doubling each time
+    static long adaptWindow(final long window, final long sliceSize, final long latency, final long payload) {
+        final double byLatency = latency > 0 ? (double) TARGET_LATENCY / latency : 2;
+        final double byPayload = payload > 0 ? (double) TARGET_PAYLOAD / payload : 2;
+        final double factor = Math.max(0.5, Math.min(2, Math.min(byLatency, byPayload)));
+        if (factor > 1 && sliceSize < window) {
+            return window; // a short slice at the end of the backlog tells us nothing about a bigger one
+        }
+        return Math.max(MIN_WINDOW_SIZE, Math.min(MAX_UPLOAD_SIZE, (long) (window * factor)));
+    }
+
+    static void markInFlight(final Slice slice) {
+        PersistentStore.setString(IN_FLIGHT_PREF, slice.start + "," + slice.end);
+        PersistentStore.commit();
+    }
+
+    static void markDone(final Slice slice, final long latency) {
+        setLastEnd(slice.end);
+        clearInFlight();
+        final long payload = slice.json != null ? slice.json.length() : 0;
+        final long window = adaptWindow(getAdaptiveWindow(), slice.end - slice.start, latency, payload);
+        PersistentStore.setLong(WINDOW_SIZE_PREF, window);
+        PersistentStore.setString(LAST_SLICE_PREF, JoH.niceTimeScalar(slice.end - slice.start) + ", " + (payload / 1024) + "KB, prepared "
+                + slice.prepareTime + "ms, sent " + latency + "ms, next " + JoH.niceTimeScalar(window));
+        PersistentStore.commit();
+    }
+
+    static void markFailed(final Slice slice) {
+        // a smaller slice is more likely to get through next time, the in flight marker is cleared so it can shrink
+        PersistentStore.setLong(WINDOW_SIZE_PREF, Math.max(MIN_WINDOW_SIZE, Math.min(getAdaptiveWindow(), slice.end - slice.start) / 2));
+        clearInFlight();
+        PersistentStore.commit();
+    }
+
+    static String getLastSliceStatus() {
+        return PersistentStore.getString(LAST_SLICE_PREF);
+    }
+
+    private static long getInFlightEnd(final long start) {
+        try {
+            final String[] parts = PersistentStore.getString(IN_FLIGHT_PREF).split(",");
+            if (parts.length == 2 && Long.parseLong(parts[0]) == start) {
+                return Long.parseLong(parts[1]);
+            }
+        } catch (NumberFormatException e) {
+            //
+        }
+        return 0;
+    }
+
+    private static void clearInFlight() {
+        PersistentStore.setString(IN_FLIGHT_PREF, "");
     }
 
     public static long getLastEnd() {
@@ -7,6 +7,7 @@ import android.content.Intent;
 import android.os.PowerManager;
 import android.provider.BaseColumns;
 
+import com.activeandroid.ActiveAndroid;
 import com.activeandroid.Model;
 import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
@@ -24,6 +25,7 @@ import com.eveningoutpost.dexdrip.WidgetUpdateService;
 import com.eveningoutpost.dexdrip.calibrations.PluggableCalibration;
 import com.eveningoutpost.dexdrip.xDripWidget;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -119,58 +121,106 @@ public class BgSendQueue extends Model {
                 UploaderQueue.newEntry(operation_type, bgReading);
             //}
 
-            // all this other UI stuff probably shouldn't be here but in lieu of a better method we keep with it..
-            if (!quick) {
-                if (Home.activityVisible) {
-                    context.sendBroadcast(new Intent(Intents.ACTION_NEW_BG_ESTIMATE_NO_DATA));
-                }
+            notifyNewBgReading(bgReading, context, is_follower, quick);
 
-                if (AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, xDripWidget.class)).length > 0) {
-                    //context.startService(new Intent(context, WidgetUpdateService.class));
-                    JoH.startService(WidgetUpdateService.class);
-                }
+            if ((!is_follower) && (Pref.getBoolean("plus_follow_master", false))) {
+                GcmActivity.syncBGReading(forFollower(bgReading));
             }
 
-            // emit local broadcast
-            BroadcastGlucose.sendLocalBroadcast(bgReading);
+            startSyncService();
 
-                // TODO I don't really think this is needed anymore
-                if (!quick && Pref.getBooleanDefaultFalse("excessive_wakelocks")) {
-                    // just keep it alive for 3 more seconds to allow the watch to be updated
-                    // dangling wakelock
-                    JoH.getWakeLock("broadcstNightWatch", 3000);
-                }
+        } finally {
+            JoH.releaseWakeLock(wakeLock);
+        }
+    }
 
+    // readings saved together in timestamp order, their upload entries are made in one transaction
+    // and they go to followers as one message, every reading is broadcast locally oldest first but
+    // only the newest is displayed and sent to sinks
+    public static void handleNewBgReadings(final List<BgReading> bgReadings, String operation_type, Context context, boolean is_follower) {
+        if (bgReadings == null || bgReadings.isEmpty()) return;
+        final BgReading newest = bgReadings.get(bgReadings.size() - 1);
+        final PowerManager.WakeLock wakeLock = JoH.getWakeLock("sendQueue", 120000);
+        try {
+            ActiveAndroid.beginTransaction();
+            try {
+                for (final BgReading bgReading : bgReadings) {
+                    UploaderQueue.newEntry(operation_type, bgReading);
+                }
+                ActiveAndroid.setTransactionSuccessful();
+            } finally {
+                ActiveAndroid.endTransaction();
+            }
 
-            if (!quick) {
-                NewDataObserver.newBgReading(bgReading, is_follower);
+            // receivers such as AAPS need the filled gap too
+            for (int i = 0; i < bgReadings.size() - 1; i++) {
+                BroadcastGlucose.sendLocalBroadcast(bgReadings.get(i));
             }
+            notifyNewBgReading(newest, context, is_follower, !newest.isCurrent());
 
             if ((!is_follower) && (Pref.getBoolean("plus_follow_master", false))) {
-                if (Pref.getBoolean("display_glucose_from_plugin", false))
-                {
-                    // TODO does this currently ignore noise or is noise properly calculated on the follower?
-                    // munge bgReading for follower TODO will probably want extra option for this in future
-                    // TODO we maybe don't need deep clone for this! Check how value will be used below
-                    //GcmActivity.syncBGReading(PluggableCalibration.mungeBgReading(new Cloner().deepClone(bgReading)));
-                    GcmActivity.syncBGReading(PluggableCalibration.mungeBgReading(BgReading.fromJSON(bgReading.toJSON(true))));
-                } else {
-                    // send as is
-                    GcmActivity.syncBGReading(bgReading);
+                final List<BgReading> munged = new ArrayList<>(bgReadings.size());
+                for (final BgReading bgReading : bgReadings) {
+                    munged.add(forFollower(bgReading));
                 }
+                GcmActivity.syncBGReadings(munged);
             }
 
-            // process the uploader queue
-            if (JoH.ratelimit("start-sync-service", 30)) {
-                JoH.startService(SyncService.class);
-            }
-
+            startSyncService();
 
         } finally {
             JoH.releaseWakeLock(wakeLock);
         }
     }
 
+    private static void notifyNewBgReading(final BgReading bgReading, final Context context, final boolean is_follower, final boolean quick) {
+        // all this other UI stuff probably shouldn't be here but in lieu of a better method we keep with it..
+        if (!quick) {
+            if (Home.activityVisible) {
+                context.sendBroadcast(new Intent(Intents.ACTION_NEW_BG_ESTIMATE_NO_DATA));
+            }
+
+            if (AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, xDripWidget.class)).length > 0) {
+                //context.startService(new Intent(context, WidgetUpdateService.class));
+                JoH.startService(WidgetUpdateService.class);
+            }
+        }
+
+        // emit local broadcast
+        BroadcastGlucose.sendLocalBroadcast(bgReading);
+
+        // TODO I don't really think this is needed anymore
+        if (!quick && Pref.getBooleanDefaultFalse("excessive_wakelocks")) {
+            // just keep it alive for 3 more seconds to allow the watch to be updated
+            // dangling wakelock
+            JoH.getWakeLock("broadcstNightWatch", 3000);
+        }
+
+        if (!quick) {
+            NewDataObserver.newBgReading(bgReading, is_follower);
+        }
+    }
+
+    private static BgReading forFollower(final BgReading bgReading) {
+        if (Pref.getBoolean("display_glucose_from_plugin", false)) {
+            // TODO does this currently ignore noise or is noise properly calculated on the follower?
+            // munge bgReading for follower TODO will probably want extra option for this in future
+            // TODO we maybe don't need deep clone for this! Check how value will be used below
+            //GcmActivity.syncBGReading(PluggableCalibration.mungeBgReading(new Cloner().deepClone(bgReading)));
+            return PluggableCalibration.mungeBgReading(BgReading.fromJSON(bgReading.toJSON(true)));
+        } else {
+            // send as is
+            return bgReading;
+        }
+    }
+
+    private static void startSyncService() {
+        // process the uploader queue
+        if (JoH.ratelimit("start-sync-service", 30)) {
+            JoH.startService(SyncService.class);
+        }
+    }
+
     public static void sendToPhone(Context context) {
         // This is just a stub - only used on Android Wear
     }
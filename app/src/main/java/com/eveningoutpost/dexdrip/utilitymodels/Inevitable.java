@@ -5,7 +5,15 @@ import android.os.PowerManager;
 import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.models.UserError;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import lombok.Getter;
 
@@ -15,6 +23,10 @@ import lombok.Getter;
  * Tasks which are fired from events can be scheduled here and only execute when they become idle
  * and are not being rescheduled within their wait window.
  *
+ * A single scheduler thread keeps a delay queue of deadlines. When a deadline is reached the task
+ * is checked: if it was extended in the meantime it is re-queued for the remaining time, if it was
+ * killed it is dropped, otherwise it is handed to a shared worker pool. One wakelock is held while
+ * any task is pending or running.
  */
 
 public class Inevitable {
@@ -25,47 +37,63 @@ public class Inevitable {
 
     private static final ConcurrentHashMap<String, Task> tasks = new ConcurrentHashMap<>();
 
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "Inevitable-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final AtomicInteger workerCount = new AtomicInteger();
+    private static final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "Inevitable-" + workerCount.incrementAndGet());
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private static final Object wakeLockLock = new Object();
+    private static PowerManager.WakeLock wakeLock;
+    private static final AtomicInteger running = new AtomicInteger();
+
+    // statistics for MegaStatus
+    private static final long[] LATENCY_BUCKETS = {1, 5, 20, 100, 500};
+    private static final AtomicLong[] latencyHistogram = new AtomicLong[LATENCY_BUCKETS.length + 1];
+    private static final AtomicLong firedCount = new AtomicLong();
+    private static final AtomicLong extendedCount = new AtomicLong();
+    private static final AtomicLong maxLatency = new AtomicLong();
+    private static volatile int peakPending = 0;
+
+    static {
+        for (int i = 0; i < latencyHistogram.length; i++) {
+            latencyHistogram[i] = new AtomicLong();
+        }
+    }
+
     public static synchronized void task(final String id, long idle_for, Runnable runnable) {
         if (idle_for > MAX_QUEUE_TIME) {
             throw new RuntimeException(id + " Requested time: " + idle_for + " beyond max queue time");
         }
         final Task task = tasks.get(id);
         if (task != null) {
-            // if it already exists then extend the time
+            // if it already exists then extend the time, the scheduler will notice when it next looks
             task.extendTime(idle_for);
+            extendedCount.incrementAndGet();
 
             if (d)
                 UserError.Log.d(TAG, "Extending time for: " + id + " to " + JoH.dateTimeText(task.when));
         } else {
             // otherwise create new task
             if (runnable == null) return; // extension only if already exists
-            tasks.put(id, new Task(id, idle_for, runnable));
+            final Task newTask = new Task(id, idle_for, runnable);
+            tasks.put(id, newTask);
+            if (tasks.size() > peakPending) {
+                peakPending = tasks.size();
+            }
 
             if (d)
-                UserError.Log.d(TAG, "Creating task: " + id + " due: " + JoH.dateTimeText(tasks.get(id).when));
-
-            // create a thread to wait and execute in background
-            final Thread t = new Thread(() -> {
-                final PowerManager.WakeLock wl = JoH.getWakeLock(id, MAX_QUEUE_TIME + 5000);
-                try {
-                    boolean running = true;
-                    // wait for task to be due or killed
-                    while (running) {
-                        final Task thisTask1 = tasks.get(id);
-                        if (thisTask1 == null || thisTask1.getWhen() > 0) {
-                            // run instantly if we are set to offset of 0
-                            JoH.threadSleep(500); // Todo reduce this to reduce latency on tasks scheduled for <500ms? careful of timing implications
-                        }
-                        final Task thisTask = tasks.get(id);
-                        running = thisTask != null && !thisTask.poll();
-                    }
-                } finally {
-                    JoH.releaseWakeLock(wl);
-                }
-            });
-            t.setPriority(Thread.MIN_PRIORITY);
-            //t.setDaemon(true);
-            t.start();
+                UserError.Log.d(TAG, "Creating task: " + id + " due: " + JoH.dateTimeText(newTask.when));
+
+            holdWakeLock();
+            schedule(newTask);
         }
     }
 
@@ -81,18 +109,112 @@ public class Inevitable {
     }
 
     public static void kill(final String id) {
-        tasks.remove(id);
+        if (tasks.remove(id) != null) {
+            checkWakeLock();
+        }
     }
 
     public static boolean waiting(final String id) {
         return tasks.containsKey(id);
     }
 
+    public static int pending() {
+        return tasks.size();
+    }
+
+    private static void schedule(final Task task) {
+        final long delay = Math.max(0, task.getWhen() - JoH.tsl());
+        scheduler.schedule(() -> fire(task), delay, TimeUnit.MILLISECONDS);
+    }
+
+    // runs on the scheduler thread
+    private static void fire(final Task task) {
+        if (tasks.get(task.id) != task) {
+            // killed or replaced since being queued
+            checkWakeLock();
+            return;
+        }
+        final long till = JoH.msTill(task.getWhen());
+        if (till > MAX_QUEUE_TIME) {
+            UserError.Log.wtf(TAG, "Task: " + task.id + " In queue too long: " + till);
+            tasks.remove(task.id, task);
+            checkWakeLock();
+        } else if (till > 0) {
+            // deadline was extended so wait for the remainder
+            schedule(task);
+        } else {
+            // counted as running before leaving the queue so the wakelock is never seen as idle in between
+            running.incrementAndGet();
+            if (tasks.remove(task.id, task)) { // early remove to allow overlapping scheduling
+                recordLatency(JoH.tsl() - Math.max(task.getWhen(), task.created));
+                workers.execute(() -> {
+                    try {
+                        if (d) UserError.Log.d(TAG, "Executing task! " + task.id);
+                        task.what.run();
+                    } finally {
+                        running.decrementAndGet();
+                        checkWakeLock();
+                    }
+                });
+            } else {
+                running.decrementAndGet();
+                checkWakeLock();
+            }
+        }
+    }
+
+    private static void recordLatency(final long latency) {
+        firedCount.incrementAndGet();
+        if (latency > maxLatency.get()) {
+            maxLatency.set(latency);
+        }
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && latency >= LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        latencyHistogram[bucket].incrementAndGet();
+    }
+
+    // refresh the single shared wakelock to cover the maximum queue time from now
+    private static void holdWakeLock() {
+        synchronized (wakeLockLock) {
+            final PowerManager.WakeLock old = wakeLock;
+            wakeLock = JoH.getWakeLock(TAG, MAX_QUEUE_TIME + 5000);
+            JoH.releaseWakeLock(old);
+        }
+    }
+
+    private static void checkWakeLock() {
+        synchronized (wakeLockLock) {
+            if (wakeLock != null && tasks.isEmpty() && running.get() == 0) {
+                JoH.releaseWakeLock(wakeLock);
+                wakeLock = null;
+            }
+        }
+    }
+
+    public static List<StatusItem> megaStatus() {
+        final List<StatusItem> l = new ArrayList<>();
+        l.add(new StatusItem("Inevitable pending", tasks.size() + " (peak " + peakPending + ")"));
+        l.add(new StatusItem("Inevitable running", running.get()));
+        l.add(new StatusItem("Inevitable fired", firedCount.get() + " (" + extendedCount.get() + " extensions)"));
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < latencyHistogram.length; i++) {
+            if (i > 0) sb.append("  ");
+            sb.append(i < LATENCY_BUCKETS.length ? "<" + LATENCY_BUCKETS[i] : ">=" + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1]);
+            sb.append(": ").append(latencyHistogram[i].get());
+        }
+        l.add(new StatusItem("Fire latency ms", sb.toString()));
+        l.add(new StatusItem("Max fire latency", maxLatency.get() + "ms", maxLatency.get() > 1000 ? StatusItem.Highlight.NOTICE : StatusItem.Highlight.NORMAL));
+        return l;
+    }
+
     private static class Task {
         @Getter
-        private long when;
+        private volatile long when;
         private final Runnable what;
         private final String id;
+        private final long created = JoH.tsl();
 
         Task(String id, long offset, Runnable what) {
             this.what = what;
@@ -106,21 +228,6 @@ public class Inevitable {
             this.when = JoH.tsl() + offset;
         }
 
-        public boolean poll() {
-            final long till = JoH.msTill(when);
-            if (till < 1) {
-                if (d) UserError.Log.d(TAG, "Executing task! " + this.id);
-                tasks.remove(this.id); // early remove to allow overlapping scheduling
-                what.run();
-                return true;
-            } else if (till > MAX_QUEUE_TIME) {
-                UserError.Log.wtf(TAG, "Task: " + this.id + " In queue too long: " + till);
-                tasks.remove(this.id);
-                return true;
-            }
-            return false;
-        }
-
     }
 
 }
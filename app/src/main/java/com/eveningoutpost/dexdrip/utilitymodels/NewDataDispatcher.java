@@ -0,0 +1,230 @@
+package com.eveningoutpost.dexdrip.utilitymodels;
+
+import android.os.PowerManager;
+
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.models.UserError;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Fans out new data to registered sinks without holding up the thread which published it
+ * <p>
+ * Each sink has its own lane, a short queue drained by at most one worker at a time, so a sink
+ * never runs alongside itself and sees items in order. When a lane is full the oldest waiting
+ * item is dropped as displays only care about the newest. Lanes share a worker pool and a single
+ * wakelock is held while any lane has work. Sinks have a latency budget which is not enforced but
+ * overruns are counted and logged along with dispatch delay, run time, failures and drops.
+ */
+
+public class NewDataDispatcher<T> {
+
+    private static final String TAG = NewDataDispatcher.class.getSimpleName();
+    private static final long WAKELOCK_TIME = Constants.MINUTE_IN_MS * 2;
+
+    private static final AtomicInteger workerCount = new AtomicInteger();
+    private static final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "NewData-" + workerCount.incrementAndGet());
+        t.setPriority(Thread.NORM_PRIORITY - 1);
+        return t;
+    });
+
+    private static final Object wakeLockLock = new Object();
+    private static PowerManager.WakeLock wakeLock;
+    private static final AtomicInteger active = new AtomicInteger();
+
+    private final String name;
+    private final List<Lane<T>> lanes = new CopyOnWriteArrayList<>();
+
+    public NewDataDispatcher(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Register a sink with its own lane
+     *
+     * @param sink     name shown in status
+     * @param capacity how many items may wait before the oldest is dropped
+     * @param budget   expected maximum run time in ms
+     * @param consumer the sink, must not modify the item
+     */
+    public NewDataDispatcher<T> register(final String sink, final int capacity, final long budget, final Consumer<T> consumer) {
+        lanes.add(new Lane<>(sink, Math.max(1, capacity), budget, consumer));
+        return this;
+    }
+
+    // returns straight away, sinks run on the worker pool
+    public void publish(final T item) {
+        final long now = JoH.tsl();
+        for (final Lane<T> lane : lanes) {
+            boolean start = false;
+            synchronized (lane) {
+                if (lane.queue.size() >= lane.capacity) {
+                    lane.queue.poll();
+                    lane.dropped++;
+                }
+                lane.queue.add(new Pending<>(item, now));
+                if (!lane.running) {
+                    lane.running = true;
+                    start = true;
+                }
+            }
+            if (start) {
+                active.incrementAndGet();
+                holdWakeLock();
+                workers.execute(() -> drain(lane));
+            }
+        }
+    }
+
+    private void drain(final Lane<T> lane) {
+        try {
+            while (true) {
+                final Pending<T> pending;
+                synchronized (lane) {
+                    pending = lane.queue.poll();
+                    if (pending == null) {
+                        lane.running = false;
+                        return;
+                    }
+                }
+                final long start = JoH.tsl();
+                String error = null;
+                try {
+                    lane.consumer.accept(pending.item);
+                } catch (Exception e) {
+                    error = e.toString();
+                    UserError.Log.e(TAG, name + " sink " + lane.name + " failed: " + e);
+                }
+                final long took = JoH.msSince(start);
+                lane.record(start - pending.published, took, error);
+                if (took > lane.budget) {
+                    UserError.Log.d(TAG, name + " sink " + lane.name + " took " + took + "ms, budget " + lane.budget + "ms");
+                }
+            }
+        } finally {
+            active.decrementAndGet();
+            checkWakeLock();
+        }
+    }
+
+    // true if all lanes became idle within the time
+    boolean awaitIdle(final long timeout) {
+        final long until = JoH.tsl() + timeout;
+        while (JoH.tsl() < until) {
+            boolean idle = true;
+            for (final Lane<T> lane : lanes) {
+                synchronized (lane) {
+                    idle &= !lane.running;
+                }
+            }
+            if (idle) return true;
+            JoH.threadSleep(10);
+        }
+        return false;
+    }
+
+    Lane<T> getLane(final String sink) {
+        for (final Lane<T> lane : lanes) {
+            if (lane.name.equals(sink)) return lane;
+        }
+        return null;
+    }
+
+    private static void holdWakeLock() {
+        synchronized (wakeLockLock) {
+            final PowerManager.WakeLock old = wakeLock;
+            wakeLock = JoH.getWakeLock(TAG, (int) WAKELOCK_TIME);
+            JoH.releaseWakeLock(old);
+        }
+    }
+
+    private static void checkWakeLock() {
+        synchronized (wakeLockLock) {
+            if (wakeLock != null && active.get() == 0) {
+                JoH.releaseWakeLock(wakeLock);
+                wakeLock = null;
+            }
+        }
+    }
+
+    public List<StatusItem> megaStatus() {
+        final List<StatusItem> l = new ArrayList<>();
+        for (final Lane<T> lane : lanes) {
+            synchronized (lane) {
+                if (lane.dispatched == 0 && lane.dropped == 0) continue;
+                final StringBuilder sb = new StringBuilder();
+                sb.append(lane.dispatched).append(" sent, wait ").append(lane.delayTotal / lane.dispatched)
+                        .append("/").append(lane.delayMax).append("ms, run ").append(lane.runTotal / lane.dispatched)
+                        .append("/").append(lane.runMax).append("ms");
+                if (lane.overBudget > 0) sb.append(", ").append(lane.overBudget).append(" slow");
+                if (lane.dropped > 0) sb.append(", ").append(lane.dropped).append(" dropped");
+                if (lane.failures > 0) sb.append(", ").append(lane.failures).append(" failed");
+                l.add(new StatusItem(name + " " + lane.name, sb.toString(),
+                        lane.failures > 0 ? StatusItem.Highlight.BAD
+                                : lane.overBudget > 0 || lane.dropped > 0 ? StatusItem.Highlight.NOTICE
+                                : StatusItem.Highlight.NORMAL));
+                if (lane.lastError != null) {
+                    l.add(new StatusItem(name + " " + lane.name + " error", lane.lastError, StatusItem.Highlight.BAD));
+                }
+            }
+        }
+        return l;
+    }
+
+    private static class Pending<T> {
+        final T item;
+        final long published;
+
+        Pending(final T item, final long published) {
+            this.item = item;
+            this.published = published;
+        }
+    }
+
+    static class Lane<T> {
+        final String name;
+        final int capacity;
+        final long budget;
+        final Consumer<T> consumer;
+        final ArrayDeque<Pending<T>> queue = new ArrayDeque<>();
+        boolean running;
+
+        long dispatched;
+        long failures;
+        long dropped;
+        long overBudget;
+        long delayTotal;
+        long delayMax;
+        long runTotal;
+        long runMax;
+        String lastError;
+
+        Lane(final String name, final int capacity, final long budget, final Consumer<T> consumer) {
+            this.name = name;
+            this.capacity = capacity;
+            this.budget = budget;
+            this.consumer = consumer;
+        }
+
+        synchronized void record(final long delay, final long took, final String error) {
+            dispatched++;
+            delayTotal += delay;
+            delayMax = Math.max(delayMax, delay);
+            runTotal += took;
+            runMax = Math.max(runMax, took);
+            if (took > budget) overBudget++;
+            if (error != null) {
+                failures++;
+                lastError = error;
+            }
+        }
+    }
+}
@@ -6,6 +6,9 @@ import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.util.Base64;
 
+import androidx.annotation.VisibleForTesting;
+
+import com.activeandroid.Model;
 import com.eveningoutpost.dexdrip.Home;
 import com.eveningoutpost.dexdrip.MegaStatus;
 import com.eveningoutpost.dexdrip.R;
@@ -103,6 +106,7 @@ public class NightscoutUploader {
     public static int last_exception_count = 0;
     public static int last_exception_log_count = 0;
     public static String last_exception;
+    public static String last_upload_run;
     public static final String VIA_NIGHTSCOUT_TAG = "via Nightscout";
 
     private static boolean notification_shown = false;
@@ -161,6 +165,12 @@ public class NightscoutUploader {
 
     }
 
+    // told about each chunk of entries once the server has accepted it, or with several sites
+    // about the entries every site accepted once they have all been tried
+    public interface UploadProgress {
+        void chunkUploaded(List<? extends Model> records);
+    }
+
     private class UploaderException extends RuntimeException {
         int code;
 
@@ -171,6 +181,11 @@ public class NightscoutUploader {
     }
 
     public NightscoutUploader(Context context) {
+        this(context, null);
+    }
+
+    @VisibleForTesting
+    NightscoutUploader(Context context, Interceptor interceptor) {
         mContext = context;
         prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
         final OkHttpClient.Builder okHttp3Builder = enableTls12OnPreLollipop(new OkHttpClient.Builder());
@@ -178,6 +193,7 @@ public class NightscoutUploader {
             okHttp3Builder.addInterceptor(new SSLHandshakeInterceptor());
         }
         if (USE_GZIP) okHttp3Builder.addInterceptor(new GzipRequestInterceptor());
+        if (interceptor != null) okHttp3Builder.addInterceptor(interceptor);
         okHttp3Builder.connectTimeout(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
         okHttp3Builder.writeTimeout(SOCKET_TIMEOUT, TimeUnit.MILLISECONDS);
         okHttp3Builder.readTimeout(SOCKET_TIMEOUT, TimeUnit.MILLISECONDS);
@@ -272,13 +288,17 @@ public class NightscoutUploader {
     }
 
     public boolean uploadRest(List<BgReading> glucoseDataSets, List<BloodTest> meterRecords, List<Calibration> calRecords) {
+        return uploadRest(glucoseDataSets, meterRecords, calRecords, null);
+    }
+
+    public boolean uploadRest(List<BgReading> glucoseDataSets, List<BloodTest> meterRecords, List<Calibration> calRecords, UploadProgress progress) {
 
         boolean apiStatus = false;
 
         if (enableRESTUpload) {
             long start = System.currentTimeMillis();
             Log.i(TAG, String.format("Starting upload of %s record using a REST API", glucoseDataSets.size()));
-            apiStatus = doRESTUpload(prefs, glucoseDataSets, meterRecords, calRecords);
+            apiStatus = doRESTUpload(prefs, glucoseDataSets, meterRecords, calRecords, progress);
             Log.i(TAG, String.format("Finished upload of %s record using a REST API in %s ms result: %b", glucoseDataSets.size(), System.currentTimeMillis() - start, apiStatus));
 
             if (prefs.getBoolean("cloud_storage_api_download_enable", false)) {
@@ -451,7 +471,7 @@ public class NightscoutUploader {
         return new_data;
     }
 
-    private boolean doRESTUpload(SharedPreferences prefs, List<BgReading> glucoseDataSets, List<BloodTest> meterRecords, List<Calibration> calRecords) {
+    private boolean doRESTUpload(SharedPreferences prefs, List<BgReading> glucoseDataSets, List<BloodTest> meterRecords, List<Calibration> calRecords, UploadProgress progress) {
         String baseURLSettings = prefs.getString("cloud_storage_api_base", "");
         ArrayList<String> baseURIs = new ArrayList<String>();
 
@@ -473,7 +493,11 @@ public class NightscoutUploader {
         if (Pref.getBooleanDefaultFalse("send_treatments_to_nightscout")) {
             tups = UploaderQueue.getPendingbyType(Treatments.class.getSimpleName(), THIS_QUEUE);
         }
+        // with several sites a chunk is only acknowledged once every site tried has accepted it
+        final boolean multiSite = baseURIs.size() > 1;
+        final List<int[]> acceptedBySite = new ArrayList<>();
         for (String baseURI : baseURIs) {
+            final int[] accepted = new int[1];
             try {
                 baseURI = TryResolveName(baseURI);
                 int apiVersion = 0;
@@ -482,6 +506,7 @@ public class NightscoutUploader {
                     Log.d(TAG, "Skipping Nighscout upload to: " + uri.getHost() + " due to no LAN connection");
                     continue;
                 }
+                acceptedBySite.add(accepted);
                 if (uri.getPath().endsWith("/v1/")) apiVersion = 1;
                 String baseURL;
                 String secret = uri.getUserInfo();
@@ -501,9 +526,11 @@ public class NightscoutUploader {
                 if (apiVersion == 1) {
                     String hashedSecret = Hashing.sha1().hashBytes(secret.getBytes(Charsets.UTF_8)).toString();
                     doStatusUpdate(nightscoutService, retrofit.baseUrl().url().toString(), hashedSecret); // update status if needed
-                    doRESTUploadTo(nightscoutService, hashedSecret, glucoseDataSets, meterRecords, calRecords, tups, THIS_QUEUE);
+                    final UploadProgress siteProgress = progress == null ? null : multiSite ? records -> accepted[0] += records.size() : progress;
+                    doRESTUploadTo(nightscoutService, hashedSecret, glucoseDataSets, meterRecords, calRecords, tups, THIS_QUEUE, siteProgress);
                 } else {
                     doLegacyRESTUploadTo(nightscoutService, glucoseDataSets);
+                    accepted[0] = glucoseDataSets.size(); // legacy only takes readings
                 }
                 any_successes = true; // There has been a success
                 last_success_time = JoH.tsl();
@@ -515,6 +542,15 @@ public class NightscoutUploader {
                 handleRestFailure(msg);
             }
         }
+        if (multiSite && progress != null && !acceptedBySite.isEmpty()) {
+            int common = Integer.MAX_VALUE;
+            for (final int[] accepted : acceptedBySite) {
+                common = Math.min(common, accepted[0]);
+            }
+            if (common > 0) {
+                progress.chunkUploaded(entryRecords(glucoseDataSets, meterRecords, calRecords).subList(0, common));
+            }
+        }
         if (any_successes && any_failures) { // Only if there has been success as well as failure (inconsistent upload)
             if (!PersistentStore.getBoolean(TAG + "_inconsistentMultiSteUpload")) { // If there had been no inconsistent uploads yet, which makes this the first
                 PersistentStore.setLong(TAG + "_firstInconsistentMultiSiteUploadTime", JoH.tsl()); // Record this time as the time of the first inconsistent upload
@@ -548,30 +584,45 @@ public class NightscoutUploader {
         }
     }
 
-    private void doRESTUploadTo(NightscoutService nightscoutService, String secret, List<BgReading> glucoseDataSets, List<BloodTest> meterRecords, List<Calibration> calRecords, List<UploaderQueue> tups, long THIS_QUEUE) throws Exception {
-        final JSONArray array = new JSONArray();
+    // entries in the order they are uploaded in
+    private static List<Model> entryRecords(List<BgReading> glucoseDataSets, List<BloodTest> meterRecords, List<Calibration> calRecords) {
+        final List<Model> records = new ArrayList<>(glucoseDataSets.size() + meterRecords.size() + calRecords.size());
+        records.addAll(glucoseDataSets);
+        records.addAll(meterRecords);
+        records.addAll(calRecords);
+        return records;
+    }
 
-        for (BgReading record : glucoseDataSets) {
-            populateV1APIBGEntry(array, record);
-        }
-        for (BloodTest record : meterRecords) {
-            populateV1APIMeterReadingEntry(array, record);
-        }
-        for (Calibration record : calRecords) {
-            final BloodTest dupe = BloodTest.getForPreciseTimestamp(record.timestamp, 60000);
-            if (dupe == null) {
-                populateV1APIMeterReadingEntry(array, record); // also add calibrations as meter records
-            } else {
-                Log.d(TAG, "Found duplicate blood test entry for this calibration record: " + record.bg + " vs " + dupe.mgdl + " mg/dl");
+    private void doRESTUploadTo(NightscoutService nightscoutService, String secret, List<BgReading> glucoseDataSets, List<BloodTest> meterRecords, List<Calibration> calRecords, List<UploaderQueue> tups, long THIS_QUEUE, UploadProgress progress) throws Exception {
+        final List<Model> records = entryRecords(glucoseDataSets, meterRecords, calRecords);
+
+        if (records.size() > 0) {//KS
+            // entries are serialized while the request is written so only one chunk is ever referenced
+            final int batchSize = Math.max(1, Pref.getStringToInt("nightscout_upload_batch_size", 100));
+            final long start = JoH.tsl();
+            final Runtime runtime = Runtime.getRuntime();
+            long peakHeap = runtime.totalMemory() - runtime.freeMemory();
+            long chars = 0;
+            int sent = 0;
+            int chunks = 0;
+            try {
+                for (int from = 0; from < records.size(); from += batchSize) {
+                    final List<Model> chunk = records.subList(from, Math.min(records.size(), from + batchSize));
+                    final StreamingEntriesBody body = new StreamingEntriesBody(chunk);
+                    final Response<ResponseBody> r = nightscoutService.upload(secret, body).execute();
+                    if (!r.isSuccessful()) throw new UploaderException(r.message(), r.code());
+                    checkGzipSupport(r);
+                    if (progress != null) {
+                        progress.chunkUploaded(chunk);
+                    }
+                    sent += chunk.size();
+                    chunks++;
+                    chars += body.written;
+                    peakHeap = Math.max(peakHeap, body.peakHeap);
+                }
+            } finally {
+                recordUploadRun(sent, records.size(), chunks, chars, JoH.tsl() - start, peakHeap);
             }
-            populateV1APICalibrationEntry(array, record);
-        }
-
-        if (array.length() > 0) {//KS
-            final RequestBody body = RequestBody.create(MediaType.parse("application/json"), array.toString());
-            final Response<ResponseBody> r = nightscoutService.upload(secret, body).execute();
-            if (!r.isSuccessful()) throw new UploaderException(r.message(), r.code());
-            checkGzipSupport(r);
             try {
                 postDeviceStatus(nightscoutService, secret);
             } catch (Exception e) {
@@ -610,6 +661,77 @@ public class NightscoutUploader {
 
     }
 
+    private static void recordUploadRun(final int sent, final int total, final int chunks, final long chars, final long duration, final long peakHeap) {
+        final double perSecond = duration > 0 ? sent * 1000d / duration : sent;
+        last_upload_run = sent + "/" + total + " entries in " + chunks + " chunks, " + JoH.qs(perSecond, 1) + "/s, "
+                + (chars / 1024) + "KB json, peak heap " + (peakHeap / (1024 * 1024)) + "MB";
+        if (total > 100) {
+            UserError.Log.uel(TAG, "REST upload run: " + last_upload_run);
+        } else {
+            Log.d(TAG, "REST upload run: " + last_upload_run);
+        }
+    }
+
+    // writes entries as a json array straight in to the request sink, the gzip interceptor compresses on the fly
+    private class StreamingEntriesBody extends RequestBody {
+
+        private final List<? extends Model> records;
+        long written = 0;
+        long peakHeap = 0;
+
+        StreamingEntriesBody(final List<? extends Model> records) {
+            this.records = records;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MediaType.parse("application/json");
+        }
+
+        @Override
+        public void writeTo(final BufferedSink sink) throws IOException {
+            // may be called again if the request is retried
+            written = 0;
+            boolean first = true;
+            sink.writeByte('[');
+            for (final Model record : records) {
+                final JSONArray entries = new JSONArray();
+                try {
+                    populateV1APIEntries(entries, record);
+                } catch (Exception e) {
+                    throw new IOException("Could not serialize entry: " + e);
+                }
+                for (int i = 0; i < entries.length(); i++) {
+                    if (!first) sink.writeByte(',');
+                    first = false;
+                    final String entry = entries.optString(i);
+                    sink.writeUtf8(entry);
+                    written += entry.length() + 1;
+                }
+            }
+            sink.writeByte(']');
+            final Runtime runtime = Runtime.getRuntime();
+            peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+        }
+    }
+
+    private void populateV1APIEntries(final JSONArray array, final Model record) throws Exception {
+        if (record instanceof BgReading) {
+            populateV1APIBGEntry(array, (BgReading) record);
+        } else if (record instanceof BloodTest) {
+            populateV1APIMeterReadingEntry(array, (BloodTest) record);
+        } else if (record instanceof Calibration) {
+            final Calibration calibration = (Calibration) record;
+            final BloodTest dupe = BloodTest.getForPreciseTimestamp(calibration.timestamp, 60000);
+            if (dupe == null) {
+                populateV1APIMeterReadingEntry(array, calibration); // also add calibrations as meter records
+            } else {
+                Log.d(TAG, "Found duplicate blood test entry for this calibration record: " + calibration.bg + " vs " + dupe.mgdl + " mg/dl");
+            }
+            populateV1APICalibrationEntry(array, calibration);
+        }
+    }
+
     private static synchronized void handleRestFailure(String msg) {
         last_exception = msg;
         last_exception_time = JoH.tsl();
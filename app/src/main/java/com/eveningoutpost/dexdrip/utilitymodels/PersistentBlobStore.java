@@ -0,0 +1,173 @@
+package com.eveningoutpost.dexdrip.utilitymodels;
+
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.models.UserError;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Raw binary storage for PersistentStore byte arrays, one file per key.
+ * <p>
+ * Values are held in a growable buffer so appending doesn't need to decode and re-encode the
+ * whole value. When only appends have happened since the last flush, just the new tail is
+ * appended to the file.
+ */
+
+class PersistentBlobStore {
+
+    private static final String TAG = "PersistentBlobStore";
+
+    private final File directory;
+
+    PersistentBlobStore(final File directory) {
+        this.directory = directory;
+    }
+
+    static class Blob {
+        private byte[] data;
+        private int length;
+        private int flushedLength = -1; // -1 means file needs complete rewrite
+        private int version; // changes whenever the contents are replaced
+
+        Blob(final byte[] value) {
+            set(value);
+        }
+
+        void set(final byte[] value) {
+            data = value != null ? value.clone() : new byte[0];
+            length = data.length;
+            flushedLength = -1;
+            version++;
+        }
+
+        void append(final byte[] value) {
+            if (value == null || value.length == 0) return;
+            if (length + value.length > data.length) {
+                data = Arrays.copyOf(data, Math.max(length + value.length, data.length * 2));
+            }
+            System.arraycopy(value, 0, data, length, value.length);
+            length += value.length;
+        }
+
+        byte[] get() {
+            return Arrays.copyOf(data, length);
+        }
+
+        boolean dirty() {
+            return flushedLength != length;
+        }
+
+        // must be called holding the PersistentStore lock, bytes up to length are never modified
+        // afterwards as appends only write beyond it and set() replaces the array
+        Pending pending(final String name) {
+            return new Pending(name, this, data, flushedLength, length, version);
+        }
+    }
+
+    static class Pending {
+        final String name;
+        final Blob blob;
+        final byte[] data;
+        final int flushedLength;
+        final int length;
+        final int version;
+
+        Pending(final String name, final Blob blob, final byte[] data, final int flushedLength, final int length, final int version) {
+            this.name = name;
+            this.blob = blob;
+            this.data = data;
+            this.flushedLength = flushedLength;
+            this.length = length;
+            this.version = version;
+        }
+
+        // must be called holding the PersistentStore lock
+        void written() {
+            if (blob.version == version && blob.flushedLength == flushedLength) {
+                blob.flushedLength = length;
+            }
+        }
+    }
+
+    File fileFor(final String name) {
+        return new File(directory, JoH.bytesToHex(name.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    Blob load(final String name) {
+        final File file = fileFor(name);
+        if (!file.exists()) return null;
+        final byte[] buffer = new byte[(int) file.length()];
+        try (final FileInputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < buffer.length) {
+                final int read = in.read(buffer, offset, buffer.length - offset);
+                if (read < 0) break;
+                offset += read;
+            }
+            final Blob blob = new Blob(offset == buffer.length ? buffer : Arrays.copyOf(buffer, offset));
+            blob.flushedLength = blob.length;
+            return blob;
+        } catch (IOException e) {
+            UserError.Log.e(TAG, "Failed to read " + name + " " + e);
+            return null;
+        }
+    }
+
+    boolean write(final Pending pending) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            UserError.Log.e(TAG, "Unable to create directory: " + directory);
+            return false;
+        }
+        final File file = fileFor(pending.name);
+        try {
+            if (pending.flushedLength >= 0 && pending.flushedLength <= pending.length && file.length() == pending.flushedLength) {
+                try (final FileOutputStream out = new FileOutputStream(file, true)) {
+                    out.write(pending.data, pending.flushedLength, pending.length - pending.flushedLength);
+                }
+            } else {
+                final File temp = new File(directory, file.getName() + ".tmp");
+                try (final FileOutputStream out = new FileOutputStream(temp)) {
+                    out.write(pending.data, 0, pending.length);
+                    out.getFD().sync();
+                }
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Rename failed for " + temp);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            UserError.Log.e(TAG, "Failed to write " + pending.name + " " + e);
+            return false;
+        }
+    }
+
+    // keys of every stored file, including those not loaded by this process
+    List<String> names() {
+        final List<String> names = new ArrayList<>();
+        final File[] files = directory.listFiles();
+        if (files == null) return names;
+        for (final File file : files) {
+            if (file.getName().endsWith(".tmp")) continue;
+            final byte[] name = JoH.hexStringToByteArray(file.getName());
+            if (name != null) {
+                names.add(new String(name, StandardCharsets.UTF_8));
+            }
+        }
+        return names;
+    }
+
+    void delete(final String name) {
+        final File file = fileFor(name);
+        if (file.exists() && !file.delete()) {
+            UserError.Log.e(TAG, "Failed to delete " + name);
+        }
+    }
+
+}
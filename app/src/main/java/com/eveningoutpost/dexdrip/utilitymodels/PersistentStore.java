@@ -6,8 +6,11 @@ import android.content.SharedPreferences;
 
 import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.xdrip;
-import com.google.common.primitives.Bytes;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
@@ -24,25 +27,61 @@ import lombok.val;
  * flushed when classes are destroyed by garbage collection
  * <p>
  * It is suitable for cache type variables where losing
- * state will cause problems. Obviously it will be slower than
- * pure in-memory state variables.
+ * state will cause problems.
+ * <p>
+ * Values are held in a typed in-memory cache and writes are
+ * coalesced and flushed to storage a few seconds later, or
+ * immediately via commit() / flush(). Byte arrays are kept in
+ * raw binary files rather than as base64 strings, a key holds
+ * either a string or bytes and setting one drops the other.
+ * Storage is written outside the lock from a snapshot of the
+ * dirty values.
  */
 
 
 public class PersistentStore {
 
     private static final String DATA_STORE_INTERNAL = "persist_internal_store";
+    private static final String BLOB_DIRECTORY = "persist_internal_blobs";
+    private static final String FLUSH_TASK = "persistent-store-flush";
+    private static final long FLUSH_DELAY = Constants.SECOND_IN_MS * 5;
     private static SharedPreferences prefs;
+    private static PersistentBlobStore blobStore;
     private static final boolean d = false; // debug flag
 
+    private static final Object lock = new Object();
+    private static final Object flushLock = new Object(); // keeps flushes in order, never taken inside lock
+    // long cells are mutable so updates do not allocate
+    private static final HashMap<String, long[]> longs = new HashMap<>();
+    private static final HashMap<String, String> strings = new HashMap<>();
+    private static final HashMap<String, Float> floats = new HashMap<>();
+    private static final HashMap<String, Boolean> booleans = new HashMap<>();
+    private static final HashMap<String, PersistentBlobStore.Blob> blobs = new HashMap<>();
+    private static final HashSet<String> dirtyLongs = new HashSet<>();
+    private static final HashSet<String> dirtyStrings = new HashSet<>();
+    private static final HashSet<String> dirtyFloats = new HashSet<>();
+    private static final HashSet<String> dirtyBooleans = new HashSet<>();
+    private static final HashSet<String> dirtyBlobs = new HashSet<>();
+    private static final HashSet<String> removed = new HashSet<>();
+    private static final HashSet<String> droppedBlobs = new HashSet<>(); // files to delete on flush
+
     public static String getString(final String name) {
-        return prefs.getString(name, "");
+        return getString(name, "");
     }
-    
+
     public static String getString(final String name, String defaultValue) {
-        return prefs.getString(name, defaultValue);
+        synchronized (lock) {
+            if (strings.containsKey(name)) {
+                final String value = strings.get(name);
+                return value != null ? value : defaultValue;
+            }
+            if (removed.contains(name)) return defaultValue;
+            final String value = prefs.getString(name, null);
+            strings.put(name, value);
+            return value != null ? value : defaultValue;
+        }
     }
-    
+
     public static int getStringToInt(final String name, final int defaultValue) {
         try {
             return Integer.parseInt(getString(name, Integer.toString(defaultValue)));
@@ -53,7 +92,21 @@ public class PersistentStore {
 
     public static boolean removeItem(final String pref) {
         if (prefs != null) {
-            prefs.edit().remove(pref).apply();
+            synchronized (lock) {
+                longs.remove(pref);
+                strings.remove(pref);
+                floats.remove(pref);
+                booleans.remove(pref);
+                blobs.remove(pref);
+                dirtyLongs.remove(pref);
+                dirtyStrings.remove(pref);
+                dirtyFloats.remove(pref);
+                dirtyBooleans.remove(pref);
+                dirtyBlobs.remove(pref);
+                removed.add(pref);
+                droppedBlobs.add(pref);
+            }
+            scheduleFlush();
             return true;
         }
         return false;
@@ -61,15 +114,29 @@ public class PersistentStore {
 
     static {
         try {
-            prefs = xdrip.getAppContext()
-                    .getSharedPreferences(DATA_STORE_INTERNAL, Context.MODE_PRIVATE);
+            final Context context = xdrip.getAppContext();
+            prefs = context.getSharedPreferences(DATA_STORE_INTERNAL, Context.MODE_PRIVATE);
+            blobStore = new PersistentBlobStore(getBlobDirectory(context));
         } catch (NullPointerException e) {
             android.util.Log.e("PersistentStore", "Failed to get context on init!!! nothing will work");
         }
     }
 
+    public static File getBlobDirectory(final Context context) {
+        return new File(context.getFilesDir(), BLOB_DIRECTORY);
+    }
+
     public static void setString(final String name, String value) {
-        prefs.edit().putString(name, value).apply();
+        synchronized (lock) {
+            strings.put(name, value);
+            dirtyStrings.add(name);
+            removed.remove(name);
+            // any bytes stored under this name are replaced by the string
+            blobs.remove(name);
+            dirtyBlobs.remove(name);
+            droppedBlobs.add(name);
+        }
+        scheduleFlush();
     }
 
     // if string is different to what we have stored then update and return true
@@ -91,11 +158,17 @@ public class PersistentStore {
     }
 
     public static void appendBytes(String name, byte[] value) {
-        setBytes(name, Bytes.concat(getBytes(name), value));
+        synchronized (lock) {
+            getBlob(name).append(value);
+            dirtyBlobs.add(name);
+        }
+        scheduleFlush();
     }
 
     public static byte[] getBytes(String name) {
-        return JoH.base64decodeBytes(getString(name));
+        synchronized (lock) {
+            return getBlob(name).get();
+        }
     }
 
     public static byte getByte(String name) {
@@ -103,7 +176,47 @@ public class PersistentStore {
     }
 
     public static void setBytes(String name, byte[] value) {
-        setString(name, JoH.base64encodeBytes(value));
+        synchronized (lock) {
+            final PersistentBlobStore.Blob blob = blobs.get(name);
+            if (blob != null) {
+                blob.set(value);
+            } else {
+                blobs.put(name, new PersistentBlobStore.Blob(value));
+            }
+            dirtyBlobs.add(name);
+            droppedBlobs.remove(name);
+            removed.remove(name);
+            dropString(name);
+        }
+        scheduleFlush();
+    }
+
+    // must be called holding lock, a null cached string is written as a removal
+    private static void dropString(final String name) {
+        if (strings.get(name) != null || (!strings.containsKey(name) && prefs.contains(name))) {
+            strings.put(name, null);
+            dirtyStrings.add(name);
+        }
+    }
+
+    // must be called holding lock, migrates any legacy or newer base64 string value on first access
+    private static PersistentBlobStore.Blob getBlob(final String name) {
+        PersistentBlobStore.Blob blob = blobs.get(name);
+        if (blob == null) {
+            blob = removed.contains(name) || droppedBlobs.contains(name) ? null : blobStore.load(name);
+            if (blob == null) {
+                final String legacy = strings.containsKey(name) ? strings.get(name) : removed.contains(name) ? null : prefs.getString(name, null);
+                blob = new PersistentBlobStore.Blob(legacy != null ? JoH.base64decodeBytes(legacy) : new byte[0]);
+                if (legacy != null) {
+                    dirtyBlobs.add(name);
+                    droppedBlobs.remove(name);
+                    removed.remove(name);
+                    dropString(name);
+                }
+            }
+            blobs.put(name, blob);
+        }
+        return blob;
     }
 
     public static void setByte(String name, byte value) {
@@ -111,19 +224,49 @@ public class PersistentStore {
     }
 
     public static long getLong(String name) {
-        return prefs.getLong(name, 0);
+        synchronized (lock) {
+            long[] cell = longs.get(name);
+            if (cell == null) {
+                cell = new long[]{removed.contains(name) ? 0 : prefs.getLong(name, 0)};
+                longs.put(name, cell);
+            }
+            return cell[0];
+        }
     }
 
     public static float getFloat(String name) {
-        return prefs.getFloat(name, 0);
+        synchronized (lock) {
+            Float value = floats.get(name);
+            if (value == null) {
+                value = removed.contains(name) ? 0 : prefs.getFloat(name, 0);
+                floats.put(name, value);
+            }
+            return value;
+        }
     }
 
     public static void setLong(String name, long value) {
-        prefs.edit().putLong(name, value).apply();
+        synchronized (lock) {
+            final long[] cell = longs.get(name);
+            if (cell != null) {
+                if (cell[0] == value && !removed.contains(name)) return;
+                cell[0] = value;
+            } else {
+                longs.put(name, new long[]{value});
+            }
+            dirtyLongs.add(name);
+            removed.remove(name);
+        }
+        scheduleFlush();
     }
 
     public static void setFloat(String name, float value) {
-        prefs.edit().putFloat(name, value).apply();
+        synchronized (lock) {
+            floats.put(name, value);
+            dirtyFloats.add(name);
+            removed.remove(name);
+        }
+        scheduleFlush();
     }
 
     public static void setDouble(String name, double value) {
@@ -135,20 +278,40 @@ public class PersistentStore {
     }
 
     public static boolean getBoolean(String name) {
-        return prefs.getBoolean(name, false);
+        return getBoolean(name, false);
     }
 
     public static boolean getBoolean(String name, boolean value) {
-        return prefs.getBoolean(name, value);
+        synchronized (lock) {
+            if (booleans.containsKey(name)) {
+                final Boolean result = booleans.get(name);
+                return result != null ? result : value;
+            }
+            if (removed.contains(name)) return value;
+            final Boolean result = prefs.contains(name) ? prefs.getBoolean(name, value) : null;
+            booleans.put(name, result);
+            return result != null ? result : value;
+        }
     }
 
     public static void setBoolean(String name, boolean value) {
-        prefs.edit().putBoolean(name, value).apply();
+        synchronized (lock) {
+            booleans.put(name, value);
+            dirtyBooleans.add(name);
+            removed.remove(name);
+        }
+        scheduleFlush();
     }
 
     public static long incrementLong(String name) {
-        final long val = getLong(name) + 1;
-        setLong(name, val);
+        final long val;
+        synchronized (lock) {
+            val = getLong(name) + 1;
+            longs.get(name)[0] = val;
+            dirtyLongs.add(name);
+            removed.remove(name);
+        }
+        scheduleFlush();
         return val;
     }
 
@@ -158,11 +321,90 @@ public class PersistentStore {
 
     @SuppressLint("ApplySharedPref")
     public static void commit() {
-        prefs.edit().commit();
+        flush(true);
+    }
+
+    public static void flush() {
+        flush(false);
+    }
+
+    private static void scheduleFlush() {
+        // not extended by further writes so a busy writer can't hold it off indefinitely
+        if (!Inevitable.waiting(FLUSH_TASK)) {
+            Inevitable.task(FLUSH_TASK, FLUSH_DELAY, PersistentStore::flush);
+        }
+    }
+
+    @SuppressLint("ApplySharedPref")
+    private static void flush(final boolean synchronous) {
+        if (prefs == null) return;
+        synchronized (flushLock) {
+            // snapshot under the lock, storage is written without holding it
+            final SharedPreferences.Editor editor = prefs.edit();
+            final ArrayList<String> deletes;
+            final ArrayList<PersistentBlobStore.Pending> writes = new ArrayList<>();
+            synchronized (lock) {
+                for (final String name : removed) {
+                    editor.remove(name);
+                }
+                for (final String name : dirtyLongs) {
+                    editor.putLong(name, longs.get(name)[0]);
+                }
+                for (final String name : dirtyStrings) {
+                    editor.putString(name, strings.get(name));
+                }
+                for (final String name : dirtyFloats) {
+                    editor.putFloat(name, floats.get(name));
+                }
+                for (final String name : dirtyBooleans) {
+                    editor.putBoolean(name, booleans.get(name));
+                }
+                deletes = new ArrayList<>(droppedBlobs);
+                for (final String name : dirtyBlobs) {
+                    final PersistentBlobStore.Blob blob = blobs.get(name);
+                    if (blob != null && blob.dirty()) {
+                        writes.add(blob.pending(name));
+                    }
+                }
+                if (d) {
+                    android.util.Log.d("PersistentStore", "Flushing " + (dirtyLongs.size() + dirtyStrings.size() + dirtyFloats.size() + dirtyBooleans.size() + dirtyBlobs.size()) + " removing " + removed.size());
+                }
+                removed.clear();
+                dirtyLongs.clear();
+                dirtyStrings.clear();
+                dirtyFloats.clear();
+                dirtyBooleans.clear();
+                dirtyBlobs.clear();
+            }
+
+            if (synchronous) {
+                editor.commit();
+            } else {
+                editor.apply();
+            }
+            for (final String name : deletes) {
+                blobStore.delete(name);
+            }
+            synchronized (lock) {
+                // stale files must not be loaded until they are gone
+                droppedBlobs.removeAll(deletes);
+            }
+            for (final PersistentBlobStore.Pending pending : writes) {
+                final boolean written = blobStore.write(pending);
+                synchronized (lock) {
+                    if (written) {
+                        pending.written();
+                    } else if (blobs.get(pending.name) == pending.blob) {
+                        dirtyBlobs.add(pending.name); // try again next time
+                    }
+                }
+            }
+        }
     }
 
     public static void cleanupOld(final String prefix) {
         if (prefix == null) return;
+        flush();
         val erase = new LinkedList<String>();
         Set<? extends Map.Entry<String, ?>> set = prefs.getAll().entrySet();
         for (Map.Entry<String, ?> i : set) {
@@ -170,6 +412,21 @@ public class PersistentStore {
                 erase.add(i.getKey());
             }
         }
+        synchronized (lock) {
+            for (final String i : blobs.keySet()) {
+                if (i.startsWith(prefix) && !erase.contains(i)) {
+                    erase.add(i);
+                }
+            }
+        }
+        if (blobStore != null) {
+            // blob files this process never loaded
+            for (final String i : blobStore.names()) {
+                if (i.startsWith(prefix) && !erase.contains(i)) {
+                    erase.add(i);
+                }
+            }
+        }
         for (val i : erase) {
             System.out.println("Erasing: " + i);
             removeItem(i);
@@ -7,12 +7,23 @@ import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.models.UserError;
 import com.eveningoutpost.dexdrip.xdrip;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import lombok.val;
 
 /**
  * Created by jamorham on 01/01/2018.
  * <p>
  * Simplified, cached static access to default preferences store
+ * <p>
+ * Values read through the typed getters are kept already parsed per key and default, so repeat
+ * lookups avoid the preference store lock and string parsing. Entries are dropped when the key
+ * is changed, either by our own setters or through the change listener. The listener runs straight
+ * away for writes made on the main thread, but a direct edit of the store from a background thread
+ * is only seen once the main looper delivers the notification. Code which can run off the main
+ * thread must write through our setters, or call invalidate() or invalidateAll() straight after
+ * its own edit, for any key which is also read through here.
  */
 
 public class Pref {
@@ -20,7 +31,32 @@ public class Pref {
     private static final String TAG = "Pref";
     private static SharedPreferences prefs;
 
-    // TODO optimize initializePrefs()
+    private static final ConcurrentHashMap<String, Cached<Boolean>> booleans = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Cached<String>> strings = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Cached<Integer>> stringInts = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Cached<Double>> stringDoubles = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Cached<Long>> longs = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Cached<Integer>> ints = new ConcurrentHashMap<>();
+    private static final AtomicLong generation = new AtomicLong();
+
+    // held here as preferences only keep a weak reference to listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener listener = (p, key) -> {
+        if (key != null) {
+            invalidate(key);
+        } else {
+            invalidateAll();
+        }
+    };
+
+    private static class Cached<T> {
+        final T def;
+        final T value;
+
+        Cached(final T def, final T value) {
+            this.def = def;
+            this.value = value;
+        }
+    }
 
     // cache instance
     private static void initializePrefs() {
@@ -30,6 +66,10 @@ public class Pref {
                 if ((prefs == null) && (JoH.ratelimit("prefs-failure1", 20))) {
                     UserError.Log.wtf(TAG, "Could not initialize preferences due to init failure!!");
                 }
+                if (prefs != null) {
+                    invalidateAll();
+                    prefs.registerOnSharedPreferenceChangeListener(listener);
+                }
             } else {
                 if (JoH.ratelimit("prefs-failure2", 20)) {
                     try {
@@ -47,16 +87,51 @@ public class Pref {
         return prefs;
     }
 
+    // for callers writing through their own editor off the main thread
+    public static void invalidate(final String pref) {
+        generation.incrementAndGet();
+        booleans.remove(pref);
+        strings.remove(pref);
+        stringInts.remove(pref);
+        stringDoubles.remove(pref);
+        longs.remove(pref);
+        ints.remove(pref);
+    }
+
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+        booleans.clear();
+        strings.clear();
+        stringInts.clear();
+        stringDoubles.clear();
+        longs.clear();
+        ints.clear();
+    }
+
+    // a change arriving while the value was being read removes it again
+    private static <T> T store(final ConcurrentHashMap<String, Cached<T>> cache, final String pref, final T def, final T value, final long started) {
+        cache.put(pref, new Cached<>(def, value));
+        if (generation.get() != started) {
+            cache.remove(pref);
+        }
+        return value;
+    }
+
 
     // booleans
     public static boolean getBooleanDefaultFalse(final String pref) {
-        initializePrefs();
-        return (prefs != null) && (prefs.getBoolean(pref, false));
+        return getBoolean(pref, false);
     }
 
     public static boolean getBoolean(final String pref, boolean def) {
+        final Cached<Boolean> cached = booleans.get(pref);
+        if (cached != null && cached.def == def) {
+            return cached.value;
+        }
         initializePrefs();
-        return (prefs != null) && (prefs.getBoolean(pref, def));
+        if (prefs == null) return false;
+        final long started = generation.get();
+        return store(booleans, pref, def, prefs.getBoolean(pref, def), started);
     }
 
     public static boolean isPreferenceSet(final String pref) {
@@ -68,6 +143,7 @@ public class Pref {
         initializePrefs();
         if (prefs != null) {
             prefs.edit().putBoolean(pref, lng).apply();
+            invalidate(pref);
             return true;
         }
         return false;
@@ -75,23 +151,27 @@ public class Pref {
 
     public static void toggleBoolean(final String pref) {
         initializePrefs();
-        if (prefs != null) prefs.edit().putBoolean(pref, !prefs.getBoolean(pref, false)).apply();
+        if (prefs != null) {
+            prefs.edit().putBoolean(pref, !prefs.getBoolean(pref, false)).apply();
+            invalidate(pref);
+        }
     }
 
 
     // strings
     public static String getStringDefaultBlank(final String pref) {
-        initializePrefs();
-        if (prefs != null) {
-            return prefs.getString(pref, "");
-        }
-        return "";
+        return getString(pref, "");
     }
 
     public static String getString(final String pref, final String def) {
+        final Cached<String> cached = strings.get(pref);
+        if (cached != null && (cached.def == null ? def == null : cached.def.equals(def))) {
+            return cached.value;
+        }
         initializePrefs();
         if (prefs != null) {
-            return prefs.getString(pref, def);
+            final long started = generation.get();
+            return store(strings, pref, def, prefs.getString(pref, def), started);
         }
         return "";
     }
@@ -139,6 +219,7 @@ public class Pref {
         initializePrefs();
         if (prefs != null) {
             prefs.edit().putString(pref, str).apply();
+            invalidate(pref);
             return true;
         }
         return false;
@@ -147,9 +228,14 @@ public class Pref {
 
     // numbers
     public static long getLong(final String pref, final long def) {
+        final Cached<Long> cached = longs.get(pref);
+        if (cached != null && cached.def == def) {
+            return cached.value;
+        }
         initializePrefs();
         if (prefs != null) {
-            return prefs.getLong(pref, def);
+            final long started = generation.get();
+            return store(longs, pref, def, prefs.getLong(pref, def), started);
         }
         return def;
     }
@@ -158,39 +244,62 @@ public class Pref {
         initializePrefs();
         if (prefs != null) {
             prefs.edit().putLong(pref, lng).apply();
+            invalidate(pref);
             return true;
         }
         return false;
     }
 
     public static int getInt(final String pref, final int def) {
+        final Cached<Integer> cached = ints.get(pref);
+        if (cached != null && cached.def == def) {
+            return cached.value;
+        }
         initializePrefs();
         if (prefs != null) {
-            return prefs.getInt(pref, def);
+            final long started = generation.get();
+            return store(ints, pref, def, prefs.getInt(pref, def), started);
         }
         return def;
     }
 
     public static int getStringToInt(final String pref, final int defaultValue) {
+        final Cached<Integer> cached = stringInts.get(pref);
+        if (cached != null && cached.def == defaultValue) {
+            return cached.value;
+        }
+        final long started = generation.get();
+        int value;
         try {
-            return Integer.parseInt(getString(pref, Integer.toString(defaultValue)));
+            value = Integer.parseInt(getString(pref, Integer.toString(defaultValue)));
         } catch (Exception e) {
-            return defaultValue;
+            value = defaultValue;
         }
+        if (prefs == null) return value;
+        return store(stringInts, pref, defaultValue, value, started);
     }
 
     public static double getStringToDouble(final String pref, final double defaultValue) {
+        final Cached<Double> cached = stringDoubles.get(pref);
+        if (cached != null && cached.def == defaultValue) {
+            return cached.value;
+        }
+        final long started = generation.get();
+        double value;
         try {
-            return JoH.tolerantParseDouble(getString(pref, Double.toString(defaultValue)), defaultValue);
+            value = JoH.tolerantParseDouble(getString(pref, Double.toString(defaultValue)), defaultValue);
         } catch (Exception e) {
-            return defaultValue;
+            value = defaultValue;
         }
+        if (prefs == null) return value;
+        return store(stringDoubles, pref, defaultValue, value, started);
     }
 
     public static boolean setInt(final String pref, final int num) {
         initializePrefs();
         if (prefs != null) {
             prefs.edit().putInt(pref, num).apply();
+            invalidate(pref);
             return true;
         }
         return false;
@@ -202,6 +311,7 @@ public class Pref {
         initializePrefs();
         if (prefs != null) {
             prefs.edit().remove(pref).apply();
+            invalidate(pref);
             return true;
         }
         return false;
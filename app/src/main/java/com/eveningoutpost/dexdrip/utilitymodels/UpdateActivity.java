@@ -94,7 +94,7 @@ public class UpdateActivity extends BaseAppCompatActivity {
             last_check_time = prefs.getLong(last_update_check_time, 0);
         if (((JoH.tsl() - last_check_time) > (86300000 * 2)) || (debug)) {
             last_check_time = JoH.tsl();
-            prefs.edit().putLong(last_update_check_time, last_check_time).apply();
+            Pref.setLong(last_update_check_time, last_check_time);
 
             String channel = prefs.getString("update_channel", "beta");
             Log.i(TAG, "Checking for a software update, channel: " + channel);
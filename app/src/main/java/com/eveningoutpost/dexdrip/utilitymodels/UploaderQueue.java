@@ -2,9 +2,11 @@ package com.eveningoutpost.dexdrip.utilitymodels;
 
 import android.database.Cursor;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 import android.util.Log;
 import android.util.LongSparseArray;
 
+import com.activeandroid.ActiveAndroid;
 import com.activeandroid.Cache;
 import com.activeandroid.Model;
 import com.activeandroid.annotation.Column;
@@ -12,6 +14,7 @@ import com.activeandroid.annotation.Table;
 import com.activeandroid.query.Delete;
 import com.activeandroid.query.Select;
 import com.activeandroid.util.SQLiteUtils;
+import com.eveningoutpost.dexdrip.influxdb.InfluxDBLineWriter;
 import com.eveningoutpost.dexdrip.models.BgReading;
 import com.eveningoutpost.dexdrip.models.BloodTest;
 import com.eveningoutpost.dexdrip.models.Calibration;
@@ -23,6 +26,7 @@ import com.eveningoutpost.dexdrip.models.UserError;
 import com.eveningoutpost.dexdrip.tidepool.TidepoolEntry;
 import com.eveningoutpost.dexdrip.tidepool.TidepoolStatus;
 import com.eveningoutpost.dexdrip.tidepool.TidepoolUploader;
+import com.eveningoutpost.dexdrip.utils.RetentionEngine;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
@@ -32,6 +36,8 @@ import org.json.JSONObject;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 import static com.eveningoutpost.dexdrip.services.SyncService.startSyncService;
@@ -58,7 +64,11 @@ public class UploaderQueue extends Model {
             "CREATE INDEX index_UploaderQueue_otype on UploaderQueue(otype);",
             "CREATE INDEX index_UploaderQueue_timestamp on UploaderQueue(timestamp);",
             "CREATE INDEX index_UploaderQueue_complete on UploaderQueue(bitfield_complete);",
-            "CREATE INDEX index_UploaderQueue_wanted on UploaderQueue(bitfield_wanted);"};
+            "CREATE INDEX index_UploaderQueue_wanted on UploaderQueue(bitfield_wanted);",
+            // finds a type's entries already in timestamp order, the bitfield tests can't use an index and are evaluated per row
+            "CREATE INDEX index_UploaderQueue_otype_timestamp on UploaderQueue(otype, timestamp);"};
+
+    private static final int MAX_SQL_IDS = 500;
 
     // table creation
     private static boolean patched = false;
@@ -70,6 +80,11 @@ public class UploaderQueue extends Model {
     private static ArrayList<String> processedBaseURIs;
     private static ArrayList<String> processedBaseURInames;
 
+    // per type, per circuit bit: {pending, completed} - loaded on demand then maintained as entries change
+    private static final Object countLock = new Object();
+    private static HashMap<String, int[][]> queueCounts = null;
+    private static long queueCountsLoaded = 0;
+
 
     // Bitfields
     public static final long MONGO_DIRECT = 1;
@@ -133,10 +148,58 @@ public class UploaderQueue extends Model {
 
     public Long completed(long bitfield) {
         UserError.Log.d(TAG, "Marking bitfield " + bitfield + " completed on: " + getId() + " / " + action + " " + type + " " + reference_id);
+        countCompletion(type, bitfield_wanted, bitfield_complete, bitfield);
         bitfield_complete |= bitfield;
         return saveit();
     }
 
+    // mark many entries completed for the circuit in a single transaction
+    public static void completedAll(final List<UploaderQueue> items, final long bitfield) {
+        final List<Long> ids = new ArrayList<>(items.size());
+        for (final UploaderQueue up : items) {
+            if ((up.bitfield_complete & bitfield) == bitfield || up.getId() == null) continue;
+            countCompletion(up.type, up.bitfield_wanted, up.bitfield_complete, bitfield);
+            up.bitfield_complete |= bitfield;
+            ids.add(up.getId());
+        }
+        if (ids.isEmpty()) return;
+        fixUpTable();
+        ActiveAndroid.beginTransaction();
+        try {
+            for (int from = 0; from < ids.size(); from += MAX_SQL_IDS) {
+                SQLiteUtils.execSql("UPDATE UploaderQueue SET bitfield_complete = bitfield_complete | " + bitfield
+                        + " WHERE _id IN (" + TextUtils.join(",", ids.subList(from, Math.min(ids.size(), from + MAX_SQL_IDS))) + ")");
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } catch (Exception e) {
+            UserError.Log.e(TAG, "Exception marking completed: " + e);
+            invalidateCounts();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+        UserError.Log.d(TAG, "Marked " + ids.size() + " entries completed for bitfield " + bitfield);
+    }
+
+    // fetch the objects referred to by queue entries with one query per batch of ids
+    public static <T extends Model> HashMap<Long, T> getReferencedModels(final Class<T> cls, final List<UploaderQueue> items) {
+        final HashMap<Long, T> results = new HashMap<>();
+        final LinkedHashSet<Long> unique = new LinkedHashSet<>();
+        for (final UploaderQueue up : items) {
+            unique.add(up.reference_id);
+        }
+        final List<Long> ids = new ArrayList<>(unique);
+        for (int from = 0; from < ids.size(); from += MAX_SQL_IDS) {
+            final List<T> models = new Select()
+                    .from(cls)
+                    .where("_ID IN (" + TextUtils.join(",", ids.subList(from, Math.min(ids.size(), from + MAX_SQL_IDS))) + ")")
+                    .execute();
+            for (final T model : models) {
+                results.put(model.getId(), model);
+            }
+        }
+        return results;
+    }
+
     public String toS() {
         final Gson gson = new GsonBuilder()
                 .excludeFieldsWithoutExposeAnnotation()
@@ -186,6 +249,7 @@ public class UploaderQueue extends Model {
         result.bitfield_complete = 0;
         result.type = obj.getClass().getSimpleName();
         result.saveit();
+        countNewEntry(result.type, result.bitfield_wanted);
         if (d) UserError.Log.d(TAG, result.toS());
         last_new_entry = JoH.tsl();
         return result;
@@ -235,6 +299,7 @@ public class UploaderQueue extends Model {
         result.bitfield_complete = 0;
         result.type = obj.getClass().getSimpleName();
         result.saveit();
+        countNewEntry(result.type, result.bitfield_wanted);
         if (d) UserError.Log.d(TAG, result.toS());
         last_new_entry = JoH.tsl();
         return result;
@@ -306,20 +371,94 @@ public class UploaderQueue extends Model {
         }
     }
 
-    private static List<String> getClasses() {
-        fixUpTable();
-        final ArrayList<String> results = new ArrayList<>();
-        final String query = new Select("distinct otype as otypes").from(UploaderQueue.class).toSql();
-        final Cursor resultCursor = Cache.openDatabase().rawQuery(query, null);
-        while (resultCursor.moveToNext()) {
-            results.add(resultCursor.getString(0));
+
+    private static int circuitIndex(final long bitfield) {
+        return Long.numberOfTrailingZeros(bitfield);
+    }
+
+    private static int[][] countsFor(final String type) {
+        int[][] counts = queueCounts.get(type);
+        if (counts == null) {
+            counts = new int[64][2];
+            queueCounts.put(type, counts);
         }
-        resultCursor.close();
-        return results;
+        return counts;
     }
 
+    private static void countNewEntry(final String type, final long wanted) {
+        synchronized (countLock) {
+            if (queueCounts == null || type == null) return;
+            final int[][] counts = countsFor(type);
+            for (int i = 0, size = circuits_for_stats.size(); i < size; i++) {
+                final long bit = circuits_for_stats.keyAt(i);
+                if ((wanted & bit) == bit) counts[circuitIndex(bit)][0]++;
+            }
+        }
+    }
+
+    private static void countCompletion(final String type, final long wanted, final long complete, final long bitfield) {
+        synchronized (countLock) {
+            if (queueCounts == null || type == null) return;
+            final int[][] counts = countsFor(type);
+            for (int i = 0, size = circuits_for_stats.size(); i < size; i++) {
+                final long bit = circuits_for_stats.keyAt(i);
+                if ((bitfield & bit) == bit && (wanted & bit) == bit && (complete & bit) != bit) {
+                    counts[circuitIndex(bit)][0]--;
+                    counts[circuitIndex(bit)][1]++;
+                }
+            }
+        }
+    }
+
+    private static void invalidateCounts() {
+        synchronized (countLock) {
+            queueCounts = null;
+        }
+    }
+
+    // single grouped query to get counts for every type and circuit
+    private static HashMap<String, int[][]> getCounts() {
+        synchronized (countLock) {
+            // periodic reload guards against any drift
+            if (queueCounts != null && JoH.msSince(queueCountsLoaded) < Constants.HOUR_IN_MS) return queueCounts;
+            fixUpTable();
+            queueCounts = new HashMap<>();
+            queueCountsLoaded = JoH.tsl();
+            try {
+                final Cursor cursor = Cache.openDatabase().rawQuery("SELECT otype, bitfield_wanted, bitfield_complete, COUNT(*) FROM UploaderQueue GROUP BY otype, bitfield_wanted, bitfield_complete", null);
+                while (cursor.moveToNext()) {
+                    final String type = cursor.getString(0);
+                    if (type == null) continue;
+                    final long wanted = cursor.getLong(1);
+                    final long complete = cursor.getLong(2);
+                    final int count = cursor.getInt(3);
+                    final int[][] counts = countsFor(type);
+                    for (int i = 0, size = circuits_for_stats.size(); i < size; i++) {
+                        final long bit = circuits_for_stats.keyAt(i);
+                        if ((wanted & bit) == bit) {
+                            counts[circuitIndex(bit)][(complete & bit) == bit ? 1 : 0] += count;
+                        }
+                    }
+                }
+                cursor.close();
+            } catch (Exception e) {
+                UserError.Log.d(TAG, "Got exception getting counts: " + e);
+            }
+            return queueCounts;
+        }
+    }
 
     public static int getQueueSizeByType(String className, long bitfield, boolean completed) {
+        synchronized (countLock) {
+            final int[][] counts = getCounts().get(className);
+            if (counts != null && Long.bitCount(bitfield) == 1) {
+                return counts[circuitIndex(bitfield)][completed ? 1 : 0];
+            }
+        }
+        return getQueueSizeByTypeFromDatabase(className, bitfield, completed);
+    }
+
+    private static int getQueueSizeByTypeFromDatabase(String className, long bitfield, boolean completed) {
         fixUpTable();
         if (d) UserError.Log.d(TAG, "get Pending count by type: " + className);
         try {
@@ -339,6 +478,7 @@ public class UploaderQueue extends Model {
             new Delete()
                     .from(UploaderQueue.class)
                     .execute();
+            invalidateCounts();
             last_cleanup = JoH.tsl();
             JoH.static_toast_long("Uploader queue emptied!");
         } catch (Exception e) {
@@ -347,24 +487,21 @@ public class UploaderQueue extends Model {
     }
 
 
-    public static void cleanQueue() {
-        // delete all completed records > 24 hours old
+    public static List<RetentionEngine.Rule> retentionRules() {
         fixUpTable();
-        try {
-            new Delete()
-                    .from(UploaderQueue.class)
-                    .where("timestamp < ?", JoH.tsl() - 86400000L)
-                    .where("bitfield_wanted == bitfield_complete")
-                    .execute();
+        final long now = JoH.tsl();
+        final List<RetentionEngine.Rule> rules = new ArrayList<>();
+        // delete all completed records > 24 hours old
+        rules.add(new RetentionEngine.Rule("UploaderQueue", "timestamp", now - 86400000L)
+                .where("bitfield_wanted == bitfield_complete"));
+        // delete everything > 7 days old
+        rules.add(new RetentionEngine.Rule("UploaderQueue", "timestamp", now - 86400000L * 7L)
+                .after(UploaderQueue::cleanedUp));
+        return rules;
+    }
 
-            // delete everything > 7 days old
-            new Delete()
-                    .from(UploaderQueue.class)
-                    .where("timestamp < ?", JoH.tsl() - 86400000L * 7L)
-                    .execute();
-        } catch (Exception e) {
-            UserError.Log.d(TAG, "Exception cleaning uploader queue: " + e);
-        }
+    private static void cleanedUp() {
+        invalidateCounts();
         last_cleanup = JoH.tsl();
     }
 
@@ -398,7 +535,11 @@ public class UploaderQueue extends Model {
             final long bitfield = circuits_for_stats.keyAt(i);
 
             // per class of data
-            for (String type : getClasses()) {
+            final List<String> classes;
+            synchronized (countLock) {
+                classes = new ArrayList<>(getCounts().keySet());
+            }
+            for (String type : classes) {
                 if (JoH.quietratelimit("uploader-stats", 10)) {
                     Log.d(TAG, "Getting stats for class: " + type + " in " + circuits_for_stats.valueAt(i));
                 }
@@ -530,11 +671,23 @@ public class UploaderQueue extends Model {
 
         ///
 
+        if (NightscoutUploader.last_upload_run != null) {
+            l.add(new StatusItem("REST last run", NightscoutUploader.last_upload_run));
+        }
+
         if (NightscoutUploader.last_exception_count > 0) {
             l.add(new StatusItem("REST-API problem\n" + JoH.dateTimeText(NightscoutUploader.last_exception_time) + " (" + NightscoutUploader.last_exception_count + ")", NightscoutUploader.last_exception, StatusItem.Highlight.BAD));
         }
 
 
+        if (InfluxDBLineWriter.last_run != null) {
+            l.add(new StatusItem("InfluxDB last run", InfluxDBLineWriter.last_run));
+        }
+
+        if (InfluxDBLineWriter.last_error != null) {
+            l.add(new StatusItem("InfluxDB problem", InfluxDBLineWriter.last_error, StatusItem.Highlight.BAD));
+        }
+
         if (TidepoolEntry.enabled()) {
             l.addAll(TidepoolStatus.megaStatus());
         }
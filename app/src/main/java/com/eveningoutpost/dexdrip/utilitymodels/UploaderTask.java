@@ -2,6 +2,7 @@ package com.eveningoutpost.dexdrip.utilitymodels;
 
 import android.os.AsyncTask;
 
+import com.activeandroid.Model;
 import com.eveningoutpost.dexdrip.influxdb.InfluxDBUploader;
 import com.eveningoutpost.dexdrip.models.BgReading;
 import com.eveningoutpost.dexdrip.models.BloodTest;
@@ -16,6 +17,7 @@ import com.eveningoutpost.dexdrip.wearintegration.WatchUpdaterService;
 import com.eveningoutpost.dexdrip.xdrip;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -36,14 +38,14 @@ public class UploaderTask extends AsyncTask<String, Void, Void> {
         try {
             Log.d(TAG, "UploaderTask doInBackground called");
             final List<Long> circuits = new ArrayList<>();
-            final List<String> types = new ArrayList<>();
+            final List<Class<? extends Model>> types = new ArrayList<>();
 
-            types.add(BgReading.class.getSimpleName());
-            types.add(Calibration.class.getSimpleName());
-            types.add(BloodTest.class.getSimpleName());
-            types.add(Treatments.class.getSimpleName());
-            types.add(TransmitterData.class.getSimpleName());
-            types.add(LibreBlock.class.getSimpleName());
+            types.add(BgReading.class);
+            types.add(Calibration.class);
+            types.add(BloodTest.class);
+            types.add(Treatments.class);
+            types.add(TransmitterData.class);
+            types.add(LibreBlock.class);
 
             if (Pref.getBooleanDefaultFalse("wear_sync")) {
                 circuits.add(UploaderQueue.WATCH_WEARAPI);
@@ -75,9 +77,12 @@ public class UploaderTask extends AsyncTask<String, Void, Void> {
                 final List<LibreBlock> libreBlock = new ArrayList<>();
                 final List<UploaderQueue> items = new ArrayList<>();
 
-                for (String type : types) {
+                for (Class<? extends Model> typeClass : types) {
+                    final String type = typeClass.getSimpleName();
                     final List<UploaderQueue> bgups = UploaderQueue.getPendingbyType(type, THIS_QUEUE);
                     if (bgups != null) {
+                        // resolve all referenced objects for this batch in one go
+                        final HashMap<Long, ? extends Model> referenced = UploaderQueue.getReferencedModels(typeClass, bgups);
                         for (UploaderQueue up : bgups) {
                             switch (up.action) {
                                 case "insert":
@@ -85,14 +90,14 @@ public class UploaderTask extends AsyncTask<String, Void, Void> {
                                 case "create":
                                     items.add(up);
                                     if (type.equals(BgReading.class.getSimpleName())) {
-                                        final BgReading this_bg = BgReading.byid(up.reference_id);
+                                        final BgReading this_bg = (BgReading) referenced.get(up.reference_id);
                                         if (this_bg != null) {
                                             bgReadings.add(this_bg);
                                         } else {
                                             Log.wtf(TAG, "BgReading with ID: " + up.reference_id + " appears to have been deleted");
                                         }
                                     } else if (type.equals(Calibration.class.getSimpleName())) {
-                                        final Calibration this_cal = Calibration.byid(up.reference_id);
+                                        final Calibration this_cal = (Calibration) referenced.get(up.reference_id);
                                         if (this_cal != null) {
                                             if (this_cal.isValid()) {
                                                 calibrations.add(this_cal);
@@ -104,28 +109,28 @@ public class UploaderTask extends AsyncTask<String, Void, Void> {
                                         }
 
                                     } else if (type.equals(BloodTest.class.getSimpleName())) {
-                                        final BloodTest this_bt = BloodTest.byid(up.reference_id);
+                                        final BloodTest this_bt = (BloodTest) referenced.get(up.reference_id);
                                         if (this_bt != null) {
                                             bloodtests.add(this_bt);
                                         } else {
                                             Log.wtf(TAG, "Bloodtest with ID: " + up.reference_id + " appears to have been deleted");
                                         }
                                     } else if (type.equals(Treatments.class.getSimpleName())) {
-                                        final Treatments this_treat = Treatments.byid(up.reference_id);
+                                        final Treatments this_treat = (Treatments) referenced.get(up.reference_id);
                                         if (this_treat != null) {
                                             treatmentsAdd.add(this_treat);
                                         } else {
                                             Log.wtf(TAG, "Treatments with ID: " + up.reference_id + " appears to have been deleted");
                                         }
                                     } else if (type.equals(TransmitterData.class.getSimpleName())) {
-                                        final TransmitterData this_transmitterData = TransmitterData.byid(up.reference_id);
+                                        final TransmitterData this_transmitterData = (TransmitterData) referenced.get(up.reference_id);
                                         if (this_transmitterData != null) {
                                             transmittersData.add(this_transmitterData);
                                         } else {
                                             Log.wtf(TAG, "TransmitterData with ID: " + up.reference_id + " appears to have been deleted");
                                         }
                                     } else if (type.equals(LibreBlock.class.getSimpleName())) {
-                                        final LibreBlock this_LibreBlock = LibreBlock.byid(up.reference_id);
+                                        final LibreBlock this_LibreBlock = (LibreBlock) referenced.get(up.reference_id);
                                         if (this_LibreBlock != null) {
                                             libreBlock.add(this_LibreBlock);
                                         } else {
@@ -164,10 +169,10 @@ public class UploaderTask extends AsyncTask<String, Void, Void> {
                         uploadStatus = uploader.uploadMongo(bgReadings, calibrations, calibrations, transmittersData, libreBlock);
                     } else if (THIS_QUEUE == UploaderQueue.NIGHTSCOUT_RESTAPI) {
                         final NightscoutUploader uploader = new NightscoutUploader(xdrip.getAppContext());
-                        uploadStatus = uploader.uploadRest(bgReadings, bloodtests, calibrations);
+                        uploadStatus = uploader.uploadRest(bgReadings, bloodtests, calibrations, completeAsAcknowledged(items, THIS_QUEUE));
                     } else if (THIS_QUEUE == UploaderQueue.INFLUXDB_RESTAPI) {
                         final InfluxDBUploader influxDBUploader = new InfluxDBUploader(xdrip.getAppContext());
-                        uploadStatus = influxDBUploader.upload(bgReadings, calibrations, calibrations);
+                        uploadStatus = influxDBUploader.upload(bgReadings, calibrations, completeAsAcknowledged(items, THIS_QUEUE));
                     } else if (THIS_QUEUE == UploaderQueue.WATCH_WEARAPI) {
                         uploadStatus = WatchUpdaterService.sendWearUpload(bgReadings, calibrations, bloodtests, treatmentsAdd, treatmentsDel);
                     }
@@ -178,9 +183,7 @@ public class UploaderTask extends AsyncTask<String, Void, Void> {
 
                     // TODO some kind of fail counter?
                     if (uploadStatus) {
-                        for (UploaderQueue up : items) {
-                            up.completed(THIS_QUEUE); // approve all types for this queue
-                        }
+                        UploaderQueue.completedAll(items, THIS_QUEUE); // approve all types for this queue
                         Log.d(TAG, UploaderQueue.getCircuitName(THIS_QUEUE) + " Marking: " + items.size() + " Items as successful");
 
                         if (PersistentStore.getBoolean(BACKFILLING_BOOSTER)) {
@@ -208,4 +211,22 @@ public class UploaderTask extends AsyncTask<String, Void, Void> {
         return null;
     }
 
+    // mark entries done as each chunk is accepted so a failed backfill resumes where it stopped
+    private static NightscoutUploader.UploadProgress completeAsAcknowledged(final List<UploaderQueue> items, final long THIS_QUEUE) {
+        final HashMap<String, UploaderQueue> pending = new HashMap<>();
+        for (final UploaderQueue up : items) {
+            pending.put(up.type + ":" + up.reference_id, up);
+        }
+        return records -> {
+            final List<UploaderQueue> done = new ArrayList<>(records.size());
+            for (final Model record : records) {
+                final UploaderQueue up = pending.get(record.getClass().getSimpleName() + ":" + record.getId());
+                if (up != null) {
+                    done.add(up);
+                }
+            }
+            UploaderQueue.completedAll(done, THIS_QUEUE);
+        };
+    }
+
 }
@@ -1,66 +1,91 @@
 package com.eveningoutpost.dexdrip.utils;
 
-import android.os.SystemClock;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 // JamOrHam
+// Small least recently used cache of rendered objects keyed on whatever they were rendered from.
+// Callers put a data version in the key so new readings invalidate entries rather than a timeout.
 public class BlobCache {
 
-    private final Object lock = new Object();
-    private volatile Object blobCache = null;
-    private static volatile long blobTime = 0;
-    static volatile long blobParamX = 0;
-    static volatile long blobParamY = 0;
+    private final LinkedHashMap<Key, Object> cache;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
 
-    private final long timeout;
-
-    public BlobCache(long timeout) {
-        this.timeout = timeout;
+    public BlobCache(final int maxEntries) {
+        cache = new LinkedHashMap<Key, Object>(maxEntries + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Object> eldest) {
+                if (size() > maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
     }
 
-    public void set(Object o) {
-        synchronized (lock) {
-            blobCache = o;
-            blobTime = SystemClock.elapsedRealtime();
+    public synchronized Object get(final Object... key) {
+        final Object o = cache.get(new Key(key));
+        if (o != null) {
+            hits++;
+        } else {
+            misses++;
         }
+        return o;
     }
 
-    public Object get() {
-        synchronized (lock) {
-            if (isExpired()) {
-                blobCache = null;
-            }
-            return blobCache;
-        }
+    public synchronized void set(final Object o, final Object... key) {
+        if (o == null) return;
+        cache.put(new Key(key), o);
     }
 
-    public void set(Object o, long x, long y) {
-        synchronized (lock) {
-            blobParamX = x;
-            blobParamY = y;
-            blobCache = o;
-            blobTime = SystemClock.elapsedRealtime();
-        }
+    public synchronized void clear() {
+        cache.clear();
     }
 
-    public Object get(long x, long y) {
-        synchronized (lock) {
-            if (x != blobParamX || y != blobParamY) {
-                return null;
-            }
-            return get();
-        }
+    public synchronized int size() {
+        return cache.size();
     }
 
-    public void clear() {
-        blobCache = null;
-        blobTime = 0;
+    public synchronized long getHits() {
+        return hits;
     }
 
-    public boolean isExpired() {
-        synchronized (lock) {
-            return (blobCache == null || SystemClock.elapsedRealtime() - blobTime > timeout);
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // percentage of lookups answered from the cache
+    public synchronized int getHitRate() {
+        final long total = hits + misses;
+        return total > 0 ? (int) (hits * 100 / total) : 0;
+    }
+
+    private static final class Key {
+        private final Object[] parts;
+        private final int hash;
+
+        private Key(final Object[] parts) {
+            this.parts = parts;
+            this.hash = Arrays.hashCode(parts);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Key && Arrays.equals(parts, ((Key) other).parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
         }
     }
 
 }
-
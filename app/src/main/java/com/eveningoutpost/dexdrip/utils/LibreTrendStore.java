@@ -0,0 +1,204 @@
+package com.eveningoutpost.dexdrip.utils;
+
+import com.eveningoutpost.dexdrip.models.GlucoseData;
+import com.eveningoutpost.dexdrip.models.UserError.Log;
+import com.eveningoutpost.dexdrip.xdrip;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/*
+    Per minute libre trend data for one sensor held in parallel primitive arrays indexed by sensor minute.
+
+    Every change is also written to a small memory mapped file named after the sensor serial so that
+    after a process restart we only need to decode the LibreBlocks which arrived since the last one we saw.
+
+    File layout: a fixed header with the LibreTrendLatest state followed by one column per array.
+
+    Points handed out through the List interface are copies, use set() to write a changed point back.
+*/
+class LibreTrendStore extends AbstractList<LibreTrendPoint> {
+
+    private static final String TAG = "LibreTrendStore";
+    private static final String FILE_PREFIX = "libre-trend-";
+    private static final String FILE_SUFFIX = ".dat";
+    private static final int MAGIC = 0x4c54524e;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final GlucoseData.DataSource[] SOURCES = GlucoseData.DataSource.values();
+
+    private final int maxPoints;
+    private final int[] raw;
+    private final int[] glucose;
+    private final short[] flags;
+    private final byte[] source;
+
+    private MappedByteBuffer mapped;
+    private String serial;
+
+    LibreTrendStore(final int maxPoints) {
+        this.maxPoints = maxPoints;
+        raw = new int[maxPoints];
+        glucose = new int[maxPoints];
+        flags = new short[maxPoints];
+        source = new byte[maxPoints];
+    }
+
+    @Override
+    public int size() {
+        return maxPoints;
+    }
+
+    @Override
+    public LibreTrendPoint get(final int index) {
+        final LibreTrendPoint point = new LibreTrendPoint(raw[index] != 0 ? index : 0, raw[index], flags[index], SOURCES[source[index]]);
+        point.glucoseLevel = glucose[index];
+        return point;
+    }
+
+    @Override
+    public LibreTrendPoint set(final int index, final LibreTrendPoint point) {
+        final LibreTrendPoint previous = get(index);
+        write(index, (int) point.rawSensorValue, point.glucoseLevel, point.flags, point.source);
+        return previous;
+    }
+
+    int getRawValue(final int index) {
+        return raw[index];
+    }
+
+    // only the first value seen for a minute is kept
+    boolean setIfEmpty(final int index, final int rawValue, final int pointFlags, final GlucoseData.DataSource pointSource) {
+        if (raw[index] != 0) return false;
+        write(index, rawValue, glucose[index], pointFlags, pointSource);
+        return true;
+    }
+
+    private void write(final int index, final int rawValue, final int glucoseLevel, final int pointFlags, final GlucoseData.DataSource pointSource) {
+        raw[index] = rawValue;
+        glucose[index] = glucoseLevel;
+        flags[index] = (short) pointFlags;
+        source[index] = (byte) (pointSource != null ? pointSource : GlucoseData.DataSource.NOT_SET).ordinal();
+        if (mapped != null) {
+            mapped.putInt(rawOffset(index), rawValue);
+            mapped.putInt(glucoseOffset(index), glucoseLevel);
+            mapped.putShort(flagsOffset(index), (short) pointFlags);
+            mapped.put(sourceOffset(index), source[index]);
+        }
+    }
+
+    String getSerial() {
+        return serial;
+    }
+
+    // switch to a sensor, loading anything we stored for it before
+    void open(final String sensorSerial) {
+        clearArrays();
+        mapped = null;
+        serial = sensorSerial;
+        if (sensorSerial == null) return;
+        try {
+            final File file = fileFor(sensorSerial);
+            removeOtherFiles(file);
+            if (file.exists() && file.length() != fileSize()) {
+                Log.d(TAG, "Removing trend file of unexpected size " + file.delete());
+            }
+            final boolean existed = file.exists();
+            try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                mapped = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize());
+            }
+            if (existed && mapped.getInt(0) == MAGIC && mapped.getInt(4) == VERSION) {
+                load();
+                Log.i(TAG, "Loaded stored trend data for " + sensorSerial);
+            } else {
+                if (existed) {
+                    for (int i = 0; i < fileSize(); i++) {
+                        mapped.put(i, (byte) 0);
+                    }
+                }
+                mapped.putInt(0, MAGIC);
+                mapped.putInt(4, VERSION);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Could not map trend file, continuing in memory only: " + e);
+            mapped = null;
+        }
+    }
+
+    void saveLatest(final LibreTrendLatest latest) {
+        if (mapped == null) return;
+        mapped.putLong(8, latest.timestamp);
+        mapped.putInt(16, latest.id);
+        mapped.putInt(20, latest.getGlucoseLevelRaw());
+        mapped.putDouble(24, latest.getBg());
+    }
+
+    boolean loadLatest(final LibreTrendLatest latest) {
+        if (mapped == null || mapped.getLong(8) == 0) return false;
+        latest.timestamp = mapped.getLong(8);
+        latest.id = mapped.getInt(16);
+        latest.setFactorData(mapped.getInt(20), mapped.getDouble(24));
+        latest.SensorSN = serial;
+        return true;
+    }
+
+    private void load() {
+        for (int i = 0; i < maxPoints; i++) {
+            raw[i] = mapped.getInt(rawOffset(i));
+            glucose[i] = mapped.getInt(glucoseOffset(i));
+            flags[i] = mapped.getShort(flagsOffset(i));
+            final byte pointSource = mapped.get(sourceOffset(i));
+            source[i] = pointSource >= 0 && pointSource < SOURCES.length ? pointSource : 0;
+        }
+    }
+
+    private void clearArrays() {
+        Arrays.fill(raw, 0);
+        Arrays.fill(glucose, 0);
+        Arrays.fill(flags, (short) 0);
+        Arrays.fill(source, (byte) 0);
+    }
+
+    private int rawOffset(final int index) {
+        return HEADER_SIZE + index * 4;
+    }
+
+    private int glucoseOffset(final int index) {
+        return HEADER_SIZE + maxPoints * 4 + index * 4;
+    }
+
+    private int flagsOffset(final int index) {
+        return HEADER_SIZE + maxPoints * 8 + index * 2;
+    }
+
+    private int sourceOffset(final int index) {
+        return HEADER_SIZE + maxPoints * 10 + index;
+    }
+
+    private int fileSize() {
+        return HEADER_SIZE + maxPoints * 11;
+    }
+
+    private static File directory() {
+        return xdrip.getAppContext().getFilesDir();
+    }
+
+    private static File fileFor(final String sensorSerial) {
+        return new File(directory(), FILE_PREFIX + sensorSerial.replaceAll("[^A-Za-z0-9]", "_") + FILE_SUFFIX);
+    }
+
+    // we only hold one sensor at a time
+    private static void removeOtherFiles(final File keep) {
+        final File[] files = directory().listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (files == null) return;
+        for (final File file : files) {
+            if (!file.getName().equals(keep.getName())) {
+                Log.d(TAG, "Removing old trend file " + file.getName() + " " + file.delete());
+            }
+        }
+    }
+}
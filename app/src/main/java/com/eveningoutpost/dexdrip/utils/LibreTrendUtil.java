@@ -1,7 +1,6 @@
 package com.eveningoutpost.dexdrip.utils;
 
 import java.text.DateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.ListIterator;
@@ -12,6 +11,7 @@ import com.eveningoutpost.dexdrip.models.GlucoseData;
 import com.eveningoutpost.dexdrip.models.LibreBlock;
 
 import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+import com.eveningoutpost.dexdrip.utilitymodels.PersistentStore;
 
 import com.eveningoutpost.dexdrip.models.UserError.Log;
 
@@ -19,6 +19,7 @@ import com.eveningoutpost.dexdrip.models.UserError.Log;
     This class helps to retrieve the latest libre trend points. It holds data of one sensor only.
     So, it can hold data of up to 14.5 days (actually storage is of 16 days).
     It gets it's data from LibreBlock, and caches the results that it sees.
+    The cache is kept in primitive arrays backed by a memory mapped file per sensor (see LibreTrendStore).
     It always work form the first point to the last point, so when asked to get data, it gets it by the time.
     This class will be a singleton to allow storing the data from time to time. (For more efficient operation).
     
@@ -53,6 +54,14 @@ class LibreTrendLatest {
         this.bg = bg;
     }
 
+    int getGlucoseLevelRaw() {
+        return glucoseLevelRaw;
+    }
+
+    double getBg() {
+        return bg;
+    }
+
     void updateLastReading(LibreBlock libreBlock) {
         List<GlucoseData> trend = NFCReaderX.getLibreTrend(libreBlock);
         if (trend == null || trend.size() == 0 || trend.get(0).glucoseLevelRaw == 0 || libreBlock.timestamp < timestamp) {
@@ -70,26 +79,6 @@ class LibreTrendLatest {
     }
 }
 
-class LazyLibreList extends ArrayList<LibreTrendPoint> {
-
-    public LazyLibreList(int max_points) {
-        super(max_points);
-        while (super.size() < max_points) {
-            super.add(null);
-        }
-    }
-
-    @Override
-    public LibreTrendPoint get(int index) {
-        LibreTrendPoint v = super.get(index);
-        if (v == null) {
-            v = new LibreTrendPoint();
-            super.set(index, v);
-        }
-        return v;
-    }
-}
-
 public class LibreTrendUtil {
 
     private static LibreTrendUtil singleton;
@@ -97,9 +86,11 @@ public class LibreTrendUtil {
     private static final boolean debug_per_minute = false;
     public final static int MAX_POINTS = 16 * 24 * 60; // Assume that there will not be data for longer than 14 days + some extra.
 
+    private static final String PREF_LAST_SERIAL = "libre-trend-serial";
+
     private LibreTrendLatest m_libreTrendLatest;
 
-    ArrayList<LibreTrendPoint> m_points;
+    LibreTrendStore m_points = new LibreTrendStore(MAX_POINTS);
 
     public void updateLastReading(LibreBlock libreBlock) {
         // Before we update m_libreTrendLatest we call getData as it affects the cache.
@@ -108,6 +99,7 @@ public class LibreTrendUtil {
                 libreBlock.timestamp - 60 * Constants.MINUTE_IN_MS;
         getData(startTime, libreBlock.timestamp, false);
         m_libreTrendLatest.updateLastReading(libreBlock);
+        m_points.saveLatest(m_libreTrendLatest);
     }
 
     public synchronized static LibreTrendUtil getInstance() {
@@ -121,10 +113,18 @@ public class LibreTrendUtil {
     LibreTrendUtil() {
         Log.i(TAG, "LibreTrendUtil constructor called this = " + this);
         Reset();
+        // Pick up where we left off with the last sensor so we don't decode all of its blocks again.
+        final String serial = PersistentStore.getString(PREF_LAST_SERIAL, null);
+        if (serial != null) {
+            m_points.open(serial);
+            if (m_points.loadLatest(m_libreTrendLatest)) {
+                Log.i(TAG, "Restored trend data " + m_libreTrendLatest);
+            }
+        }
     }
 
     void ResetPoints() {
-        m_points = new LazyLibreList(MAX_POINTS);
+        m_points.open(null);
     }
 
     void Reset() {
@@ -157,11 +157,12 @@ public class LibreTrendUtil {
         for (LibreBlock libreBlock : latestBlocks) {
             AddLibreblock(libreBlock);
         }
+        m_points.saveLatest(m_libreTrendLatest);
         if (debug_per_minute) {
             Log.i(TAG, "Here are the points that we have");
 
             for (int i = 0; i < MAX_POINTS; i++) {
-                if (m_points.get(i).rawSensorValue != 0) {
+                if (m_points.getRawValue(i) != 0) {
                     if (i != m_points.get(i).sensorTime) {
                         Log.i(TAG, "Error in index i = " + i + " sensorTime = " + m_points.get(i).sensorTime);
                     }
@@ -179,8 +180,9 @@ public class LibreTrendUtil {
         Log.i(TAG, "AddLibreblock called timestamp = " + JoH.dateTimeText(libreBlock.timestamp));
         if (!libreBlock.reference.equals(m_libreTrendLatest.SensorSN)) {
             Log.i(TAG, "Detected a sensor change (or a new one); new serial number is " + libreBlock.reference);
-            ResetPoints();
+            m_points.open(libreBlock.reference);
             m_libreTrendLatest.SensorSN = libreBlock.reference;
+            PersistentStore.setString(PREF_LAST_SERIAL, libreBlock.reference);
         }
 
         List<GlucoseData> trend = NFCReaderX.getLibreTrend(libreBlock);
@@ -202,12 +204,7 @@ public class LibreTrendUtil {
             }
             Log.i(TAG, "maybe Adding a point with id " + id);
 
-            if (m_points.get((int) id).rawSensorValue == 0) {
-                m_points.get((int) id).rawSensorValue = glucoseData.glucoseLevelRaw;
-                m_points.get((int) id).sensorTime = id;
-                m_points.get((int) id).flags = glucoseData.flags;
-                m_points.get((int) id).source = glucoseData.source;
-            }
+            m_points.setIfEmpty((int) id, glucoseData.glucoseLevelRaw, glucoseData.flags, glucoseData.source);
         }
     }
 
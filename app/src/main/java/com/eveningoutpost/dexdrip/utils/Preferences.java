@@ -1388,6 +1388,7 @@ public class Preferences extends BasePreferenceActivity implements SearchPrefere
             final Preference nsFollowDownload = findPreference("nsfollow_download_treatments_screen");
             final Preference nsFollowUrl = findPreference("nsfollow_url");
             final Preference nsFollowLag = findPreference("nsfollow_lag"); // Show the Nightscout follow wake delay setting only when NS follow is the data source
+            final Preference nsFollowIncremental = findPreference("nsfollow_incremental");
             bindPreferenceSummaryToValue(findPreference("nsfollow_lag")); // Show the selected value as summary
             try {
                 nsFollowUrl.setOnPreferenceChangeListener((preference, newValue) -> {
@@ -1859,6 +1860,7 @@ public class Preferences extends BasePreferenceActivity implements SearchPrefere
                     collectionCategory.removePreference(nsFollowUrl);
                     collectionCategory.removePreference(nsFollowDownload);
                     collectionCategory.removePreference(nsFollowLag);
+                    collectionCategory.removePreference(nsFollowIncremental);
                 } catch (Exception e) {
                     //
                 }
@@ -2587,6 +2589,7 @@ public class Preferences extends BasePreferenceActivity implements SearchPrefere
                         collectionCategory.addPreference(nsFollowUrl);
                         collectionCategory.addPreference(nsFollowDownload);
                         collectionCategory.addPreference(nsFollowLag);
+                        collectionCategory.addPreference(nsFollowIncremental);
                     }
 
                     if (collectionType == DexCollectionType.Follower) {
@@ -0,0 +1,205 @@
+package com.eveningoutpost.dexdrip.utils;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.activeandroid.Cache;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.models.UserError;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prunes old rows from retained tables in bounded batches
+ * <p>
+ * Each batch is a single set based delete of at most BATCH_SIZE rows picked through the timestamp
+ * index, so no model objects are loaded and the database lock is only held briefly. Between
+ * batches we pause so that collectors and the UI can get their writes in. Space released is
+ * measured from the sqlite free page list. If the database uses incremental auto vacuum the
+ * free pages can also be handed back to the file system a few at a time.
+ */
+
+public class RetentionEngine {
+
+    private static final String TAG = "RetentionEngine";
+    static final int BATCH_SIZE = 2000;
+    private static final long YIELD_MS = 50;
+    private static final int VACUUM_PAGES = 256;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    public static volatile String last_run;
+
+    public static class Rule {
+        final String table;
+        final String column;
+        final long before;
+        String clause;
+        Runnable after;
+
+        /**
+         * Delete rows from table where column is before the timestamp
+         *
+         * @param table  table name
+         * @param column indexed timestamp column
+         * @param before delete rows older than this
+         */
+        public Rule(final String table, final String column, final long before) {
+            this.table = table;
+            this.column = column;
+            this.before = before;
+        }
+
+        // additional sql condition
+        public Rule where(final String clause) {
+            this.clause = clause;
+            return this;
+        }
+
+        // run once the rule has been applied, eg to invalidate caches
+        public Rule after(final Runnable after) {
+            this.after = after;
+            return this;
+        }
+    }
+
+    public static class Result {
+        public final String table;
+        public long rows = 0;
+        public long bytes = 0;
+        public int batches = 0;
+        public long duration = 0;
+        public String error;
+
+        Result(final String table) {
+            this.table = table;
+        }
+
+        @Override
+        public String toString() {
+            return table + ": " + (error != null ? error : rows + " rows " + (bytes / 1024) + "KB in " + batches
+                    + (batches == 1 ? " batch " : " batches ") + duration + "ms");
+        }
+    }
+
+    /**
+     * Run rules in order, pausing between batches and rules
+     *
+     * @param rules  the rules
+     * @param vacuum whether to try an incremental vacuum afterwards
+     * @return result for each table
+     */
+    public static synchronized List<Result> run(final List<Rule> rules, final boolean vacuum) {
+        final long start = JoH.tsl();
+        final List<Result> results = new ArrayList<>(rules.size());
+        long rows = 0;
+        long bytes = 0;
+        for (final Rule rule : rules) {
+            final Result result = prune(rule, BATCH_SIZE);
+            results.add(result);
+            rows += result.rows;
+            bytes += result.bytes;
+        }
+        if (rows > 0) {
+            // models held by ActiveAndroid may no longer exist
+            Cache.clear();
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Removed ").append(rows).append(" rows, ").append(bytes / 1024).append("KB");
+        if (vacuum) {
+            final long vacuumed = incrementalVacuum();
+            sb.append(vacuumed < 0 ? ", vacuum unavailable" : ", vacuumed " + (vacuumed / 1024) + "KB");
+        }
+        sb.append(" in ").append(JoH.niceTimeScalar(JoH.msSince(start)));
+        last_run = sb.toString();
+        for (final Result result : results) {
+            if (result.rows > 0 || result.error != null) {
+                sb.append("\n").append(result.toString());
+            }
+        }
+        UserError.Log.ueh(TAG, sb.toString());
+        return results;
+    }
+
+    public static Result prune(final Rule rule) {
+        return prune(rule, BATCH_SIZE);
+    }
+
+    static Result prune(final Rule rule, final int batchSize) {
+        final Result result = new Result(rule.table);
+        final long start = JoH.tsl();
+        SQLiteStatement statement = null;
+        try {
+            final SQLiteDatabase db = Cache.openDatabase();
+            final long freeBefore = freePages(db);
+            statement = db.compileStatement("DELETE FROM " + rule.table + " WHERE _id IN (SELECT _id FROM " + rule.table
+                    + " WHERE " + rule.column + " < ?" + (rule.clause != null ? " AND (" + rule.clause + ")" : "")
+                    + " LIMIT " + batchSize + ")");
+            while (true) {
+                statement.bindLong(1, rule.before);
+                final int deleted = statement.executeUpdateDelete();
+                result.rows += deleted;
+                result.batches++;
+                if (deleted < batchSize) break;
+                JoH.threadSleep(YIELD_MS);
+            }
+            result.bytes = Math.max(0, freePages(db) - freeBefore) * pageSize(db);
+        } catch (Exception e) {
+            // usually a table which has never been created on this device
+            result.error = e.getMessage();
+            UserError.Log.d(TAG, "Could not prune " + rule.table + ": " + e);
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+        result.duration = JoH.msSince(start);
+        if (result.error == null && rule.after != null) {
+            rule.after.run();
+        }
+        return result;
+    }
+
+    /**
+     * Hand free pages back to the file system in small steps.
+     *
+     * @return bytes released or -1 if the database is not using incremental auto vacuum
+     */
+    public static long incrementalVacuum() {
+        try {
+            final SQLiteDatabase db = Cache.openDatabase();
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+                return -1;
+            }
+            final long pageSize = pageSize(db);
+            long released = 0;
+            long free = freePages(db);
+            while (free > 0) {
+                try (final Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")", null)) {
+                    while (cursor.moveToNext()) {
+                        // each step frees a page
+                    }
+                }
+                final long remaining = freePages(db);
+                if (remaining >= free) break;
+                released += (free - remaining) * pageSize;
+                free = remaining;
+                JoH.threadSleep(YIELD_MS);
+            }
+            return released;
+        } catch (Exception e) {
+            UserError.Log.e(TAG, "Incremental vacuum failed: " + e);
+            return -1;
+        }
+    }
+
+    private static long freePages(final SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+
+    private static long pageSize(final SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+}
@@ -21,6 +21,7 @@ import com.eveningoutpost.dexdrip.models.AlertType;
 import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.R;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
+import com.eveningoutpost.dexdrip.utilitymodels.PersistentStore;
 import com.eveningoutpost.dexdrip.xdrip;
 
 import java.io.File;
@@ -148,6 +149,7 @@ public class SdcardImportExport extends BaseAppCompatActivity {
         } else {
             Log.e(TAG, "Error deleting: " + filename);
         }
+        deleteFolder(PersistentStore.getBlobDirectory(xdrip.getAppContext()), true);
         hardReset();
     }
 
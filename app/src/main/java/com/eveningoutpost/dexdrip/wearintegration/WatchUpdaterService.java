@@ -19,6 +19,7 @@ import com.eveningoutpost.dexdrip.BuildConfig;
 import com.eveningoutpost.dexdrip.g5model.CalibrationState;
 import com.eveningoutpost.dexdrip.g5model.Ob1G5StateMachine;
 import com.eveningoutpost.dexdrip.Home;
+import com.eveningoutpost.dexdrip.messages.WearSyncCodec;
 import com.eveningoutpost.dexdrip.models.ActiveBluetoothDevice;
 import com.eveningoutpost.dexdrip.models.AlertType;
 import com.eveningoutpost.dexdrip.models.BgReading;
@@ -273,6 +274,7 @@ public class WatchUpdaterService extends WearableListenerService implements
         if (bridge_battery != mPrefs.getInt("bridge_battery", -1)) {//Used by DexCollectionService
             prefs.putInt("bridge_battery", bridge_battery);
             prefs.apply();
+            Pref.invalidate("bridge_battery");
             Log.d(TAG, "syncPrefData commit bridge_battery: " + bridge_battery);
             CheckBridgeBattery.checkBridgeBattery();
             if (force_wearG5 && CheckBridgeBattery.checkForceWearBridgeBattery()) {
@@ -330,6 +332,7 @@ public class WatchUpdaterService extends WearableListenerService implements
 
         if (change) {
             prefs.apply();
+            Pref.invalidateAll(); // several keys from the watch, don't wait for the listener
         } else if (!dex_txid.equals(mPrefs.getString("dex_txid", "default"))) {
             sendPrefSettings();
             processConnect();
@@ -378,16 +381,10 @@ public class WatchUpdaterService extends WearableListenerService implements
         }
 
 
-        final ArrayList<DataMap> entries = dataMap.getDataMapArrayList("entries");
-        if (entries != null) {
-            final Gson gson = new GsonBuilder()
-                    .excludeFieldsWithoutExposeAnnotation()
-                    .registerTypeAdapter(Date.class, new DateTypeAdapter())
-                    .serializeSpecialFloatingPointValues()
-                    .create();
-
-
-            final int count = entries.size();
+        final byte[] compact = dataMap.getByteArray(WearSyncBatches.BATCH);
+        final List<BgReading> batch = compact != null ? WearSyncBatches.toBgReadings(compact) : bgReadingsFromEntries(dataMap.getDataMapArrayList("entries"));
+        if (batch != null) {
+            final int count = batch.size();
 
             if (count > 0) {
 
@@ -397,38 +394,21 @@ public class WatchUpdaterService extends WearableListenerService implements
                     return;
                 }
 
-                Log.d(TAG, "syncTransmitterData add BgReading Table entries count=" + count);
-                int idx = 0;
+                Log.d(TAG, "syncTransmitterData add BgReading Table entries count=" + count + (compact != null ? " compact bytes=" + compact.length : ""));
                 long timeOfLastBG = 0;
-                for (DataMap entry : entries) {
-                    if (entry != null) {
-                        idx++;
-                        final String bgrecord = entry.getString("bgs");
-                        if (bgrecord != null) {
-
-                            final BgReading bgData = gson.fromJson(bgrecord, BgReading.class);
-
-                            final BgReading uuidexists = BgReading.findByUuid(bgData.uuid);
-                            if (uuidexists == null) {
-
-                                final BgReading exists = BgReading.getForTimestamp(bgData.timestamp);
-                                if (exists == null) {
-                                    Log.d(TAG, "Saving new synced pre-calculated bg-reading: " + JoH.dateTimeText(bgData.timestamp) + " last entry: " + (idx == count) + " " + BgGraphBuilder.unitized_string_static(bgData.calculated_value));
-                                    bgData.sensor = current_sensor;
-                                    bgData.save();
-                                    BgSendQueue.handleNewBgReading(bgData, "create", xdrip.getAppContext(), Home.get_follower(), idx != count);
-                                } else {
-                                    Log.d(TAG, "BgReading for timestamp already exists: " + JoH.dateTimeText(bgData.timestamp));
-                                }
-                            } else {
-                                Log.d(TAG, "BgReading with uuid: " + bgData.uuid + " already exists: " + JoH.dateTimeText(bgData.timestamp));
-                            }
+                for (final BgReading bgData : batch) {
+                    timeOfLastBG = Math.max(bgData.timestamp + 1, timeOfLastBG);
+                }
 
-                            timeOfLastBG = Math.max(bgData.timestamp + 1, timeOfLastBG);
-                        }
-                    }
+                // existing uuids and timestamps are resolved for the whole batch and saved in one transaction
+                final List<BgReading> inserted = BgReading.bulkIngest(batch, 3 * Constants.MINUTE_IN_MS, current_sensor, true);
+                for (int i = 0; i < inserted.size(); i++) {
+                    final BgReading bgData = inserted.get(i);
+                    final boolean last = i == inserted.size() - 1;
+                    Log.d(TAG, "Saved new synced pre-calculated bg-reading: " + JoH.dateTimeText(bgData.timestamp) + " last entry: " + last + " " + BgGraphBuilder.unitized_string_static(bgData.calculated_value));
+                    BgSendQueue.handleNewBgReading(bgData, "create", xdrip.getAppContext(), Home.get_follower(), !last);
                 }
-                sendDataReceived(DATA_ITEM_RECEIVED_PATH, "DATA_RECEIVED_BGS count=" + entries.size(), timeOfLastBG, "BG", -1);
+                sendDataReceived(DATA_ITEM_RECEIVED_PATH, "DATA_RECEIVED_BGS count=" + count, timeOfLastBG, "BG", -1);
 
             } else {
                 UserError.Log.e(TAG, "Not acknowledging wear BG readings as count was 0");
@@ -438,6 +418,25 @@ public class WatchUpdaterService extends WearableListenerService implements
         }
     }
 
+    private static List<BgReading> bgReadingsFromEntries(final ArrayList<DataMap> entries) {
+        if (entries == null) return null;
+        final Gson gson = new GsonBuilder()
+                .excludeFieldsWithoutExposeAnnotation()
+                .registerTypeAdapter(Date.class, new DateTypeAdapter())
+                .serializeSpecialFloatingPointValues()
+                .create();
+        final List<BgReading> batch = new ArrayList<>(entries.size());
+        for (DataMap entry : entries) {
+            if (entry != null) {
+                final String bgrecord = entry.getString("bgs");
+                if (bgrecord != null) {
+                    batch.add(gson.fromJson(bgrecord, BgReading.class));
+                }
+            }
+        }
+        return batch;
+    }
+
     private synchronized void syncTransmitterData(DataMap dataMap, boolean bBenchmark) {//KS
         Log.d(TAG, "syncTransmitterData");
 
@@ -562,6 +561,22 @@ public class WatchUpdaterService extends WearableListenerService implements
     private synchronized void syncStepSensorData(DataMap dataMap, boolean bBenchmark) {
         Log.d(TAG, "syncStepSensorData");
 
+        final byte[] compact = dataMap.getByteArray(WearSyncBatches.BATCH);
+        if (compact != null) {
+            final List<StepCounter> steps = WearSyncBatches.toStepCounters(compact);
+            if (steps != null) {
+                long timeOfLastEntry = 0;
+                Log.d(TAG, "syncStepSensorData add Table compact entries count=" + steps.size() + " bytes=" + compact.length);
+                for (final StepCounter data : steps) {
+                    timeOfLastEntry = data.timestamp + 1;
+                    if (!bBenchmark)
+                        data.saveit();
+                }
+                sendDataReceived(DATA_ITEM_RECEIVED_PATH, "DATA_RECEIVED_LOGS count=" + steps.size(), timeOfLastEntry, bBenchmark ? "BM" : "STEP", -1);
+            }
+            return;
+        }
+
         ArrayList<DataMap> entries = dataMap.getDataMapArrayList("entries");
         long timeOfLastEntry = 0;
         Log.d(TAG, "syncStepSensorData add to Table");
@@ -599,6 +614,22 @@ public class WatchUpdaterService extends WearableListenerService implements
     private synchronized void syncHeartSensorData(DataMap dataMap, boolean bBenchmark) {
         Log.d(TAG, "syncHeartSensorData");
 
+        final byte[] compact = dataMap.getByteArray(WearSyncBatches.BATCH);
+        if (compact != null) {
+            final List<HeartRate> rates = WearSyncBatches.toHeartRates(compact);
+            if (rates != null) {
+                long timeOfLastEntry = 0;
+                Log.d(TAG, "syncHeartSensorData add Table compact entries count=" + rates.size() + " bytes=" + compact.length);
+                for (final HeartRate data : rates) {
+                    timeOfLastEntry = data.timestamp + 1;
+                    if (!bBenchmark)
+                        data.saveit();
+                }
+                sendDataReceived(DATA_ITEM_RECEIVED_PATH, "DATA_RECEIVED_LOGS count=" + rates.size(), timeOfLastEntry, bBenchmark ? "BM" : "HEART", -1);
+            }
+            return;
+        }
+
         ArrayList<DataMap> entries = dataMap.getDataMapArrayList("entries");
         long timeOfLastEntry = 0;
         Log.d(TAG, "syncHeartSensorData add to Table");
@@ -633,6 +664,23 @@ public class WatchUpdaterService extends WearableListenerService implements
     private synchronized void syncTreatmentsData(DataMap dataMap, boolean bBenchmark) {
         Log.d(TAG, "syncTreatmentsData");
 
+        final byte[] compact = dataMap.getByteArray(WearSyncBatches.BATCH);
+        if (compact != null) {
+            final WearSyncCodec.Reader reader = WearSyncBatches.treatments(compact);
+            if (reader != null) {
+                long timeOfLastEntry = 0;
+                Log.d(TAG, "syncTreatmentsData compact count=" + reader.size());
+                for (int i = 0; i < reader.size(); i++) {
+                    final long timestamp = reader.timestamp(i);
+                    if (syncTreatmentRecord(WearSyncBatches.treatmentRecord(reader, i), timestamp)) {
+                        timeOfLastEntry = timestamp + 1;
+                    }
+                }
+                sendDataReceived(DATA_ITEM_RECEIVED_PATH, "DATA_RECEIVED_LOGS count=" + reader.size(), timeOfLastEntry, bBenchmark ? "BM" : "TREATMENTS", -1);
+            }
+            return;
+        }
+
         ArrayList<DataMap> entries = dataMap.getDataMapArrayList("entries");
         long timeOfLastEntry = 0;
         if (entries != null) {
@@ -642,27 +690,10 @@ public class WatchUpdaterService extends WearableListenerService implements
                     Log.d(TAG, "syncTreatmentsData entry=" + entry);
                     String record = entry.getString("entry");
                     if (record != null && record.length() > 1) {
-                        Log.d(TAG, "Received wearable 2: voice payload: " + record);
                         long timestamp = entry.getLong("timestamp");
-                        if (timestamp <= PersistentStore.getLong(LAST_RECORD_TIMESTAMP)) {
-                            Log.e(TAG, "Ignoring repeated or older sync timestamp");
-                            continue;
+                        if (syncTreatmentRecord(record, timestamp)) {
+                            timeOfLastEntry = (long) timestamp + 1;
                         }
-                        final long since = JoH.msSince(timestamp);
-                        if ((since < -(Constants.SECOND_IN_MS * 5)) || (since > Constants.HOUR_IN_MS * 72)) {
-                            JoH.static_toast_long("Rejecting wear treatment as time out of range!");
-                            UserError.Log.e(TAG, "Rejecting wear treatment due to time: " + record + " since: " + since);
-                        } else {
-                            if (record.contains("uuid null")) {
-                                Log.e(TAG, "Skipping xx uuid null record!");
-                                continue;
-                            }
-                            receivedText(getApplicationContext(), record);
-                            PersistentStore.setLong(LAST_RECORD_TIMESTAMP, timestamp);
-                        }
-                        Log.d(TAG, "syncTreatmentsData add Table record=" + record);
-                        timeOfLastEntry = (long) timestamp + 1;
-                        Log.d(TAG, "syncTreatmentsData WATCH treatments timestamp=" + JoH.dateTimeText(timestamp));
                     }
                 }
             }
@@ -670,6 +701,30 @@ public class WatchUpdaterService extends WearableListenerService implements
         }
     }
 
+    // returns false if the record was skipped without being looked at
+    private boolean syncTreatmentRecord(final String record, final long timestamp) {
+        Log.d(TAG, "Received wearable 2: voice payload: " + record);
+        if (timestamp <= PersistentStore.getLong(LAST_RECORD_TIMESTAMP)) {
+            Log.e(TAG, "Ignoring repeated or older sync timestamp");
+            return false;
+        }
+        final long since = JoH.msSince(timestamp);
+        if ((since < -(Constants.SECOND_IN_MS * 5)) || (since > Constants.HOUR_IN_MS * 72)) {
+            JoH.static_toast_long("Rejecting wear treatment as time out of range!");
+            UserError.Log.e(TAG, "Rejecting wear treatment due to time: " + record + " since: " + since);
+        } else {
+            if (record.contains("uuid null")) {
+                Log.e(TAG, "Skipping xx uuid null record!");
+                return false;
+            }
+            receivedText(getApplicationContext(), record);
+            PersistentStore.setLong(LAST_RECORD_TIMESTAMP, timestamp);
+        }
+        Log.d(TAG, "syncTreatmentsData add Table record=" + record);
+        Log.d(TAG, "syncTreatmentsData WATCH treatments timestamp=" + JoH.dateTimeText(timestamp));
+        return true;
+    }
+
     public static void sendWearToast(String msg, int length) {
         if ((googleApiClient != null) && (googleApiClient.isConnected())) {
             PutDataMapRequest dataMapRequest = PutDataMapRequest.create(WEARABLE_TOAST_NOTIFICATON);
@@ -1164,6 +1219,7 @@ public class WatchUpdaterService extends WearableListenerService implements
                                 isConnectedToWearable = true;
                                 prefs.putString("node_wearG5", wearNode);
                                 prefs.apply();
+                                Pref.invalidate("node_wearG5");
                                 break;
                             }
 
@@ -1587,6 +1643,9 @@ public class WatchUpdaterService extends WearableListenerService implements
         }
     }
 
+    // Stays one DataMap per reading rather than a WearSyncCodec batch. These are display values
+    // which the watch passes unchanged to its watch faces as a bundle, and the batch version is
+    // only negotiated towards the watch so we cannot tell whether it could decode one.
     private void resendData(long since) {
         Log.d(TAG, "resendData ENTER");
         forceGoogleApiConnect();
@@ -1859,6 +1918,7 @@ public class WatchUpdaterService extends WearableListenerService implements
         dataMap.putString("locale", locale.getLanguage() + (country != null && !country.isEmpty() ? "_" + country : ""));
 
         dataMap.putString("build-version-name", getVersionID());
+        dataMap.putInt("wear_sync_batch_version", WearSyncCodec.VERSION); // watches which understand this send WearSyncBatches instead of json
 
         for (String pref : defaultFalseBooleansToSend) {
             dataMap.putBoolean(pref, Pref.getBooleanDefaultFalse(pref));
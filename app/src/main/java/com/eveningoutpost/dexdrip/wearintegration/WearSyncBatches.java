@@ -0,0 +1,75 @@
+package com.eveningoutpost.dexdrip.wearintegration;
+
+import com.eveningoutpost.dexdrip.messages.WearSyncCodec;
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.HeartRate;
+import com.eveningoutpost.dexdrip.models.StepCounter;
+import com.eveningoutpost.dexdrip.models.UserError;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.eveningoutpost.dexdrip.messages.WearSyncCodec.*;
+
+/**
+ * Decodes batches the watch sends in the compact wear sync format, the watch has the matching
+ * encoders and bg readings use the layout shared in WearSyncCodec. Decoders return null when the batch cannot be understood so callers can avoid
+ * acknowledging it.
+ */
+public class WearSyncBatches {
+
+    private static final String TAG = "WearSyncBatches";
+
+    public static final String BATCH = "batch";
+
+    public static List<BgReading> toBgReadings(final byte[] bytes) {
+        final WearSyncCodec.Reader reader = read(bytes, TYPE_BGREADING);
+        if (reader == null) return null;
+        return WearSyncCodec.toBgReadings(reader);
+    }
+
+    public static List<HeartRate> toHeartRates(final byte[] bytes) {
+        final WearSyncCodec.Reader reader = read(bytes, TYPE_HEART);
+        if (reader == null) return null;
+        final List<HeartRate> rates = new ArrayList<>(reader.size());
+        for (int i = 0; i < reader.size(); i++) {
+            final HeartRate hr = new HeartRate();
+            hr.timestamp = reader.timestamp(i);
+            hr.bpm = (int) reader.value(i, HEART_BPM);
+            hr.accuracy = (int) reader.value(i, HEART_ACCURACY);
+            rates.add(hr);
+        }
+        return rates;
+    }
+
+    public static List<StepCounter> toStepCounters(final byte[] bytes) {
+        final WearSyncCodec.Reader reader = read(bytes, TYPE_STEPS);
+        if (reader == null) return null;
+        final List<StepCounter> steps = new ArrayList<>(reader.size());
+        for (int i = 0; i < reader.size(); i++) {
+            final StepCounter pm = new StepCounter();
+            pm.timestamp = reader.timestamp(i);
+            pm.metric = (int) reader.value(i, STEPS_METRIC);
+            steps.add(pm);
+        }
+        return steps;
+    }
+
+    // treatments arrive as the same "uuid notes" voice record text the json path carries
+    public static WearSyncCodec.Reader treatments(final byte[] bytes) {
+        return read(bytes, TYPE_TREATMENT);
+    }
+
+    public static String treatmentRecord(final WearSyncCodec.Reader reader, final int row) {
+        return reader.uuid(row) + " uuid " + reader.text(row);
+    }
+
+    private static WearSyncCodec.Reader read(final byte[] bytes, final int type) {
+        final WearSyncCodec.Reader reader = WearSyncCodec.Reader.parse(bytes);
+        if (reader == null || reader.type() != type) {
+            UserError.Log.e(TAG, "Could not parse wear sync batch of type " + type);
+            return null;
+        }
+        return reader;
+    }
+}
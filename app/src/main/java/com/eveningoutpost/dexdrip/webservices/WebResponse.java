@@ -17,6 +17,7 @@ public class WebResponse {
     byte[] bytes;
     String mimeType;
     int resultCode;
+    String etag;
 
     WebResponse(String str) {
         this(str, 200, "application/json");
@@ -32,10 +33,20 @@ public class WebResponse {
         this.resultCode = resultCode;
     }
 
+    // prebuilt payload which clients can revalidate with If-None-Match
+    WebResponse(byte[] bytes, String mimeType, String etag) {
+        this.bytes = bytes;
+        this.mimeType = mimeType;
+        this.resultCode = 200;
+        this.etag = etag;
+    }
+
     public String getResultDesc() {
         switch (resultCode) {
             case 200:
                 return "OK";
+            case 304:
+                return "Not Modified";
             case 400:
                 return "Bad Request";
             case 404:
@@ -4,6 +4,7 @@ import androidx.annotation.VisibleForTesting;
 
 import com.eveningoutpost.dexdrip.Home;
 import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.BgReadingWindow;
 import com.eveningoutpost.dexdrip.models.DateUtil;
 import com.eveningoutpost.dexdrip.models.UserError;
 import com.eveningoutpost.dexdrip.utilitymodels.BgGraphBuilder;
@@ -12,6 +13,7 @@ import com.eveningoutpost.dexdrip.utilitymodels.Pref;
 import com.eveningoutpost.dexdrip.utilitymodels.SensorStatus;
 import com.eveningoutpost.dexdrip.dagger.Singleton;
 import com.eveningoutpost.dexdrip.utils.DexCollectionType;
+import com.google.common.base.Charsets;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -19,10 +21,13 @@ import org.json.JSONObject;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 import static com.eveningoutpost.dexdrip.wearintegration.ExternalStatusService.getLastStatusLine;
 import static com.eveningoutpost.dexdrip.wearintegration.ExternalStatusService.getLastStatusLineTime;
@@ -36,6 +41,8 @@ import static com.eveningoutpost.dexdrip.wearintegration.ExternalStatusService.g
  * Always outputs 24 items and ignores any parameters
  * Always uses display glucose values
  * <p>
+ * Finished responses for plain requests are kept as bytes per parameter combination until the
+ * readings change, and carry an ETag so polling clients can be answered with 304 Not Modified.
  */
 
 public class WebServiceSgv extends BaseWebService {
@@ -54,6 +61,34 @@ public class WebServiceSgv extends BaseWebService {
         }
     };
 
+    @VisibleForTesting
+    static final Map<String, CachedResponse> cachedResponses = new HashMap<>();
+
+    private static final AtomicLong responseHits = new AtomicLong();
+    private static final AtomicLong responseMisses = new AtomicLong();
+
+    private static class CachedResponse {
+        final long dataVersion;
+        final String statusLine;
+        final byte[] bytes;
+        final String etag;
+
+        CachedResponse(long dataVersion, String statusLine, byte[] bytes, String etag) {
+            this.dataVersion = dataVersion;
+            this.statusLine = statusLine;
+            this.bytes = bytes;
+            this.etag = etag;
+        }
+    }
+
+    static long getResponseHits() {
+        return responseHits.get();
+    }
+
+    static long getResponseMisses() {
+        return responseMisses.get();
+    }
+
     // process the request and produce a response object
     public WebResponse request(String query) {
         int steps_result_code = 0; // result code for any steps cgi parameters, 200 = good
@@ -117,10 +152,30 @@ public class WebServiceSgv extends BaseWebService {
             brief = true;
         }
 
-        final JSONArray reply = new JSONArray();
-
         // whether to include data which doesn't match the current sensor
         final boolean ignore_sensor = Home.get_follower() || cgi.containsKey("all_data");
+        final String unitsHint = Pref.getString("units", "mgdl").equals("mgdl") ? "mgdl" : "mmol";
+        final boolean no_empty = cgi.containsKey("no_empty");
+
+        // responses including the result of an action or a live status are never cached
+        final boolean cacheable = steps_result_code == 0 && heart_result_code == 0 && tasker_result_code == 0
+                && collector_status_string == null && sensor_status_string == null;
+        final String cacheKey = count + ":" + brief + ":" + ignore_sensor + ":" + unitsHint + ":" + no_empty;
+        final long dataVersion = BgReadingWindow.dataVersion();
+        final String external_status_line = getLastStatusLine();
+        if (cacheable) {
+            final CachedResponse cached;
+            synchronized (cachedResponses) {
+                cached = cachedResponses.get(cacheKey);
+            }
+            if (cached != null && cached.dataVersion == dataVersion && cached.statusLine.equals(external_status_line)) {
+                responseHits.incrementAndGet();
+                return new WebResponse(cached.bytes, "application/json", cached.etag);
+            }
+            responseMisses.incrementAndGet();
+        }
+
+        final JSONArray reply = new JSONArray();
 
         // Store a cache of the last BgReading.latest() query for the duration in which there is no
         // new latest reading. Since obtaining the latest reading is fast, but a larger number of
@@ -207,7 +262,6 @@ public class WebServiceSgv extends BaseWebService {
                 }
 
                 UserError.Log.d(TAG, "Processed "+withCache+" cached entries and "+withManual+" manual entries");
-                UserError.Log.d(TAG, "Output: " + reply.toString());
             } catch (JSONException e) {
                 UserError.Log.wtf(TAG, "Got json exception: " + e);
             }
@@ -221,12 +275,10 @@ public class WebServiceSgv extends BaseWebService {
                 JSONObject origItem = reply.getJSONObject(0);
                 JSONObject item = new JSONObject(origItem.toString());
                 if (units_indicator > 0) {
-                    String unitsHint = Pref.getString("units", "mgdl").equals("mgdl") ? "mgdl" : "mmol";
                     item.put("units_hint", unitsHint);
                 }
 
                 // emit the external status line once if present
-                String external_status_line = getLastStatusLine();
                 if (external_status_line.length() > 0) {
                     item.put("aaps", external_status_line);
                     item.put("aaps-ts", getLastStatusLineTime());
@@ -265,11 +317,23 @@ public class WebServiceSgv extends BaseWebService {
         }
 
         // whether to send empty string instead of empty json array
-        if (cgi.containsKey("no_empty") && reply.length() == 0) {
-            return new WebResponse("");
-        } else {
-            return new WebResponse(reply.toString());
+        final byte[] bytes = ((no_empty && reply.length() == 0) ? "" : reply.toString()).getBytes(Charsets.UTF_8);
+        UserError.Log.d(TAG, "Output: " + bytes.length + " bytes");
+        if (!cacheable) {
+            return new WebResponse(bytes, "application/json", null);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        final String etag = "\"" + Long.toHexString(dataVersion) + "-" + Long.toHexString(crc.getValue()) + "\"";
+        synchronized (cachedResponses) {
+            // entries from before the last data change can never be used again
+            final Iterator<CachedResponse> iterator = cachedResponses.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().dataVersion != dataVersion) iterator.remove();
+            }
+            cachedResponses.put(cacheKey, new CachedResponse(dataVersion, external_status_line, bytes, etag));
         }
+        return new WebResponse(bytes, "application/json", etag);
     }
 
 
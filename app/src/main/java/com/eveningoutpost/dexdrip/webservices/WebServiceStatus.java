@@ -50,6 +50,13 @@ public class WebServiceStatus extends BaseWebService {
 
             reply.put("settings", settings);
 
+            // sgv response cache effectiveness
+            final JSONObject cache = new JSONObject();
+            cache.put("sgvHits", WebServiceSgv.getResponseHits());
+            cache.put("sgvMisses", WebServiceSgv.getResponseMisses());
+            cache.put("notModified", XdripWebService.getNotModifiedCount());
+            reply.put("cache", cache);
+
             Log.d(TAG, "Output: " + reply.toString());
         } catch (JSONException e) {
             UserError.Log.wtf(TAG, "Got json exception: " + e);
@@ -2,7 +2,6 @@ package com.eveningoutpost.dexdrip.webservices;
 
 import android.os.Build;
 import android.os.PowerManager;
-import android.text.TextUtils;
 import android.util.Log;
 
 import com.eveningoutpost.dexdrip.R;
@@ -11,17 +10,16 @@ import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.models.UserError;
 import com.eveningoutpost.dexdrip.utilitymodels.Constants;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
+import com.eveningoutpost.dexdrip.utilitymodels.StatusItem;
 import com.eveningoutpost.dexdrip.utils.TriState;
 import com.eveningoutpost.dexdrip.xdrip;
 import com.google.common.base.Charsets;
 import com.google.common.hash.Hashing;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -30,8 +28,14 @@ import java.net.SocketTimeoutException;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLServerSocketFactory;
@@ -53,23 +57,42 @@ import javax.net.ssl.SSLSocket;
  * Designed for watches which support only a http interface
  * <p>
  * base service adapted from android reference documentation
+ * <p>
+ * Connections are served by a bounded worker pool with a short queue in front of it. HTTP/1.1
+ * keep-alive is supported so pollers can reuse a connection, but idle connections check the
+ * queue every quarter second while waiting and are closed once other clients are waiting for
+ * a worker.
  */
 
-// TODO megastatus for engineering mode
-
 public class XdripWebService implements Runnable {
 
     private static final String TAG = "xDripWebService";
     private static final int MAX_RUNNING_THREADS = 15;
+    private static final int MAX_QUEUED_CONNECTIONS = 30;
+    private static final int ACCEPT_BACKLOG = 50;
+    private static final int MAX_HEADER_LINES = 50;
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_KEEP_ALIVE_REQUESTS = 100;
+    private static final int FIRST_REQUEST_TIMEOUT = (int) (Constants.SECOND_IN_MS * 10);
+    private static final int KEEP_ALIVE_TIMEOUT = (int) (Constants.SECOND_IN_MS * 5);
+    private static final int IDLE_CHECK_INTERVAL = 250;
+    private static final byte[] SERVER_ERROR = "HTTP/1.0 500 Internal Server Error\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(Charsets.US_ASCII);
+
     private static volatile XdripWebService instance = null;
     private static volatile XdripWebService ssl_instance = null;
 
+    private static final AtomicLong connections = new AtomicLong();
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong reused = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong notModified = new AtomicLong();
+
     private final int listenPort;
     private final boolean useSSL;
-    private final AtomicInteger thread_count = new AtomicInteger();
 
-    private boolean isRunning;
+    private volatile boolean isRunning;
     private ServerSocket mServerSocket;
+    private ThreadPoolExecutor workers;
 
     private DateTimeFormatter rfc7231formatter;
 
@@ -141,8 +164,15 @@ public class XdripWebService implements Runnable {
     /**
      * This method starts the web server listening to the specified port.
      */
-    public void start() {
+    public synchronized void start() {
         isRunning = true;
+        workers = new ThreadPoolExecutor(MAX_RUNNING_THREADS, MAX_RUNNING_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_CONNECTIONS), runnable -> {
+            final Thread thread = new Thread(runnable, "webservice-" + listenPort);
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers.allowCoreThreadTimeOut(true);
         new Thread(this).start();
     }
 
@@ -159,6 +189,10 @@ public class XdripWebService implements Runnable {
         } catch (IOException e) {
             Log.e(TAG, "Error closing the server socket.", e);
         }
+        if (workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
     }
 
     public int getPort() {
@@ -168,48 +202,51 @@ public class XdripWebService implements Runnable {
 
     @Override
     public void run() {
+        final ThreadPoolExecutor pool = workers;
         try {
             final boolean open_service = Pref.getBooleanDefaultFalse("xdrip_webservice_open");
+            final ServerSocket serverSocket;
             if (useSSL) {
                 // SSL type
                 UserError.Log.d(TAG, "Attempting to initialize SSL");
                 final SSLServerSocketFactory ssocketFactory = SSLServerSocketHelper.makeSSLSocketFactory(
                         new BufferedInputStream(xdrip.getAppContext().getResources().openRawResource(R.raw.localhost_cert)),
                         "password".toCharArray());
-                mServerSocket = ssocketFactory.createServerSocket(listenPort, 1, open_service ? null : InetAddress.getByName("127.0.0.1"));
+                serverSocket = ssocketFactory.createServerSocket(listenPort, ACCEPT_BACKLOG, open_service ? null : InetAddress.getByName("127.0.0.1"));
 
             } else {
                 // Non-SSL type
-                mServerSocket = new ServerSocket(listenPort, 1, open_service ? null : InetAddress.getByName("127.0.0.1"));
+                serverSocket = new ServerSocket(listenPort, ACCEPT_BACKLOG, open_service ? null : InetAddress.getByName("127.0.0.1"));
+            }
+            synchronized (this) {
+                if (!isRunning) {
+                    serverSocket.close();
+                    return;
+                }
+                mServerSocket = serverSocket;
             }
             while (isRunning) {
-                final Socket socket = mServerSocket.accept();
-                final int runningThreads = thread_count.get();
-                if (runningThreads < MAX_RUNNING_THREADS) {
-                    Log.d(TAG, "Running threads: " + runningThreads);
-                    new Thread(new Runnable() {
-                        @Override
-                        public void run() {
-                            thread_count.incrementAndGet();
-                            try {
-                                handle(socket);
-                                socket.close();
-                            } catch (SocketException e) {
-                                // ignore
-                            } catch (IOException e) {
-                                Log.e(TAG, "Web server thread error.", e);
-                            } finally {
-                                thread_count.decrementAndGet();
-                            }
+                final Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                try {
+                    pool.execute(() -> {
+                        try {
+                            handle(socket, pool);
+                        } catch (SocketException e) {
+                            // ignore
+                        } catch (IOException e) {
+                            Log.e(TAG, "Web server thread error.", e);
+                        } finally {
+                            closeQuietly(socket);
                         }
-                    }).start();
-                } else {
+                    });
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();
                     if (JoH.ratelimit("webservice-thread-overheat", 60)) {
-                        UserError.Log.wtf(TAG, "Web service jammed with too many connections > " + runningThreads);
+                        UserError.Log.wtf(TAG, "Web service jammed with too many connections > " + pool.getActiveCount() + " active " + pool.getQueue().size() + " queued");
                     }
-                    socket.close();
+                    closeQuietly(socket);
                 }
-
             }
         } catch (SocketException e) {
             // The server was stopped; ignore.
@@ -218,161 +255,254 @@ public class XdripWebService implements Runnable {
         }
     }
 
-    // Makes \n be \r\n for HTTP specification compliance
-    static class CRLFPrintStream extends PrintStream {
-
-        public CRLFPrintStream(OutputStream out) {
-            super(out);
-        }
-
-        @Override
-        public void println(String x) {
-            super.println(x + "\r");
+    private static void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
         }
+    }
 
-        @Override
-        public void println() {
-            println("");
+    /**
+     * Parsed request line and the headers we care about.
+     */
+    private static class Request {
+        String route;
+        boolean headersOnly;
+        boolean http11;
+        String connection;
+        String apiSecret;
+        String ifNoneMatch;
+
+        boolean wantsKeepAlive() {
+            if (connection == null) return http11;
+            final String value = connection.toLowerCase(Locale.US);
+            return http11 ? !value.contains("close") : value.contains("keep-alive");
         }
     }
 
     /**
-     * Respond to a request from a client.
+     * Serve requests from a client until it closes the connection, asks us to, or goes idle.
      *
      * @param socket The client socket.
      * @throws IOException
      */
-    private void handle(Socket socket) throws IOException {
-        final PowerManager.WakeLock wl = JoH.getWakeLock("webservice-handler", 20000);
-        BufferedReader reader = null;
-        CRLFPrintStream output = null;
-        try {
-            socket.setSoTimeout((int) (Constants.SECOND_IN_MS * 10));
+    private void handle(final Socket socket, final ThreadPoolExecutor pool) throws IOException {
+        socket.setSoTimeout(FIRST_REQUEST_TIMEOUT);
+        socket.setTcpNoDelay(true);
+        if (socket instanceof SSLSocket) {
+            final PowerManager.WakeLock wl = JoH.getWakeLock("webservice-handshake", 20000);
             try {
-                if (socket instanceof SSLSocket) {
-                    // if ssl
-                    UserError.Log.d(TAG, "Attempting SSL handshake");
-                    final SSLSocket sslSocket = (SSLSocket) socket;
+                // if ssl
+                UserError.Log.d(TAG, "Attempting SSL handshake");
+                final SSLSocket sslSocket = (SSLSocket) socket;
 
-                    sslSocket.startHandshake();
-                    final SSLSession sslSession = sslSocket.getSession();
+                sslSocket.startHandshake();
+                final SSLSession sslSession = sslSocket.getSession();
 
-                    UserError.Log.d(TAG, "SSLSession :");
-                    UserError.Log.d(TAG, "\tProtocol : " + sslSession.getProtocol());
-                    UserError.Log.d(TAG, "\tCipher suite : " + sslSession.getCipherSuite());
-                }
+                UserError.Log.d(TAG, "SSLSession :");
+                UserError.Log.d(TAG, "\tProtocol : " + sslSession.getProtocol());
+                UserError.Log.d(TAG, "\tCipher suite : " + sslSession.getCipherSuite());
             } catch (SSLHandshakeException e) {
                 UserError.Log.e(TAG, "SSL ERROR: " + e.toString());
                 return;
             } catch (Exception e) {
                 UserError.Log.e(TAG, "SSL unknown error: " + e);
                 return;
+            } finally {
+                JoH.releaseWakeLock(wl);
             }
+        }
 
-            // get the set password if any
-            final String secret = Pref.getStringDefaultBlank("xdrip_webservice_secret");
-            final String hashedSecret = hashPassword(secret);
-
-            final boolean authNeeded = hashedSecret != null && !socket.getInetAddress().isLoopbackAddress();
-            final TriState secretCheckResult = new TriState();
-
-
-            String route = null;
+        final InputStream input = new BufferedInputStream(socket.getInputStream());
+        final OutputStream output = socket.getOutputStream();
+        final StringBuilder line = new StringBuilder();
 
-            // Read HTTP headers and parse out the route.
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            String line;
+        try {
+            for (int served = 0; served < MAX_KEEP_ALIVE_REQUESTS; served++) {
+                if (served > 0 && !awaitNextRequest(socket, input, pool)) {
+                    return; // idle too long or a worker is wanted
+                }
+                final Request request = readRequest(input, line);
+                if (request == null) return; // connection closed or nothing useful received
+                if (served > 0) reused.incrementAndGet();
+
+                final PowerManager.WakeLock wl = JoH.getWakeLock("webservice-handler", 20000);
+                try {
+                    // give up the worker if others are queued for one
+                    final boolean keepAlive = isRunning && request.wantsKeepAlive()
+                            && pool.getQueue().isEmpty() && served + 1 < MAX_KEEP_ALIVE_REQUESTS;
+                    if (!respond(socket, request, output, keepAlive)) return;
+                    if (!keepAlive) return;
+                } finally {
+                    JoH.releaseWakeLock(wl);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            UserError.Log.d(TAG, "Got socket timeout: " + e);
+        } catch (NullPointerException e) {
+            UserError.Log.wtf(TAG, "Got null pointer exception: " + e);
+        }
+    }
 
-            boolean headersOnly = false;
-            int lineCount = 0;
-            while (!TextUtils.isEmpty(line = reader.readLine()) && lineCount < 50) {
+    // wait for the next request on an idle connection, giving up early if others are queued for a worker
+    private boolean awaitNextRequest(final Socket socket, final InputStream input, final ThreadPoolExecutor pool) throws IOException {
+        final long deadline = JoH.tsl() + KEEP_ALIVE_TIMEOUT;
+        socket.setSoTimeout(IDLE_CHECK_INTERVAL);
+        try {
+            while (true) {
+                input.mark(1);
+                try {
+                    if (input.read() < 0) return false;
+                    input.reset();
+                    return true;
+                } catch (SocketTimeoutException e) {
+                    if (!isRunning || !pool.getQueue().isEmpty() || JoH.tsl() >= deadline) return false;
+                }
+            }
+        } finally {
+            socket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+        }
+    }
 
-                if (line.startsWith("GET /") || line.startsWith("HEAD /")) {
-                    int start = line.indexOf('/') + 1;
-                    int end = line.indexOf(' ', start);
-                    if (start < line.length()) {
-                        route = line.substring(start, end);
-                        UserError.Log.d(TAG, "Received request for: " + route);
-                        //if (hashedSecret == null) break; // we can't optimize as we always need to look for api-secret even if server doesn't use it
+    // read the request line and headers, null if the connection closed before a complete request
+    private static Request readRequest(final InputStream input, final StringBuilder line) throws IOException {
+        final Request request = new Request();
+        int lineCount = 0;
+        while (true) {
+            if (!readLine(input, line)) return null;
+            if (line.length() == 0) {
+                if (lineCount == 0) continue; // tolerate stray line breaks between requests
+                break;
+            }
+            if (lineCount == 0) {
+                parseRequestLine(request, line.toString());
+            } else if (lineCount < MAX_HEADER_LINES) {
+                final int colon = line.indexOf(":");
+                if (colon > 0) {
+                    final String name = line.substring(0, colon).trim();
+                    final String value = line.substring(colon + 1).trim();
+                    if (name.equalsIgnoreCase("api-secret")) {
+                        request.apiSecret = value;
+                    } else if (name.equalsIgnoreCase("connection")) {
+                        request.connection = value;
+                    } else if (name.equalsIgnoreCase("if-none-match")) {
+                        request.ifNoneMatch = value;
                     }
-
-                    headersOnly = line.startsWith("HEAD /");
-                } else if (line.toLowerCase().startsWith(("api-secret"))) {
-                    final String requestSecret[] = line.split(": ");
-                    if (requestSecret.length < 2) continue;
-                    secretCheckResult.set(hashedSecret != null && hashedSecret.equalsIgnoreCase(requestSecret[1]));
-                    break; // last and only header checked and will appear after GET request
                 }
-                lineCount++;
             }
+            lineCount++;
+        }
+        return request;
+    }
 
-            // Output stream that we send the response to
-            output = new CRLFPrintStream(socket.getOutputStream());
+    private static void parseRequestLine(final Request request, final String line) {
+        if (line.startsWith("GET /") || line.startsWith("HEAD /")) {
+            final int start = line.indexOf('/') + 1;
+            int end = line.indexOf(' ', start);
+            if (end < 0) end = line.length();
+            request.route = line.substring(start, end);
+            request.headersOnly = line.startsWith("HEAD /");
+            request.http11 = line.endsWith("HTTP/1.1");
+            UserError.Log.d(TAG, "Received request for: " + request.route);
+        }
+    }
 
-            // Prepare the content to send.
-            if (null == route) {
-                writeServerError(output);
-                return;
+    // read a line terminated by LF, dropping any CR, false at end of stream
+    private static boolean readLine(final InputStream input, final StringBuilder line) throws IOException {
+        line.setLength(0);
+        int c;
+        while ((c = input.read()) != -1) {
+            if (c == '\n') return true;
+            if (c != '\r' && line.length() < MAX_LINE_LENGTH) {
+                line.append((char) c);
             }
+        }
+        return line.length() > 0;
+    }
 
-            final WebResponse response;
+    // generate and send a response, false if the connection should be closed
+    private boolean respond(final Socket socket, final Request request, final OutputStream output, final boolean keepAlive) throws IOException {
+        requests.incrementAndGet();
 
-            if (secretCheckResult.isFalse() || (authNeeded && !secretCheckResult.isTrue())) {
-                final String failureMessage = "Authentication failed - check api-secret\n"
-                        + "\n" + (authNeeded ? "secret is required " : "secret is not required")
-                        + "\n" + secretCheckResult.trinary("no secret supplied", "supplied secret matches", "supplied secret doesn't match")
-                        + "\n" + "Your address: " + socket.getInetAddress().toString()
-                        + "\n\n";
-                if (JoH.ratelimit("web-auth-failure", 10)) {
-                    UserError.Log.e(TAG, failureMessage);
-                }
-                response = new WebResponse(failureMessage, 403, "text/plain");
-                JoH.threadSleep(1000 + (300 * thread_count.get()));
-            } else {
-                response = ((RouteFinder) Singleton.get("RouteFinder")).handleRoute(route, socket.getInetAddress());
-            }
+        // Prepare the content to send.
+        if (null == request.route) {
+            writeServerError(output);
+            return false;
+        }
 
-            // if we didn't manage to generate a response
-            if (response == null) {
-                writeServerError(output);
-                return;
-            }
+        // get the set password if any
+        final String secret = Pref.getStringDefaultBlank("xdrip_webservice_secret");
+        final String hashedSecret = hashPassword(secret);
 
-            // if the response bytes are null
-            if (response.bytes == null) {
-                writeServerError(output);
-                return;
-            }
-            // Send out the content.
-            output.println("HTTP/1.0 " + response.resultCode + " " + response.getResultDesc());
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                output.println("Date: " + rfc7231formatter.format(ZonedDateTime.now(ZoneOffset.UTC)));
-            }
-            output.println("Access-Control-Allow-Origin: *");
-            output.println("Content-Type: " + response.mimeType);
-            output.println("Content-Length: " + response.bytes.length);
-            output.println();
-            if (!headersOnly) {
-                output.write(response.bytes);
+        final boolean authNeeded = hashedSecret != null && !socket.getInetAddress().isLoopbackAddress();
+        final TriState secretCheckResult = new TriState();
+        if (request.apiSecret != null) {
+            secretCheckResult.set(hashedSecret != null && hashedSecret.equalsIgnoreCase(request.apiSecret));
+        }
+
+        final WebResponse response;
+
+        if (secretCheckResult.isFalse() || (authNeeded && !secretCheckResult.isTrue())) {
+            final String failureMessage = "Authentication failed - check api-secret\n"
+                    + "\n" + (authNeeded ? "secret is required " : "secret is not required")
+                    + "\n" + secretCheckResult.trinary("no secret supplied", "supplied secret matches", "supplied secret doesn't match")
+                    + "\n" + "Your address: " + socket.getInetAddress().toString()
+                    + "\n\n";
+            if (JoH.ratelimit("web-auth-failure", 10)) {
+                UserError.Log.e(TAG, failureMessage);
             }
+            response = new WebResponse(failureMessage, 403, "text/plain");
+            final ThreadPoolExecutor pool = workers;
+            JoH.threadSleep(1000 + (300 * (pool != null ? pool.getActiveCount() : 0)));
+        } else {
+            response = ((RouteFinder) Singleton.get("RouteFinder")).handleRoute(request.route, socket.getInetAddress());
+        }
+
+        // if we didn't manage to generate a response or the response bytes are null
+        if (response == null || response.bytes == null) {
+            writeServerError(output);
+            return false;
+        }
+
+        // client already has this exact payload
+        if (response.etag != null && request.ifNoneMatch != null && request.ifNoneMatch.contains(response.etag)) {
+            notModified.incrementAndGet();
+            output.write(responseHeader(response, 304, request.http11, keepAlive));
             output.flush();
+            UserError.Log.d(TAG, "Sent not modified for: " + response.etag);
+            return true;
+        }
 
-            UserError.Log.d(TAG, "Sent response: " + response.bytes.length + " bytes, code: " + response.resultCode + " mimetype: " + response.mimeType);
+        // Send out the content, header block then the body bytes without copying
+        output.write(responseHeader(response, response.resultCode, request.http11, keepAlive));
+        if (!request.headersOnly) {
+            output.write(response.bytes);
+        }
+        output.flush();
 
-        } catch (SocketTimeoutException e) {
-            UserError.Log.d(TAG, "Got socket timeout: " + e);
-        } catch (NullPointerException e) {
-            UserError.Log.wtf(TAG, "Got null pointer exception: " + e);
+        UserError.Log.d(TAG, "Sent response: " + response.bytes.length + " bytes, code: " + response.resultCode + " mimetype: " + response.mimeType);
+        return true;
+    }
 
-        } finally {
-            if (output != null) {
-                output.close();
-            }
-            if (reader != null) {
-                reader.close();
-            }
-            JoH.releaseWakeLock(wl);
+    private byte[] responseHeader(final WebResponse response, final int resultCode, final boolean http11, final boolean keepAlive) {
+        final boolean notModified = resultCode == 304;
+        final StringBuilder sb = new StringBuilder(192);
+        sb.append(http11 ? "HTTP/1.1 " : "HTTP/1.0 ").append(resultCode).append(' ').append(notModified ? "Not Modified" : response.getResultDesc()).append("\r\n");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            sb.append("Date: ").append(rfc7231formatter.format(ZonedDateTime.now(ZoneOffset.UTC))).append("\r\n");
+        }
+        sb.append("Access-Control-Allow-Origin: *\r\n");
+        if (response.etag != null) {
+            sb.append("ETag: ").append(response.etag).append("\r\n");
         }
+        if (!notModified) {
+            sb.append("Content-Type: ").append(response.mimeType).append("\r\n");
+            sb.append("Content-Length: ").append(response.bytes.length).append("\r\n");
+        }
+        sb.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        sb.append("\r\n");
+        return sb.toString().getBytes(Charsets.UTF_8);
     }
 
 
@@ -381,8 +511,8 @@ public class XdripWebService implements Runnable {
      *
      * @param output The output stream.
      */
-    private void writeServerError(final PrintStream output) {
-        output.println("HTTP/1.0 500 Internal Server Error");
+    private void writeServerError(final OutputStream output) throws IOException {
+        output.write(SERVER_ERROR);
         output.flush();
         UserError.Log.e(TAG, "Internal server error reply");
     }
@@ -390,5 +520,22 @@ public class XdripWebService implements Runnable {
     public static String hashPassword(final String secret) {
         return secret.isEmpty() ? null : Hashing.sha1().hashBytes(secret.getBytes(Charsets.UTF_8)).toString();
     }
-}
 
+    static long getNotModifiedCount() {
+        return notModified.get();
+    }
+
+    // engineering mode status
+    public static List<StatusItem> megaStatus() {
+        final List<StatusItem> l = new ArrayList<>();
+        final XdripWebService plain = instance;
+        if (plain == null) return l;
+        final ThreadPoolExecutor pool = plain.workers;
+        l.add(new StatusItem("Web service", pool != null ? pool.getActiveCount() + " active, " + pool.getQueue().size() + " queued" : "stopped"));
+        l.add(new StatusItem("Web service traffic", connections.get() + " connections, " + requests.get() + " requests, " + reused.get() + " reused"));
+        if (rejected.get() > 0) {
+            l.add(new StatusItem("Web service rejected", Long.toString(rejected.get()), StatusItem.Highlight.BAD));
+        }
+        return l;
+    }
+}
@@ -22,6 +22,7 @@ import com.eveningoutpost.dexdrip.utilitymodels.BgGraphBuilder;
 import com.eveningoutpost.dexdrip.utilitymodels.CollectionServiceStarter;
 import com.eveningoutpost.dexdrip.utilitymodels.ColorCache;
 import com.eveningoutpost.dexdrip.utilitymodels.IdempotentMigrations;
+import com.eveningoutpost.dexdrip.utilitymodels.PersistentStore;
 import com.eveningoutpost.dexdrip.utilitymodels.PlusAsyncExecutor;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
 import com.eveningoutpost.dexdrip.utilitymodels.VersionTracker;
@@ -136,6 +137,13 @@ public class xdrip extends Application {
     }
 
 
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        // app is going to background or memory is getting low so write out pending state
+        PersistentStore.flush();
+    }
+
     public static synchronized boolean isRunningTest() {
         if (null == isRunningTestCache) {
             boolean test_framework;
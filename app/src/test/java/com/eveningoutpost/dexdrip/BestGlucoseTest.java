@@ -0,0 +1,86 @@
+package com.eveningoutpost.dexdrip;
+
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.models.Sensor;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+import com.eveningoutpost.dexdrip.utilitymodels.Pref;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class BestGlucoseTest extends RobolectricTestWithConfig {
+
+    private Sensor sensor;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        BgReading.deleteALL();
+        Pref.setString("units", "mgdl");
+        sensor = Sensor.create(JoH.tsl() - Constants.DAY_IN_MS);
+    }
+
+    @After
+    public void tearDown() {
+        BgReading.deleteALL();
+        Pref.setString("units", "mgdl");
+    }
+
+    private void addReading(final long timestamp, final double value) {
+        assertWithMessage("inserted").that(BgReading.bgReadingInsertFromG5(value, timestamp)).isNotNull();
+    }
+
+    @Test
+    public void snapshotSharedUntilChangedTest() {
+        final long now = JoH.tsl();
+        addReading(now - 10 * Constants.MINUTE_IN_MS, 120);
+        addReading(now - 5 * Constants.MINUTE_IN_MS, 125);
+
+        final BestGlucose.DisplayGlucose first = BestGlucose.getDisplayGlucose();
+        assertWithMessage("first").that(first).isNotNull();
+        assertWithMessage("timestamp").that(first.timestamp).isEqualTo(now - 5 * Constants.MINUTE_IN_MS);
+        for (int i = 0; i < 10; i++) {
+            assertWithMessage("same instance " + i).that(BestGlucose.getDisplayGlucose()).isSameInstanceAs(first);
+        }
+
+        addReading(now, 130);
+        final BestGlucose.DisplayGlucose second = BestGlucose.getDisplayGlucose();
+        assertWithMessage("new reading recomputes").that(second).isNotSameInstanceAs(first);
+        assertWithMessage("new timestamp").that(second.timestamp).isEqualTo(now);
+        assertWithMessage("mgdl").that(second.doMgDl).isTrue();
+
+        Pref.setString("units", "mmol");
+        final BestGlucose.DisplayGlucose third = BestGlucose.getDisplayGlucose();
+        assertWithMessage("units change recomputes").that(third).isNotSameInstanceAs(second);
+        assertWithMessage("mmol").that(third.doMgDl).isFalse();
+        assertWithMessage("reused").that(BestGlucose.getDisplayGlucose()).isSameInstanceAs(third);
+
+        BestGlucose.invalidate();
+        assertWithMessage("invalidated").that(BestGlucose.getDisplayGlucose()).isNotSameInstanceAs(third);
+
+        assertWithMessage("status").that(BestGlucose.megaStatus().get(0).value).contains("hits");
+    }
+
+    @Test
+    public void burstReuseTest() {
+        final long now = JoH.tsl();
+        for (int i = 0; i < 50; i++) {
+            addReading(now - i * 5 * Constants.MINUTE_IN_MS, 100 + i);
+        }
+        BestGlucose.invalidate();
+        final long hits = BestGlucose.hits + BestGlucose.aged;
+        final long recomputes = BestGlucose.recomputes;
+        final BestGlucose.DisplayGlucose dg = BestGlucose.getDisplayGlucose();
+        assertWithMessage("display glucose").that(dg).isNotNull();
+        assertWithMessage("timestamp").that(dg.timestamp).isEqualTo(now);
+        for (int i = 0; i < 20; i++) {
+            BestGlucose.getDisplayGlucose();
+        }
+        assertWithMessage("recomputed once").that(BestGlucose.recomputes - recomputes).isEqualTo(1L);
+        assertWithMessage("reused for the rest").that(BestGlucose.hits + BestGlucose.aged - hits).isEqualTo(20L);
+    }
+}
@@ -0,0 +1,218 @@
+package com.eveningoutpost.dexdrip.cgm.nsfollow;
+
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.cgm.nsfollow.messages.Entry;
+import com.eveningoutpost.dexdrip.cgm.nsfollow.utils.NightscoutUrl;
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+import com.eveningoutpost.dexdrip.utilitymodels.Pref;
+import com.google.gson.GsonBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static com.eveningoutpost.dexdrip.utils.framework.RetrofitService.UNRELIABLE_INTEGER_FACTORY;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class NightscoutFollowIncrementalTest extends RobolectricTestWithConfig {
+
+    private static final int COUNT = 24;
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private long now;
+
+    // stands in for the Nightscout entries endpoint including conditional requests
+    private static class FakeNightscout implements Interceptor {
+        final List<long[]> entries = new ArrayList<>(); // date, sgv in ascending date order
+        int requests = 0;
+        int notModified = 0;
+        long bytes = 0;
+        long lastBytes = 0;
+        int lastEntries = 0;
+
+        void add(final long date, final int sgv) {
+            entries.add(new long[]{date, sgv});
+        }
+
+        @Override
+        public Response intercept(final Chain chain) throws IOException {
+            final Request request = chain.request();
+            final HttpUrl url = request.url();
+            final String gt = url.queryParameter("find[date][$gt]");
+            final long after = gt != null ? Long.parseLong(gt) : 0;
+            final int count = Integer.parseInt(url.queryParameter("count"));
+
+            // newest first like the real server
+            final StringBuilder json = new StringBuilder("[");
+            long newest = 0;
+            int selected = 0;
+            for (int i = entries.size() - 1; i >= 0 && selected < count; i--) {
+                final long[] entry = entries.get(i);
+                if (entry[0] <= after) break;
+                if (selected > 0) json.append(",");
+                json.append("{\"_id\":\"").append(Long.toHexString(entry[0])).append("\",\"device\":\"test\",\"date\":").append(entry[0])
+                        .append(",\"sgv\":").append(entry[1]).append(",\"direction\":\"Flat\",\"type\":\"sgv\",\"filtered\":0,\"unfiltered\":0,\"noise\":1}");
+                newest = Math.max(newest, entry[0]);
+                selected++;
+            }
+            json.append("]");
+            final String body = json.toString();
+            final String etag = "W/\"" + Integer.toHexString(body.hashCode()) + "\"";
+
+            requests++;
+            final Response.Builder builder = new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .header("ETag", etag)
+                    .header("Last-Modified", httpDate(newest));
+            if (etag.equals(request.header("If-None-Match"))) {
+                notModified++;
+                lastBytes = 0;
+                lastEntries = 0;
+                return builder.code(304).message("Not Modified").body(ResponseBody.create(null, "")).build();
+            }
+            lastBytes = body.length();
+            lastEntries = selected;
+            bytes += lastBytes;
+            return builder.code(200).message("OK").body(ResponseBody.create(JSON, body)).build();
+        }
+
+        private static String httpDate(final long timestamp) {
+            final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format.format(new Date(timestamp));
+        }
+    }
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        BgReading.deleteALL();
+        now = JoH.tsl();
+    }
+
+    @After
+    public void tearDown() {
+        BgReading.deleteALL();
+        Pref.setBoolean("nsfollow_incremental", true);
+    }
+
+    private static NightscoutFollow.Nightscout service(final FakeNightscout server) {
+        return new Retrofit.Builder()
+                .baseUrl("http://localhost:1337/")
+                .client(new OkHttpClient.Builder().addInterceptor(server).build())
+                .addConverterFactory(GsonConverterFactory.create(new GsonBuilder().registerTypeAdapterFactory(UNRELIABLE_INTEGER_FACTORY).create()))
+                .build()
+                .create(NightscoutFollow.Nightscout.class);
+    }
+
+    // one follower poll done synchronously through the same callback path
+    private static Session poll(final NightscoutFollow.Nightscout service) throws IOException {
+        final Session session = new Session();
+        session.url = new NightscoutUrl("http://localhost:1337/");
+        final NightscoutCallback<List<Entry>> callback = new NightscoutCallback<>("NS entries test", session, () -> NightscoutFollow.entriesDownloaded(session, true));
+        final Call<List<Entry>> call = NightscoutFollow.entriesCall(service, session, COUNT);
+        callback.onResponse(call, call.execute());
+        return session;
+    }
+
+    private FakeNightscout serverWithTwoHours() {
+        final FakeNightscout server = new FakeNightscout();
+        for (int i = COUNT; i > 0; i--) {
+            server.add(now - i * 5 * Constants.MINUTE_IN_MS, 100 + i);
+        }
+        return server;
+    }
+
+    private static int stored() {
+        return BgReading.latestForGraph(1000, 0, Long.MAX_VALUE).size();
+    }
+
+    @Test
+    public void incrementalPollTest() throws IOException {
+        Pref.setBoolean("nsfollow_incremental", true);
+        final FakeNightscout server = serverWithTwoHours();
+        final NightscoutFollow.Nightscout service = service(server);
+
+        poll(service);
+        assertWithMessage("first poll gets everything").that(server.lastEntries).isEqualTo(COUNT);
+        assertWithMessage("first poll stored").that(EntryProcessor.lastInserted).isEqualTo(COUNT);
+        assertWithMessage("stored").that(stored()).isEqualTo(COUNT);
+
+        poll(service);
+        assertWithMessage("nothing newer").that(server.lastEntries).isEqualTo(0);
+
+        final Session unchanged = poll(service);
+        assertWithMessage("not modified").that(unchanged.notModified).isTrue();
+        assertWithMessage("not modified count").that(server.notModified).isEqualTo(1);
+        assertWithMessage("no body").that(server.lastBytes).isEqualTo(0L);
+
+        server.add(now, 150);
+        poll(service);
+        assertWithMessage("only the new entry").that(server.lastEntries).isEqualTo(1);
+        assertWithMessage("new entry stored").that(EntryProcessor.lastInserted).isEqualTo(1);
+        assertWithMessage("stored after new").that(stored()).isEqualTo(COUNT + 1);
+        assertWithMessage("newest").that(BgReading.last(true).calculated_value).isEqualTo(150d);
+    }
+
+    @Test
+    public void duplicatesSkippedTest() throws IOException {
+        Pref.setBoolean("nsfollow_incremental", false);
+        final FakeNightscout server = serverWithTwoHours();
+        final NightscoutFollow.Nightscout service = service(server);
+
+        poll(service);
+        assertWithMessage("first poll stored").that(EntryProcessor.lastInserted).isEqualTo(COUNT);
+        poll(service);
+        assertWithMessage("full download again").that(EntryProcessor.lastReceived).isEqualTo(COUNT);
+        assertWithMessage("nothing stored twice").that(EntryProcessor.lastInserted).isEqualTo(0);
+        assertWithMessage("stored").that(stored()).isEqualTo(COUNT);
+    }
+
+    @Test
+    public void transferComparisonTest() throws IOException {
+        final int polls = 12;
+        final long[] bytes = new long[2];
+        final int[] checked = new int[2];
+        final boolean[] modes = new boolean[]{false, true};
+        for (int mode = 0; mode < modes.length; mode++) {
+            final boolean incremental = modes[mode];
+            BgReading.deleteALL();
+            Pref.setBoolean("nsfollow_incremental", incremental);
+            final FakeNightscout server = serverWithTwoHours();
+            final NightscoutFollow.Nightscout service = service(server);
+            for (int i = 0; i < polls; i++) {
+                // a new reading every other poll
+                if (i % 2 == 1) server.add(now + i * Constants.MINUTE_IN_MS, 120);
+                poll(service);
+                checked[mode] += server.lastEntries;
+            }
+            bytes[mode] = server.bytes;
+            assertWithMessage("all stored " + incremental).that(stored()).isEqualTo(COUNT + polls / 2);
+        }
+        assertWithMessage("fewer bytes").that(bytes[1]).isLessThan(bytes[0]);
+        assertWithMessage("fewer entries checked").that(checked[1]).isLessThan(checked[0]);
+    }
+}
@@ -0,0 +1,158 @@
+package com.eveningoutpost.dexdrip.cloud.backup;
+
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.xdrip;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class ChunkedBackupTest extends RobolectricTestWithConfig {
+
+    private static File directory(final String name) {
+        final File dir = new File(xdrip.getAppContext().getCacheDir(), name);
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static void write(final File file, final byte[] data) throws IOException {
+        try (final FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(data);
+        }
+    }
+
+    private static byte[] read(final File file) throws IOException {
+        try (final FileInputStream inputStream = new FileInputStream(file)) {
+            return ChunkedBackup.readAll(inputStream);
+        }
+    }
+
+    private static byte[] makeDatabase(final int size) {
+        final byte[] data = new byte[size];
+        final Random random = new Random(1);
+        // compressible but not identical pages with some empty ones
+        for (int page = 0; page < size / 4096; page++) {
+            if (page % 10 == 9) continue;
+            for (int i = 0; i < 4096; i += 8) {
+                data[page * 4096 + i] = (byte) random.nextInt(256);
+            }
+        }
+        return data;
+    }
+
+    private static BackupMetaData backup(final ByteArrayOutputStream output, final ChunkStore store, final Set<String>[] referenced, final String... paths) {
+        final BackupMetaData metaData = new BackupMetaData();
+        metaData.sourceDevice = "test";
+        referenced[0] = ChunkedBackup.backup(output, store, metaData, paths);
+        return metaData;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void incrementalRoundTripTest() throws IOException {
+        final File source = directory("chunk-source");
+        final File restored = directory("chunk-restored");
+        final ChunkStore store = new DirectoryChunkStore(directory("chunk-store"));
+
+        final File database = new File(source, "DexDrip.db");
+        final File preferences = new File(source, "prefs.xml");
+        final byte[] data = makeDatabase(ChunkedBackup.CHUNK_SIZE * 6 + 1000);
+        write(database, data);
+        write(preferences, "<map/>".getBytes());
+
+        final Set<String>[] referenced = new Set[1];
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        final BackupMetaData firstMeta = backup(first, store, referenced, database.getPath(), preferences.getPath());
+        assertWithMessage("first referenced").that(referenced[0]).isNotNull();
+        assertWithMessage("first chunks").that(firstMeta.chunkCount).isEqualTo(8);
+        assertWithMessage("first all uploaded").that(firstMeta.chunksUploaded).isEqualTo(8);
+
+        // change a single page in the middle
+        data[ChunkedBackup.CHUNK_SIZE * 3 + 100]++;
+        write(database, data);
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        final BackupMetaData secondMeta = backup(second, store, referenced, database.getPath(), preferences.getPath());
+        assertWithMessage("second chunks").that(secondMeta.chunkCount).isEqualTo(8);
+        assertWithMessage("second only changed uploaded").that(secondMeta.chunksUploaded).isEqualTo(1);
+        assertWithMessage("old chunk removed").that(ChunkedBackup.removeUnreferenced(store, referenced[0])).isEqualTo(1);
+
+        // header as the backup activity reads it
+        final ByteArrayInputStream inputStream = new ByteArrayInputStream(second.toByteArray());
+        final BackupMetaData restoreMeta = new BackupMetaData();
+        restoreMeta.populateFromInputStream(inputStream);
+        assertWithMessage("looks okay").that(restoreMeta.looksOkay()).isTrue();
+        assertWithMessage("chunked").that(restoreMeta.chunked).isTrue();
+        assertWithMessage("stats in header").that(restoreMeta.chunksUploaded).isEqualTo(1);
+        assertWithMessage("bytes in header").that(restoreMeta.bytesUploaded).isEqualTo(secondMeta.bytesUploaded);
+
+        final List<String> files = ChunkedBackup.restore(inputStream, store, restoreMeta, restored);
+        assertWithMessage("restored files").that(files).hasSize(2);
+        assertWithMessage("database identical").that(read(new File(restored, "DexDrip.db"))).isEqualTo(data);
+        assertWithMessage("preferences identical").that(read(new File(restored, "prefs.xml"))).isEqualTo("<map/>".getBytes());
+    }
+
+    @Test
+    public void corruptChunkTest() throws IOException {
+        final File source = directory("chunk-corrupt-source");
+        final File storeDir = directory("chunk-corrupt-store");
+        final ChunkStore store = new DirectoryChunkStore(storeDir);
+        final File database = new File(source, "DexDrip.db");
+        write(database, makeDatabase(ChunkedBackup.CHUNK_SIZE));
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final BackupMetaData metaData = new BackupMetaData();
+        metaData.sourceDevice = "test";
+        assertWithMessage("backup").that(ChunkedBackup.backup(output, store, metaData, database.getPath())).hasSize(1);
+
+        // swap in a chunk with different content under the same name
+        final String name = store.list().iterator().next();
+        store.put(name, ChunkedBackup.encodeChunk(new byte[100], metaData.OB1));
+
+        final ByteArrayInputStream inputStream = new ByteArrayInputStream(output.toByteArray());
+        final BackupMetaData restoreMeta = new BackupMetaData();
+        restoreMeta.populateFromInputStream(inputStream);
+        final File restored = directory("chunk-corrupt-restored");
+        assertWithMessage("restore fails").that(ChunkedBackup.restore(inputStream, store, restoreMeta, restored)).isNull();
+        assertWithMessage("exception").that(restoreMeta.exception).isNotNull();
+        assertWithMessage("partial file removed").that(new File(restored, "DexDrip.db").exists()).isFalse();
+    }
+
+    @Test
+    public void incrementalCostTest() throws IOException {
+        final File source = directory("chunk-timing-source");
+        final File database = new File(source, "DexDrip.db");
+        final byte[] data = makeDatabase(32 * 1024 * 1024);
+        write(database, data);
+        final ChunkStore store = new DirectoryChunkStore(directory("chunk-timing-store"));
+
+        long start = System.nanoTime();
+        final BackupMetaData first = new BackupMetaData();
+        first.sourceDevice = "test";
+        ChunkedBackup.backup(new ByteArrayOutputStream(), store, first, database.getPath());
+        final long full = System.nanoTime() - start;
+        assertWithMessage("all uploaded").that(first.chunksUploaded).isEqualTo(data.length / ChunkedBackup.CHUNK_SIZE);
+
+        data[data.length / 2]++;
+        write(database, data);
+        start = System.nanoTime();
+        final BackupMetaData metaData = new BackupMetaData();
+        metaData.sourceDevice = "test";
+        ChunkedBackup.backup(new ByteArrayOutputStream(), store, metaData, database.getPath());
+        final long incremental = System.nanoTime() - start;
+
+        assertWithMessage("one changed").that(metaData.chunksUploaded).isEqualTo(1);
+        assertWithMessage("bytes uploaded").that(metaData.bytesUploaded * (first.chunksUploaded / 2)).isLessThan(first.bytesUploaded);
+        assertWithMessage("time saved").that(metaData.timeSavedMs).isGreaterThan(0L);
+        assertWithMessage("incremental no slower").that(incremental).isAtMost(full);
+    }
+}
@@ -0,0 +1,195 @@
+package com.eveningoutpost.dexdrip.g5model;
+
+import android.content.Intent;
+
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.models.Sensor;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+import com.eveningoutpost.dexdrip.utilitymodels.Intents;
+import com.eveningoutpost.dexdrip.utilitymodels.Pref;
+import com.eveningoutpost.dexdrip.utilitymodels.UploaderQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.IntToLongFunction;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class BackFillReplayTest extends RobolectricTestWithConfig {
+
+    private static final int RECORD_SIZE = 8;
+    private static final int PACKET_PAYLOAD = 18;
+    private static final byte STATE_OK = 0x06;
+    private static final byte STATE_WARMING_UP = 0x02;
+
+    private long now;
+    private long txStart;
+    private Sensor sensor;
+    private IntToLongFunction toTime;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        BgReading.deleteALL();
+        now = JoH.tsl();
+        sensor = Sensor.create(now - 3 * Constants.DAY_IN_MS);
+        // transmitter clock started ten days ago, dex time is seconds since then
+        txStart = now - 10 * Constants.DAY_IN_MS;
+        toTime = dexTime -> txStart + dexTime * 1000L;
+    }
+
+    @After
+    public void tearDown() {
+        BgReading.deleteALL();
+    }
+
+    private int dexTime(final long timestamp) {
+        return (int) ((timestamp - txStart) / 1000);
+    }
+
+    // packets as received from the backfill characteristic, sequence and spare byte then the stream
+    private static List<byte[]> capture(final int[] dexTimes, final int[] glucose, final byte[] states) {
+        final ByteBuffer stream = ByteBuffer.allocate(4 + dexTimes.length * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        stream.putInt(dexTimes.length * RECORD_SIZE);
+        for (int i = 0; i < dexTimes.length; i++) {
+            stream.putInt(dexTimes[i]);
+            stream.putShort((short) glucose[i]);
+            stream.put(states[i]);
+            stream.put((byte) 0); // trend
+        }
+        final byte[] bytes = stream.array();
+        final List<byte[]> packets = new ArrayList<>();
+        int sequence = 1;
+        for (int offset = 0; offset < bytes.length; offset += PACKET_PAYLOAD) {
+            final int length = Math.min(PACKET_PAYLOAD, bytes.length - offset);
+            final byte[] packet = new byte[length + 2];
+            packet[0] = (byte) sequence++;
+            System.arraycopy(bytes, offset, packet, 2, length);
+            packets.add(packet);
+        }
+        return packets;
+    }
+
+    private List<byte[]> captureEvery5Minutes(final long from, final long to, final long shift) {
+        final int count = (int) ((to - from) / (5 * Constants.MINUTE_IN_MS)) + 1;
+        final int[] dexTimes = new int[count];
+        final int[] glucose = new int[count];
+        final byte[] states = new byte[count];
+        for (int i = 0; i < count; i++) {
+            dexTimes[i] = dexTime(from + i * 5 * Constants.MINUTE_IN_MS + shift);
+            glucose[i] = 100 + (i % 60);
+            states[i] = STATE_OK;
+        }
+        return capture(dexTimes, glucose, states);
+    }
+
+    private static List<BackFillStream.Backsie> replay(final List<byte[]> packets) {
+        final BackFillStream stream = new BackFillStream();
+        for (final byte[] packet : packets) {
+            stream.pushNew(packet);
+        }
+        return stream.decode();
+    }
+
+    private void addReading(final long timestamp, final double value) {
+        final BgReading reading = BgReading.createFromG5(value, timestamp, sensor, null);
+        reading.uuid = UUID.randomUUID().toString();
+        reading.saveit();
+    }
+
+    @Test
+    public void fullBackfillTest() {
+        final List<BackFillStream.Backsie> backsies = replay(captureEvery5Minutes(now - 24 * Constants.HOUR_IN_MS + Constants.MINUTE_IN_MS, now, 0));
+        assertWithMessage("decoded").that(backsies).hasSize(288);
+
+        final BackFillMerge.Result result = BackFillMerge.merge(backsies, toTime, true, now);
+        assertWithMessage("all added").that(result.inserted).hasSize(288);
+        for (int i = 1; i < result.inserted.size(); i++) {
+            assertWithMessage("in order " + i).that(result.inserted.get(i).timestamp).isGreaterThan(result.inserted.get(i - 1).timestamp);
+        }
+        assertWithMessage("stored").that(BgReading.latestTimestampsBySize(500)).hasLength(288);
+
+        // the same stream again adds nothing
+        final BackFillMerge.Result again = BackFillMerge.merge(backsies, toTime, true, now);
+        assertWithMessage("nothing added").that(again.inserted).isEmpty();
+        assertWithMessage("all existing").that(again.existing).isEqualTo(288);
+    }
+
+    @Test
+    public void fillsGapOnlyTest() {
+        final long from = now - 3 * Constants.HOUR_IN_MS;
+        // readings every 5 minutes with the hour between 2 and 1 hours ago missing
+        for (long t = from; t <= now; t += 5 * Constants.MINUTE_IN_MS) {
+            if (t > now - 2 * Constants.HOUR_IN_MS && t < now - Constants.HOUR_IN_MS) continue;
+            addReading(t, 120);
+        }
+        final int before = BgReading.latestTimestampsBySize(500).length;
+
+        // backfill covers the whole period with transmitter times a little off ours
+        final BackFillMerge.Result result = BackFillMerge.merge(replay(captureEvery5Minutes(from, now, 30 * Constants.SECOND_IN_MS)), toTime, false, now + Constants.MINUTE_IN_MS);
+        assertWithMessage("gap filled").that(result.inserted).hasSize(11);
+        for (final BgReading bgr : result.inserted) {
+            assertWithMessage("inside gap").that(bgr.timestamp).isGreaterThan(now - 2 * Constants.HOUR_IN_MS);
+            assertWithMessage("inside gap").that(bgr.timestamp).isLessThan(now - Constants.HOUR_IN_MS);
+        }
+        assertWithMessage("stored").that(BgReading.latestTimestampsBySize(500)).hasLength(before + 11);
+    }
+
+    @Test
+    public void filtersStreamTest() {
+        final long recent = now - 30 * Constants.MINUTE_IN_MS;
+        final List<byte[]> packets = capture(
+                new int[]{dexTime(recent), dexTime(recent + 2 * Constants.MINUTE_IN_MS), dexTime(recent + 10 * Constants.MINUTE_IN_MS),
+                        dexTime(now + Constants.HOUR_IN_MS), dexTime(now - 8 * Constants.HOUR_IN_MS)},
+                new int[]{110, 111, 112, 113, 114},
+                new byte[]{STATE_OK, STATE_OK, STATE_WARMING_UP, STATE_OK, STATE_OK});
+        final List<BackFillStream.Backsie> backsies = replay(packets);
+        assertWithMessage("warm up not decoded").that(backsies).hasSize(4);
+
+        final BackFillMerge.Result result = BackFillMerge.merge(backsies, toTime, false, now);
+        assertWithMessage("future and too old ignored").that(result.ignored).isEqualTo(2);
+        assertWithMessage("close pair added once").that(result.inserted).hasSize(1);
+        assertWithMessage("value").that(result.inserted.get(0).calculated_value).isEqualTo(110d);
+        assertWithMessage("source").that(result.inserted.get(0).source_info).contains("Backfill");
+    }
+
+    @Test
+    public void notifyBatchTest() {
+        Pref.setBoolean("cloud_storage_api_enable", true);
+        Pref.setBoolean("broadcast_data_through_intents", true);
+        try {
+            UploaderQueue.emptyQueue();
+            final BackFillMerge.Result result = BackFillMerge.merge(replay(captureEvery5Minutes(now - 2 * Constants.HOUR_IN_MS, now, 0)), toTime, false, now);
+            BgReading.notifyAndSyncBatch(result.inserted);
+            assertWithMessage("one upload entry each").that(UploaderQueue.getPendingbyType("BgReading", UploaderQueue.NIGHTSCOUT_RESTAPI, 500))
+                    .hasSize(result.inserted.size());
+
+            final List<Long> broadcast = new ArrayList<>();
+            for (final Intent intent : Shadows.shadowOf(RuntimeEnvironment.application).getBroadcastIntents()) {
+                if (Intents.ACTION_NEW_BG_ESTIMATE.equals(intent.getAction())) {
+                    broadcast.add(intent.getLongExtra(Intents.EXTRA_TIMESTAMP, 0));
+                }
+            }
+            final List<Long> inserted = new ArrayList<>();
+            for (final BgReading bgr : result.inserted) {
+                inserted.add(bgr.timestamp);
+            }
+            assertWithMessage("each reading broadcast oldest first").that(broadcast).containsExactlyElementsIn(inserted).inOrder();
+        } finally {
+            UploaderQueue.emptyQueue();
+            Pref.setBoolean("cloud_storage_api_enable", false);
+            Pref.setBoolean("broadcast_data_through_intents", false);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.eveningoutpost.dexdrip.influxdb;
+
+import com.activeandroid.Model;
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class InfluxDBLineWriterTest extends RobolectricTestWithConfig {
+
+    private static final HttpUrl URL = InfluxDBLineWriter.getWriteUrl("http://localhost:8086/", "xdrip", "user", "pass");
+
+    private static final InfluxDBLineWriter.LineFormatter FORMATTER = (record, lines) -> {
+        final BgReading bg = (BgReading) record;
+        lines.measurement("glucose")
+                .field("value_mgdl", (long) bg.calculated_value)
+                .field("direction", "Flat")
+                .time(bg.timestamp);
+    };
+
+    // stands in for the server, code chooses the response for each request number
+    private static class FakeServer implements Interceptor {
+        final List<Integer> lineCounts = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger requests = new AtomicInteger();
+        private final ResponseCode code;
+        volatile long latency;
+
+        interface ResponseCode {
+            int code(int request);
+        }
+
+        FakeServer(final ResponseCode code) {
+            this.code = code;
+        }
+
+        @Override
+        public Response intercept(final Chain chain) throws IOException {
+            final Buffer buffer = new Buffer();
+            chain.request().body().writeTo(buffer);
+            final String text = Okio.buffer(new GzipSource(buffer)).readUtf8();
+            final int request = requests.incrementAndGet();
+            if (latency > 0) {
+                JoH.threadSleep(latency);
+            }
+            final int responseCode = code.code(request);
+            if (responseCode == 204) {
+                lineCounts.add(text.split("\n").length);
+            }
+            return new Response.Builder()
+                    .request(chain.request())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(responseCode)
+                    .message(responseCode == 204 ? "No Content" : "Error")
+                    .body(ResponseBody.create(null, ""))
+                    .build();
+        }
+    }
+
+    private static List<BgReading> makeReadings(final int count) {
+        final List<BgReading> readings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final BgReading bg = new BgReading();
+            bg.timestamp = 1600000000000L + i * 5 * Constants.MINUTE_IN_MS;
+            bg.calculated_value = 100 + (i % 50);
+            readings.add(bg);
+        }
+        return readings;
+    }
+
+    private static InfluxDBLineWriter writer(final FakeServer server, final int chunkSize, final int concurrency) {
+        final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(server).build();
+        return new InfluxDBLineWriter(client, URL, FORMATTER, chunkSize, concurrency).setRetryDelay(1);
+    }
+
+    @Test
+    public void lineProtocolTest() {
+        final LineProtocol lines = new LineProtocol();
+        lines.measurement("my glucose")
+                .tag("device", "xDrip-Blue,tooth")
+                .tag("empty", "")
+                .field("value", 5.5)
+                .field("count", 3)
+                .field("note", "say \"hi\"")
+                .field("bad", Double.NaN)
+                .time(1000);
+        lines.measurement("nothing").field("bad", Double.NaN).time(2000);
+        assertWithMessage("line").that(lines.toString())
+                .isEqualTo("my\\ glucose,device=xDrip-Blue\\,tooth value=5.5,count=3i,note=\"say \\\"hi\\\"\" 1000\n");
+        assertWithMessage("line count").that(lines.getLineCount()).isEqualTo(1);
+        assertWithMessage("url").that(URL.toString())
+                .isEqualTo("http://localhost:8086/write?db=xdrip&rp=autogen&precision=ms&consistency=all&u=user&p=pass");
+    }
+
+    @Test
+    public void chunkedAcknowledgeTest() {
+        final FakeServer server = new FakeServer(request -> 204);
+        final List<Integer> acknowledged = Collections.synchronizedList(new ArrayList<>());
+        final boolean result = writer(server, 100, 3).write(makeReadings(1050), records -> acknowledged.add(records.size()));
+        assertWithMessage("result").that(result).isTrue();
+        assertWithMessage("requests").that(server.requests.get()).isEqualTo(11);
+        int total = 0;
+        for (final int size : acknowledged) total += size;
+        assertWithMessage("all acknowledged").that(total).isEqualTo(1050);
+        int lines = 0;
+        for (final int count : server.lineCounts) lines += count;
+        assertWithMessage("all lines received").that(lines).isEqualTo(1050);
+        assertWithMessage("metrics").that(InfluxDBLineWriter.last_run).startsWith("1050/1050 records");
+    }
+
+    @Test
+    public void retryTest() {
+        // the second request fails once then goes through
+        final FakeServer server = new FakeServer(request -> request == 2 ? 503 : 204);
+        final List<Integer> acknowledged = new ArrayList<>();
+        assertWithMessage("result").that(writer(server, 100, 1).write(makeReadings(300), records -> acknowledged.add(records.size()))).isTrue();
+        assertWithMessage("requests").that(server.requests.get()).isEqualTo(4);
+        assertWithMessage("acknowledged").that(acknowledged).containsExactly(100, 100, 100);
+        assertWithMessage("metrics").that(InfluxDBLineWriter.last_run).contains("1 retries");
+    }
+
+    @Test
+    public void resumesAfterRejectTest() {
+        // bad request is not retried and the later chunks are left for next time
+        final FakeServer server = new FakeServer(request -> request == 2 ? 400 : 204);
+        final List<Model> acknowledged = new ArrayList<>();
+        final List<BgReading> readings = makeReadings(500);
+        assertWithMessage("result").that(writer(server, 100, 1).write(readings, acknowledged::addAll)).isFalse();
+        assertWithMessage("requests").that(server.requests.get()).isEqualTo(2);
+        assertWithMessage("first chunk acknowledged").that(acknowledged).containsExactlyElementsIn(readings.subList(0, 100)).inOrder();
+        assertWithMessage("error").that(InfluxDBLineWriter.last_error).startsWith("400");
+    }
+
+    @Test
+    public void backlogConcurrencyTest() {
+        final List<BgReading> readings = makeReadings(8640); // 30 days
+        final long[] elapsed = new long[2];
+        final int[] concurrencies = new int[]{1, 4};
+        for (int i = 0; i < concurrencies.length; i++) {
+            final FakeServer server = new FakeServer(request -> 204);
+            server.latency = 50;
+            final List<Model> acknowledged = new ArrayList<>();
+            final long start = System.nanoTime();
+            assertWithMessage("result " + concurrencies[i]).that(writer(server, 500, concurrencies[i]).write(readings, acknowledged::addAll)).isTrue();
+            elapsed[i] = System.nanoTime() - start;
+            assertWithMessage("requests " + concurrencies[i]).that(server.requests.get()).isEqualTo((readings.size() + 499) / 500);
+            int lines = 0;
+            for (final int count : server.lineCounts) {
+                lines += count;
+            }
+            assertWithMessage("lines " + concurrencies[i]).that(lines).isEqualTo(readings.size());
+            assertWithMessage("acknowledged " + concurrencies[i]).that(acknowledged).containsExactlyElementsIn(readings);
+        }
+        // with the server latency dominating, parallel chunks finish well ahead of serial ones
+        assertWithMessage("concurrent faster").that(elapsed[1] * 2).isLessThan(elapsed[0]);
+    }
+}
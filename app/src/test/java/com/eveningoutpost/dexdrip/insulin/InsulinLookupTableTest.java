@@ -0,0 +1,48 @@
+package com.eveningoutpost.dexdrip.insulin;
+
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+/**
+ * Checks the precomputed insulin curve tables agree with the analytic curves.
+ */
+public class InsulinLookupTableTest {
+
+    private static Insulin makeInsulin(final String onset, final String peak, final String duration) {
+        final JsonObject curve = new JsonObject();
+        curve.addProperty("onset", onset);
+        curve.addProperty("peak", peak);
+        curve.addProperty("duration", duration);
+        return new LinearTrapezoidInsulin("test", "Test", new ArrayList<>(), "U100", curve);
+    }
+
+    @Test
+    public void wholeMinutesMatchExactlyTest() {
+        for (final Insulin insulin : new Insulin[]{makeInsulin("2", "45", "300"), makeInsulin("15", "60-120", "1440")}) {
+            for (long t = -10; t < insulin.getMaxEffect() + 10; t++) {
+                assertWithMessage("iob at " + t).that(insulin.calculateIOB(t)).isEqualTo(insulin.calculateIOBAnalytic(t));
+                assertWithMessage("activity at " + t).that(insulin.calculateActivity(t)).isEqualTo(insulin.calculateActivityAnalytic(t));
+            }
+        }
+    }
+
+    @Test
+    public void interpolationErrorTest() {
+        final Insulin insulin = makeInsulin("2", "45", "300");
+        double maxIobError = 0;
+        double maxActivityError = 0;
+        for (double t = 0; t < insulin.getMaxEffect() + 5; t += 0.1) {
+            maxIobError = Math.max(maxIobError, Math.abs(insulin.calculateIOB(t) - insulin.calculateIOBAnalytic(t)));
+            maxActivityError = Math.max(maxActivityError, Math.abs(insulin.calculateActivity(t) - insulin.calculateActivityAnalytic(t)));
+        }
+        // iob is piecewise quadratic so error is bounded by curvature / 8 at one minute resolution
+        assertWithMessage("iob error").that(maxIobError).isLessThan(0.0001);
+        // activity is piecewise linear with whole minute knots
+        assertWithMessage("activity error").that(maxActivityError).isLessThan(0.000001);
+    }
+}
@@ -0,0 +1,116 @@
+package com.eveningoutpost.dexdrip.models;
+
+import com.activeandroid.query.Select;
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class BgReadingBulkIngestTest extends RobolectricTestWithConfig {
+
+    private static final long PRECISION = 290000;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        BgReading.deleteALL();
+    }
+
+    @After
+    public void tearDown() {
+        BgReading.deleteALL();
+    }
+
+    private static BgReading makeReading(final long timestamp, final double value) {
+        final BgReading bg = new BgReading();
+        bg.timestamp = timestamp;
+        bg.calculated_value = value;
+        bg.raw_data = value;
+        bg.uuid = UUID.randomUUID().toString();
+        return bg;
+    }
+
+    private static List<BgReading> makeBatch(final long end, final int count) {
+        final List<BgReading> batch = new ArrayList<>(count);
+        for (int i = count - 1; i >= 0; i--) {
+            batch.add(makeReading(end - i * 5 * Constants.MINUTE_IN_MS, 100 + (i % 50)));
+        }
+        return batch;
+    }
+
+    private static int countAll() {
+        return new Select().from(BgReading.class).count();
+    }
+
+    @Test
+    public void skipsDuplicatesTest() {
+        final long now = JoH.tsl();
+        final BgReading existing = makeReading(now - 10 * Constants.MINUTE_IN_MS, 120);
+        existing.save();
+
+        final List<BgReading> batch = new ArrayList<>();
+        final BgReading sameUuid = makeReading(now - 30 * Constants.MINUTE_IN_MS, 130);
+        sameUuid.uuid = existing.uuid;
+        batch.add(sameUuid);
+        batch.add(makeReading(now - 9 * Constants.MINUTE_IN_MS, 121)); // too close to existing
+        batch.add(makeReading(now - 20 * Constants.MINUTE_IN_MS, 110));
+        batch.add(makeReading(now - 19 * Constants.MINUTE_IN_MS, 111)); // too close to an earlier one in the batch
+        batch.add(makeReading(now, 125));
+        final BgReading repeated = makeReading(now - 40 * Constants.MINUTE_IN_MS, 100);
+        batch.add(repeated);
+        final BgReading repeatedCopy = makeReading(now - 50 * Constants.MINUTE_IN_MS, 100);
+        repeatedCopy.uuid = repeated.uuid;
+        batch.add(repeatedCopy);
+
+        final List<BgReading> inserted = BgReading.bulkIngest(batch, PRECISION, null, false, false);
+        assertWithMessage("inserted count").that(inserted).hasSize(3);
+        assertWithMessage("ascending order").that(inserted.get(0).timestamp).isEqualTo(repeatedCopy.timestamp);
+        assertWithMessage("database count").that(countAll()).isEqualTo(4);
+        assertWithMessage("window agrees").that(BgReading.latest(10, true)).hasSize(4);
+
+        // replaying the same batch changes nothing
+        assertWithMessage("replay").that(BgReading.bulkIngest(batch, PRECISION, null, false, false)).isEmpty();
+        assertWithMessage("database count after replay").that(countAll()).isEqualTo(4);
+    }
+
+    @Test
+    public void uncalculatedOnlyTest() {
+        final long now = JoH.tsl();
+        final BgReading uncalculated = makeReading(now - 10 * Constants.MINUTE_IN_MS, 0);
+        uncalculated.raw_data = 150;
+        uncalculated.save();
+        makeReading(now - 20 * Constants.MINUTE_IN_MS, 120).save();
+
+        final List<BgReading> batch = new ArrayList<>();
+        batch.add(makeReading(now - 10 * Constants.MINUTE_IN_MS + 1000, 149)); // matches the uncalculated one
+        batch.add(makeReading(now - 20 * Constants.MINUTE_IN_MS + 1000, 119)); // only calculated nearby
+        batch.add(makeReading(now - 19 * Constants.MINUTE_IN_MS, 118)); // minute data is kept
+        final List<BgReading> inserted = BgReading.bulkIngest(batch, 3 * Constants.MINUTE_IN_MS, null, true, false);
+        assertWithMessage("inserted count").that(inserted).hasSize(2);
+    }
+
+    @Test
+    public void noSensorTest() {
+        final List<BgReading> batch = makeBatch(JoH.tsl(), 5);
+        assertWithMessage("nothing without a sensor").that(BgReading.bulkIngest(batch, PRECISION, null, false)).isEmpty();
+        assertWithMessage("database count").that(countAll()).isEqualTo(0);
+        assertWithMessage("unlocked").that(BgReading.bulkIngest(batch, PRECISION, null, false, false)).hasSize(5);
+    }
+
+    @Test
+    public void largeBackfillTest() {
+        final int count = (int) (30 * Constants.DAY_IN_MS / (5 * Constants.MINUTE_IN_MS));
+        final List<BgReading> batch = makeBatch(JoH.tsl(), count);
+        assertWithMessage("inserted").that(BgReading.bulkIngest(batch, PRECISION, null, false, false)).hasSize(count);
+        assertWithMessage("database count").that(countAll()).isEqualTo(count);
+        assertWithMessage("replay").that(BgReading.bulkIngest(makeBatch(JoH.tsl(), count), PRECISION, null, false, false)).isEmpty();
+    }
+}
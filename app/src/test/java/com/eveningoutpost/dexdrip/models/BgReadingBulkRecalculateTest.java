@@ -0,0 +1,80 @@
+package com.eveningoutpost.dexdrip.models;
+
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class BgReadingBulkRecalculateTest extends RobolectricTestWithConfig {
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        BgReading.deleteALL();
+    }
+
+    @After
+    public void tearDown() {
+        BgReading.deleteALL();
+    }
+
+    private static List<BgReading> saveReadings(final int count) {
+        final List<BgReading> readings = new ArrayList<>(count);
+        final long now = JoH.tsl();
+        for (int i = 0; i < count; i++) {
+            final BgReading bg = new BgReading();
+            bg.timestamp = now - i * 5 * Constants.MINUTE_IN_MS;
+            bg.calculated_value = 100;
+            bg.filtered_calculated_value = i % 2 == 0 ? 100 : 90;
+            bg.age_adjusted_raw_value = 200 + i;
+            bg.raw_data = bg.age_adjusted_raw_value;
+            bg.uuid = UUID.randomUUID().toString();
+            bg.save();
+            readings.add(bg);
+        }
+        return readings;
+    }
+
+    @Test
+    public void blendedRewriteTest() {
+        final List<BgReading> readings = saveReadings(4);
+        final long version = BgReadingWindow.dataVersion();
+        final int denom = readings.size();
+
+        final List<BgReading> changed = BgReading.bulkRecalculate(readings, (bg, i) -> {
+            if (bg.age_adjusted_raw_value == 202) return Double.NaN; // as if without calibration
+            return ((bg.age_adjusted_raw_value * (denom - i)) + (bg.calculated_value * i)) / denom;
+        }, false);
+
+        assertWithMessage("changed count").that(changed).hasSize(3);
+        assertWithMessage("window invalidated").that(BgReadingWindow.dataVersion()).isNotEqualTo(version);
+
+        // position only counts readings which were recalculated
+        assertWithMessage("first").that(changed.get(0).calculated_value).isWithin(0.0001).of(200);
+        assertWithMessage("second").that(changed.get(1).calculated_value).isWithin(0.0001).of((201 * 3 + 100) / 4d);
+        assertWithMessage("fourth").that(changed.get(2).calculated_value).isWithin(0.0001).of((203 * 2 + 100 * 2) / 4d);
+
+        final BgReading first = BgReading.byUUID(readings.get(0).uuid);
+        assertWithMessage("saved").that(first.calculated_value).isWithin(0.0001).of(200);
+        assertWithMessage("filtered followed calculated").that(first.filtered_calculated_value).isWithin(0.0001).of(200);
+        assertWithMessage("real filtered kept").that(BgReading.byUUID(readings.get(1).uuid).filtered_calculated_value).isWithin(0.0001).of(90);
+        assertWithMessage("skipped untouched").that(BgReading.byUUID(readings.get(2).uuid).calculated_value).isWithin(0.0001).of(100);
+    }
+
+    @Test
+    public void withinMinMaxTest() {
+        final List<BgReading> readings = saveReadings(2);
+        final List<BgReading> changed = BgReading.bulkRecalculate(readings, (bg, i) -> 1000, true);
+        assertWithMessage("changed count").that(changed).hasSize(2);
+        assertWithMessage("clamped").that(BgReading.byUUID(readings.get(0).uuid).calculated_value).isWithin(0.0001).of(BgReading.BG_READING_MAXIMUM_VALUE);
+        assertWithMessage("nothing to do").that(BgReading.bulkRecalculate(readings, (bg, i) -> Double.NaN, false)).isEmpty();
+    }
+}
@@ -0,0 +1,157 @@
+package com.eveningoutpost.dexdrip.models;
+
+import com.activeandroid.query.Select;
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class BgReadingWindowTest extends RobolectricTestWithConfig {
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        BgReading.deleteALL();
+    }
+
+    @After
+    public void tearDown() {
+        BgReading.deleteALL();
+    }
+
+    private static BgReading addReading(final long timestamp, final double value) {
+        final BgReading reading = new BgReading();
+        reading.timestamp = timestamp;
+        reading.raw_data = value;
+        reading.calculated_value = value;
+        reading.uuid = UUID.randomUUID().toString();
+        reading.save();
+        BgReadingWindow.add(reading);
+        return reading;
+    }
+
+    private static List<BgReading> fromDatabase(final int number, final long start, final long end, final String order) {
+        return new Select()
+                .from(BgReading.class)
+                .where("timestamp >= ?", start)
+                .where("timestamp <= ?", end)
+                .where("calculated_value != 0")
+                .where("raw_data != 0")
+                .orderBy("timestamp " + order)
+                .limit(number)
+                .execute();
+    }
+
+    @Test
+    public void matchesDatabaseTest() {
+        final long now = JoH.tsl();
+        for (int i = 0; i < 100; i++) {
+            addReading(now - i * 5 * Constants.MINUTE_IN_MS, 100 + i);
+        }
+        BgReadingWindow.invalidate();
+        // window is loaded by the first query, further readings arrive through add()
+        BgReading.latestForGraph(1, now - Constants.HOUR_IN_MS, now);
+        addReading(now + Constants.MINUTE_IN_MS, 99);
+        addReading(now - 7 * Constants.MINUTE_IN_MS, 98); // out of order
+
+        final long start = now - 3 * Constants.HOUR_IN_MS;
+        final long end = now + Constants.HOUR_IN_MS;
+        assertWithMessage("descending").that(BgReadingWindow.range(50, start, end, false, null, false))
+                .containsExactlyElementsIn(fromDatabase(50, start, end, "desc")).inOrder();
+        assertWithMessage("ascending").that(BgReadingWindow.range(50, start, end, true, null, false))
+                .containsExactlyElementsIn(fromDatabase(50, start, end, "asc")).inOrder();
+        assertWithMessage("latest").that(BgReading.latest(3, true).get(0).calculated_value).isEqualTo(99);
+        assertWithMessage("outside window").that(BgReadingWindow.range(10, now - 10 * Constants.DAY_IN_MS, now, false, null, false)).isNull();
+    }
+
+    @Test
+    public void removalTest() {
+        final long now = JoH.tsl();
+        final BgReading first = addReading(now - 10 * Constants.MINUTE_IN_MS, 120);
+        addReading(now - 5 * Constants.MINUTE_IN_MS, 125);
+        assertWithMessage("two readings").that(BgReadingWindow.range(10, now - Constants.HOUR_IN_MS, now, false, null, false)).hasSize(2);
+        BgReadingWindow.remove(first.getId());
+        assertWithMessage("one reading").that(BgReadingWindow.range(10, now - Constants.HOUR_IN_MS, now, false, null, false)).hasSize(1);
+        BgReading.deleteALL();
+        assertWithMessage("no readings").that(BgReading.latestForGraph(10, now - Constants.HOUR_IN_MS, now)).isEmpty();
+    }
+
+    @Test
+    public void copiesTest() {
+        final long now = JoH.tsl();
+        addReading(now - 5 * Constants.MINUTE_IN_MS, 120);
+        addReading(now, 125);
+        final BgReading mine = BgReadingWindow.range(10, now - Constants.HOUR_IN_MS, now, false, null, false).get(0);
+        mine.calculated_value = 300;
+        final BgReading theirs = BgReadingWindow.range(10, now - Constants.HOUR_IN_MS, now, false, null, false).get(0);
+        assertWithMessage("not shared").that(theirs).isNotSameInstanceAs(mine);
+        assertWithMessage("change not seen").that(theirs.calculated_value).isEqualTo(125);
+        assertWithMessage("same row").that(theirs.getId()).isEqualTo(mine.getId());
+        assertWithMessage("uuid").that(theirs.uuid).isEqualTo(mine.uuid);
+    }
+
+    @Test
+    public void historyVersionTest() {
+        final long now = JoH.tsl();
+        addReading(now - 10 * Constants.MINUTE_IN_MS, 120);
+        BgReading.latestForGraph(1, now - Constants.HOUR_IN_MS, now);
+        long version = BgReadingWindow.historyVersion();
+        addReading(now, 125);
+        assertWithMessage("newest reading keeps history").that(BgReadingWindow.historyVersion()).isEqualTo(version);
+
+        final BgReading older = addReading(now - 5 * Constants.MINUTE_IN_MS, 122);
+        assertWithMessage("older insert changes history").that(BgReadingWindow.historyVersion()).isGreaterThan(version);
+
+        version = BgReadingWindow.historyVersion();
+        older.calculated_value = 140;
+        older.save();
+        BgReadingWindow.add(older);
+        assertWithMessage("in place change changes history").that(BgReadingWindow.historyVersion()).isGreaterThan(version);
+
+        version = BgReadingWindow.historyVersion();
+        BgReadingWindow.remove(older.getId());
+        assertWithMessage("removal changes history").that(BgReadingWindow.historyVersion()).isGreaterThan(version);
+    }
+
+    @Test
+    public void saveUpdatesWindowTest() {
+        final long now = JoH.tsl();
+        final BgReading reading = addReading(now, 120);
+        assertWithMessage("loaded").that(BgReading.latest(1, true).get(0).calculated_value_slope).isEqualTo(0d);
+        final long version = BgReadingWindow.dataVersion();
+
+        // as find_slope and the other calculations do after the insert
+        reading.calculated_value_slope = 0.5;
+        reading.saveit();
+        assertWithMessage("version").that(BgReadingWindow.dataVersion()).isGreaterThan(version);
+        assertWithMessage("slope seen straight away").that(BgReading.latest(1, true).get(0).calculated_value_slope).isEqualTo(0.5);
+
+        reading.timestamp = 0;
+        reading.saveit();
+        assertWithMessage("moved out of window").that(BgReadingWindow.range(10, now - Constants.HOUR_IN_MS, now, false, null, false)).isEmpty();
+    }
+
+    @Test
+    public void displayValuesTest() {
+        final long now = JoH.tsl();
+        addReading(now - 10 * Constants.MINUTE_IN_MS, 120);
+        final BgReading smoothed = addReading(now - 5 * Constants.MINUTE_IN_MS, 125);
+        addReading(now, 130);
+        smoothed.dg_mgdl = 127;
+        smoothed.saveit();
+
+        final double[] values = BgReading.displayValuesForSensorAsc(10, now - Constants.HOUR_IN_MS, now, true);
+        assertWithMessage("oldest first with display glucose").that(values).usingExactEquality().containsExactly(120d, 127d, 130d).inOrder();
+        BgReadingWindow.invalidate();
+        final double[] fromDatabase = BgReadingWindow.displayValues(10, now - 10 * Constants.DAY_IN_MS, now, null);
+        assertWithMessage("outside window").that(fromDatabase).isNull();
+        assertWithMessage("limit").that(BgReading.displayValuesForSensorAsc(2, now - Constants.HOUR_IN_MS, now, true)).hasLength(2);
+    }
+}
@@ -3,14 +3,17 @@ package com.eveningoutpost.dexdrip.models;
 import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
 import com.eveningoutpost.dexdrip.insulin.Insulin;
 import com.eveningoutpost.dexdrip.insulin.InsulinManager;
+import com.eveningoutpost.dexdrip.utils.RetentionEngine;
 
 import org.junit.Test;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static com.eveningoutpost.dexdrip.utilitymodels.Constants.DAY_IN_MS;
+import static com.eveningoutpost.dexdrip.utilitymodels.Constants.HOUR_IN_MS;
 import static com.eveningoutpost.dexdrip.utilitymodels.Constants.MONTH_IN_MS;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
@@ -150,10 +153,64 @@ public class TreatmentsTest extends RobolectricTestWithConfig {
             Treatments.createForTest(ts - offset, 1.0);
         }
         val before = Treatments.latestForGraph(1000, 0, ts + DAY_IN_MS).size();
-        Treatments.cleanup(5);
+        RetentionEngine.run(Collections.singletonList(Treatments.retentionRule(5)), false);
         val after = Treatments.latestForGraph(1000, 0, ts + DAY_IN_MS).size();
         assertWithMessage("test before").that(before).isEqualTo(30);
         assertWithMessage("test after").that(after).isEqualTo(5);
         Treatments.delete_all();
     }
+
+    @Test
+    public void ioBForGraphIncrementalTest() {
+        val now = JoH.tsl();
+        Treatments.delete_all();
+        Treatments.create(0, 4, now - 3 * HOUR_IN_MS);
+        Treatments.create(30, 2, now - 2 * HOUR_IN_MS);
+        val before = Treatments.ioBForGraph_new(now - DAY_IN_MS);
+
+        // adding a treatment should give the same result as a full recalculation
+        val added = Treatments.create(0, 3, now - HOUR_IN_MS);
+        val incremental = Treatments.ioBForGraph_new(now - DAY_IN_MS);
+        IobSliceCache.invalidateAll();
+        val full = Treatments.ioBForGraph_new(now - DAY_IN_MS);
+        assertIobListsMatch("after add", incremental, full);
+
+        // and removing it should get us back where we started
+        Treatments.delete_by_uuid(added.uuid);
+        val retracted = Treatments.ioBForGraph_new(now - DAY_IN_MS);
+        assertIobListsMatch("after delete", retracted, before);
+        Treatments.delete_all();
+    }
+
+    @Test
+    public void ioBForGraphWithoutUuidTest() {
+        val now = JoH.tsl();
+        Treatments.delete_all();
+        // two treatments at the same time
+        val treatments = new ArrayList<Treatments>();
+        treatments.add(Treatments.create(0, 2, now - 2 * HOUR_IN_MS));
+        treatments.add(Treatments.create(0, 5, now - 2 * HOUR_IN_MS));
+        IobSliceCache.invalidateAll();
+        val withUuid = Treatments.ioBForGraph_new(now - DAY_IN_MS);
+
+        // neither should replace the other when they have no uuid
+        for (final Treatments treatment : treatments) {
+            treatment.uuid = null;
+            treatment.save();
+        }
+        IobSliceCache.invalidateAll();
+        val withoutUuid = Treatments.ioBForGraph_new(now - DAY_IN_MS);
+        assertIobListsMatch("both counted", withoutUuid, withUuid);
+        Treatments.delete_all();
+    }
+
+    private static void assertIobListsMatch(final String message, final List<Iob> a, final List<Iob> b) {
+        assertWithMessage(message + " size").that(a.size()).isEqualTo(b.size());
+        for (int i = 0; i < a.size(); i++) {
+            assertWithMessage(message + " timestamp " + i).that(a.get(i).timestamp).isEqualTo(b.get(i).timestamp);
+            assertWithMessage(message + " iob " + i).that(a.get(i).iob).isWithin(0.000001).of(b.get(i).iob);
+            assertWithMessage(message + " cob " + i).that(a.get(i).cob).isWithin(0.000001).of(b.get(i).cob);
+            assertWithMessage(message + " activity " + i).that(a.get(i).jActivity).isWithin(0.000001).of(b.get(i).jActivity);
+        }
+    }
 }
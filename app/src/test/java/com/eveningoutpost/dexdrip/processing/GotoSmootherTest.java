@@ -0,0 +1,79 @@
+package com.eveningoutpost.dexdrip.processing;
+
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import lombok.val;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class GotoSmootherTest extends RobolectricTestWithConfig {
+
+    private static final long PERIOD = 5 * Constants.MINUTE_IN_MS;
+
+    private static double[] makeValues(final int length) {
+        val random = new Random(2);
+        val values = new double[length];
+        double value = 140;
+        for (int i = 0; i < length; i++) {
+            value = Math.max(40, Math.min(400, value + random.nextGaussian() * 5));
+            values[i] = value;
+        }
+        return values;
+    }
+
+    // fresh readings as the graph loads them, oldest first with a gap part way through
+    private static List<BgReading> makeReadings(final double[] values, final int from, final int to) {
+        val readings = new ArrayList<BgReading>();
+        for (int i = from; i < to; i++) {
+            val bg = new BgReading();
+            bg.timestamp = 1600000000000L + i * PERIOD + (i >= 50 ? Constants.HOUR_IN_MS : 0);
+            bg.calculated_value = values[i];
+            readings.add(bg);
+        }
+        return readings;
+    }
+
+    private static double[] smoothed(final List<BgReading> readings) {
+        val result = new double[readings.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = readings.get(i).calculated_value;
+        }
+        return result;
+    }
+
+    @Test
+    public void recentMatchesFullTest() {
+        val values = makeValues(300);
+        val smoother = new GotoSmoother(PERIOD);
+        for (int to = 120; to <= values.length; to++) {
+            val from = Math.max(0, to - 200);
+            val incremental = smoothed(smoother.smoothBgReadings(makeReadings(values, from, to)));
+            val full = smoothed(new GotoSmoother(PERIOD).smoothBgReadings(makeReadings(values, from, to)));
+            assertWithMessage("match at " + to).that(incremental).isEqualTo(full);
+        }
+    }
+
+    @Test
+    public void reusedReadingsTest() {
+        val values = makeValues(300);
+        val smoother = new GotoSmoother(PERIOD);
+        // the same instances come back each time, already smoothed in place, with a new one added
+        val live = makeReadings(values, 50, 150);
+        smoother.smoothBgReadings(live);
+        for (int to = 151; to <= values.length; to++) {
+            live.add(makeReadings(values, to - 1, to).get(0));
+            val incremental = smoothed(smoother.smoothBgReadings(live));
+            val full = smoothed(new GotoSmoother(PERIOD).smoothBgReadings(makeReadings(values, 50, to)));
+            assertWithMessage("match at " + to).that(incremental).isEqualTo(full);
+            assertWithMessage("only recent convolved at " + to).that(smoother.getRecentConvolved()).isLessThan(live.size() / 2);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.eveningoutpost.dexdrip.processing.sgfilter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import lombok.val;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class IncrementalSGFilterTest {
+
+    private static final int DISTANCE = 5;
+
+    private static SGFilter makeFilter() {
+        val filter = new SGFilter(DISTANCE, DISTANCE);
+        filter.appendPreprocessor(new ContinuousPadder());
+        filter.appendPostprocessor(new LowPreserver(1, 70));
+        filter.appendPostprocessor(new EnvelopeProcessor(1));
+        return filter;
+    }
+
+    private static double[] makeSeries(final int length) {
+        val random = new Random(1);
+        val data = new double[length];
+        double value = 120;
+        for (int i = 0; i < length; i++) {
+            value = Math.max(40, Math.min(400, value + random.nextGaussian() * 6));
+            data[i] = (float) value;
+        }
+        return data;
+    }
+
+    // what the graph smoother did before, a fresh full smooth of the series in presentation order
+    private static double[] fullSmooth(final double[] series, final int from, final int to, final boolean newestFirst) {
+        val length = to - from;
+        val data = new double[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = series[newestFirst ? to - 1 - i : from + i];
+        }
+        val empty = new double[DISTANCE];
+        return makeFilter().smooth(data, empty, empty, 0, new double[][]{SGFilter.computeSGCoefficients(DISTANCE, DISTANCE, 2)});
+    }
+
+    @Test
+    public void coefficientCacheTest() {
+        val cached = SGFilter.getSGCoefficients(5, 5, 2);
+        assertWithMessage("same instance").that(SGFilter.getSGCoefficients(5, 5, 2)).isSameInstanceAs(cached);
+        assertWithMessage("same values").that(cached).isEqualTo(SGFilter.computeSGCoefficients(5, 5, 2));
+        assertWithMessage("different key").that(SGFilter.getSGCoefficients(5, 4, 2)).isNotSameInstanceAs(cached);
+    }
+
+    @Test
+    public void outputBufferTest() {
+        val data = makeSeries(100);
+        val empty = new double[DISTANCE];
+        val coefficients = new double[][]{SGFilter.getSGCoefficients(DISTANCE, DISTANCE, 2)};
+        val filter = makeFilter();
+        val out = new double[100];
+        assertWithMessage("buffer used").that(filter.smooth(data, empty, empty, 0, coefficients, out)).isSameInstanceAs(out);
+        assertWithMessage("same as allocating").that(out).isEqualTo(makeFilter().smooth(data, empty, empty, 0, coefficients));
+        assertWithMessage("wrong size allocates").that(filter.smooth(data, empty, empty, 0, coefficients, new double[5])).hasLength(100);
+    }
+
+    @Test
+    public void incrementalMatchesFullTest() {
+        for (val newestFirst : new boolean[]{true, false}) {
+            val series = makeSeries(400);
+            // dip in to the lows so the low preserver has something to do
+            for (int i = 150; i < 160; i++) series[i] = 55;
+            val incremental = new IncrementalSGFilter(makeFilter(), SGFilter.getSGCoefficients(DISTANCE, DISTANCE, 2), newestFirst);
+            val window = 144;
+            double[] out = null;
+            int from = 0;
+            for (int to = 1; to <= series.length; to++) {
+                incremental.append(to, series[to - 1]);
+                if (to - from > window) {
+                    incremental.removeOldest(1);
+                    from++;
+                }
+                out = incremental.smooth(out);
+                assertWithMessage("match at " + to + " newest first " + newestFirst).that(out).isEqualTo(fullSmooth(series, from, to, newestFirst));
+                if (to > window) {
+                    assertWithMessage("only the ends convolved").that(incremental.getLastConvolved()).isAtMost(4 * DISTANCE + 2);
+                }
+            }
+            assertWithMessage("oldest timestamp").that(incremental.getTimestamp(newestFirst ? incremental.size() - 1 : 0)).isEqualTo(from + 1L);
+            assertWithMessage("newest value").that(incremental.getValue(newestFirst ? 0 : incremental.size() - 1)).isEqualTo(series[series.length - 1]);
+        }
+    }
+
+    @Test
+    public void refreshCostTest() {
+        for (val days : new int[]{1, 14}) {
+            val length = days * 288;
+            val series = makeSeries(length + 100);
+            val empty = new double[DISTANCE];
+            val rounds = 100;
+
+            val filter = makeFilter();
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                // as before, coefficients solved and arrays allocated on every refresh
+                val coefficients = SGFilter.computeSGCoefficients(DISTANCE, DISTANCE, 2);
+                val data = new double[length];
+                for (int i = 0; i < length; i++) {
+                    data[i] = series[r + length - i];
+                }
+                filter.smooth(data, empty, empty, 0, new double[][]{coefficients});
+            }
+            val full = System.nanoTime() - start;
+
+            val incremental = new IncrementalSGFilter(makeFilter(), SGFilter.getSGCoefficients(DISTANCE, DISTANCE, 2), true);
+            for (int i = 0; i < length; i++) {
+                incremental.append(i, series[i]);
+            }
+            double[] out = incremental.smooth(null);
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                incremental.removeOldest(1);
+                incremental.append(length + r, series[length + r]);
+                out = incremental.smooth(out);
+            }
+            val partial = System.nanoTime() - start;
+
+            // only windows touching the removed and appended ends are convolved again
+            assertWithMessage("convolved " + days).that(incremental.getLastConvolved()).isAtMost(4 * (2 * DISTANCE + 1));
+            assertWithMessage("incremental faster " + days).that(partial).isLessThan(full);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.eveningoutpost.dexdrip.stats;
+
+import com.activeandroid.ActiveAndroid;
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class StatsEngineTest extends RobolectricTestWithConfig {
+
+    private static final int DAYS = 6;
+    private static final double LOW = 70;
+    private static final double HIGH = 170;
+
+    private final List<BgReadingStats> inserted = new ArrayList<>();
+    private long now;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        BgReading.deleteALL();
+        StatsEngine.invalidate();
+        now = JoH.tsl();
+        ActiveAndroid.beginTransaction();
+        try {
+            for (long timestamp = now - DAYS * Constants.DAY_IN_MS; timestamp <= now; timestamp += 5 * Constants.MINUTE_IN_MS) {
+                final int i = inserted.size();
+                final BgReading reading = new BgReading();
+                reading.timestamp = timestamp;
+                reading.calculated_value = i % 50 == 0 ? 38 : 40 + (i * 37) % 300; // some below the cutoff
+                reading.filtered_calculated_value = i % 2 == 0 ? 0 : reading.calculated_value + 1;
+                reading.raw_data = reading.calculated_value;
+                reading.uuid = UUID.randomUUID().toString();
+                reading.save();
+                if (reading.calculated_value > 38) {
+                    final BgReadingStats stats = new BgReadingStats();
+                    stats.timestamp = timestamp;
+                    stats.calculated_value = reading.calculated_value;
+                    inserted.add(stats);
+                } else {
+                    inserted.add(null);
+                }
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+        inserted.removeAll(Collections.singleton(null));
+    }
+
+    @After
+    public void tearDown() {
+        BgReading.deleteALL();
+        StatsEngine.invalidate();
+    }
+
+    private List<Double> valuesBetween(final long from, final long to) {
+        final List<Double> values = new ArrayList<>();
+        for (final BgReadingStats reading : inserted) {
+            if (reading.timestamp >= from && reading.timestamp <= to) {
+                values.add(reading.calculated_value);
+            }
+        }
+        return values;
+    }
+
+    private static long startOfDay(final long timestamp) {
+        final Calendar date = new GregorianCalendar();
+        date.setTimeInMillis(timestamp);
+        date.set(Calendar.HOUR_OF_DAY, 0);
+        date.set(Calendar.MINUTE, 0);
+        date.set(Calendar.SECOND, 0);
+        date.set(Calendar.MILLISECOND, 0);
+        return date.getTimeInMillis();
+    }
+
+    @Test
+    public void matchesDirectCalculationTest() {
+        final long from = now - 3 * Constants.DAY_IN_MS - 7 * Constants.HOUR_IN_MS;
+        final StatsEngine.Summary summary = StatsEngine.calculate(from, now, LOW, HIGH);
+        final List<Double> values = valuesBetween(from, now);
+
+        int in = 0, below = 0, above = 0;
+        double sum = 0, gviTotal = 0;
+        for (int i = 0; i < values.size(); i++) {
+            final double value = values.get(i);
+            if (value < LOW) below++;
+            else if (value > HIGH) above++;
+            else in++;
+            sum += value;
+            if (i > 0) gviTotal += Math.sqrt(25 + Math.pow(value - values.get(i - 1), 2));
+        }
+        final double mean = sum / values.size();
+        double variance = 0;
+        for (final double value : values) {
+            variance += (value - mean) * (value - mean);
+        }
+
+        assertWithMessage("total").that(summary.getTotal()).isEqualTo(values.size());
+        assertWithMessage("in").that(summary.getIn()).isEqualTo(in);
+        assertWithMessage("below").that(summary.getBelow()).isEqualTo(below);
+        assertWithMessage("above").that(summary.getAbove()).isEqualTo(above);
+        assertWithMessage("mean").that(summary.getMean()).isWithin(0.0001).of(mean);
+        assertWithMessage("sd").that(summary.getStdDev()).isWithin(0.0001).of(Math.sqrt(variance / (values.size() - 1)));
+        assertWithMessage("population sd").that(summary.getPopulationStdDev()).isWithin(0.0001).of(Math.sqrt(variance / values.size()));
+        final double ideal = Math.sqrt(Math.pow(values.size() * 5, 2) + Math.pow(values.get(values.size() - 1) - values.get(0), 2));
+        assertWithMessage("gvi").that(summary.getGVI()).isWithin(0.0001).of(gviTotal / ideal);
+
+        Collections.sort(values);
+        for (final double quantile : new double[]{0.1, 0.25, 0.5, 0.75, 0.9}) {
+            assertWithMessage("percentile " + quantile).that(summary.getPercentile(quantile)).isEqualTo(values.get((int) (values.size() * quantile)));
+        }
+
+        // the percentile chart view of the same data
+        final StatsEngine.Summary slotted = StatsEngine.calculate(from, now, LOW, HIGH, PercentileView.NO_TIMESLOTS);
+        int slotTotal = 0;
+        for (int slot = 0; slot < slotted.getSlots(); slot++) {
+            assertWithMessage("slot order " + slot).that(slotted.getSlotPercentile(slot, 0.1)).isAtMost(slotted.getSlotPercentile(slot, 0.9));
+            if (slotted.getSlotPercentile(slot, 0.5) > 0) slotTotal++;
+        }
+        assertWithMessage("all slots populated").that(slotTotal).isEqualTo(PercentileView.NO_TIMESLOTS);
+
+        final List<BgReadingStats> filtered = StatsEngine.readings(from, now, true);
+        assertWithMessage("readings").that(filtered).hasSize(summary.getTotal());
+        for (final BgReadingStats reading : filtered) {
+            assertWithMessage("filtered fallback").that(reading.calculated_value).isGreaterThan(38.0);
+        }
+    }
+
+    @Test
+    public void extendingRangeOnlyReadsNewDaysTest() {
+        final long before = StatsEngine.rowsLoaded();
+        StatsEngine.calculate(now - 2 * Constants.DAY_IN_MS, now, LOW, HIGH);
+        final long firstRows = StatsEngine.rowsLoaded();
+        assertWithMessage("first rows").that(firstRows - before).isEqualTo((long) valuesBetween(startOfDay(now - 2 * Constants.DAY_IN_MS), now).size());
+
+        // same range again reads nothing
+        StatsEngine.calculate(now - 2 * Constants.DAY_IN_MS, now, LOW, HIGH);
+        assertWithMessage("repeat rows").that(StatsEngine.rowsLoaded()).isEqualTo(firstRows);
+
+        final long from = now - 5 * Constants.DAY_IN_MS;
+        final StatsEngine.Summary summary = StatsEngine.calculate(from, now, LOW, HIGH);
+        assertWithMessage("extended total").that(summary.getTotal()).isEqualTo(valuesBetween(from, now).size());
+        assertWithMessage("only new days read").that(StatsEngine.rowsLoaded() - firstRows)
+                .isEqualTo((long) valuesBetween(startOfDay(from), startOfDay(now - 2 * Constants.DAY_IN_MS) - 1).size());
+
+        // bulk deletes drop the cache
+        BgReading.deleteALL();
+        assertWithMessage("after delete").that(StatsEngine.calculate(from, now, LOW, HIGH).getTotal()).isEqualTo(0);
+    }
+
+    @Test
+    public void cachedRepeatTest() {
+        final long from = now - DAYS * Constants.DAY_IN_MS;
+        long cold = Long.MAX_VALUE;
+        long warm = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            StatsEngine.invalidate();
+            final long rows = StatsEngine.rowsLoaded();
+            long start = System.nanoTime();
+            final StatsEngine.Summary first = StatsEngine.calculate(from, now, LOW, HIGH, PercentileView.NO_TIMESLOTS);
+            cold = Math.min(cold, System.nanoTime() - start);
+            assertWithMessage("cold rows " + round).that(StatsEngine.rowsLoaded() - rows).isEqualTo((long) inserted.size());
+
+            start = System.nanoTime();
+            final StatsEngine.Summary second = StatsEngine.calculate(from, now, LOW, HIGH, PercentileView.NO_TIMESLOTS);
+            warm = Math.min(warm, System.nanoTime() - start);
+            assertWithMessage("cached rows " + round).that(StatsEngine.rowsLoaded() - rows).isEqualTo((long) inserted.size());
+            assertWithMessage("same total " + round).that(second.getTotal()).isEqualTo(first.getTotal());
+        }
+        assertWithMessage("cached no slower than cold").that(warm).isAtMost(cold);
+    }
+}
@@ -6,6 +6,7 @@ import com.eveningoutpost.dexdrip.models.APStatus;
 import com.eveningoutpost.dexdrip.models.JoH;
 import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
 import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+import com.eveningoutpost.dexdrip.utilitymodels.PersistentStore;
 import com.eveningoutpost.dexdrip.profileeditor.BasalProfile;
 import com.eveningoutpost.dexdrip.profileeditor.BasalRepository;
 
@@ -282,4 +283,41 @@ public class UploadChunkTest extends RobolectricTestWithConfig {
         assertWithMessage("segment matches expected head/tail slice").that(json).isEqualTo("[{\"deliveryType\":\"automated\",\"duration\":1165333,\"rate\":1.0,\"scheduleName\":\"AAPS\",\"clockDriftOffset\":0,\"conversionOffset\":0,\"deviceTime\":\"2022-04-29T05:43:01\",\"time\":\"2022-04-29T05:43:01.0000000Z\",\"timezoneOffset\":0,\"type\":\"basal\",\"origin\":{\"id\":\"fb89faeb-8b51-359b-9935-63b7d33f0dfc\"}},{\"deliveryType\":\"automated\",\"duration\":299560,\"rate\":0.0,\"scheduleName\":\"AAPS\",\"clockDriftOffset\":0,\"conversionOffset\":0,\"deviceTime\":\"2022-04-29T06:02:26\",\"time\":\"2022-04-29T06:02:26.3330000Z\",\"timezoneOffset\":0,\"type\":\"basal\",\"origin\":{\"id\":\"08e1715a-485e-3151-a34a-9f57318149c8\"}},{\"deliveryType\":\"automated\",\"duration\":601248,\"rate\":1.0,\"scheduleName\":\"AAPS\",\"clockDriftOffset\":0,\"conversionOffset\":0,\"deviceTime\":\"2022-04-29T06:07:25\",\"time\":\"2022-04-29T06:07:25.8930000Z\",\"timezoneOffset\":0,\"type\":\"basal\",\"origin\":{\"id\":\"d754c3bb-fea8-3992-b9e9-3c6d9fdbf475\"}},{\"deliveryType\":\"automated\",\"duration\":1499750,\"rate\":2.5,\"scheduleName\":\"AAPS\",\"clockDriftOffset\":0,\"conversionOffset\":0,\"deviceTime\":\"2022-04-29T06:17:27\",\"time\":\"2022-04-29T06:17:27.1410000Z\",\"timezoneOffset\":0,\"type\":\"basal\",\"origin\":{\"id\":\"d9f5fb5a-bd7e-30a1-99f0-2e66c9a10527\"}},{\"deliveryType\":\"automated\",\"duration\":299434,\"rate\":1.7,\"scheduleName\":\"AAPS\",\"clockDriftOffset\":0,\"conversionOffset\":0,\"deviceTime\":\"2022-04-29T06:42:26\",\"time\":\"2022-04-29T06:42:26.8910000Z\",\"timezoneOffset\":0,\"type\":\"basal\",\"origin\":{\"id\":\"ba1b40eb-bba9-35dd-84fd-f7afe5286bc0\"}},{\"deliveryType\":\"automated\",\"duration\":214675,\"rate\":2.2,\"scheduleName\":\"AAPS\",\"clockDriftOffset\":0,\"conversionOffset\":0,\"deviceTime\":\"2022-04-29T06:47:26\",\"time\":\"2022-04-29T06:47:26.3250000Z\",\"timezoneOffset\":0,\"type\":\"basal\",\"origin\":{\"id\":\"2227b260-664f-3e29-8893-db4532cdb0e3\"}}]");
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void adaptiveWindowTest() {
+        val day = Constants.DAY_IN_MS;
+        assertWithMessage("slow halves").that(UploadChunk.adaptWindow(day * 2, day * 2, 20000, 100000)).isEqualTo(day);
+        assertWithMessage("fast doubles").that(UploadChunk.adaptWindow(day, day, 2000, 100000)).isEqualTo(day * 2);
+        assertWithMessage("large payload shrinks").that(UploadChunk.adaptWindow(day * 4, day * 4, 2000, 1024 * 1024)).isEqualTo(day * 2);
+        assertWithMessage("short slice no growth").that(UploadChunk.adaptWindow(day, Constants.HOUR_IN_MS, 100, 1000)).isEqualTo(day);
+        assertWithMessage("minimum").that(UploadChunk.adaptWindow(Constants.HOUR_IN_MS * 6, Constants.HOUR_IN_MS * 6, 60000, 100000)).isEqualTo(Constants.HOUR_IN_MS * 6);
+        assertWithMessage("maximum").that(UploadChunk.adaptWindow(day * 7, day * 7, 100, 1000)).isEqualTo(day * 7);
+    }
+
+    @Test
+    public void inFlightResumeTest() {
+        val start = JoH.tsl() - Constants.DAY_IN_MS * 30;
+        val end = start + Constants.HOUR_IN_MS * 3;
+        UploadChunk.markInFlight(new UploadChunk.Slice(start, end, "[]", 0));
+        assertWithMessage("same bounds resent").that(UploadChunk.prepare(start).end).isEqualTo(end);
+        assertWithMessage("different start not affected").that(UploadChunk.prepare(start + 1).end).isGreaterThan(end);
+
+        UploadChunk.markFailed(new UploadChunk.Slice(start, end, "[]", 0));
+        assertWithMessage("window shrinks after failure").that(UploadChunk.prepare(start).end).isEqualTo(start + Constants.HOUR_IN_MS * 6);
+        assertWithMessage("more to come").that(UploadChunk.hasMoreAfter(start)).isTrue();
+    }
+
+    @Test
+    public void preparedSliceFitsTest() {
+        val start = JoH.tsl() - Constants.DAY_IN_MS * 30;
+        PersistentStore.setLong(UploadChunk.WINDOW_SIZE_PREF, Constants.DAY_IN_MS);
+        val slice = UploadChunk.prepare(start);
+        assertWithMessage("fits when unchanged").that(UploadChunk.fits(slice, start)).isTrue();
+        assertWithMessage("other start").that(UploadChunk.fits(slice, start + 1)).isFalse();
+
+        UploadChunk.markFailed(slice);
+        assertWithMessage("window shrunk since prepared").that(UploadChunk.fits(slice, start)).isFalse();
+        assertWithMessage("fresh slice fits").that(UploadChunk.fits(UploadChunk.prepare(start), start)).isTrue();
+    }
+}
@@ -0,0 +1,79 @@
+package com.eveningoutpost.dexdrip.utilitymodels;
+
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.JoH;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import lombok.val;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class NewDataDispatcherTest extends RobolectricTestWithConfig {
+
+    @Test
+    public void slowSinkDoesNotBlockTest() throws InterruptedException {
+        val started = new CountDownLatch(1);
+        val release = new CountDownLatch(1);
+        val fast = Collections.synchronizedList(new ArrayList<Integer>());
+        val dispatcher = new NewDataDispatcher<Integer>("Test")
+                .register("slow", 1, 50, i -> {
+                    started.countDown();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        //
+                    }
+                })
+                .register("fast", 10, 1000, fast::add);
+
+        val start = JoH.tsl();
+        dispatcher.publish(0);
+        assertWithMessage("slow started").that(started.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i < 5; i++) {
+            dispatcher.publish(i);
+        }
+        assertWithMessage("publish returns straight away").that(JoH.msSince(start)).isLessThan(1000L);
+
+        // fast sink gets everything in order while the slow one is stuck
+        val until = JoH.tsl() + 2000;
+        while (fast.size() < 5 && JoH.tsl() < until) {
+            JoH.threadSleep(10);
+        }
+        assertWithMessage("fast received").that(fast).containsExactly(0, 1, 2, 3, 4).inOrder();
+        release.countDown();
+        assertWithMessage("idle").that(dispatcher.awaitIdle(5000)).isTrue();
+
+        val slow = dispatcher.getLane("slow");
+        // first item was running, of the rest only the newest waited
+        assertWithMessage("slow dispatched").that(slow.dispatched).isEqualTo(2L);
+        assertWithMessage("slow dropped").that(slow.dropped).isEqualTo(3L);
+        assertWithMessage("slow over budget").that(slow.overBudget).isAtLeast(1L);
+        assertWithMessage("fast dropped").that(dispatcher.getLane("fast").dropped).isEqualTo(0L);
+    }
+
+    @Test
+    public void failureIsolatedTest() {
+        val received = Collections.synchronizedList(new ArrayList<String>());
+        val dispatcher = new NewDataDispatcher<String>("Test")
+                .register("broken", 5, 1000, s -> {
+                    throw new IllegalStateException("broken sink");
+                })
+                .register("working", 5, 1000, received::add);
+        dispatcher.publish("one");
+        dispatcher.publish("two");
+        assertWithMessage("idle").that(dispatcher.awaitIdle(5000)).isTrue();
+
+        assertWithMessage("working received").that(received).containsExactly("one", "two").inOrder();
+        assertWithMessage("failures").that(dispatcher.getLane("broken").failures).isEqualTo(2L);
+        val status = dispatcher.megaStatus();
+        assertWithMessage("status rows").that(status).hasSize(3);
+        assertWithMessage("error shown").that(status.get(1).value).contains("broken sink");
+        assertWithMessage("working row").that(status.get(2).name).isEqualTo("Test working");
+    }
+}
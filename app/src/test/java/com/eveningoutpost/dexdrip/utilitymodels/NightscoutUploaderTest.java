@@ -0,0 +1,151 @@
+package com.eveningoutpost.dexdrip.utilitymodels;
+
+import com.activeandroid.Model;
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.BloodTest;
+import com.eveningoutpost.dexdrip.models.Calibration;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.xdrip;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class NightscoutUploaderTest extends RobolectricTestWithConfig {
+
+    private static final String SITE_A = "https://secret-a@site-a.example.com/api/v1/";
+    private static final String SITE_B = "https://secret-b@site-b.example.com/api/v1/";
+    private static final int BATCH = 10;
+
+    // stands in for Nightscout sites, each accepting a number of entries chunks before failing
+    private static class FakeSites implements Interceptor {
+        final Map<String, Integer> chunksAllowed = new HashMap<>();
+        final Map<String, Integer> chunksAccepted = new HashMap<>();
+
+        @Override
+        public Response intercept(final Chain chain) throws IOException {
+            final Request request = chain.request();
+            final String host = request.url().host();
+            final Response.Builder builder = new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1);
+            if (request.method().equals("POST") && request.url().encodedPath().endsWith("/entries")) {
+                if (request.body() != null) {
+                    request.body().writeTo(new Buffer());
+                }
+                final int accepted = chunksAccepted.containsKey(host) ? chunksAccepted.get(host) : 0;
+                final Integer allowed = chunksAllowed.get(host);
+                if (allowed != null && accepted >= allowed) {
+                    return builder.code(500).message("Server Error").body(ResponseBody.create(null, "")).build();
+                }
+                chunksAccepted.put(host, accepted + 1);
+            }
+            return builder.code(200).message("OK").body(ResponseBody.create(MediaType.parse("application/json"), "{}")).build();
+        }
+    }
+
+    private final List<Model> acknowledged = new ArrayList<>();
+    private int acknowledgements = 0;
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        BgReading.deleteALL();
+        Pref.setBoolean("cloud_storage_api_enable", true);
+        Pref.setString("nightscout_upload_batch_size", Integer.toString(BATCH));
+    }
+
+    @After
+    public void tearDown() {
+        BgReading.deleteALL();
+        Pref.setBoolean("cloud_storage_api_enable", false);
+        Pref.setString("cloud_storage_api_base", "");
+        Pref.setString("nightscout_upload_batch_size", "100");
+    }
+
+    private static List<BgReading> addReadings(final int count) {
+        final List<BgReading> readings = new ArrayList<>();
+        final long now = JoH.tsl();
+        for (int i = 0; i < count; i++) {
+            final BgReading reading = new BgReading();
+            reading.timestamp = now - i * Constants.MINUTE_IN_MS * 5;
+            reading.calculated_value = 100 + i;
+            reading.raw_data = 100 + i;
+            reading.uuid = "nightscout-uploader-test-" + i;
+            reading.save();
+            readings.add(reading);
+        }
+        return readings;
+    }
+
+    private boolean upload(final FakeSites sites, final List<BgReading> readings, final String... urls) {
+        Pref.setString("cloud_storage_api_base", String.join(" ", urls));
+        final NightscoutUploader uploader = new NightscoutUploader(xdrip.getAppContext(), sites);
+        return uploader.uploadRest(readings, Collections.<BloodTest>emptyList(), Collections.<Calibration>emptyList(), records -> {
+            acknowledgements++;
+            acknowledged.addAll(records);
+        });
+    }
+
+    @Test
+    public void singleSiteChunksTest() {
+        final List<BgReading> readings = addReadings(45);
+        final FakeSites sites = new FakeSites();
+        sites.chunksAllowed.put("site-a.example.com", 2);
+
+        assertWithMessage("failed").that(upload(sites, readings, SITE_A)).isFalse();
+        assertWithMessage("acknowledged per chunk").that(acknowledgements).isEqualTo(2);
+        assertWithMessage("accepted chunks").that(acknowledged).containsExactlyElementsIn(readings.subList(0, 2 * BATCH)).inOrder();
+    }
+
+    @Test
+    public void multiSitePartialTest() {
+        final List<BgReading> readings = addReadings(45);
+        final FakeSites sites = new FakeSites();
+        sites.chunksAllowed.put("site-b.example.com", 3);
+
+        // site a takes everything, site b fails part way so only what both took is acknowledged
+        assertWithMessage("some success").that(upload(sites, readings, SITE_A, SITE_B)).isTrue();
+        assertWithMessage("site a chunks").that(sites.chunksAccepted.get("site-a.example.com")).isEqualTo(5);
+        assertWithMessage("site b chunks").that(sites.chunksAccepted.get("site-b.example.com")).isEqualTo(3);
+        assertWithMessage("acknowledged once").that(acknowledgements).isEqualTo(1);
+        assertWithMessage("accepted by both").that(acknowledged).containsExactlyElementsIn(readings.subList(0, 3 * BATCH)).inOrder();
+    }
+
+    @Test
+    public void multiSiteFirstFailsTest() {
+        final List<BgReading> readings = addReadings(25);
+        final FakeSites sites = new FakeSites();
+        sites.chunksAllowed.put("site-a.example.com", 1);
+
+        upload(sites, readings, SITE_A, SITE_B);
+        assertWithMessage("site b chunks").that(sites.chunksAccepted.get("site-b.example.com")).isEqualTo(3);
+        assertWithMessage("accepted by both").that(acknowledged).containsExactlyElementsIn(readings.subList(0, BATCH)).inOrder();
+    }
+
+    @Test
+    public void multiSiteAllAcceptedTest() {
+        final List<BgReading> readings = addReadings(25);
+        assertWithMessage("success").that(upload(new FakeSites(), readings, SITE_A, SITE_B)).isTrue();
+        assertWithMessage("acknowledged once").that(acknowledgements).isEqualTo(1);
+        assertWithMessage("all acknowledged").that(acknowledged).containsExactlyElementsIn(readings).inOrder();
+    }
+}
@@ -0,0 +1,137 @@
+package com.eveningoutpost.dexdrip.utilitymodels;
+
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.xdrip;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class PersistentStoreTest extends RobolectricTestWithConfig {
+
+    @Test
+    public void longsAndDoublesTest() {
+        PersistentStore.removeItem("test-long");
+        assertWithMessage("empty long").that(PersistentStore.getLong("test-long")).isEqualTo(0);
+        PersistentStore.setLong("test-long", 1234567890123L);
+        assertWithMessage("set long").that(PersistentStore.getLong("test-long")).isEqualTo(1234567890123L);
+        assertWithMessage("increment").that(PersistentStore.incrementLong("test-long")).isEqualTo(1234567890124L);
+        PersistentStore.commit();
+        assertWithMessage("long after commit").that(PersistentStore.getLong("test-long")).isEqualTo(1234567890124L);
+        PersistentStore.removeItem("test-long");
+        assertWithMessage("removed long").that(PersistentStore.getLong("test-long")).isEqualTo(0);
+
+        PersistentStore.setDouble("test-double", 123.456);
+        assertWithMessage("set double").that(PersistentStore.getDouble("test-double")).isEqualTo(123.456);
+    }
+
+    @Test
+    public void stringsAndBooleansTest() {
+        PersistentStore.removeItem("test-string");
+        assertWithMessage("empty string").that(PersistentStore.getString("test-string")).isEmpty();
+        assertWithMessage("default string").that(PersistentStore.getString("test-string", "def")).isEqualTo("def");
+        PersistentStore.setString("test-string", "hello");
+        PersistentStore.appendString("test-string", "world", " ");
+        PersistentStore.commit();
+        assertWithMessage("appended string").that(PersistentStore.getString("test-string")).isEqualTo("hello world");
+
+        PersistentStore.removeItem("test-bool");
+        assertWithMessage("default boolean").that(PersistentStore.getBoolean("test-bool", true)).isTrue();
+        PersistentStore.setBoolean("test-bool", false);
+        assertWithMessage("set boolean").that(PersistentStore.getBoolean("test-bool", true)).isFalse();
+    }
+
+    @Test
+    public void bytesTest() {
+        PersistentStore.removeItem("test-bytes");
+        assertWithMessage("empty bytes").that(PersistentStore.getBytes("test-bytes")).hasLength(0);
+        PersistentStore.setBytes("test-bytes", new byte[]{1, 2, 3});
+        PersistentStore.commit();
+        PersistentStore.appendBytes("test-bytes", new byte[]{4, 5});
+        PersistentStore.appendBytes("test-bytes", new byte[]{6});
+        assertWithMessage("appended bytes").that(PersistentStore.getBytes("test-bytes")).isEqualTo(new byte[]{1, 2, 3, 4, 5, 6});
+        PersistentStore.commit();
+        assertWithMessage("bytes after commit").that(PersistentStore.getBytes("test-bytes")).isEqualTo(new byte[]{1, 2, 3, 4, 5, 6});
+        PersistentStore.removeItem("test-bytes");
+        assertWithMessage("removed bytes").that(PersistentStore.getBytes("test-bytes")).hasLength(0);
+    }
+
+    @Test
+    public void legacyBytesMigrationTest() {
+        PersistentStore.removeItem("test-legacy-bytes");
+        PersistentStore.commit();
+        // previous versions stored byte arrays as base64 strings
+        PersistentStore.setString("test-legacy-bytes", "AQID");
+        PersistentStore.commit();
+        assertWithMessage("legacy bytes").that(PersistentStore.getBytes("test-legacy-bytes")).isEqualTo(new byte[]{1, 2, 3});
+        PersistentStore.appendBytes("test-legacy-bytes", new byte[]{4});
+        assertWithMessage("legacy appended").that(PersistentStore.getBytes("test-legacy-bytes")).isEqualTo(new byte[]{1, 2, 3, 4});
+        PersistentStore.removeItem("test-legacy-bytes");
+    }
+
+    @Test
+    public void stringClearsBytesTest() {
+        PersistentStore.removeItem("test-clear-bytes");
+        PersistentStore.setBytes("test-clear-bytes", new byte[]{1, 2, 3});
+        PersistentStore.commit();
+        assertWithMessage("stored bytes").that(PersistentStore.getBytes("test-clear-bytes")).isEqualTo(new byte[]{1, 2, 3});
+
+        // queues are cleared this way, the blob must not survive it
+        PersistentStore.setString("test-clear-bytes", "");
+        assertWithMessage("cleared before flush").that(PersistentStore.getBytes("test-clear-bytes")).hasLength(0);
+        PersistentStore.commit();
+        assertWithMessage("cleared after flush").that(PersistentStore.getBytes("test-clear-bytes")).hasLength(0);
+        PersistentStore.appendBytes("test-clear-bytes", new byte[]{7});
+        PersistentStore.commit();
+        assertWithMessage("appended after clear").that(PersistentStore.getBytes("test-clear-bytes")).isEqualTo(new byte[]{7});
+
+        PersistentStore.setString("test-clear-bytes", "AQID");
+        PersistentStore.commit();
+        assertWithMessage("replaced by string").that(PersistentStore.getBytes("test-clear-bytes")).isEqualTo(new byte[]{1, 2, 3});
+        PersistentStore.removeItem("test-clear-bytes");
+    }
+
+    @Test
+    public void bytesClearStringTest() {
+        PersistentStore.removeItem("test-clear-string");
+        PersistentStore.setString("test-clear-string", "hello");
+        PersistentStore.commit();
+        PersistentStore.setBytes("test-clear-string", new byte[]{9});
+        assertWithMessage("string dropped").that(PersistentStore.getString("test-clear-string", "def")).isEqualTo("def");
+        PersistentStore.commit();
+        assertWithMessage("string dropped after flush").that(PersistentStore.getString("test-clear-string", "def")).isEqualTo("def");
+        assertWithMessage("bytes kept").that(PersistentStore.getBytes("test-clear-string")).isEqualTo(new byte[]{9});
+        PersistentStore.removeItem("test-clear-string");
+    }
+
+    @Test
+    public void cleanupOldBlobFilesTest() throws IOException {
+        // left by an earlier run, never loaded by this one
+        final File directory = PersistentStore.getBlobDirectory(xdrip.getAppContext());
+        directory.mkdirs();
+        final File old = new File(directory, JoH.bytesToHex("test-cleanup-old-1".getBytes(StandardCharsets.UTF_8)));
+        final File other = new File(directory, JoH.bytesToHex("test-keep-1".getBytes(StandardCharsets.UTF_8)));
+        try (final FileOutputStream out = new FileOutputStream(old)) {
+            out.write(new byte[]{1, 2});
+        }
+        try (final FileOutputStream out = new FileOutputStream(other)) {
+            out.write(new byte[]{3});
+        }
+        PersistentStore.setBytes("test-cleanup-old-2", new byte[]{4});
+
+        PersistentStore.cleanupOld("test-cleanup-old");
+        PersistentStore.commit();
+        assertWithMessage("unloaded file deleted").that(old.exists()).isFalse();
+        assertWithMessage("loaded blob removed").that(PersistentStore.getBytes("test-cleanup-old-2")).hasLength(0);
+        assertWithMessage("other prefix kept").that(other.exists()).isTrue();
+        PersistentStore.removeItem("test-keep-1");
+        PersistentStore.commit();
+    }
+
+}
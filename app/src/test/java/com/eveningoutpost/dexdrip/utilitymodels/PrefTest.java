@@ -1,10 +1,14 @@
 package com.eveningoutpost.dexdrip.utilitymodels;
 
+import android.content.SharedPreferences;
+
 import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.JoH;
 
 import org.junit.Test;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -31,4 +35,95 @@ public class PrefTest extends RobolectricTestWithConfig {
 
     }
 
+    @Test
+    public void test_PrefCacheInvalidation() {
+        final SharedPreferences prefs = Pref.getInstance();
+
+        Pref.setString("cached-integer", "45");
+        assertThat("initial", Pref.getStringToInt("cached-integer", 10), is(45));
+        assertThat("cached", Pref.getStringToInt("cached-integer", 10), is(45));
+
+        // written around Pref, picked up by the change listener
+        prefs.edit().putString("cached-integer", "50").apply();
+        assertThat("listener invalidates", Pref.getStringToInt("cached-integer", 10), is(50));
+        assertThat("as string", Pref.getString("cached-integer", "10"), is("50"));
+
+        prefs.edit().putBoolean("cached-boolean", true).apply();
+        assertThat("boolean", Pref.getBooleanDefaultFalse("cached-boolean"), is(true));
+        Pref.toggleBoolean("cached-boolean");
+        assertThat("boolean toggled", Pref.getBooleanDefaultFalse("cached-boolean"), is(false));
+
+        Pref.removeItem("cached-integer");
+        assertThat("removed defaults", Pref.getStringToInt("cached-integer", 10), is(10));
+        assertThat("other default", Pref.getStringToInt("cached-integer", 20), is(20));
+
+        Pref.setString("cached-double", "5.5");
+        assertThat("double", Pref.getStringToDouble("cached-double", 1), is(5.5));
+        Pref.setLong("cached-long", 123L);
+        assertThat("long", Pref.getLong("cached-long", 0), is(123L));
+        Pref.setInt("cached-int", 7);
+        assertThat("int", Pref.getInt("cached-int", 0), is(7));
+    }
+
+    @Test
+    public void test_PrefBackgroundWriter() throws InterruptedException {
+        final SharedPreferences prefs = Pref.getInstance();
+
+        Pref.setString("background-integer", "60");
+        assertThat("initial", Pref.getStringToInt("background-integer", 10), is(60));
+
+        // a background writer using its own editor doesn't wait for the main looper
+        final Thread writer = new Thread(() -> {
+            prefs.edit().putString("background-integer", "70").apply();
+            Pref.invalidate("background-integer");
+        });
+        writer.start();
+        writer.join();
+        assertThat("invalidated by writer", Pref.getStringToInt("background-integer", 10), is(70));
+    }
+
+    @Test
+    public void test_PrefLookupTiming() {
+        final SharedPreferences prefs = Pref.getInstance();
+        Pref.setString("nsfollow_lag", "0");
+        Pref.setString("highValue", "170");
+        Pref.setBoolean("engineering_mode", false);
+        Pref.setString("units", "mgdl");
+
+        final int rounds = 200000;
+        long sink = 0;
+        long direct = Long.MAX_VALUE;
+        long cached = Long.MAX_VALUE;
+
+        // first pass is warm up, best of the rest is compared
+        for (int pass = 0; pass < 4; pass++) {
+            // what every lookup used to cost
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                sink += Integer.parseInt(prefs.getString("nsfollow_lag", "0"));
+                sink += (long) JoH.tolerantParseDouble(prefs.getString("highValue", "170"), 170);
+                sink += prefs.getBoolean("engineering_mode", false) ? 1 : 0;
+                sink += prefs.getString("units", "mgdl").length();
+            }
+            final long directPass = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                sink += Pref.getStringToInt("nsfollow_lag", 0);
+                sink += (long) Pref.getStringToDouble("highValue", 170);
+                sink += Pref.getBooleanDefaultFalse("engineering_mode") ? 1 : 0;
+                sink += Pref.getString("units", "mgdl").length();
+            }
+            final long cachedPass = System.nanoTime() - start;
+
+            if (pass > 0) {
+                direct = Math.min(direct, directPass);
+                cached = Math.min(cached, cachedPass);
+            }
+        }
+
+        assertThat("same values", sink, is(8L * rounds * (170 + 4)));
+        assertThat("cached lookups no slower than direct", cached, lessThanOrEqualTo(direct));
+    }
+
 }
@@ -0,0 +1,89 @@
+package com.eveningoutpost.dexdrip.utilitymodels;
+
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.JoH;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class UploaderQueueTest extends RobolectricTestWithConfig {
+
+    private static final String TYPE = BgReading.class.getSimpleName();
+
+    @Before
+    public void setUp() {
+        super.setUp();
+        Pref.setBoolean("cloud_storage_api_enable", true);
+        Pref.setBoolean("wear_sync", true);
+        UploaderQueue.emptyQueue();
+        BgReading.deleteALL();
+    }
+
+    @After
+    public void tearDown() {
+        Pref.setBoolean("cloud_storage_api_enable", false);
+        Pref.setBoolean("wear_sync", false);
+        UploaderQueue.emptyQueue();
+        BgReading.deleteALL();
+    }
+
+    private static List<BgReading> addReadings(final int count) {
+        final List<BgReading> readings = new ArrayList<>();
+        final long now = JoH.tsl();
+        for (int i = 0; i < count; i++) {
+            final BgReading reading = new BgReading();
+            reading.timestamp = now - i * Constants.MINUTE_IN_MS * 5;
+            reading.calculated_value = 100 + i;
+            reading.raw_data = 100 + i;
+            reading.uuid = "uploader-queue-test-" + i;
+            reading.save();
+            UploaderQueue.newEntry("insert", reading);
+            readings.add(reading);
+        }
+        return readings;
+    }
+
+    @Test
+    public void countsAndBulkCompletionTest() {
+        addReadings(10);
+        assertWithMessage("rest pending").that(UploaderQueue.getQueueSizeByType(TYPE, UploaderQueue.NIGHTSCOUT_RESTAPI, false)).isEqualTo(10);
+        assertWithMessage("wear pending").that(UploaderQueue.getQueueSizeByType(TYPE, UploaderQueue.WATCH_WEARAPI, false)).isEqualTo(10);
+
+        addReadings(1);
+        final List<UploaderQueue> pending = UploaderQueue.getPendingbyType(TYPE, UploaderQueue.NIGHTSCOUT_RESTAPI);
+        assertWithMessage("pending rows").that(pending).hasSize(11);
+        assertWithMessage("counted new entry").that(UploaderQueue.getQueueSizeByType(TYPE, UploaderQueue.NIGHTSCOUT_RESTAPI, false)).isEqualTo(11);
+
+        UploaderQueue.completedAll(pending.subList(0, 4), UploaderQueue.NIGHTSCOUT_RESTAPI);
+        assertWithMessage("rest pending after completion").that(UploaderQueue.getQueueSizeByType(TYPE, UploaderQueue.NIGHTSCOUT_RESTAPI, false)).isEqualTo(7);
+        assertWithMessage("rest completed").that(UploaderQueue.getQueueSizeByType(TYPE, UploaderQueue.NIGHTSCOUT_RESTAPI, true)).isEqualTo(4);
+        assertWithMessage("wear unaffected").that(UploaderQueue.getQueueSizeByType(TYPE, UploaderQueue.WATCH_WEARAPI, false)).isEqualTo(11);
+        assertWithMessage("database agrees").that(UploaderQueue.getPendingbyType(TYPE, UploaderQueue.NIGHTSCOUT_RESTAPI)).hasSize(7);
+
+        // completing again changes nothing
+        UploaderQueue.completedAll(pending.subList(0, 4), UploaderQueue.NIGHTSCOUT_RESTAPI);
+        assertWithMessage("idempotent").that(UploaderQueue.getQueueSizeByType(TYPE, UploaderQueue.NIGHTSCOUT_RESTAPI, false)).isEqualTo(7);
+
+        pending.get(5).completed(UploaderQueue.NIGHTSCOUT_RESTAPI);
+        assertWithMessage("single completion").that(UploaderQueue.getQueueSizeByType(TYPE, UploaderQueue.NIGHTSCOUT_RESTAPI, false)).isEqualTo(6);
+    }
+
+    @Test
+    public void referencedModelsTest() {
+        final List<BgReading> readings = addReadings(5);
+        final List<UploaderQueue> pending = UploaderQueue.getPendingbyType(TYPE, UploaderQueue.NIGHTSCOUT_RESTAPI);
+        final HashMap<Long, BgReading> resolved = UploaderQueue.getReferencedModels(BgReading.class, pending);
+        assertWithMessage("all resolved").that(resolved).hasSize(5);
+        for (final BgReading reading : readings) {
+            assertWithMessage("resolved " + reading.uuid).that(resolved.get(reading.getId()).uuid).isEqualTo(reading.uuid);
+        }
+    }
+}
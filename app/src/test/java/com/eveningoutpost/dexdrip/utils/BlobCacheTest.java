@@ -0,0 +1,41 @@
+package com.eveningoutpost.dexdrip.utils;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class BlobCacheTest {
+
+    @Test
+    public void keyedEntriesTest() {
+        final BlobCache cache = new BlobCache(3);
+        cache.set(new byte[]{1}, 100, 50, "#80000000", 1L);
+        cache.set(new byte[]{2}, 200, 50, "#80000000", 1L);
+
+        assertWithMessage("first size").that((byte[]) cache.get(100, 50, "#80000000", 1L)).isEqualTo(new byte[]{1});
+        assertWithMessage("second size").that((byte[]) cache.get(200, 50, "#80000000", 1L)).isEqualTo(new byte[]{2});
+        assertWithMessage("other colour").that(cache.get(100, 50, "#ff000000", 1L)).isNull();
+        assertWithMessage("new data version").that(cache.get(100, 50, "#80000000", 2L)).isNull();
+        assertWithMessage("hits").that(cache.getHits()).isEqualTo(2L);
+        assertWithMessage("misses").that(cache.getMisses()).isEqualTo(2L);
+        assertWithMessage("hit rate").that(cache.getHitRate()).isEqualTo(50);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedTest() {
+        final BlobCache cache = new BlobCache(2);
+        cache.set("a", 1);
+        cache.set("b", 2);
+        cache.get(1); // a is now the most recent
+        cache.set("c", 3);
+
+        assertWithMessage("size").that(cache.size()).isEqualTo(2);
+        assertWithMessage("evictions").that(cache.getEvictions()).isEqualTo(1L);
+        assertWithMessage("recent kept").that(cache.get(1)).isEqualTo("a");
+        assertWithMessage("eldest evicted").that(cache.get(2)).isNull();
+        assertWithMessage("newest kept").that(cache.get(3)).isEqualTo("c");
+
+        cache.clear();
+        assertWithMessage("cleared").that(cache.get(1)).isNull();
+    }
+}
@@ -0,0 +1,70 @@
+package com.eveningoutpost.dexdrip.utils;
+
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.GlucoseData;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class LibreTrendStoreTest extends RobolectricTestWithConfig {
+
+    @Test
+    public void listViewTest() {
+        final LibreTrendStore store = new LibreTrendStore(LibreTrendUtil.MAX_POINTS);
+        assertWithMessage("size").that(store.size()).isEqualTo(LibreTrendUtil.MAX_POINTS);
+        assertWithMessage("empty point").that(store.get(100).rawSensorValue).isEqualTo(0L);
+        assertWithMessage("empty sensor time").that(store.get(100).getSensorTime()).isEqualTo(0L);
+
+        assertWithMessage("first set").that(store.setIfEmpty(100, 1230, 800, GlucoseData.DataSource.FRAM)).isTrue();
+        assertWithMessage("second ignored").that(store.setIfEmpty(100, 999, 0, GlucoseData.DataSource.BLE)).isFalse();
+        assertWithMessage("null source").that(store.setIfEmpty(101, 1000, 0, null)).isTrue();
+
+        final LibreTrendPoint point = store.get(100);
+        assertWithMessage("raw").that(point.rawSensorValue).isEqualTo(1230L);
+        assertWithMessage("sensor time").that(point.getSensorTime()).isEqualTo(100L);
+        assertWithMessage("flags").that(point.flags).isEqualTo(800);
+        assertWithMessage("source").that(point.source).isEqualTo(GlucoseData.DataSource.FRAM);
+        assertWithMessage("not error").that(point.isError()).isFalse();
+        assertWithMessage("no source").that(store.get(101).source).isEqualTo(GlucoseData.DataSource.NOT_SET);
+
+        point.glucoseLevel = 123;
+        store.set(100, point);
+        assertWithMessage("written back").that(store.get(100).glucoseLevel).isEqualTo(123);
+    }
+
+    @Test
+    public void persistsPerSensorTest() {
+        final LibreTrendStore store = new LibreTrendStore(LibreTrendUtil.MAX_POINTS);
+        store.open("0M0001ABC");
+        store.setIfEmpty(5000, 1500, 0x700, GlucoseData.DataSource.BLE);
+        final LibreTrendLatest latest = new LibreTrendLatest();
+        latest.timestamp = 1600000000000L;
+        latest.id = 5000;
+        latest.setFactorData(1500, 150.5);
+        store.saveLatest(latest);
+
+        // as after a process restart
+        final LibreTrendStore restored = new LibreTrendStore(LibreTrendUtil.MAX_POINTS);
+        restored.open("0M0001ABC");
+        assertWithMessage("raw restored").that(restored.getRawValue(5000)).isEqualTo(1500);
+        assertWithMessage("flags restored").that(restored.get(5000).flags).isEqualTo(0x700);
+        assertWithMessage("source restored").that(restored.get(5000).source).isEqualTo(GlucoseData.DataSource.BLE);
+        final LibreTrendLatest restoredLatest = new LibreTrendLatest();
+        assertWithMessage("latest restored").that(restored.loadLatest(restoredLatest)).isTrue();
+        assertWithMessage("timestamp").that(restoredLatest.timestamp).isEqualTo(latest.timestamp);
+        assertWithMessage("id").that(restoredLatest.id).isEqualTo(5000);
+        assertWithMessage("factor").that(restoredLatest.getFactor()).isWithin(0.00001).of(latest.getFactor());
+        assertWithMessage("serial").that(restoredLatest.SensorSN).isEqualTo("0M0001ABC");
+
+        // a different sensor starts empty
+        restored.open("0M0002DEF");
+        assertWithMessage("new sensor empty").that(restored.getRawValue(5000)).isEqualTo(0);
+        assertWithMessage("new sensor no latest").that(restored.loadLatest(new LibreTrendLatest())).isFalse();
+
+        // and the previous sensor's file was removed
+        final LibreTrendStore previous = new LibreTrendStore(LibreTrendUtil.MAX_POINTS);
+        previous.open("0M0001ABC");
+        assertWithMessage("old sensor removed").that(previous.getRawValue(5000)).isEqualTo(0);
+    }
+}
@@ -0,0 +1,74 @@
+package com.eveningoutpost.dexdrip.utils;
+
+import android.database.DatabaseUtils;
+
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.Cache;
+import com.activeandroid.util.SQLiteUtils;
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.models.JoH;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import lombok.val;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class RetentionEngineTest extends RobolectricTestWithConfig {
+
+    private static final long NOW = JoH.tsl();
+    private static final long CUTOFF = NOW - Constants.DAY_IN_MS * 10;
+
+    private static void insert(final int count, final long timestamp, final int severity) {
+        ActiveAndroid.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                SQLiteUtils.execSql("INSERT INTO UserErrors (shortError, message, severity, timestamp) VALUES (?, ?, ?, ?)",
+                        new Object[]{"test", "retention test message " + i, severity, timestamp - i});
+            }
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+    }
+
+    private static long count(final String where) {
+        return DatabaseUtils.longForQuery(Cache.openDatabase(), "SELECT count(*) FROM UserErrors WHERE shortError = 'test' AND " + where, null);
+    }
+
+    @Test
+    public void batchedPruneTest() {
+        insert(5000, CUTOFF - 1, 1);
+        insert(100, NOW, 1);
+
+        val result = RetentionEngine.prune(new RetentionEngine.Rule("UserErrors", "timestamp", CUTOFF), 1000);
+        assertWithMessage("rows").that(result.rows).isEqualTo(5000L);
+        assertWithMessage("batches").that(result.batches).isEqualTo(6);
+        assertWithMessage("no error").that(result.error).isNull();
+        assertWithMessage("old gone").that(count("timestamp < " + CUTOFF)).isEqualTo(0L);
+        assertWithMessage("new kept").that(count("timestamp >= " + CUTOFF)).isEqualTo(100L);
+        assertWithMessage("space measured").that(result.bytes).isAtLeast(0L);
+    }
+
+    @Test
+    public void clauseAndMissingTableTest() {
+        insert(50, CUTOFF - 1, 1);
+        insert(50, CUTOFF - 1, 5);
+        val ran = new boolean[1];
+        val rules = new ArrayList<RetentionEngine.Rule>();
+        rules.add(new RetentionEngine.Rule("UserErrors", "timestamp", CUTOFF).where("severity < 3").after(() -> ran[0] = true));
+        rules.add(new RetentionEngine.Rule("NoSuchTable", "timestamp", CUTOFF));
+
+        val results = RetentionEngine.run(rules, true);
+        assertWithMessage("results").that(results).hasSize(2);
+        assertWithMessage("low severity removed").that(results.get(0).rows).isEqualTo(50L);
+        assertWithMessage("after ran").that(ran[0]).isTrue();
+        assertWithMessage("high severity kept").that(count("severity = 5")).isEqualTo(50L);
+        assertWithMessage("missing table reported").that(results.get(1).error).isNotNull();
+        assertWithMessage("status").that(RetentionEngine.last_run).startsWith("Removed 50 rows");
+        assertWithMessage("vacuum status").that(RetentionEngine.last_run).contains("vacuum");
+    }
+}
@@ -0,0 +1,165 @@
+package com.eveningoutpost.dexdrip.wearintegration;
+
+import com.eveningoutpost.dexdrip.RobolectricTestWithConfig;
+import com.eveningoutpost.dexdrip.messages.WearSyncCodec;
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.utilitymodels.Constants;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.Expose;
+import com.google.gson.internal.bind.DateTypeAdapter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static com.eveningoutpost.dexdrip.messages.WearSyncCodec.*;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+public class WearSyncBatchesTest extends RobolectricTestWithConfig {
+
+    private static List<BgReading> makeReadings(final int count) {
+        final List<BgReading> readings = new ArrayList<>(count);
+        final long start = 1600000000000L;
+        for (int i = 0; i < count; i++) {
+            final BgReading bg = new BgReading();
+            bg.timestamp = start + i * 5 * Constants.MINUTE_IN_MS + (i % 7) * 1000;
+            bg.calculated_value = 100 + 40 * Math.sin(i / 20d);
+            bg.filtered_calculated_value = bg.calculated_value - 1.5;
+            bg.raw_data = bg.calculated_value * 1000 + 12345.678;
+            bg.filtered_data = bg.raw_data - 500;
+            bg.age_adjusted_raw_value = bg.raw_data * 1.01;
+            bg.raw_calculated = bg.calculated_value + 3;
+            bg.calculated_value_slope = i % 50 == 0 ? Double.NaN : Math.cos(i / 20d) * 2 / Constants.MINUTE_IN_MS;
+            bg.time_since_sensor_started = i * 5 * Constants.MINUTE_IN_MS;
+            bg.calibration_flag = i % 100 == 0;
+            bg.hide_slope = i % 3 == 0;
+            bg.a = 0.0001234;
+            bg.b = 0.987;
+            bg.c = -12.5;
+            bg.ra = i < count / 2 ? 0 : 1.5e-9;
+            bg.rb = 1.0;
+            bg.rc = 0;
+            bg.uuid = UUID.randomUUID().toString();
+            bg.source_info = i % 2 == 0 ? "G6 Native" : null;
+            bg.noise = i % 4 == 0 ? null : Integer.toString(i % 5);
+            bg.dg_mgdl = i % 3 == 0 ? 0 : bg.calculated_value + 0.25;
+            bg.dg_slope = i % 3 == 0 ? 0 : bg.calculated_value_slope;
+            bg.dg_delta_name = i % 3 == 0 ? null : "Flat";
+            bg.calibration_uuid = i % 10 == 0 ? null : "calibration-" + (i / 10);
+            bg.sensor_uuid = UUID.nameUUIDFromBytes(new byte[]{1}).toString();
+            readings.add(bg);
+        }
+        return readings;
+    }
+
+    private static Gson gson() {
+        return new GsonBuilder()
+                .excludeFieldsWithoutExposeAnnotation()
+                .registerTypeAdapter(Date.class, new DateTypeAdapter())
+                .serializeSpecialFloatingPointValues()
+                .create();
+    }
+
+    // every field the json path carried comes through, fixed point values within their scale
+    @Test
+    public void bgReadingRoundTripTest() {
+        final Gson gson = gson();
+        final List<BgReading> readings = makeReadings(500);
+        final List<BgReading> decoded = WearSyncBatches.toBgReadings(WearSyncCodec.fromBgReadings(readings));
+        assertWithMessage("decoded").that(decoded).isNotNull();
+        assertWithMessage("count").that(decoded).hasSize(readings.size());
+        int checked = 0;
+        for (int i = 0; i < readings.size(); i++) {
+            final BgReading json = gson.fromJson(readings.get(i).toS(), BgReading.class);
+            final BgReading compact = decoded.get(i);
+            for (final Field field : BgReading.class.getDeclaredFields()) {
+                if (!field.isAnnotationPresent(Expose.class)) continue;
+                field.setAccessible(true);
+                final String name = field.getName() + " " + i;
+                try {
+                    final Object expected = field.get(json);
+                    final Object actual = field.get(compact);
+                    if (expected instanceof Double && !((Double) expected).isNaN()) {
+                        final double tolerance = field.getName().endsWith("slope") ? 1e-10 : 0.0005;
+                        assertWithMessage(name).that((Double) actual).isWithin(tolerance).of((Double) expected);
+                    } else {
+                        assertWithMessage(name).that(actual).isEqualTo(expected);
+                    }
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+                checked++;
+            }
+        }
+        assertWithMessage("fields checked").that(checked).isEqualTo(readings.size() * 26);
+    }
+
+    @Test
+    public void version1BatchTest() {
+        // written before the display glucose columns and extra text sections
+        final WearSyncCodec.Writer writer = new WearSyncCodec.Writer(TYPE_BGREADING, 15);
+        final long[] values = new long[15];
+        values[BG_CALCULATED] = fixed(123);
+        writer.add(1000, values, null, "G6 Native");
+        final List<BgReading> decoded = WearSyncBatches.toBgReadings(writer.toBytes());
+        assertWithMessage("decoded").that(decoded).hasSize(1);
+        assertWithMessage("value").that(decoded.get(0).calculated_value).isEqualTo(123d);
+        assertWithMessage("source").that(decoded.get(0).source_info).isEqualTo("G6 Native");
+        assertWithMessage("no display glucose").that(decoded.get(0).dg_mgdl).isEqualTo(0d);
+        assertWithMessage("no noise").that(decoded.get(0).noise).isNull();
+    }
+
+    // the phone decodes with the same codec source the watch encodes with
+    @Test
+    public void codecSharedWithWatchTest() throws IOException {
+        final String path = "src/main/java/com/eveningoutpost/dexdrip/messages/WearSyncCodec.java";
+        File app = new File(path);
+        File wear = new File("../wear/" + path);
+        if (!app.exists()) {
+            app = new File("app/" + path);
+            wear = new File("wear/" + path);
+        }
+        assertWithMessage("watch codec " + wear.getAbsolutePath()).that(wear.exists()).isTrue();
+        assertWithMessage("same codec").that(new String(Files.readAllBytes(wear.toPath()), StandardCharsets.UTF_8))
+                .isEqualTo(new String(Files.readAllBytes(app.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void codecEdgeCasesTest() {
+        final byte[] empty = new WearSyncCodec.Writer(WearSyncCodec.TYPE_STEPS, WearSyncCodec.STEPS_COLUMNS).toBytes();
+        assertWithMessage("empty steps").that(WearSyncBatches.toStepCounters(empty)).isEmpty();
+        assertWithMessage("wrong type").that(WearSyncBatches.toHeartRates(empty)).isNull();
+        assertWithMessage("garbage").that(WearSyncCodec.Reader.parse(new byte[]{(byte) 0xff, 0x01, 0x02})).isNull();
+
+        final WearSyncCodec.Writer writer = new WearSyncCodec.Writer(WearSyncCodec.TYPE_TREATMENT, WearSyncCodec.TREATMENT_COLUMNS);
+        writer.add(2000, new long[0], "not-a-standard-uuid", "carbs 20");
+        writer.add(1000, new long[0], null, "null");
+        final WearSyncCodec.Reader reader = WearSyncBatches.treatments(writer.toBytes());
+        assertWithMessage("treatments").that(reader.size()).isEqualTo(2);
+        assertWithMessage("backwards timestamp").that(reader.timestamp(1)).isEqualTo(1000L);
+        assertWithMessage("text uuid").that(WearSyncBatches.treatmentRecord(reader, 0)).isEqualTo("not-a-standard-uuid uuid carbs 20");
+        assertWithMessage("null uuid").that(WearSyncBatches.treatmentRecord(reader, 1)).isEqualTo("null uuid null");
+    }
+
+    @Test
+    public void smallerThanJsonTest() {
+        for (final int count : new int[]{12, 288, 2016}) {
+            final List<BgReading> readings = makeReadings(count);
+            int jsonBytes = 0;
+            for (final BgReading bg : readings) {
+                jsonBytes += bg.toS().getBytes(StandardCharsets.UTF_8).length;
+            }
+            final byte[] compact = WearSyncCodec.fromBgReadings(readings);
+            assertWithMessage("smaller than json " + count).that(compact.length * 3).isLessThan(jsonBytes);
+        }
+    }
+}
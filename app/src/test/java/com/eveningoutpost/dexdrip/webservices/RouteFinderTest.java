@@ -345,6 +345,32 @@ public class RouteFinderTest extends RobolectricTestWithConfig {
 
     }
 
+    @Test
+    public void test_WebServiceSgvResponseCache() {
+        final RouteFinder routeFinder = new RouteFinder();
+        final long time = System.currentTimeMillis();
+        BgReading.bgReadingInsertFromG5(120, time - 300000);
+
+        final WebResponse first = routeFinder.handleRoute("sgv.json?count=2");
+        validResponse("first sgv", first);
+        assertWithMessage("first sgv has etag").that(first.etag).isNotNull();
+
+        final long hits = WebServiceSgv.getResponseHits();
+        final WebResponse second = routeFinder.handleRoute("sgv.json?count=2");
+        assertWithMessage("second sgv served from cache").that(WebServiceSgv.getResponseHits()).isEqualTo(hits + 1);
+        assertWithMessage("second sgv same bytes").that(second.bytes).isEqualTo(first.bytes);
+        assertWithMessage("second sgv same etag").that(second.etag).isEqualTo(first.etag);
+
+        final WebResponse uncached = routeFinder.handleRoute("sgv.json?count=2&collector=1");
+        assertWithMessage("status request not cached").that(uncached.etag).isNull();
+
+        BgReading.bgReadingInsertFromG5(125, time);
+        final WebResponse third = routeFinder.handleRoute("sgv.json?count=2");
+        validResponse("third sgv", third);
+        assertWithMessage("new reading changes etag").that(third.etag).isNotEqualTo(first.etag);
+        assertWithMessage("new reading changes bytes").that(third.bytes).isNotEqualTo(first.bytes);
+    }
+
     private JSONObject buildExpectedBgReadingJSON(BgReading reading, boolean brief, boolean unitsHint) {
         final String collector_device = DexCollectionType.getBestCollectorHardwareName();
         JSONObject item = new JSONObject();
@@ -61,6 +61,7 @@ import com.eveningoutpost.dexdrip.stats.StatsResult;
 import com.eveningoutpost.dexdrip.utils.CheckBridgeBattery;
 import com.eveningoutpost.dexdrip.utils.DexCollectionType;
 import com.eveningoutpost.dexdrip.utils.VersionFixer;
+import com.eveningoutpost.dexdrip.wearintegration.WearSyncBatches;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
@@ -627,14 +628,19 @@ public class ListenerService extends WearableListenerService implements GoogleAp
             if (!graph_bgs.isEmpty() && graph_bgs.size() > min_count) {
                 //Log.d(TAG, "getWearBgData count = " + graph_bgs.size());
                 final DataMap entries = dataMap(last_bg);
-                final ArrayList<DataMap> dataMaps = new ArrayList<>(graph_bgs.size());
-                for (BgReading bg : graph_bgs) {
-                    dataMaps.add(dataMap(bg));
-                    last_send_success = bg.timestamp;
-                    //Log.d(TAG, "getWearBgData bg getId:" + bg.getId() + " raw_data:" + bg.raw_data + " filtered_data:" + bg.filtered_data + " timestamp:" + bg.timestamp + " uuid:" + bg.uuid);
+                if (WearSyncBatches.enabled()) {
+                    entries.putByteArray(WearSyncBatches.BATCH, WearSyncBatches.fromBgReadings(graph_bgs));
+                    last_send_success = graph_bgs.get(graph_bgs.size() - 1).timestamp;
+                } else {
+                    final ArrayList<DataMap> dataMaps = new ArrayList<>(graph_bgs.size());
+                    for (BgReading bg : graph_bgs) {
+                        dataMaps.add(dataMap(bg));
+                        last_send_success = bg.timestamp;
+                        //Log.d(TAG, "getWearBgData bg getId:" + bg.getId() + " raw_data:" + bg.raw_data + " filtered_data:" + bg.filtered_data + " timestamp:" + bg.timestamp + " uuid:" + bg.uuid);
+                    }
+                    entries.putDataMapArrayList("entries", dataMaps);
                 }
                 entries.putLong("time", new Date().getTime()); // MOST IMPORTANT LINE FOR TIMESTAMP
-                entries.putDataMapArrayList("entries", dataMaps);
                 Log.i(TAG, "getWearBgReadingData SYNCED BGs up to " + JoH.dateTimeText(last_send_success) + " count = " + graph_bgs.size());
                 return entries;
             } else
@@ -733,14 +739,19 @@ public class ListenerService extends WearableListenerService implements GoogleAp
             if (!logs.isEmpty() && logs.size() > min_count) {
                 //Log.d(TAG, "getWearStepSensorData count = " + logs.size());
                 DataMap entries = dataMap(last_log);
-                final ArrayList<DataMap> dataMaps = new ArrayList<>(logs.size());
-                for (PebbleMovement log : logs) {
-                    dataMaps.add(dataMap(log));
-                    last_send_success = (long)log.timestamp;
-                    //Log.d(TAG, "getWearStepSensorData set last_send_sucess:" + JoH.dateTimeText(last_send_success) + " pw.metric: " + log.metric + " pw.timestamp: " + JoH.dateTimeText(log.timestamp));
+                if (WearSyncBatches.enabled()) {
+                    entries.putByteArray(WearSyncBatches.BATCH, WearSyncBatches.fromSteps(logs));
+                    last_send_success = logs.get(logs.size() - 1).timestamp;
+                } else {
+                    final ArrayList<DataMap> dataMaps = new ArrayList<>(logs.size());
+                    for (PebbleMovement log : logs) {
+                        dataMaps.add(dataMap(log));
+                        last_send_success = (long)log.timestamp;
+                        //Log.d(TAG, "getWearStepSensorData set last_send_sucess:" + JoH.dateTimeText(last_send_success) + " pw.metric: " + log.metric + " pw.timestamp: " + JoH.dateTimeText(log.timestamp));
+                    }
+                    entries.putDataMapArrayList("entries", dataMaps);
                 }
                 entries.putLong("time", new Date().getTime()); // MOST IMPORTANT LINE FOR TIMESTAMP
-                entries.putDataMapArrayList("entries", dataMaps);
                 //Log.d(TAG, "getWearStepSensorData  entries:" + entries);
                 Log.i(TAG, "getWearStepSensorData SYNCED steps up to " + JoH.dateTimeText(last_send_success) + " count = " + logs.size());
                 return entries;
@@ -767,14 +778,19 @@ public class ListenerService extends WearableListenerService implements GoogleAp
             if (!logs.isEmpty() && logs.size() > min_count) {
                 //Log.d(TAG, "getWearLogData count = " + logs.size());
                 DataMap entries = dataMap(last_log);
-                final ArrayList<DataMap> dataMaps = new ArrayList<>(logs.size());
-                for (Treatments log : logs) {
-                    dataMaps.add(dataMap(log));
-                    last_send_success = (long)log.systimestamp;
-                    //Log.d(TAG, "getWearTreatmentsData set last_send_sucess:" + JoH.dateTimeText(last_send_sucess) + " Log:" + log.toString());
+                if (WearSyncBatches.enabled()) {
+                    entries.putByteArray(WearSyncBatches.BATCH, WearSyncBatches.fromTreatments(logs));
+                    last_send_success = logs.get(logs.size() - 1).systimestamp;
+                } else {
+                    final ArrayList<DataMap> dataMaps = new ArrayList<>(logs.size());
+                    for (Treatments log : logs) {
+                        dataMaps.add(dataMap(log));
+                        last_send_success = (long)log.systimestamp;
+                        //Log.d(TAG, "getWearTreatmentsData set last_send_sucess:" + JoH.dateTimeText(last_send_sucess) + " Log:" + log.toString());
+                    }
+                    entries.putDataMapArrayList("entries", dataMaps);
                 }
                 entries.putLong("time", new Date().getTime()); // MOST IMPORTANT LINE FOR TIMESTAMP
-                entries.putDataMapArrayList("entries", dataMaps);
                 Log.i(TAG, "getWearTreatmentsData SYNCED treatments up to " + JoH.dateTimeText(last_send_success) + " count = " + logs.size());
                 return entries;
             } else
@@ -1751,6 +1767,8 @@ public class ListenerService extends WearableListenerService implements GoogleAp
             prefs.putInt("bridge_battery", dataMap.getInt("bridge_battery", -1));
             prefs.putBoolean("bridge_battery_alerts", dataMap.getBoolean("bridge_battery_alerts", false));
             prefs.putString("bridge_battery_alert_level", dataMap.getString("bridge_battery_alert_level", "30"));
+            // phones which predate the compact sync format do not send this so we keep using json
+            prefs.putInt(WearSyncBatches.PREF_VERSION, dataMap.getInt(WearSyncBatches.PREF_VERSION, 0));
 
             if ((DexCollectionType.getDexCollectionType().equals(DexCollectionType.DexcomG5) ||
                     DexCollectionType.getDexCollectionType().equals(DexCollectionType.DexcomShare)) && enable_wearG5) {///TODO confirm wear battery should be used as bridge
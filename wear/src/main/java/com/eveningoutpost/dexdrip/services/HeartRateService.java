@@ -23,6 +23,7 @@ import com.eveningoutpost.dexdrip.utilitymodels.Constants;
 import com.eveningoutpost.dexdrip.utilitymodels.Inevitable;
 import com.eveningoutpost.dexdrip.utilitymodels.PersistentStore;
 import com.eveningoutpost.dexdrip.utilitymodels.Pref;
+import com.eveningoutpost.dexdrip.wearintegration.WearSyncBatches;
 import com.eveningoutpost.dexdrip.xdrip;
 import com.google.android.gms.wearable.DataMap;
 
@@ -183,13 +184,18 @@ public class HeartRateService extends IntentService {
                 List<HeartRate> logs = HeartRate.latestForGraph(count, last_send_time);
                 if (!logs.isEmpty() && logs.size() > min_count) {
                     DataMap entries = dataMap(last_log);
-                    final ArrayList<DataMap> dataMaps = new ArrayList<>(logs.size());
-                    for (HeartRate log : logs) {
-                        dataMaps.add(dataMap(log));
-                        last_send_success = (long) log.timestamp;
+                    if (WearSyncBatches.enabled()) {
+                        entries.putByteArray(WearSyncBatches.BATCH, WearSyncBatches.fromHeartRates(logs));
+                        last_send_success = logs.get(logs.size() - 1).timestamp;
+                    } else {
+                        final ArrayList<DataMap> dataMaps = new ArrayList<>(logs.size());
+                        for (HeartRate log : logs) {
+                            dataMaps.add(dataMap(log));
+                            last_send_success = (long) log.timestamp;
+                        }
+                        entries.putDataMapArrayList("entries", dataMaps);
                     }
                     entries.putLong("time", JoH.tsl()); // MOST IMPORTANT LINE FOR TIMESTAMP
-                    entries.putDataMapArrayList("entries", dataMaps);
                     UserError.Log.i(TAG, "getWearHeartSensorData SYNCED up to " + JoH.dateTimeText(last_send_success) + " count = " + logs.size());
                     return entries;
                 } else
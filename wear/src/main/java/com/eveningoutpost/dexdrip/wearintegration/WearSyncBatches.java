@@ -0,0 +1,55 @@
+package com.eveningoutpost.dexdrip.wearintegration;
+
+import com.eveningoutpost.dexdrip.messages.WearSyncCodec;
+import com.eveningoutpost.dexdrip.models.BgReading;
+import com.eveningoutpost.dexdrip.models.HeartRate;
+import com.eveningoutpost.dexdrip.models.PebbleMovement;
+import com.eveningoutpost.dexdrip.models.Treatments;
+import com.eveningoutpost.dexdrip.utilitymodels.Pref;
+
+import java.util.List;
+
+import static com.eveningoutpost.dexdrip.messages.WearSyncCodec.*;
+
+/**
+ * Encodes watch data for the phone in the compact wear sync format instead of a json
+ * string per entry, when the phone has told us it understands it.
+ */
+public class WearSyncBatches {
+
+    public static final String BATCH = "batch";
+    public static final String PREF_VERSION = "wear_sync_batch_version";
+
+    public static boolean enabled() {
+        return Pref.getInt(PREF_VERSION, 0) >= WearSyncCodec.VERSION;
+    }
+
+    public static byte[] fromBgReadings(final List<BgReading> readings) {
+        return WearSyncCodec.fromBgReadings(readings);
+    }
+
+    public static byte[] fromHeartRates(final List<HeartRate> rates) {
+        final WearSyncCodec.Writer writer = new WearSyncCodec.Writer(TYPE_HEART, HEART_COLUMNS);
+        for (final HeartRate hr : rates) {
+            writer.add(hr.timestamp, new long[]{hr.bpm, hr.accuracy}, null, null);
+        }
+        return writer.toBytes();
+    }
+
+    public static byte[] fromSteps(final List<PebbleMovement> steps) {
+        final WearSyncCodec.Writer writer = new WearSyncCodec.Writer(TYPE_STEPS, STEPS_COLUMNS);
+        for (final PebbleMovement pm : steps) {
+            writer.add(pm.timestamp, new long[]{pm.metric}, null, null);
+        }
+        return writer.toBytes();
+    }
+
+    // the phone rebuilds the "uuid notes" voice record text from these
+    public static byte[] fromTreatments(final List<Treatments> treatments) {
+        final WearSyncCodec.Writer writer = new WearSyncCodec.Writer(TYPE_TREATMENT, TREATMENT_COLUMNS);
+        for (final Treatments log : treatments) {
+            writer.add(log.systimestamp, new long[0], log.uuid, String.valueOf(log.notes));
+        }
+        return writer.toBytes();
+    }
+}